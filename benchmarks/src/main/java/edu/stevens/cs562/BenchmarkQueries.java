@@ -0,0 +1,63 @@
+package edu.stevens.cs562;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared fixtures for the benchmarks: the query files under src/main/resources/Esql
+ * (loaded from the processor jar) and generated sales snapshots.
+ *
+ * PhiQuery1 uses the old numbered-variable format that the generator does not
+ * support, so it is not benchmarked.
+ */
+public class BenchmarkQueries {
+
+    private static final Map<String, Path> SNAPSHOTS = new ConcurrentHashMap<>();
+
+    public static String read(String name) throws IOException {
+        try (InputStream in = BenchmarkQueries.class.getClassLoader().getResourceAsStream("Esql/" + name)) {
+            if (in == null) {
+                throw new IOException("No such query: Esql/" + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    public static PhiOperator phi(String name) throws IOException {
+        String raw = read(name);
+        EMFQuery query = name.startsWith("Phi") ? new PhiInputParser().parse(raw) : new EMFParser().parse(raw);
+        return PhiConverter.convert(query);
+    }
+
+    public static String generate(String name) throws IOException {
+        return new QueryGenerator(phi(name), SalesGenerator.SCHEMA.columnTypes()).generate();
+    }
+
+    /**
+     * Directory holding a sales snapshot with the given size and domains, generated
+     * once per JVM with a fixed seed.
+     */
+    public static Path snapshot(long rows, int customers, int products) {
+        String key = rows + "-" + customers + "-" + products;
+        return SNAPSHOTS.computeIfAbsent(key, k -> {
+            try {
+                Path dir = Files.createTempDirectory("emf-bench-" + k);
+                dir.toFile().deleteOnExit();
+                Path file = dir.resolve("sales" + ColumnarSnapshot.FILE_EXTENSION);
+                new SalesGenerator(rows, customers, products, 1.0,
+                    LocalDate.of(2016, 1, 1), LocalDate.of(2020, 12, 31), false, 562)
+                    .writeColumnar(file, Runtime.getRuntime().availableProcessors());
+                file.toFile().deleteOnExit();
+                return dir;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,32 @@
+package edu.stevens.cs562;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory compilation of the generated source (javac plus class loading).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+
+    @Param({"EsqlQuery1", "EsqlQuery2", "EsqlQuery3", "EsqlQuery4", "EsqlQuery5", "EsqlQuery6", "EsqlQuery7"})
+    public String query;
+
+    String source;
+
+    @Setup
+    public void setup() throws Exception {
+        source = BenchmarkQueries.generate(query);
+    }
+
+    @Benchmark
+    public QueryCompiler.CompiledQuery compile() {
+        return QueryCompiler.compile(source);
+    }
+}
@@ -0,0 +1,314 @@
+package edu.stevens.cs562;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Macro benchmark: every EsqlQueryN against its hand-written SqlQueryN.sql on
+ * generated sales tables of increasing size, in an embedded H2 database.
+ *
+ * For every size the table is generated once (SalesGenerator, fixed seed), loaded
+ * into an in-memory H2 database in PostgreSQL mode and written as a columnar
+ * snapshot. Each query then runs three ways:
+ *
+ *   sql           the SQL script in H2 (views, then the final SELECT)
+ *   emf-jdbc      the generated EMF query reading the same H2 table over JDBC
+ *   emf-snapshot  the generated EMF query reading the columnar snapshot
+ *
+ * Times are the median of --reps runs after one warm-up run and include producing
+ * the result rows. Peak memory is the highest used heap seen during a run, minus
+ * the used heap before it. EMF scans are the n+1 passes over the table; for SQL the
+ * report lists the number of table references in the script instead. The outputs
+ * of all three must agree row for row, in any order: numbers are compared rounded
+ * to 4 decimals and SQL NULL only matches a null EMF value, never 0. Every row
+ * counts, so a group that one side returns and the other does not is a mismatch.
+ *
+ * Usage:
+ *   java -cp benchmarks/target/benchmarks.jar edu.stevens.cs562.EmfVsSqlBenchmark \
+ *       [--sizes=10000,50000,100000] [--queries=1,2,3,4,5,6] [--reps=3] [--timeout=600] [--report=emf-vs-sql.md]
+ */
+public class EmfVsSqlBenchmark {
+
+    private static final String H2_URL = "jdbc:h2:mem:emfbench;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;"
+        + "NON_KEYWORDS=DAY,MONTH,YEAR,DATE,VALUE;DB_CLOSE_DELAY=-1";
+
+    static class Measurement {
+        long millis = -1;
+        long peakBytes;
+        List<String> rows;
+        String error;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Unexpected argument: " + arg);
+                System.exit(1);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        long[] sizes = Arrays.stream(options.getOrDefault("sizes", "10000,50000,100000").split(","))
+            .mapToLong(Long::parseLong).toArray();
+        int[] queries = Arrays.stream(options.getOrDefault("queries", "1,2,3,4,5,6").split(","))
+            .mapToInt(Integer::parseInt).toArray();
+        int reps = Integer.parseInt(options.getOrDefault("reps", "3"));
+        int timeout = Integer.parseInt(options.getOrDefault("timeout", "600"));
+        Path report = Paths.get(options.getOrDefault("report", "emf-vs-sql.md"));
+
+        MemorySampler sampler = new MemorySampler();
+        sampler.start();
+
+        StringBuilder md = new StringBuilder();
+        md.append("# EMF vs SQL\n\n");
+        md.append("Embedded H2 (PostgreSQL mode), ").append(Runtime.getRuntime().availableProcessors())
+          .append(" CPUs, max heap ").append(Runtime.getRuntime().maxMemory() >> 20).append(" MB. ")
+          .append("Median of ").append(reps).append(" runs.\n\n");
+        md.append("| query | rows | sql ms | emf-jdbc ms | emf-snapshot ms | speedup (sql / emf-jdbc) | sql peak MB | emf-jdbc peak MB | emf-snapshot peak MB | emf scans | sql table refs | groups | outputs match |\n");
+        md.append("|---|---|---|---|---|---|---|---|---|---|---|---|---|\n");
+
+        for (long size : sizes) {
+            Path dir = Files.createTempDirectory("emf-vs-sql");
+            try (Connection conn = DriverManager.getConnection(H2_URL, "sa", "")) {
+                System.out.println("Generating " + size + " rows");
+                load(conn, dir, size);
+                SnapshotRowSourceProvider snapshot = new SnapshotRowSourceProvider(dir);
+
+                for (int q : queries) {
+                    String esql = BenchmarkQueries.read("EsqlQuery" + q);
+                    String sql = readSql(q);
+                    PhiOperator phi = PhiConverter.convert(new EMFParser().parse(esql));
+                    QueryCompiler.CompiledQuery compiled = QueryCompiler.compile(
+                        new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes()).generate());
+
+                    System.out.println("Query " + q + ", " + size + " rows");
+                    Measurement sqlRun = measure(reps, sampler, () -> runSql(conn, sql, timeout));
+                    Measurement jdbcRun = measure(reps, sampler, () -> runEmf(compiled, new JdbcRowSourceProvider(conn)));
+                    Measurement snapRun = measure(reps, sampler, () -> runEmf(compiled, snapshot));
+
+                    String match;
+                    if (sqlRun.rows == null || jdbcRun.rows == null || snapRun.rows == null) {
+                        match = "n/a";
+                    } else {
+                        List<String> s = normalize(sqlRun.rows), j = normalize(jdbcRun.rows), c = normalize(snapRun.rows);
+                        match = s.equals(j) && j.equals(c) ? "yes" : "NO (" + s.size() + "/" + j.size() + "/" + c.size() + " rows)";
+                    }
+
+                    md.append("| ").append(q)
+                      .append(" | ").append(size)
+                      .append(" | ").append(format(sqlRun))
+                      .append(" | ").append(format(jdbcRun))
+                      .append(" | ").append(format(snapRun))
+                      .append(" | ").append(sqlRun.millis >= 0 && jdbcRun.millis > 0
+                            ? String.format("%.1fx", (double) sqlRun.millis / jdbcRun.millis) : "-")
+                      .append(" | ").append(sqlRun.peakBytes >> 20)
+                      .append(" | ").append(jdbcRun.peakBytes >> 20)
+                      .append(" | ").append(snapRun.peakBytes >> 20)
+                      .append(" | ").append(phi.n + 1)
+                      .append(" | ").append(tableReferences(sql))
+                      .append(" | ").append(compiled.entries())
+                      .append(" | ").append(match)
+                      .append(" |\n");
+                }
+                snapshot.close();
+            } finally {
+                try (var files = Files.list(dir)) {
+                    for (Path f : (Iterable<Path>) files::iterator) Files.delete(f);
+                }
+                Files.delete(dir);
+            }
+        }
+        sampler.interrupt();
+
+        Files.writeString(report, md.toString());
+        System.out.println();
+        System.out.println(md);
+        System.out.println("Report written to " + report.toAbsolutePath());
+    }
+
+    /** Generate the table as CSV and columnar snapshot, and load the CSV into H2. */
+    private static void load(Connection conn, Path dir, long rows) throws Exception {
+        SalesGenerator generator = new SalesGenerator(rows, 9, 10, 0,
+            LocalDate.of(2016, 1, 1), LocalDate.of(2020, 12, 31), false, 562);
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path csv = dir.resolve("sales.csv");
+        generator.writeText(csv, true, threads);
+        generator.writeColumnar(dir.resolve("sales" + ColumnarSnapshot.FILE_EXTENSION), threads);
+
+        try (Statement st = conn.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS sales CASCADE");
+            st.execute("CREATE TABLE sales (cust varchar(20), prod varchar(20), day integer, month integer, "
+                + "year integer, state char(2), quant integer, date date)");
+            st.execute("INSERT INTO sales SELECT * FROM CSVREAD('" + csv.toAbsolutePath() + "')");
+        }
+        Files.delete(csv);
+    }
+
+    private static String readSql(int q) throws IOException {
+        try (InputStream in = EmfVsSqlBenchmark.class.getClassLoader().getResourceAsStream("SQL/SqlQuery" + q + ".sql")) {
+            if (in == null) throw new IOException("No SQL/SqlQuery" + q + ".sql");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    interface Run {
+        List<String> run() throws Exception;
+    }
+
+    private static Measurement measure(int reps, MemorySampler sampler, Run run) {
+        Measurement m = new Measurement();
+        long[] times = new long[reps];
+        try {
+            m.rows = run.run(); // warm-up
+            for (int r = 0; r < reps; r++) {
+                System.gc();
+                long base = sampler.reset();
+                long start = System.nanoTime();
+                m.rows = run.run();
+                times[r] = (System.nanoTime() - start) / 1_000_000;
+                m.peakBytes = Math.max(m.peakBytes, sampler.peak() - base);
+            }
+            Arrays.sort(times);
+            m.millis = times[reps / 2];
+        } catch (Exception e) {
+            m.rows = null;
+            m.error = e instanceof SQLTimeoutException ? "timeout" : "error: " + e.getMessage();
+            System.out.println("  " + m.error);
+        }
+        return m;
+    }
+
+    private static String format(Measurement m) {
+        return m.millis >= 0 ? String.valueOf(m.millis) : m.error;
+    }
+
+    /** Run the script: every statement but the last is executed, the last one is the result. */
+    private static List<String> runSql(Connection conn, String script, int timeout) throws SQLException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : script.split("\n")) {
+            if (!line.trim().startsWith("--")) sb.append(line).append("\n");
+        }
+        List<String> statements = new ArrayList<>();
+        for (String s : sb.toString().split(";")) {
+            if (!s.isBlank()) statements.add(s.trim());
+        }
+
+        List<String> rows = new ArrayList<>();
+        try (Statement st = conn.createStatement()) {
+            st.setQueryTimeout(timeout);
+            for (int i = 0; i < statements.size() - 1; i++) {
+                st.execute(statements.get(i));
+            }
+            try (ResultSet rs = st.executeQuery(statements.get(statements.size() - 1))) {
+                int cols = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    List<String> values = new ArrayList<>();
+                    for (int c = 1; c <= cols; c++) {
+                        String value = rs.getString(c);
+                        values.add(value == null ? NULL : value);
+                    }
+                    rows.add(String.join(" | ", values));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static List<String> runEmf(QueryCompiler.CompiledQuery compiled, RowSourceProvider source) throws Exception {
+        compiled.reset();
+        compiled.evaluate(source);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(bytes));
+        try {
+            compiled.output();
+        } finally {
+            System.setOut(stdout);
+        }
+        List<String> rows = new ArrayList<>();
+        for (String line : bytes.toString().split("\n")) {
+            if (!line.isBlank()) rows.add(line);
+        }
+        return rows;
+    }
+
+    // A SQL NULL in the rows of runSql, and how the EMF code prints a null value
+    private static final String NULL = "null";
+
+    /** The rows in sorted order with their numbers rounded; nothing is dropped or replaced. */
+    private static List<String> normalize(List<String> rows) {
+        List<String> out = new ArrayList<>();
+        for (String row : rows) {
+            List<String> values = new ArrayList<>();
+            for (String v : row.split(" \\| ", -1)) {
+                values.add(normalizeValue(v.trim()));
+            }
+            out.add(String.join("|", values));
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    private static String normalizeValue(String v) {
+        if (v.equals(NULL)) return NULL;
+        try {
+            return new BigDecimal(v).setScale(4, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+        } catch (NumberFormatException e) {
+            return v;
+        }
+    }
+
+    private static int tableReferences(String sql) {
+        int count = 0;
+        for (String token : sql.toLowerCase().split("[^a-z0-9_]+")) {
+            if (token.equals("sales")) count++;
+        }
+        return count;
+    }
+
+    /** Samples the used heap every few milliseconds and keeps the maximum. */
+    static class MemorySampler extends Thread {
+        private volatile long peak;
+
+        MemorySampler() {
+            setDaemon(true);
+        }
+
+        static long used() {
+            Runtime rt = Runtime.getRuntime();
+            return rt.totalMemory() - rt.freeMemory();
+        }
+
+        long reset() {
+            long now = used();
+            peak = now;
+            return now;
+        }
+
+        long peak() {
+            return Math.max(peak, used());
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                peak = Math.max(peak, used());
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
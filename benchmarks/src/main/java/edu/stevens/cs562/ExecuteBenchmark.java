@@ -0,0 +1,56 @@
+package edu.stevens.cs562;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end execution of every query against a generated sales snapshot: the
+ * evaluation (scan 0 and scans 1..n) and the output stage, with the result rows
+ * formatted as text into a discarded stream so writing a terminal is not timed. rows, customers and products set the data size and the group
+ * cardinality; the defaults stay small because the mf-structure lookup is
+ * O(rows x groups). Override with -p, e.g. -p rows=1000000 -p customers=1000.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecuteBenchmark {
+
+    @Param({"EsqlQuery1", "EsqlQuery2", "EsqlQuery3", "EsqlQuery4", "EsqlQuery5", "EsqlQuery6", "EsqlQuery7"})
+    public String query;
+
+    @Param({"10000", "100000"})
+    public long rows;
+
+    @Param({"9", "100"})
+    public int customers;
+
+    @Param({"10"})
+    public int products;
+
+    QueryCompiler.CompiledQuery compiled;
+    SnapshotRowSourceProvider source;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        compiled = QueryCompiler.compile(BenchmarkQueries.generate(query));
+        source = new SnapshotRowSourceProvider(BenchmarkQueries.snapshot(rows, customers, products));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        source.close();
+    }
+
+    @Benchmark
+    public int execute() throws Exception {
+        compiled.reset();
+        compiled.evaluate(source);
+        compiled.output(ResultSink.text(OutputStream.nullOutputStream()));
+        return compiled.entries();
+    }
+}
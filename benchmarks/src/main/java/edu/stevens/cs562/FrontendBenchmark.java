@@ -0,0 +1,66 @@
+package edu.stevens.cs562;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing, Phi conversion and code generation of the query files.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontendBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Esql {
+        @Param({"EsqlQuery1", "EsqlQuery2", "EsqlQuery3", "EsqlQuery4", "EsqlQuery5", "EsqlQuery6", "EsqlQuery7"})
+        public String query;
+
+        String raw;
+        EMFQuery parsed;
+        PhiOperator phi;
+
+        @Setup
+        public void setup() throws Exception {
+            raw = BenchmarkQueries.read(query);
+            parsed = new EMFParser().parse(raw);
+            phi = PhiConverter.convert(parsed);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Phi {
+        @Param({"PhiQuery1_UserFriendly", "PhiQuery_WithWhere"})
+        public String phiQuery;
+
+        String raw;
+
+        @Setup
+        public void setup() throws Exception {
+            raw = BenchmarkQueries.read(phiQuery);
+        }
+    }
+
+    @Benchmark
+    public EMFQuery parseEsql(Esql s) {
+        return new EMFParser().parse(s.raw);
+    }
+
+    @Benchmark
+    public EMFQuery parsePhi(Phi s) {
+        return new PhiInputParser().parse(s.raw);
+    }
+
+    @Benchmark
+    public PhiOperator convert(Esql s) {
+        return PhiConverter.convert(s.parsed);
+    }
+
+    @Benchmark
+    public String generate(Esql s) {
+        return new QueryGenerator(s.phi, SalesGenerator.SCHEMA.columnTypes()).generate();
+    }
+}
@@ -15,9 +15,17 @@ package edu.stevens.cs562;
  *
  * This is used to generate the MFStruct fields like "sum_1_quant" and
  * the corresponding aggregate update logic in the generated code.
+ *
+ * Besides the exact aggregates there are sketch-backed approximate ones with a
+ * fixed memory bound per group, which merge across shards:
+ *   - count_distinct_approx: HyperLogLog distinct count
+ *   - median, percentile_P (P = 0..100, e.g. percentile_90): KLL quantile sketch
  */
 public class AggregateFunction {
-    private String functionName;    // sum, avg, count, max, min
+
+    /** Regex alternation of every aggregate function name. */
+    public static final String FUNCTIONS = "count_distinct_approx|percentile_\\d+|median|sum|avg|count|min|max";
+    private String functionName;    // sum, avg, count, max, min or a sketch aggregate
     private String groupingVarName; // 1, 2, 3 or X, Y, Z
     private String attribute;       // column name (e.g., quant)
 
@@ -39,6 +47,22 @@ public class AggregateFunction {
         return attribute;
     }
 
+    public static boolean isFunction(String name) {
+        return name.matches(FUNCTIONS) && (!name.startsWith("percentile_") || Integer.parseInt(name.substring(11)) <= 100);
+    }
+
+    /** Whether the aggregate is kept in a sketch (HyperLogLog or KllSketch) rather than a running value. */
+    public boolean isSketch() {
+        return functionName.equals("count_distinct_approx") || quantile() >= 0;
+    }
+
+    /** The quantile of median/percentile_P in 0..1, -1 for other functions. */
+    public double quantile() {
+        if (functionName.equals("median")) return 0.5;
+        if (functionName.startsWith("percentile_")) return Integer.parseInt(functionName.substring(11)) / 100.0;
+        return -1;
+    }
+
     @Override
     public String toString() {
         return functionName + "(" + groupingVarName + "." + attribute + ")";
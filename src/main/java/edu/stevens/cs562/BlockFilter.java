@@ -0,0 +1,89 @@
+package edu.stevens.cs562;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Constant predicates a scan may use to skip whole blocks of rows.
+ *
+ * The generated code builds one for every scan from the AND-connected constant
+ * comparisons of σ0 and of the scan's σi, for example
+ *
+ *   where year = 2016             ->  range("year", 2016, 2016)
+ *   such that x.state = 'NY'      ->  equalTo("state", "NY")
+ *
+ * and passes it to RowSource.filterBlocks(). A source with per-block min/max
+ * statistics (ColumnarSnapshot) then skips every block in which some constraint
+ * cannot hold; JdbcRowSourceProvider pushes it into the scan's WHERE clause.
+ * The filter is only a hint: a source may drop rows that cannot satisfy it, but
+ * the generated code still evaluates the predicates on every row it does get.
+ */
+public class BlockFilter {
+
+    /** One constraint on an int/date column (inclusive range) or a string column. */
+    public static class Constraint {
+        public final String column;
+        public final long lo;
+        public final long hi;
+        public final boolean notEqual;   // value <> lo instead of lo <= value <= hi
+        public final String value;       // string constant, null for numeric constraints
+
+        Constraint(String column, long lo, long hi, boolean notEqual, String value) {
+            this.column = column;
+            this.lo = lo;
+            this.hi = hi;
+            this.notEqual = notEqual;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            if (value != null) return column + (notEqual ? " <> '" : " = '") + value + "'";
+            if (notEqual) return column + " <> " + lo;
+            return lo + " <= " + column + " <= " + hi;
+        }
+    }
+
+    public final List<Constraint> constraints = new ArrayList<>();
+
+    /** lo <= column <= hi on an int column. */
+    public BlockFilter range(String column, long lo, long hi) {
+        constraints.add(new Constraint(column, lo, hi, false, null));
+        return this;
+    }
+
+    public BlockFilter notEqual(String column, long value) {
+        constraints.add(new Constraint(column, value, value, true, null));
+        return this;
+    }
+
+    public BlockFilter equalTo(String column, String value) {
+        constraints.add(new Constraint(column, 0, 0, false, value));
+        return this;
+    }
+
+    public BlockFilter notEqualTo(String column, String value) {
+        constraints.add(new Constraint(column, 0, 0, true, value));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return constraints.isEmpty();
+    }
+
+    /**
+     * Whether a block whose column values all lie in [min, max] may contain a row
+     * with lo <= value <= hi (or value <> lo for a not-equal constraint).
+     * An empty block range (min > max, e.g. all nulls) never matches.
+     */
+    public static boolean mayMatch(long min, long max, long lo, long hi, boolean notEqual) {
+        if (min > max) return false;
+        if (notEqual) return !(min == lo && max == lo);
+        return max >= lo && min <= hi;
+    }
+
+    @Override
+    public String toString() {
+        return constraints.toString();
+    }
+}
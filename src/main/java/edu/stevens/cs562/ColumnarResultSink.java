@@ -0,0 +1,131 @@
+package edu.stevens.cs562;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ResultSink that writes the result as a columnar snapshot (see ColumnarSnapshot),
+ * so it can be read back as a table by SnapshotRowSourceProvider and queried again.
+ *
+ * The table is named after the file ("top.emfc" is table top). SELECT items become
+ * columns named as identifiers ("sum(x.quant)" is sum_x_quant); longs are stored
+ * as doubles, an estimate as a double column and a second one with its error
+ * (suffix _error, NaN when no bound is known).
+ */
+public class ColumnarResultSink implements ResultSink {
+
+    private final Path file;
+    private ColumnarSnapshotWriter writer;
+
+    public ColumnarResultSink(Path file) {
+        String name = file.getFileName().toString();
+        this.file = name.endsWith(ColumnarSnapshot.FILE_EXTENSION) ? file : file.resolveSibling(name + ColumnarSnapshot.FILE_EXTENSION);
+    }
+
+    @Override
+    public void begin(List<String> columns, List<String> types) {
+        List<String> names = new ArrayList<>();
+        List<String> stored = new ArrayList<>();
+        Set<String> used = new HashSet<>();
+        for (int c = 0; c < columns.size(); c++) {
+            String name = unique(identifier(columns.get(c)), used);
+            switch (types.get(c)) {
+                case "int":
+                case "string":
+                case "date":
+                    names.add(name);
+                    stored.add(types.get(c));
+                    break;
+                case "estimate":
+                    names.add(name);
+                    stored.add("double");
+                    names.add(unique(name + "_error", used));
+                    stored.add("double");
+                    break;
+                default:
+                    names.add(name);
+                    stored.add("double");
+            }
+        }
+        String table = file.getFileName().toString();
+        table = table.substring(0, table.length() - ColumnarSnapshot.FILE_EXTENSION.length());
+        try {
+            writer = new ColumnarSnapshotWriter(file, new TableSchema(table, names, stored));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void putInt(int v) {
+        writer.putInt(v);
+    }
+
+    @Override
+    public void putLong(long v) {
+        writer.putDouble(v);
+    }
+
+    @Override
+    public void putDouble(double v) {
+        writer.putDouble(v);
+    }
+
+    @Override
+    public void putString(String v) {
+        writer.putString(v);
+    }
+
+    @Override
+    public void putDate(java.sql.Date v) {
+        writer.putDate(v);
+    }
+
+    @Override
+    public void putEstimate(Estimate v) {
+        writer.putDouble(v.value);
+        writer.putDouble(v.error);
+    }
+
+    @Override
+    public void endRow() {
+        try {
+            writer.endRow();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (writer != null) writer.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Lower case letters, digits and single underscores, not starting with a digit
+    static String identifier(String item) {
+        String name = item.toLowerCase().replaceAll("[^a-z0-9_]+", "_").replaceAll("_+", "_").replaceAll("^_|_$", "");
+        if (name.isEmpty() || Character.isDigit(name.charAt(0))) name = "c_" + name;
+        return name;
+    }
+
+    private static String unique(String name, Set<String> used) {
+        String result = name;
+        for (int i = 2; !used.add(result); i++) {
+            result = name + "_" + i;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,387 @@
+package edu.stevens.cs562;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Read side of the binary columnar table snapshot format (.emfc files).
+ *
+ * Layout (data little-endian, footer written with DataOutputStream):
+ *
+ *   [0, 64)        header: magic "EMFCOLS1", int version, int blockRows,
+ *                  long rowCount, long footerOffset, zero padding
+ *   [64, footer)   blocks of blockRows rows (the last one may be shorter). Inside a
+ *                  block every column is one contiguous fixed-width run:
+ *                    int, date (epoch day), string (dictionary code) - 4 bytes
+ *                    double                                      - 8 bytes
+ *                  so block b starts at 64 + b * blockRows * rowWidth.
+ *   footer         table name, column names and types, the sorted dictionary of
+ *                  every string column, and per block and column the min/max
+ *                  value (zone map; doubles as raw long bits, strings as codes).
+ *
+ * String dictionaries are sorted, so code order is string order and the zone maps
+ * of string columns are meaningful. A null date is stored as Integer.MIN_VALUE; a
+ * null string has its own dictionary entry (sorted first).
+ *
+ * Every block is memory-mapped once when the snapshot is opened. Scans read the
+ * values straight out of the mapped buffers without copying, so repeated scans of
+ * a snapshot that fits in the page cache run at memory speed.
+ */
+public class ColumnarSnapshot implements AutoCloseable {
+
+    static final byte[] MAGIC = "EMFCOLS1".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    public static final int DEFAULT_BLOCK_ROWS = 1 << 16;
+    public static final String FILE_EXTENSION = ".emfc";
+
+    // Nulls sort first in dictionaries
+    static final Comparator<String> DICTIONARY_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private final FileChannel channel;
+    private final TableSchema schema;
+    private final int[] widths;
+    private final int rowWidth;
+    private final int blockRows;
+    private final long rowCount;
+    private final String[][] dictionaries;
+    private final long[][] blockMin;
+    private final long[][] blockMax;
+    private final ByteBuffer[] blocks;
+
+    private ColumnarSnapshot(FileChannel channel) throws IOException {
+        this.channel = channel;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        header.flip();
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not an EMF columnar snapshot");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        this.blockRows = header.getInt();
+        this.rowCount = header.getLong();
+        long footerOffset = header.getLong();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Channels.newInputStream(channel.position(footerOffset)), 1 << 16));
+        String table = in.readUTF();
+        int columnCount = in.readInt();
+        List<String> columns = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        for (int c = 0; c < columnCount; c++) {
+            columns.add(in.readUTF());
+            types.add(in.readUTF());
+        }
+        this.schema = new TableSchema(table, columns, types);
+
+        this.dictionaries = new String[columnCount][];
+        for (int c = 0; c < columnCount; c++) {
+            if (types.get(c).equals("string")) {
+                String[] dict = new String[in.readInt()];
+                for (int i = 0; i < dict.length; i++) {
+                    dict[i] = in.readBoolean() ? in.readUTF() : null;
+                }
+                dictionaries[c] = dict;
+            }
+        }
+
+        int blockCount = in.readInt();
+        this.blockMin = new long[blockCount][columnCount];
+        this.blockMax = new long[blockCount][columnCount];
+        for (int b = 0; b < blockCount; b++) {
+            for (int c = 0; c < columnCount; c++) {
+                blockMin[b][c] = in.readLong();
+                blockMax[b][c] = in.readLong();
+            }
+        }
+
+        this.widths = new int[columnCount];
+        int w = 0;
+        for (int c = 0; c < columnCount; c++) {
+            widths[c] = width(types.get(c));
+            w += widths[c];
+        }
+        this.rowWidth = w;
+
+        this.blocks = new ByteBuffer[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            long size = (long) blockRowCount(b) * rowWidth;
+            blocks[b] = channel.map(FileChannel.MapMode.READ_ONLY, blockOffset(b), size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    public static ColumnarSnapshot open(Path file) throws IOException {
+        return new ColumnarSnapshot(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    static int width(String type) {
+        return type.equals("double") ? 8 : 4;
+    }
+
+    public TableSchema schema() {
+        return schema;
+    }
+
+    public long rowCount() {
+        return rowCount;
+    }
+
+    public int blockCount() {
+        return blocks.length;
+    }
+
+    public int blockRowCount(int block) {
+        return (int) Math.min(blockRows, rowCount - (long) block * blockRows);
+    }
+
+    long blockOffset(int block) {
+        return HEADER_SIZE + (long) block * blockRows * rowWidth;
+    }
+
+    /** Smallest non-null value of a column in a block (doubles as raw long bits, strings as codes). */
+    public long min(int block, int col) {
+        return blockMin[block][col];
+    }
+
+    public long max(int block, int col) {
+        return blockMax[block][col];
+    }
+
+    /** The sorted dictionary of a string column. */
+    public String[] dictionary(int col) {
+        return dictionaries[col];
+    }
+
+    /** A new sequential scan over all rows. */
+    public Scan scan() {
+        return new Scan();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public class Scan implements RowSource {
+        private final boolean[] isDouble = new boolean[widths.length];
+        private final int[] base = new int[widths.length];
+        private int block = -1;
+        private int rows = 0;
+        // Zone map constraints from filterBlocks(), as column ordinals and code/value ranges
+        private int[] filterCols = new int[0];
+        private long[] filterLo, filterHi;
+        private boolean[] filterNotEqual;
+        private boolean matchesNothing = false;
+        private int skipped = 0;
+        // Block sample from sampleBlocks(): keep a block when its hash is below sampleRate
+        private double sampleRate = 1;
+        private long sampleSeed = 0;
+        // Block read order from shuffleBlocks(), null for file order
+        private int[] order = null;
+        // Blocks of this shard from shardBlocks()
+        private int shard = 0;
+        private int shards = 1;
+        private int row = -1;
+        private ByteBuffer buf;
+
+        private Scan() {
+            for (int c = 0; c < widths.length; c++) {
+                isDouble[c] = widths[c] == 8;
+            }
+        }
+
+        private boolean nextBlock() {
+            if (matchesNothing) {
+                skipped += blocks.length - block - 1;
+                block = blocks.length;
+                return false;
+            }
+            while (++block < blocks.length) {
+                int b = order == null ? block : order[block];
+                if (b % shards != shard) {
+                    continue;
+                }
+                if (!mayMatch(b)) {
+                    skipped++;
+                    continue;
+                }
+                if (sampleRate < 1 && !Sampler.keepBlock(b, sampleSeed, sampleRate)) {
+                    continue;
+                }
+                buf = blocks[b];
+                rows = blockRowCount(b);
+                int offset = 0;
+                for (int c = 0; c < widths.length; c++) {
+                    base[c] = offset;
+                    offset += widths[c] * rows;
+                }
+                row = -1;
+                if (rows > 0) return true;
+            }
+            return false;
+        }
+
+        private boolean mayMatch(int b) {
+            for (int k = 0; k < filterCols.length; k++) {
+                int c = filterCols[k];
+                if (!BlockFilter.mayMatch(blockMin[b][c], blockMax[b][c], filterLo[k], filterHi[k], filterNotEqual[k])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Resolve the filter against this snapshot: string constants become dictionary
+         * codes (a missing constant in an equality means no block can match), and
+         * constraints on columns without usable zone maps are dropped.
+         */
+        @Override
+        public void filterBlocks(BlockFilter filter) {
+            List<long[]> resolved = new ArrayList<>();
+            for (BlockFilter.Constraint f : filter.constraints) {
+                int c = schema.columns.indexOf(f.column);
+                if (c < 0) continue;
+                String type = schema.types.get(c);
+                if (f.value != null && type.equals("string")) {
+                    int code = codeOf(c, f.value);
+                    if (code < 0) {
+                        if (!f.notEqual) matchesNothing = true;
+                        continue;
+                    }
+                    resolved.add(new long[] {c, code, code, f.notEqual ? 1 : 0});
+                } else if (f.value == null && type.equals("int")) {
+                    resolved.add(new long[] {c, f.lo, f.hi, f.notEqual ? 1 : 0});
+                }
+            }
+            filterCols = new int[resolved.size()];
+            filterLo = new long[resolved.size()];
+            filterHi = new long[resolved.size()];
+            filterNotEqual = new boolean[resolved.size()];
+            for (int k = 0; k < resolved.size(); k++) {
+                long[] r = resolved.get(k);
+                filterCols[k] = (int) r[0];
+                filterLo[k] = r[1];
+                filterHi[k] = r[2];
+                filterNotEqual[k] = r[3] == 1;
+            }
+        }
+
+        @Override
+        public boolean sampleBlocks(double rate, long seed) {
+            sampleRate = rate;
+            sampleSeed = seed;
+            return true;
+        }
+
+        @Override
+        public boolean shuffleBlocks(long seed) {
+            order = new int[blocks.length];
+            for (int b = 0; b < order.length; b++) order[b] = b;
+            java.util.Random random = new java.util.Random(seed);
+            for (int b = order.length - 1; b > 0; b--) {
+                int other = random.nextInt(b + 1);
+                int t = order[b];
+                order[b] = order[other];
+                order[other] = t;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean shardBlocks(int shard, int shards) {
+            this.shard = shard;
+            this.shards = shards;
+            return true;
+        }
+
+        /** Number of blocks left out so far because of the block filter. */
+        public int skippedBlocks() {
+            return skipped;
+        }
+
+        @Override
+        public int columnIndex(String column) {
+            int c = schema.columns.indexOf(column.toLowerCase());
+            if (c < 0) {
+                throw new IllegalArgumentException("Unknown column: " + column);
+            }
+            return c;
+        }
+
+        @Override
+        public String columnType(int col) {
+            return schema.types.get(col);
+        }
+
+        @Override
+        public boolean next() {
+            if (++row < rows) return true;
+            return nextBlock() && ++row < rows;
+        }
+
+        @Override
+        public int getInt(int col) {
+            if (isDouble[col]) return (int) buf.getDouble(base[col] + (row << 3));
+            return buf.getInt(base[col] + (row << 2));
+        }
+
+        @Override
+        public double getDouble(int col) {
+            if (isDouble[col]) return buf.getDouble(base[col] + (row << 3));
+            return buf.getInt(base[col] + (row << 2));
+        }
+
+        @Override
+        public String getString(int col) {
+            switch (schema.types.get(col)) {
+                case "string": return dictionaries[col][getCode(col)];
+                case "double": return String.valueOf(getDouble(col));
+                case "date":
+                    java.sql.Date d = getDate(col);
+                    return d == null ? null : d.toString();
+                default: return String.valueOf(getInt(col));
+            }
+        }
+
+        @Override
+        public java.sql.Date getDate(int col) {
+            int day = buf.getInt(base[col] + (row << 2));
+            return day == Integer.MIN_VALUE ? null : java.sql.Date.valueOf(LocalDate.ofEpochDay(day));
+        }
+
+        @Override
+        public int getCode(int col) {
+            return buf.getInt(base[col] + (row << 2));
+        }
+
+        /** Code of a literal, or a negative number if it does not occur in the column. */
+        @Override
+        public int codeOf(int col, String value) {
+            int code = Arrays.binarySearch(dictionaries[col], value, DICTIONARY_ORDER);
+            return code >= 0 ? code : -1;
+        }
+
+        @Override
+        public String decode(int col, int code) {
+            return dictionaries[col][code];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
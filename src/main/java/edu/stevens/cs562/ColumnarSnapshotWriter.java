@@ -0,0 +1,364 @@
+package edu.stevens.cs562;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a columnar table snapshot (see ColumnarSnapshot for the layout).
+ *
+ * Rows are appended one at a time, from a RowSource or value by value with the
+ * put methods and endRow(), and buffered column-wise until a block is full; the block is then written at its fixed offset and its zone map
+ * recorded. Strings are coded with a StringDictionary in order of first
+ * appearance while writing. close() sorts every dictionary, rewrites the string
+ * codes of each block in place through a writable mapping, recomputes their zone
+ * maps and finally writes the footer and the header.
+ *
+ * Producers that know every string value up front (like SalesGenerator) can
+ * instead pass sorted dictionaries to the constructor and write whole blocks of
+ * already coded values with writeBlock(), from several threads at once: every
+ * block has a fixed offset, so blocks can be written in any order.
+ */
+public class ColumnarSnapshotWriter implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final TableSchema schema;
+    private final int blockRows;
+    private final int[] widths;
+    private final int rowWidth;
+    private final StringDictionary[] dicts;
+    // Sorted dictionaries given up front; null when strings are coded while appending
+    private final String[][] fixedDictionaries;
+
+    // Current block, column-wise
+    private final int[][] ints;
+    private final double[][] doubles;
+    private int buffered = 0;
+
+    private long rowCount = 0;
+    private int blockCount = 0;
+    private final List<long[]> blockMin = new ArrayList<>();
+    private final List<long[]> blockMax = new ArrayList<>();
+
+    // Ordinals of the snapshot columns in the source currently being appended
+    private RowSource boundSource;
+    private int[] sourceColumns;
+    // Next column of the row being appended with the put methods
+    private int putColumn = 0;
+
+    public ColumnarSnapshotWriter(Path file, TableSchema schema) throws IOException {
+        this(file, schema, ColumnarSnapshot.DEFAULT_BLOCK_ROWS);
+    }
+
+    public ColumnarSnapshotWriter(Path file, TableSchema schema, int blockRows) throws IOException {
+        this(file, schema, blockRows, null);
+    }
+
+    /**
+     * Writer for pre-coded blocks: dictionaries[c] is the sorted dictionary of string
+     * column c, and the string values passed to writeBlock() are codes into it.
+     */
+    public ColumnarSnapshotWriter(Path file, TableSchema schema, int blockRows, String[][] dictionaries) throws IOException {
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("Block size must be at least 1 row");
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.schema = schema;
+        this.blockRows = blockRows;
+        this.fixedDictionaries = dictionaries;
+
+        int columnCount = schema.columns.size();
+        this.widths = new int[columnCount];
+        this.dicts = new StringDictionary[columnCount];
+        this.ints = new int[columnCount][];
+        this.doubles = new double[columnCount][];
+        int w = 0;
+        for (int c = 0; c < columnCount; c++) {
+            String type = schema.types.get(c);
+            widths[c] = ColumnarSnapshot.width(type);
+            w += widths[c];
+            if (type.equals("double")) {
+                doubles[c] = new double[blockRows];
+            } else {
+                ints[c] = new int[blockRows];
+            }
+            if (type.equals("string") && dictionaries == null) {
+                dicts[c] = new StringDictionary();
+            }
+        }
+        this.rowWidth = w;
+    }
+
+    public long rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Append the current row of the source. Columns are matched by name, so the
+     * source may have more columns (or a different column order) than the snapshot.
+     */
+    public void append(RowSource row) throws IOException {
+        if (row != boundSource) {
+            sourceColumns = new int[widths.length];
+            for (int c = 0; c < widths.length; c++) {
+                sourceColumns[c] = row.columnIndex(schema.columns.get(c));
+            }
+            boundSource = row;
+        }
+
+        for (int c = 0; c < widths.length; c++) {
+            int col = sourceColumns[c];
+            switch (schema.types.get(c)) {
+                case "int":
+                    putInt(row.getInt(col));
+                    break;
+                case "double":
+                    putDouble(row.getDouble(col));
+                    break;
+                case "date":
+                    putDate(row.getDate(col));
+                    break;
+                default:
+                    putString(row.getString(col));
+            }
+        }
+        endRow();
+    }
+
+    /** Set the next column, in schema order, of the row endRow() appends. */
+    public void putInt(int v) {
+        ints[nextColumn("int")][buffered] = v;
+    }
+
+    public void putDouble(double v) {
+        doubles[nextColumn("double")][buffered] = v;
+    }
+
+    public void putDate(java.sql.Date v) {
+        ints[nextColumn("date")][buffered] = v == null ? Integer.MIN_VALUE : (int) v.toLocalDate().toEpochDay();
+    }
+
+    public void putString(String v) {
+        int c = nextColumn("string");
+        ints[c][buffered] = dicts[c].code(v);
+    }
+
+    /** Append the row set by the put methods; every column must have been set. */
+    public void endRow() throws IOException {
+        if (putColumn != widths.length) {
+            throw new IllegalStateException("Row has " + putColumn + " of " + widths.length + " columns");
+        }
+        putColumn = 0;
+        rowCount++;
+        if (++buffered == blockRows) {
+            flushBlock();
+        }
+    }
+
+    private int nextColumn(String type) {
+        if (fixedDictionaries != null) {
+            throw new IllegalStateException("A writer with fixed dictionaries only accepts writeBlock()");
+        }
+        if (putColumn == widths.length) {
+            throw new IllegalStateException("Row already has all " + widths.length + " columns, endRow() appends it");
+        }
+        if (!schema.types.get(putColumn).equals(type)) {
+            throw new IllegalArgumentException("Column " + schema.columns.get(putColumn) + " is "
+                + schema.types.get(putColumn) + ", not " + type);
+        }
+        return putColumn++;
+    }
+
+    /** Append every remaining row of the source. */
+    public void appendAll(RowSource rows) throws IOException {
+        while (rows.next()) {
+            append(rows);
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (buffered == 0) return;
+        writeBlock(blockCount, buffered, ints, doubles);
+        buffered = 0;
+    }
+
+    /**
+     * Write block number `block` holding `rows` rows. ints[c] holds int values, epoch
+     * days (Integer.MIN_VALUE for null) or string codes, doubles[c] the values of
+     * double columns. Every block but the last must be full. Safe to call from
+     * several threads for different blocks.
+     */
+    public void writeBlock(int block, int rows, int[][] ints, double[][] doubles) throws IOException {
+        if (rows < 1 || rows > blockRows) {
+            throw new IllegalArgumentException("Block must hold 1.." + blockRows + " rows");
+        }
+        long[] min = new long[widths.length];
+        long[] max = new long[widths.length];
+
+        ByteBuffer buf = ByteBuffer.allocate(rows * rowWidth).order(ByteOrder.LITTLE_ENDIAN);
+        for (int c = 0; c < widths.length; c++) {
+            if (widths[c] == 8) {
+                buf.asDoubleBuffer().put(doubles[c], 0, rows);
+            } else {
+                buf.asIntBuffer().put(ints[c], 0, rows);
+            }
+            zoneMap(c, rows, ints[c], doubles[c], min, max);
+            buf.position(buf.position() + widths[c] * rows);
+        }
+        buf.flip();
+        long position = ColumnarSnapshot.HEADER_SIZE + (long) block * blockRows * rowWidth;
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+
+        synchronized (this) {
+            while (blockMin.size() <= block) {
+                blockMin.add(null);
+                blockMax.add(null);
+            }
+            blockMin.set(block, min);
+            blockMax.set(block, max);
+            blockCount = Math.max(blockCount, block + 1);
+            if (fixedDictionaries != null) {
+                rowCount += rows;
+            }
+        }
+    }
+
+    // Min/max over the non-null values of a column; an all-null column gets min > max
+    private void zoneMap(int c, int rows, int[] ints, double[] doubles, long[] min, long[] max) {
+        if (widths[c] == 8) {
+            double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+            for (int r = 0; r < rows; r++) {
+                lo = Math.min(lo, doubles[r]);
+                hi = Math.max(hi, doubles[r]);
+            }
+            min[c] = Double.doubleToLongBits(lo);
+            max[c] = Double.doubleToLongBits(hi);
+            return;
+        }
+        boolean date = schema.types.get(c).equals("date");
+        long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+        for (int r = 0; r < rows; r++) {
+            int v = ints[r];
+            if (date && v == Integer.MIN_VALUE) continue;
+            lo = Math.min(lo, v);
+            hi = Math.max(hi, v);
+        }
+        min[c] = lo;
+        max[c] = hi;
+    }
+
+    /**
+     * Re-code every string column so codes follow the sorted dictionary order.
+     * Returns the sorted dictionaries.
+     */
+    private String[][] sortDictionaries() throws IOException {
+        if (fixedDictionaries != null) {
+            return fixedDictionaries;
+        }
+        String[][] sorted = new String[widths.length][];
+        int[][] remap = new int[widths.length][];
+        boolean any = false;
+        for (int c = 0; c < widths.length; c++) {
+            if (dicts[c] == null) continue;
+            String[] values = new String[dicts[c].size()];
+            for (int code = 0; code < values.length; code++) {
+                values[code] = dicts[c].decode(code);
+            }
+            sorted[c] = values.clone();
+            Arrays.sort(sorted[c], ColumnarSnapshot.DICTIONARY_ORDER);
+            remap[c] = new int[values.length];
+            for (int code = 0; code < values.length; code++) {
+                remap[c][code] = Arrays.binarySearch(sorted[c], values[code], ColumnarSnapshot.DICTIONARY_ORDER);
+            }
+            any = true;
+        }
+        if (!any) return sorted;
+
+        for (int b = 0; b < blockCount; b++) {
+            int rows = (int) Math.min(blockRows, rowCount - (long) b * blockRows);
+            long blockStart = ColumnarSnapshot.HEADER_SIZE + (long) b * blockRows * rowWidth;
+            MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_WRITE, blockStart, (long) rows * rowWidth);
+            block.order(ByteOrder.LITTLE_ENDIAN);
+            int offset = 0;
+            for (int c = 0; c < widths.length; c++) {
+                if (remap[c] != null) {
+                    long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+                    for (int r = 0; r < rows; r++) {
+                        int index = offset + (r << 2);
+                        int code = remap[c][block.getInt(index)];
+                        block.putInt(index, code);
+                        lo = Math.min(lo, code);
+                        hi = Math.max(hi, code);
+                    }
+                    blockMin.get(b)[c] = lo;
+                    blockMax.get(b)[c] = hi;
+                }
+                offset += widths[c] * rows;
+            }
+            block.force();
+        }
+        return sorted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            for (int b = 0; b < blockCount; b++) {
+                if (blockMin.get(b) == null) {
+                    throw new IOException("Block " + b + " of the snapshot was never written");
+                }
+            }
+            String[][] dictionaries = sortDictionaries();
+
+            long footerOffset = ColumnarSnapshot.HEADER_SIZE + rowCount * rowWidth;
+            channel.position(footerOffset);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeUTF(schema.table);
+            out.writeInt(widths.length);
+            for (int c = 0; c < widths.length; c++) {
+                out.writeUTF(schema.columns.get(c));
+                out.writeUTF(schema.types.get(c));
+            }
+            for (int c = 0; c < widths.length; c++) {
+                if (dictionaries[c] == null) continue;
+                out.writeInt(dictionaries[c].length);
+                for (String s : dictionaries[c]) {
+                    out.writeBoolean(s != null);
+                    if (s != null) out.writeUTF(s);
+                }
+            }
+            out.writeInt(blockCount);
+            for (int b = 0; b < blockCount; b++) {
+                for (int c = 0; c < widths.length; c++) {
+                    out.writeLong(blockMin.get(b)[c]);
+                    out.writeLong(blockMax.get(b)[c]);
+                }
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(ColumnarSnapshot.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(ColumnarSnapshot.MAGIC);
+            header.putInt(ColumnarSnapshot.VERSION);
+            header.putInt(blockRows);
+            header.putLong(rowCount);
+            header.putLong(footerOffset);
+            header.position(0);
+            channel.write(header, 0);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package edu.stevens.cs562;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A fixed-size pool of JDBC connections for the query server.
+ *
+ * At most size connections are out at once; borrow() waits for one to come back
+ * and reuses an idle connection (if it is still valid) before opening a new one,
+ * so connection setup is paid once per pooled connection instead of per query.
+ * Each pooled connection keeps its StatementCache for as long as it stays in the
+ * pool, so scans of later queries reuse its prepared statements too.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    /** Opens a new connection (e.g. Database::connect). */
+    public interface Factory {
+        Connection open() throws Exception;
+    }
+
+    // Seconds isValid() may take before an idle connection is dropped
+    private static final int VALIDATION_TIMEOUT = 2;
+
+    private final Factory factory;
+    private final BlockingQueue<Connection> idle;
+    private final Semaphore permits;
+    private final Map<Connection, StatementCache> statements = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public ConnectionPool(Factory factory, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1: " + size);
+        }
+        this.factory = factory;
+        this.idle = new ArrayBlockingQueue<>(size);
+        this.permits = new Semaphore(size, true);
+    }
+
+    /** A connection for the caller's exclusive use until release(). */
+    public Connection borrow() throws Exception {
+        if (closed) throw new RuntimeException("Connection pool is closed");
+        permits.acquire();
+        try {
+            Connection conn;
+            while ((conn = idle.poll()) != null) {
+                if (conn.isValid(VALIDATION_TIMEOUT)) return conn;
+                closeQuietly(conn);
+            }
+            return factory.open();
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /** Give a borrowed connection back; a broken one is closed instead of kept. */
+    public void release(Connection conn) {
+        try {
+            if (closed || conn.isClosed() || !conn.getAutoCommit() && !rollback(conn) || !idle.offer(conn)) {
+                closeQuietly(conn);
+            }
+        } catch (SQLException e) {
+            closeQuietly(conn);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /** The prepared statements of a borrowed connection, e.g. for new JdbcRowSourceProvider(statements). */
+    public StatementCache statements(Connection conn) {
+        return statements.computeIfAbsent(conn, StatementCache::new);
+    }
+
+    /** Connections currently idle in the pool. */
+    public int idleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection conn;
+        while ((conn = idle.poll()) != null) {
+            closeQuietly(conn);
+        }
+    }
+
+    // A scan left in a transaction (JdbcRowSource switches auto-commit off) is rolled back
+    private static boolean rollback(Connection conn) {
+        try {
+            conn.rollback();
+            conn.setAutoCommit(true);
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void closeQuietly(Connection conn) {
+        StatementCache cache = statements.remove(conn);
+        if (cache != null) cache.close();
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+            // already broken
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package edu.stevens.cs562;
+
+import java.util.*;
+
+/**
+ * Cost-based choice of the physical plan of an EMF query from TableStatistics.
+ *
+ * The generated code can evaluate the same Phi operator in several ways; the
+ * planner estimates the cost of the alternatives (in "row units", one row read
+ * from a snapshot = 1) and picks:
+ *
+ *   pushdown   pass σ0/σi constants to the source (SQL WHERE, block skipping) or
+ *              filter every row on the client
+ *   passes     fuse grouping variables that do not depend on each other into one
+ *              scan, or give each its own (smaller, pushed-down) scan
+ *   groups     the expected number of groups (presizing the mf-structure) and
+ *              the lookup of scan 0: linear search, a hash map, or direct
+ *              addressing when every grouping attribute has a small domain
+ *   indexes    per grouping variable: nested loop over all entries or an
+ *              EntryIndex on the grouping attributes its σ equates
+ *   spill      keep the mf-structure in memory or stream it through on-disk
+ *              partitions when the estimated groups do not fit
+ *   shards     the number of worker processes for large inputs
+ *
+ * The numbers behind each choice are kept in Plan.notes, shown by EXPLAIN and
+ * written as a comment at the top of the generated query.
+ */
+public class CostPlanner {
+
+    // Cost of reading one row (snapshot mapped in memory vs transferred over JDBC)
+    static final double SNAPSHOT_ROW_COST = 1;
+    static final double JDBC_ROW_COST = 20;
+    // Cost of the server evaluating a pushed-down WHERE on one row
+    static final double SERVER_FILTER_COST = 0.1;
+    // Cost of testing one mf-structure entry against a row
+    static final double PROBE_COST = 1;
+    // Cost of building a key and looking it up in an EntryIndex
+    static final double HASH_COST = 3;
+    // Cost of computing a group's slot from its values
+    static final double DIRECT_COST = 1;
+    // Cost per slot of allocating and clearing the slot array
+    static final double SLOT_COST = 0.25;
+    // Largest number of slots per expected group for direct addressing
+    static final int DIRECT_DENSITY = 64;
+    // Fixed cost of one worker process (JVM start, classpath, connection)
+    static final double SHARD_COST = 200_000_000;
+    // Row units evaluated per millisecond, to turn a time budget into a sample rate
+    // (calibrated on the benchmark queries over a snapshot; JDBC rows cost 20 units)
+    static final double ROW_UNITS_PER_MS = 20_000;
+    // Smallest sample rate a time budget can ask for
+    static final double MIN_SAMPLE_RATE = 0.0001;
+
+    /** The chosen plan and the estimates it was based on. */
+    public static class Plan {
+        public boolean pushdown = true;
+        public List<List<Integer>> passes = new ArrayList<>();
+        public final Set<Integer> indexed = new TreeSet<>();
+        public int spillPartitions = 0;
+        public int shards = 0;
+        public boolean hashGroups = false;
+        public int groupCapacity = QueryGenerator.DEFAULT_GROUP_CAPACITY;
+        // grouping attribute -> {lo, size} when the groups are direct-addressed
+        public Map<String, int[]> directDomains = null;
+        // numeric columns without negative values, for pruning on HAVING bounds;
+        // only from ranges read in full now, a wrong guess would drop result rows
+        public final Set<String> nonNegative = new TreeSet<>();
+        public long rows;
+        public long groups;
+        public double cost;
+        public final List<String> notes = new ArrayList<>();
+
+        /** Configure a generator to produce this plan. */
+        public void apply(QueryGenerator generator) {
+            generator.setPushdown(pushdown);
+            generator.setGroupCapacity(groupCapacity);
+            generator.setHashGroups(hashGroups);
+            if (directDomains != null) {
+                for (Map.Entry<String, int[]> d : directDomains.entrySet()) {
+                    generator.setDirectDomain(d.getKey(), d.getValue()[0], d.getValue()[1]);
+                }
+            }
+            generator.setPasses(passes);
+            for (int i : indexed) {
+                generator.setIndexed(i, true);
+            }
+            for (String column : nonNegative) {
+                generator.setNonNegative(column);
+            }
+            if (spillPartitions > 0) generator.setSpillPartitions(spillPartitions);
+            if (shards > 0) generator.setShards(shards);
+            generator.setPlanComment(comment());
+        }
+
+        public String comment() {
+            return "Cost-based plan (estimated cost " + String.format("%.3g", cost) + "):\n" + String.join("\n", notes);
+        }
+    }
+
+    private final PhiOperator phi;
+    private final QueryGenerator generator;
+    private final TableStatistics stats;
+    private final boolean snapshot;
+    private final long maxMemory;
+    private final int cores;
+
+    /**
+     * @param snapshot  whether the rows come from a columnar snapshot (otherwise JDBC)
+     * @param maxMemory heap available to the generated query, in bytes
+     * @param cores     processors available for worker shards
+     */
+    public CostPlanner(PhiOperator phi, QueryGenerator generator, TableStatistics stats,
+                       boolean snapshot, long maxMemory, int cores) {
+        this.phi = phi;
+        this.generator = generator;
+        this.stats = stats;
+        this.snapshot = snapshot;
+        this.maxMemory = maxMemory;
+        this.cores = cores;
+    }
+
+    /**
+     * Sample rate for the approximate mode that should finish within millis,
+     * assuming the cost of a plan shrinks with the fraction of rows it reads.
+     * 1 when the whole plan fits in the budget.
+     */
+    public static double sampleRate(Plan plan, long millis) {
+        double rate = millis * ROW_UNITS_PER_MS / Math.max(plan.cost, 1);
+        return Math.max(MIN_SAMPLE_RATE, Math.min(1, rate));
+    }
+
+    public Plan plan() {
+        Plan plan = new Plan();
+        if (stats.exactRanges) {
+            for (TableStatistics.Column col : stats.columns.values()) {
+                if (!Double.isNaN(col.min) && col.min >= 0) plan.nonNegative.add(col.name);
+            }
+        }
+        double readCost = snapshot ? SNAPSHOT_ROW_COST : JDBC_ROW_COST;
+        plan.rows = stats.rowCount;
+        double where = stats.selectivity(phi.predicates.get(0), null);
+        double passing = plan.rows * where;
+        plan.groups = estimateGroups(passing);
+        plan.notes.add(String.format("%s: %d rows (%s), σ0 selectivity %.3f, ~%d groups",
+            phi.fromTable, plan.rows, stats.sample.isEmpty() ? "pg_stats" : "sampled", where, plan.groups));
+
+        // Pushdown: a snapshot checks zone maps per block, which is free; a database
+        // filters every row but then transfers only the ones passing
+        double scan0 = scanCost(-1, readCost, true);
+        if (!snapshot) {
+            double client = plan.rows * readCost;
+            plan.pushdown = scan0 <= client;
+            plan.notes.add(String.format("pushdown: %s (scan 0 %.3g pushed vs %.3g client-side)",
+                plan.pushdown ? "on" : "off", scan0, client));
+            if (!plan.pushdown) scan0 = client;
+        }
+        plan.cost = scan0;
+
+        // Dependency levels: a grouping variable comes after those whose aggregates its σ uses
+        List<List<Integer>> levels = dependencyLevels();
+        for (List<Integer> level : levels) {
+            double fused = plan.pushdown ? scanCost(-1, readCost, true) : plan.rows * readCost;
+            double separate = 0;
+            for (int i : level) {
+                separate += plan.pushdown ? scanCost(i, readCost, false) : plan.rows * readCost;
+            }
+            String names = names(level);
+            if (level.size() > 1 && fused <= separate) {
+                plan.passes.add(level);
+                plan.cost += fused;
+                plan.notes.add(String.format("scan fusion: %s in one scan (%.3g vs %.3g for separate scans)",
+                    names, fused, separate));
+            } else {
+                for (int i : level) {
+                    plan.passes.add(List.of(i));
+                }
+                plan.cost += separate;
+                if (level.size() > 1) {
+                    plan.notes.add(String.format("scan fusion: %s in separate scans (%.3g vs %.3g fused)",
+                        names, separate, fused));
+                }
+            }
+        }
+
+        // In memory or streamed through spill partitions
+        long bytes = mfBytes(passing, plan.groups);
+        String key = PartitionAnalyzer.findPartitionAttribute(phi);
+        // spilling outputs one partition at a time, which ORDER BY and LIMIT cannot
+        boolean ordered = !phi.orderBy.isEmpty() || phi.limit >= 0;
+        if (bytes > maxMemory / 2 && key != null && !ordered) {
+            plan.spillPartitions = (int) Math.min(1024, (bytes + maxMemory / 4 - 1) / (maxMemory / 4));
+            plan.notes.add(String.format("mf-structure ~%d MB exceeds half the heap (%d MB): spill to %d partitions on %s",
+                bytes >> 20, maxMemory >> 20, plan.spillPartitions, key));
+        } else {
+            plan.notes.add(String.format("mf-structure ~%d KB in memory%s", bytes >> 10,
+                bytes > maxMemory / 2 ? ordered ? " (too large, but ORDER BY/LIMIT needs every group at once)"
+                    : " (too large, but no common equality attribute to spill on)" : ""));
+        }
+
+        // Group layout of scan 0, for the groups of one spill partition if spilling
+        int parts = Math.max(1, plan.spillPartitions);
+        long perStructure = (plan.groups + parts - 1) / parts;
+        double linear = passing * perStructure * PROBE_COST / 2;
+        double hashed = (passing + perStructure) * HASH_COST;
+        plan.hashGroups = hashed < linear;
+        plan.groupCapacity = capacity(perStructure);
+        Map<String, int[]> domains = plan.spillPartitions == 0 ? directDomains() : null;
+        long slots = 1;
+        if (domains != null) {
+            for (int[] d : domains.values()) slots *= d[1];
+        }
+        double direct = passing * DIRECT_COST + slots * SLOT_COST;
+        if (domains != null && slots <= QueryGenerator.MAX_DIRECT_SLOTS && slots <= DIRECT_DENSITY * plan.groups
+                && direct < Math.min(linear, hashed)) {
+            plan.directDomains = domains;
+            plan.hashGroups = false;
+            plan.cost += direct;
+            plan.notes.add(String.format("group lookup: direct-addressed, %d slots (%.3g vs %.3g hash, %.3g linear search)",
+                slots, direct, hashed, linear));
+        } else {
+            plan.cost += Math.min(linear, hashed);
+            plan.notes.add(String.format("group lookup: %s, mf-structure presized to %d entries (%.3g hash vs %.3g linear search)",
+                plan.hashGroups ? "hash map" : "linear search", plan.groupCapacity, hashed, linear));
+        }
+
+        // Direct slot, index or nested loop per grouping variable, over the rows its
+        // scan delivers: a separate scan on a database gets only the rows passing the pushed σi
+        for (List<Integer> pass : plan.passes) {
+            for (int i : pass) {
+                double rows = plan.pushdown && !snapshot && pass.size() == 1
+                    ? Math.min(passing, plan.rows * pushedSelectivity(i)) : passing;
+                chooseEvaluation(plan, i, rows);
+            }
+        }
+
+        // Parallel degree: workers pay off once the work is much larger than their startup
+        if (plan.spillPartitions == 0 && cores > 1 && plan.cost > 2 * SHARD_COST
+                && (key != null || PartitionAnalyzer.isRowPartitionable(phi))) {
+            plan.shards = (int) Math.min(cores, plan.cost / SHARD_COST);
+            plan.notes.add(String.format("parallel: %d shards (cost %.3g, %d cores)", plan.shards, plan.cost, cores));
+        } else {
+            plan.notes.add("parallel: single process");
+        }
+        return plan;
+    }
+
+    private void chooseEvaluation(Plan plan, int i, double rows) {
+        String gv = phi.groupingVariableNames.get(i);
+        double nested = rows * plan.groups * PROBE_COST;
+        if (plan.directDomains != null && pinsEveryAttribute(i)) {
+            double direct = rows * (DIRECT_COST + PROBE_COST);
+            plan.cost += direct;
+            plan.notes.add(String.format("%s: direct slot %s (%.3g vs %.3g nested loop)", gv,
+                PartitionAnalyzer.offsetEntry(phi, i), direct, nested));
+            return;
+        }
+        List<String> keys = PartitionAnalyzer.equalityAttributes(phi, i);
+        if (keys.isEmpty()) {
+            plan.cost += nested;
+            plan.notes.add(String.format("%s: nested loop, no equality to index (%.3g)", gv, nested));
+            return;
+        }
+        double perKey = Math.max(1, plan.groups / Math.min(plan.groups, distinctProduct(keys)));
+        double hash = plan.groups * HASH_COST + rows * (HASH_COST + perKey * PROBE_COST);
+        if (hash < nested) {
+            plan.indexed.add(i);
+        }
+        plan.cost += Math.min(hash, nested);
+        plan.notes.add(String.format("%s: %s on (%s), ~%.1f entries per key (%.3g hash vs %.3g nested loop)",
+            gv, hash < nested ? "hash index" : "nested loop", String.join(", ", keys), perKey, hash, nested));
+    }
+
+    /**
+     * Direct-address domains of the grouping attributes: the min..max range of an
+     * int attribute, the dictionary codes 0..distinct of a string attribute (with
+     * some slack, as codes of a database source are assigned as values appear).
+     * Null if some attribute has no bounded domain.
+     */
+    private Map<String, int[]> directDomains() {
+        Map<String, int[]> domains = new LinkedHashMap<>();
+        for (String attr : phi.groupingAttributes) {
+            TableStatistics.Column col = stats.column(attr);
+            if (col == null) return null;
+            if (col.type.equals("int") && !Double.isNaN(col.min) && col.max - col.min < QueryGenerator.MAX_DIRECT_SLOTS) {
+                domains.put(attr, new int[] {(int) col.min, (int) (col.max - col.min) + 1});
+            } else if (col.type.equals("string") && col.distinct < QueryGenerator.MAX_DIRECT_SLOTS) {
+                domains.put(attr, new int[] {0, (int) (col.distinct + 1 + col.distinct / 16)});
+            } else {
+                return null;
+            }
+        }
+        return domains;
+    }
+
+    // Whether σ of grouping variable i fixes every grouping attribute as gv.a = a + k (k = 0 for strings)
+    private boolean pinsEveryAttribute(int i) {
+        Map<String, Integer> offsets = PartitionAnalyzer.equalityOffsets(phi, i);
+        for (String attr : phi.groupingAttributes) {
+            Integer k = offsets.get(attr);
+            if (k == null || (k != 0 && !stats.column(attr).type.equals("int"))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Estimated number of groups: the distinct grouping attribute combinations of
+     * the sample rows that satisfy σ0, scaled up (TableStatistics.estimateGroups).
+     * Without a sample, the product of the distinct counts of the grouping
+     * attributes; either way at most the rows passing σ0.
+     */
+    long estimateGroups(double passing) {
+        double groups = distinctProduct(phi.groupingAttributes);
+        long sampled = stats.estimateGroups(phi.groupingAttributes, phi.predicates.get(0));
+        if (sampled > 0) groups = Math.min(groups, sampled);
+        return Math.max(1, (long) Math.min(groups, Math.max(1, passing)));
+    }
+
+    /** Array length for the expected groups, with a quarter to spare before it doubles. */
+    static int capacity(long groups) {
+        return (int) Math.max(16, Math.min(1 << 30, groups + groups / 4));
+    }
+
+    // Memory of the mf-structure for this many groups: entries, array and (if it pays off) the hash map
+    private long mfBytes(double passing, long groups) {
+        boolean hash = (passing + groups) * HASH_COST < passing * groups * PROBE_COST / 2;
+        return groups * generator.mfEntryBytes() + 4L * capacity(groups)
+            + (hash ? groups * QueryGenerator.HASH_ENTRY_BYTES : 0);
+    }
+
+    private double distinctProduct(List<String> attrs) {
+        double product = 1;
+        for (String attr : attrs) {
+            TableStatistics.Column col = stats.column(attr);
+            product *= col != null ? Math.max(1, col.distinct) : stats.rowCount;
+        }
+        return product;
+    }
+
+    // Cost of reading scan i (σ0 only for i = -1) with its constants pushed down
+    private double scanCost(int i, double readCost, boolean whereOnly) {
+        if (snapshot) {
+            // zone maps skip blocks only when the data is clustered; assume no skipping
+            return stats.rowCount * readCost;
+        }
+        int scan = whereOnly ? -1 : i;
+        if (generator.pushedDownConditions(scan).isEmpty()) return stats.rowCount * readCost;
+        return stats.rowCount * (SERVER_FILTER_COST + pushedSelectivity(scan) * readCost);
+    }
+
+    // Fraction of rows passing the conditions QueryGenerator pushes into scan i
+    private double pushedSelectivity(int i) {
+        if (generator.pushedDownConditions(i).isEmpty()) return 1;
+        double s = stats.selectivity(phi.predicates.get(0), null);
+        if (i >= 0) s *= stats.selectivity(phi.predicates.get(i + 1), phi.groupingVariableNames.get(i));
+        return s;
+    }
+
+    private List<List<Integer>> dependencyLevels() {
+        Map<String, Integer> level = new HashMap<>();
+        List<List<Integer>> levels = new ArrayList<>();
+        for (int i = 0; i < phi.n; i++) {
+            int l = 0;
+            for (String dep : PartitionAnalyzer.dependencies(phi, i)) {
+                Integer d = level.get(dep);
+                if (d == null) {
+                    throw new RuntimeException(phi.groupingVariableNames.get(i) + " uses aggregates of " + dep
+                        + ", which is not an earlier grouping variable");
+                }
+                l = Math.max(l, d + 1);
+            }
+            level.put(phi.groupingVariableNames.get(i), l);
+            while (levels.size() <= l) levels.add(new ArrayList<>());
+            levels.get(l).add(i);
+        }
+        return levels;
+    }
+
+    private String names(List<Integer> gvs) {
+        List<String> names = new ArrayList<>();
+        for (int i : gvs) {
+            names.add(phi.groupingVariableNames.get(i));
+        }
+        return String.join(", ", names);
+    }
+}
@@ -0,0 +1,41 @@
+package edu.stevens.cs562;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Opens JDBC connections to the database configured in src/main/resources/db.properties
+ * (db.host, db.port, db.name, db.user, db.password).
+ */
+public class Database {
+
+    private static final String PROPERTIES_FILE = "src/main/resources/db.properties";
+
+    public static Connection connect() throws IOException, SQLException {
+        Properties props = properties();
+        return DriverManager.getConnection(url(props),
+            props.getProperty("db.user"),
+            props.getProperty("db.password"));
+    }
+
+    /** JDBC URL of the configured database, without connecting (identifies it in the SchemaCatalog). */
+    public static String url() throws IOException {
+        return url(properties());
+    }
+
+    private static String url(Properties props) {
+        return "jdbc:postgresql://" + props.getProperty("db.host") + ":" + props.getProperty("db.port") + "/" + props.getProperty("db.name");
+    }
+
+    private static Properties properties() throws IOException {
+        Properties props = new Properties();
+        try (FileInputStream in = new FileInputStream(PROPERTIES_FILE)) {
+            props.load(in);
+        }
+        return props;
+    }
+}
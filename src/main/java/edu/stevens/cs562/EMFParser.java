@@ -12,6 +12,10 @@ import java.util.*;
  *   GROUPING VARIABLE NAMES
  *   SUCH THAT
  *   HAVING
+ *   ORDER BY expr [asc|desc], ...
+ *   LIMIT k
+ *
+ * ORDER BY and LIMIT are trailing clauses, cut off before the others are split.
  */
 public class EMFParser {
 
@@ -38,8 +42,23 @@ public class EMFParser {
 
         String input = temp.toLowerCase().trim().replaceAll("\\s+", " ");
 
+        // Trailing LIMIT and ORDER BY, found while the literals cannot contain the keywords
+        int limit = -1;
+        java.util.regex.Matcher m = java.util.regex.Pattern.compile("\\blimit (\\d+)\\s*;?$").matcher(input);
+        if (m.find()) {
+            limit = Integer.parseInt(m.group(1));
+            input = input.substring(0, m.start()).trim();
+        }
+        String orderBy = "";
+        int orderPos = input.lastIndexOf("order by");
+        if (orderPos != -1) {
+            orderBy = input.substring(orderPos + "order by".length()).trim();
+            input = input.substring(0, orderPos).trim();
+        }
+
         for (int i = 0; i < stringLiterals.size(); i++) {
             input = input.replace("___literal_" + i + "___", stringLiterals.get(i));
+            orderBy = orderBy.replace("___literal_" + i + "___", stringLiterals.get(i));
         }
 
         Map<String, String> sections = extractSections(input);
@@ -54,6 +73,11 @@ public class EMFParser {
         extractAggregatesFromSuchThat(q.suchThatMap, q.fVectors);
         q.havingConditions = parseHaving(sections.get("having"));
         extractAggregatesFromHaving(q.havingConditions, q.fVectors);
+        q.orderBy = parseOrderBy(orderBy);
+        for (OrderItem item : q.orderBy) {
+            extractAggregatesFromExpression(item.expression, q.fVectors);
+        }
+        q.limit = limit;
 
         return q;
     }
@@ -120,6 +144,23 @@ public class EMFParser {
         return out;
     }
 
+    private List<OrderItem> parseOrderBy(String s) {
+        List<OrderItem> out = new ArrayList<>();
+        if (s == null || s.trim().isEmpty()) {
+            return out;
+        }
+        if (s.endsWith(";")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        for (String p : s.split(",")) {
+            if (p.trim().isEmpty()) {
+                throw new RuntimeException("Invalid ORDER BY syntax: " + s);
+            }
+            out.add(OrderItem.parse(p));
+        }
+        return out;
+    }
+
     private String parseFrom(String s) {
         if (s == null || s.trim().isEmpty()) {
             throw new RuntimeException("FROM clause missing.");
@@ -252,7 +293,7 @@ public class EMFParser {
             if (openParen == -1) break;
 
             int fnStart = openParen - 1;
-            while (fnStart >= 0 && Character.isLetterOrDigit(expr.charAt(fnStart))) {
+            while (fnStart >= 0 && (Character.isLetterOrDigit(expr.charAt(fnStart)) || expr.charAt(fnStart) == '_')) {
                 fnStart--;
             }
             fnStart++;
@@ -264,7 +305,7 @@ public class EMFParser {
 
             String fn = expr.substring(fnStart, openParen).trim();
 
-            if (fn.matches("(sum|avg|count|min|max)")) {
+            if (AggregateFunction.isFunction(fn)) {
                 int closeParen = openParen + 1;
                 int parenCount = 1;
                 while (closeParen < expr.length() && parenCount > 0) {
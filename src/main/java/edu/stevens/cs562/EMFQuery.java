@@ -19,6 +19,8 @@ import java.util.Map;
  * GROUPING ATTRIBUTES
  * SUCH THAT
  * HAVING
+ * ORDER BY
+ * LIMIT
  *
  * This is what is passed into EMFEngine.
  */
@@ -66,6 +68,12 @@ public class EMFQuery {
     // ----------------------------
     public ConditionExpression havingConditions;
 
+    // ----------------------------
+    // ORDER BY keys and LIMIT (-1 = no limit)
+    // ----------------------------
+    public List<OrderItem> orderBy;
+    public int limit = -1;
+
     public EMFQuery() {
         this.selectAttributes = new ArrayList<>();
         this.groupingAttributes = new ArrayList<>();
@@ -74,6 +82,7 @@ public class EMFQuery {
         this.fVectors = new ArrayList<>();
         this.whereConditions = new ConditionExpression();
         this.havingConditions = new ConditionExpression();
+        this.orderBy = new ArrayList<>();
     }
 
 
@@ -110,6 +119,14 @@ public class EMFQuery {
             sb.append(" HAVING:           ").append(havingConditions).append("\n");
         }
 
+        if (orderBy != null && !orderBy.isEmpty()) {
+            sb.append(" ORDER BY:         ").append(orderBy).append("\n");
+        }
+
+        if (limit >= 0) {
+            sb.append(" LIMIT:            ").append(limit).append("\n");
+        }
+
         sb.append("+--------------------------------------------------------------------------------+\n");
 
         return sb.toString();
@@ -0,0 +1,57 @@
+package edu.stevens.cs562;
+
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Hash index from a key to the mf-structure entries that have it, used by the
+ * generated code for a grouping variable whose σ is an AND chain containing
+ * gv.a = a for grouping attributes a (see PartitionAnalyzer.equalityAttributes).
+ * Instead of testing σ against every entry, a row only tests the entries with
+ * the same values of those attributes.
+ *
+ * Entries never move after scan 0, so the index is built once (per spill
+ * partition) and then only read.
+ */
+public class EntryIndex {
+
+    private static final int[] NONE = new int[0];
+
+    private final Map<Object, int[]> entries;
+
+    private EntryIndex(Map<Object, int[]> entries) {
+        this.entries = entries;
+    }
+
+    /** Index entries 0..count-1 by key.apply(entry). */
+    public static EntryIndex build(int count, IntFunction<Object> key) {
+        Map<Object, List<Integer>> lists = new HashMap<>(Math.max(16, count * 2));
+        for (int i = 0; i < count; i++) {
+            lists.computeIfAbsent(key.apply(i), k -> new ArrayList<>(1)).add(i);
+        }
+        Map<Object, int[]> entries = new HashMap<>(Math.max(16, lists.size() * 2));
+        for (Map.Entry<Object, List<Integer>> e : lists.entrySet()) {
+            entries.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return new EntryIndex(entries);
+    }
+
+    /** The entries with this key, in entry order; empty if there are none. */
+    public int[] get(Object key) {
+        int[] found = entries.get(key);
+        return found == null ? NONE : found;
+    }
+
+    /** Key of one or more attribute values (boxed ints, strings, dates; null allowed). */
+    public static Object key(Object value) {
+        return value;
+    }
+
+    public static Object key(Object... values) {
+        return Arrays.asList(values);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,92 @@
+package edu.stevens.cs562;
+
+/**
+ * A value computed from a sample and the half-width of its confidence interval,
+ * printed as "value +/- error" by the approximate mode of the generated query.
+ *
+ * Errors combine through arithmetic with the first-order (delta method) rules,
+ * treating the operands as independent: sums and differences add the errors in
+ * quadrature, products and quotients add the relative errors in quadrature. An
+ * error of NaN means no bound is known (min, max, sketches) and stays NaN through
+ * any arithmetic; it prints as "?".
+ */
+public class Estimate {
+
+    public final double value;
+    public final double error;
+
+    public Estimate(double value, double error) {
+        this.value = value;
+        this.error = error;
+    }
+
+    /** A value that does not depend on the sample (a constant or grouping attribute). */
+    public static Estimate exact(double value) {
+        return new Estimate(value, 0);
+    }
+
+    /** A value from the sample without an error bound. */
+    public static Estimate unbounded(double value) {
+        return new Estimate(value, Double.NaN);
+    }
+
+    /**
+     * 95% (for z = 1.96) bound of count / rate, for a count over a sample that
+     * holds every row with probability rate: the variance is count (1 - rate) / rate^2.
+     */
+    public static double countError(double count, double rate, double z) {
+        return z * Math.sqrt(count * (1 - rate)) / rate;
+    }
+
+    /** Bound of sum / rate, from the sum of the squares of the sampled values. */
+    public static double sumError(double squares, double rate, double z) {
+        return z * Math.sqrt((1 - rate) * squares) / rate;
+    }
+
+    /**
+     * Bound of the sample mean sum / n, z * s / sqrt(n) with the finite population
+     * correction for a sample of the given rate; NaN when n < 2 leaves s unknown.
+     */
+    public static double meanError(double sum, double squares, long n, double rate, double z) {
+        if (rate >= 1) return 0;
+        if (n < 2) return Double.NaN;
+        double variance = Math.max(0, squares - sum * sum / n) / (n - 1);
+        return z * Math.sqrt(variance / n * (1 - rate));
+    }
+
+    /** A running aggregate without a bound (min, max) after reading the fraction rate: exact at 1. */
+    public static Estimate partial(double value, double rate) {
+        return rate >= 1 ? exact(value) : unbounded(value);
+    }
+
+    public Estimate plus(Estimate o) {
+        return new Estimate(value + o.value, Math.hypot(error, o.error));
+    }
+
+    public Estimate minus(Estimate o) {
+        return new Estimate(value - o.value, Math.hypot(error, o.error));
+    }
+
+    public Estimate times(Estimate o) {
+        return new Estimate(value * o.value, Math.hypot(value * o.error, o.value * error));
+    }
+
+    public Estimate div(Estimate o) {
+        double v = value / o.value;
+        return new Estimate(v, Math.hypot(error / o.value, v * o.error / o.value));
+    }
+
+    @Override
+    public String toString() {
+        String v = format(value);
+        if (Double.isNaN(error)) return v + " +/- ?";
+        if (error == 0) return v;
+        return v + " +/- " + format(error);
+    }
+
+    // Whole numbers without a fraction, others with two decimals
+    private static String format(double d) {
+        if (d == Math.rint(d) && Math.abs(d) < 1e15) return String.valueOf((long) d);
+        return String.format("%.2f", d);
+    }
+}
@@ -0,0 +1,303 @@
+package edu.stevens.cs562;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Expression tree of σ0, the σi, HAVING and the SELECT items.
+ *
+ * parse() reads one side of a Condition or one SELECT item:
+ *
+ *   avg(x.quant)                ->  Aggregate(avg, x, quant)
+ *   month - 1                   ->  Binary(-, Column(month), Literal(1))
+ *   sum(x.quant)/sum(y.quant)   ->  Binary(/, Aggregate, Aggregate)
+ *
+ * and of() builds the predicate of a whole ConditionExpression, with AND binding
+ * tighter than OR as in SQL. The tree itself is untyped; ExprCompiler resolves
+ * it against a query, infers the types, folds constants and emits Java code.
+ */
+public abstract class Expr {
+
+    /** Integer, Long, Double, String or Boolean constant. */
+    public static class Literal extends Expr {
+        public final Object value;
+
+        public Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return value instanceof String ? "'" + ((String) value).replace("'", "''") + "'" : String.valueOf(value);
+        }
+    }
+
+    /** gv.attr (a column of the grouping variable's row) or a bare name (var == null). */
+    public static class Column extends Expr {
+        public final String var;
+        public final String name;
+
+        public Column(String var, String name) {
+            this.var = var;
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return var == null ? name : var + "." + name;
+        }
+    }
+
+    /** f(gv.attr), attribute "*" for count(gv.*). */
+    public static class Aggregate extends Expr {
+        public final String function;
+        public final String var;
+        public final String attribute;
+
+        public Aggregate(String function, String var, String attribute) {
+            this.function = function;
+            this.var = var;
+            this.attribute = attribute;
+        }
+
+        @Override
+        public String toString() {
+            return function + "(" + var + "." + attribute + ")";
+        }
+    }
+
+    /** Arithmetic (+ - * /), comparison (= <> < <= > >=) or logical (and, or) operator. */
+    public static class Binary extends Expr {
+        public final String op;
+        public final Expr left;
+        public final Expr right;
+
+        public Binary(String op, Expr left, Expr right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        public boolean isComparison() {
+            return op.equals("=") || op.equals("<>") || op.equals("<") || op.equals("<=") || op.equals(">") || op.equals(">=");
+        }
+
+        public boolean isLogical() {
+            return op.equals("and") || op.equals("or");
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " " + op + " " + right + ")";
+        }
+    }
+
+    public static class Not extends Expr {
+        public final Expr operand;
+
+        public Not(Expr operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + operand;
+        }
+    }
+
+    /** The predicate of a condition chain; null when it has no conditions. */
+    public static Expr of(ConditionExpression expr) {
+        if (expr == null || expr.conditions.isEmpty()) return null;
+        // AND binds tighter than OR: collect AND runs, then OR them together
+        Expr result = null;
+        Expr run = of(expr.conditions.get(0));
+        for (int i = 1; i < expr.conditions.size(); i++) {
+            String op = i - 1 < expr.operators.size() ? expr.operators.get(i - 1).toLowerCase() : "and";
+            Expr next = of(expr.conditions.get(i));
+            if (op.equals("or")) {
+                result = result == null ? run : new Binary("or", result, run);
+                run = next;
+            } else {
+                run = new Binary("and", run, next);
+            }
+        }
+        return result == null ? run : new Binary("or", result, run);
+    }
+
+    public static Expr of(Condition c) {
+        String op = c.operator.equals("!=") ? "<>" : c.operator;
+        Expr cmp = new Binary(op, parse(c.left), parse(c.right));
+        return c.negated ? new Not(cmp) : cmp;
+    }
+
+    /** The conjuncts of an AND chain (the expression itself if it is not one). */
+    public static List<Expr> conjuncts(Expr e) {
+        List<Expr> out = new ArrayList<>();
+        if (e instanceof Binary && ((Binary) e).op.equals("and")) {
+            out.addAll(conjuncts(((Binary) e).left));
+            out.addAll(conjuncts(((Binary) e).right));
+        } else if (e != null) {
+            out.add(e);
+        }
+        return out;
+    }
+
+    /**
+     * Add the row columns e reads to out: every gv.attr, and with bareNames (σ0)
+     * the bare names as well.
+     */
+    public static void columns(Expr e, boolean bareNames, Set<String> out) {
+        if (e instanceof Column) {
+            Column c = (Column) e;
+            if (c.var != null || bareNames) out.add(c.name);
+        } else if (e instanceof Not) {
+            columns(((Not) e).operand, bareNames, out);
+        } else if (e instanceof Binary) {
+            columns(((Binary) e).left, bareNames, out);
+            columns(((Binary) e).right, bareNames, out);
+        }
+    }
+
+    // ================== PARSER ==================
+
+    /** Parse an arithmetic expression: literals, names, gv.attr, aggregates, + - * / and parentheses. */
+    public static Expr parse(String text) {
+        Parser p = new Parser(text);
+        Expr e = p.additive();
+        if (p.pos < p.tokens.size()) {
+            throw new RuntimeException("Unexpected '" + p.tokens.get(p.pos) + "' in expression: " + text);
+        }
+        return e;
+    }
+
+    private static class Parser {
+        final String text;
+        final List<String> tokens = new ArrayList<>();
+        int pos = 0;
+
+        Parser(String text) {
+            this.text = text;
+            int i = 0;
+            while (i < text.length()) {
+                char ch = text.charAt(i);
+                if (Character.isWhitespace(ch)) {
+                    i++;
+                } else if (ch == '\'') {
+                    // quoted string, '' is an escaped quote
+                    StringBuilder sb = new StringBuilder("'");
+                    i++;
+                    while (true) {
+                        if (i >= text.length()) throw new RuntimeException("Unterminated string in expression: " + text);
+                        if (text.charAt(i) == '\'') {
+                            if (i + 1 < text.length() && text.charAt(i + 1) == '\'') {
+                                sb.append('\'');
+                                i += 2;
+                                continue;
+                            }
+                            i++;
+                            break;
+                        }
+                        sb.append(text.charAt(i++));
+                    }
+                    tokens.add(sb.toString());
+                } else if (Character.isDigit(ch)) {
+                    int start = i;
+                    while (i < text.length() && Character.isDigit(text.charAt(i))) i++;
+                    if (i + 1 < text.length() && text.charAt(i) == '.' && Character.isDigit(text.charAt(i + 1))) {
+                        i++;
+                        while (i < text.length() && Character.isDigit(text.charAt(i))) i++;
+                    }
+                    // a digit run followed by letters is a name (e.g. Phi's "1_avg_quant")
+                    while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) i++;
+                    tokens.add(text.substring(start, i));
+                } else if (Character.isLetter(ch) || ch == '_') {
+                    int start = i;
+                    while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) i++;
+                    tokens.add(text.substring(start, i));
+                } else if ("+-*/().".indexOf(ch) >= 0) {
+                    tokens.add(String.valueOf(ch));
+                    i++;
+                } else {
+                    throw new RuntimeException("Unexpected character '" + ch + "' in expression: " + text);
+                }
+            }
+        }
+
+        String peek() {
+            return pos < tokens.size() ? tokens.get(pos) : "";
+        }
+
+        String next() {
+            if (pos >= tokens.size()) throw new RuntimeException("Incomplete expression: " + text);
+            return tokens.get(pos++);
+        }
+
+        void expect(String token) {
+            String t = next();
+            if (!t.equals(token)) throw new RuntimeException("Expected '" + token + "' but found '" + t + "' in expression: " + text);
+        }
+
+        Expr additive() {
+            Expr e = multiplicative();
+            while (peek().equals("+") || peek().equals("-")) {
+                String op = next();
+                e = new Binary(op, e, multiplicative());
+            }
+            return e;
+        }
+
+        Expr multiplicative() {
+            Expr e = unary();
+            while (peek().equals("*") || peek().equals("/")) {
+                String op = next();
+                e = new Binary(op, e, unary());
+            }
+            return e;
+        }
+
+        Expr unary() {
+            if (peek().equals("-")) {
+                next();
+                return new Binary("-", new Literal(0), unary());
+            }
+            return primary();
+        }
+
+        Expr primary() {
+            String t = next();
+            if (t.equals("(")) {
+                Expr e = additive();
+                expect(")");
+                return e;
+            }
+            if (t.startsWith("'")) {
+                return new Literal(t.substring(1));
+            }
+            if (peek().equals("(") && AggregateFunction.isFunction(t.toLowerCase())) {
+                next();
+                String var = next();
+                expect(".");
+                String attr = next();
+                expect(")");
+                return new Aggregate(t.toLowerCase(), var, attr);
+            }
+            if (peek().equals(".")) {
+                next();
+                return new Column(t, next());
+            }
+            if (t.matches("\\d+")) {
+                long v = Long.parseLong(t);
+                return new Literal(v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE ? (Object) (int) v : (Object) v);
+            }
+            if (t.matches("\\d+\\.\\d+")) {
+                return new Literal(Double.parseDouble(t));
+            }
+            if (t.matches("\\w+")) {
+                return new Column(null, t);
+            }
+            throw new RuntimeException("Unexpected '" + t + "' in expression: " + text);
+        }
+    }
+
+}
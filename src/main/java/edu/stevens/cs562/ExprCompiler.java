@@ -0,0 +1,747 @@
+package edu.stevens.cs562;
+
+import java.util.*;
+
+/**
+ * Compiles the Expr trees of a query into Java source for QueryGenerator.
+ *
+ * Every name is resolved and typed before any code is emitted:
+ *
+ *   gv.attr (bare names in σ0)   column of the current row, typed by the table schema
+ *   bare name elsewhere          grouping attribute of the mf-structure entry
+ *   f(gv.attr)                   aggregate field of the entry (avg and quantiles double,
+ *                                count int, count_distinct_approx long, sum long or
+ *                                double and min/max the type of their column)
+ *   + - * /                      int, widened to long or double by the operands; / is
+ *                                double when a side is double or holds a sum or avg
+ *                                (sum(x.quant) / sum(y.quant) is a ratio), and else
+ *                                truncates like SQL, so count(y.prod) = count(x.prod) / 2
+ *                                matches X.count_x / 2
+ *
+ * Constant subtrees are folded, and comparisons become typed primitive code:
+ * == on numbers, equals/compareTo on strings and dates (a string literal compared
+ * with a date is a date constant). Nothing is parsed or boxed at run time.
+ *
+ * Row expressions go through a RowScope, which hoists the work on a row out of
+ * the entry loops: each column is read once per row into a local, row-only
+ * arithmetic and comparisons are evaluated once per row (equal subexpressions
+ * share one local), and string constants are compared as dictionary codes that
+ * are resolved once per scan.
+ *
+ * mayHold() evaluates HAVING between the scans over intervals: aggregates of the
+ * grouping variables already scanned are exact, the others can only grow from
+ * their initial 0 where that is monotone (count, and sum and avg over a column
+ * without negative values) and are unbounded otherwise. A condition is false when
+ * no value within the bounds can make it true.
+ */
+public class ExprCompiler {
+
+    private final PhiOperator phi;
+    private final QueryGenerator generator;
+
+    public ExprCompiler(PhiOperator phi, QueryGenerator generator) {
+        this.phi = phi;
+        this.generator = generator;
+    }
+
+    /**
+     * Locals and per-scan constants of one scan loop over RowSource rs. Without
+     * hoisting (scan 0, where σ0 reads every column once anyway) columns are read
+     * inline and only the constants are shared.
+     */
+    public static class RowScope {
+        final String rs;
+        final boolean hoist;
+        private final Map<String, String> locals = new HashMap<>();
+        private final List<String> declarations = new ArrayList<>();
+        private final List<String> constants = new ArrayList<>();
+        private final Map<String, String> constantNames = new HashMap<>();
+        private int taken = 0;
+
+        public RowScope(String rs, boolean hoist) {
+            this.rs = rs;
+            this.hoist = hoist;
+        }
+
+        /** A local holding expr, declared once per row; equal expressions share it. */
+        String local(String javaType, String expr, String name) {
+            String existing = locals.get(expr);
+            if (existing != null) return existing;
+            if (name == null) name = "e" + locals.size();
+            locals.put(expr, name);
+            declarations.add(javaType + " " + name + " = " + expr + ";");
+            return name;
+        }
+
+        /** A constant computed once per scan, after the column ordinals are resolved. */
+        String constant(String javaType, String expr) {
+            return constantNames.computeIfAbsent(expr, e -> {
+                String name = rs + "_k" + constants.size();
+                constants.add(javaType + " " + name + " = " + e + ";");
+                return name;
+            });
+        }
+
+        /** Row locals declared since the previous call, one statement per line. */
+        public String takeDeclarations(String indent) {
+            StringBuilder sb = new StringBuilder();
+            for (; taken < declarations.size(); taken++) {
+                sb.append(indent).append(declarations.get(taken)).append("\n");
+            }
+            return sb.toString();
+        }
+
+        public String constants(String indent) {
+            StringBuilder sb = new StringBuilder();
+            for (String c : constants) {
+                sb.append(indent).append(c).append("\n");
+            }
+            return sb.toString();
+        }
+    }
+
+    // Name resolution and emission context
+    private static class Ctx {
+        String rowVar;        // σi: the grouping variable whose columns are row columns
+        boolean anyRow;       // σ0: every column reference is a row column
+        String entry;         // "mf_struct[j]"; null in σ0
+        RowScope scope;       // null in HAVING and SELECT
+        boolean perEntry;     // evaluated once per entry: hoist row-only work into the scope
+        boolean guardAvg;     // an avg or quantile only compares once its group has rows (σi)
+        List<String> guards = new ArrayList<>();
+    }
+
+    // Emitted code, its type (int, long, double, string, date, boolean) and whether it only reads the row
+    private static class Code {
+        final String text;
+        final String type;
+        final boolean row;
+
+        Code(String text, String type, boolean row) {
+            this.text = text;
+            this.type = type;
+            this.row = row;
+        }
+    }
+
+    // ================== ENTRY POINTS ==================
+
+    /** σ0 on the current row of scope.rs, "true" when there is no WHERE. */
+    public String where(ConditionExpression where, RowScope scope) {
+        Expr e = fold(Expr.of(where));
+        if (e == null) return "true";
+        Ctx ctx = new Ctx();
+        ctx.anyRow = true;
+        ctx.scope = scope;
+        return unwrap(bool(emit(e, ctx), e));
+    }
+
+    /**
+     * σ of grouping variable gv, split into the conjuncts that only read the row
+     * (tested once per row, before the entry loop; null if there are none) and the
+     * rest, tested against entry mf_struct[j] ("true" if nothing is left).
+     */
+    public String[] match(ConditionExpression sigma, String gv, RowScope scope) {
+        Expr e = fold(Expr.of(sigma));
+        List<String> rowParts = new ArrayList<>();
+        List<String> entryParts = new ArrayList<>();
+        for (Expr c : Expr.conjuncts(e)) {
+            Ctx ctx = new Ctx();
+            ctx.rowVar = gv;
+            ctx.entry = "mf_struct[j]";
+            ctx.scope = scope;
+            ctx.guardAvg = true;
+            ctx.perEntry = !readsRowOnly(c);
+            (ctx.perEntry ? entryParts : rowParts).add(bool(emit(c, ctx), c));
+        }
+        return new String[] {
+            rowParts.isEmpty() ? null : unwrap(String.join(" && ", rowParts)),
+            entryParts.isEmpty() ? "true" : unwrap(String.join(" && ", entryParts))
+        };
+    }
+
+    /** HAVING on entry (e.g. "mf_struct[i]"). */
+    public String having(ConditionExpression having, String entry) {
+        Expr e = fold(Expr.of(having));
+        if (e == null) return "true";
+        return unwrap(bool(emit(e, entryCtx(entry)), e));
+    }
+
+    /**
+     * Whether HAVING can still hold for entry once the grouping variables in done
+     * are final, whatever the remaining scans add: false only when it is certain
+     * to fail. nonNegative names the columns whose sums cannot shrink. "true" when
+     * nothing can be decided for any entry.
+     */
+    public String mayHold(ConditionExpression having, String entry, Set<String> done, Set<String> nonNegative) {
+        Expr e = fold(Expr.of(having));
+        if (e == null) return "true";
+        return unwrap(bounds(e, entryCtx(entry), done, nonNegative)[0]);
+    }
+
+    /** A SELECT item of entry. */
+    public String value(String item, String entry) {
+        Expr e = fold(Expr.parse(item));
+        Code c = emit(e, entryCtx(entry));
+        return c.text;
+    }
+
+    /** An ORDER BY key of entry: its code and its type ("int", "long", "double", "string", "date"). */
+    public String[] key(String item, String entry) {
+        Expr e = fold(Expr.parse(item));
+        Code c = emit(e, entryCtx(entry));
+        return new String[] {c.text, c.type};
+    }
+
+    /** Whether the item reads an aggregate (an Estimate in the approximate modes). */
+    public boolean readsAggregate(String item) {
+        return hasAggregate(fold(Expr.parse(item)));
+    }
+
+    /**
+     * A SELECT item of entry in the approximate mode (QueryGenerator.setSampling):
+     * items that read an aggregate become an Estimate, printed with its error;
+     * the others are plain values as in value().
+     */
+    public String estimate(String item, String entry) {
+        return estimate(item, entry, null);
+    }
+
+    /**
+     * A SELECT item of entry as an Estimate of a progressive scan that has read
+     * the fraction rate (a Java expression) of the rows; null as in estimate().
+     */
+    public String estimate(String item, String entry, String rate) {
+        Expr e = fold(Expr.parse(item));
+        if (!hasAggregate(e)) return value(item, entry);
+        return estimate(e, entry, rate);
+    }
+
+    /**
+     * An int column of the row, for aggregate updates: the row's local when the
+     * scope hoists reads, else an inline read.
+     */
+    public String intColumn(String column, RowScope scope) {
+        if (generator.getColumnType(column).equals("int")) {
+            return column(column, scope).text;
+        }
+        return scope.rs + ".getInt(" + scope.rs + "_" + column + ")";
+    }
+
+    /** Any column of the row, typed by the schema (see intColumn). */
+    public String columnValue(String column, RowScope scope) {
+        return column(column, scope).text;
+    }
+
+    private Ctx entryCtx(String entry) {
+        Ctx ctx = new Ctx();
+        ctx.entry = entry;
+        return ctx;
+    }
+
+    private String bool(Code c, Expr e) {
+        if (!c.type.equals("boolean")) {
+            throw new RuntimeException("Not a condition: " + e);
+        }
+        return c.text;
+    }
+
+    // Drop the parentheses around a whole condition
+    private static String unwrap(String text) {
+        if (!text.startsWith("(") || !text.endsWith(")")) return text;
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = 0; i < text.length() - 1; i++) {
+            char ch = text.charAt(i);
+            if (ch == '"' && (i == 0 || text.charAt(i - 1) != '\\')) quoted = !quoted;
+            if (quoted) continue;
+            if (ch == '(') depth++;
+            if (ch == ')' && --depth == 0) return text;
+        }
+        return text.substring(1, text.length() - 1);
+    }
+
+    // ================== FOLDING ==================
+
+    /** Replace constant subtrees by their value. */
+    static Expr fold(Expr e) {
+        if (e instanceof Expr.Not) {
+            Expr operand = fold(((Expr.Not) e).operand);
+            if (operand instanceof Expr.Literal && ((Expr.Literal) operand).value instanceof Boolean) {
+                return new Expr.Literal(!(Boolean) ((Expr.Literal) operand).value);
+            }
+            return new Expr.Not(operand);
+        }
+        if (!(e instanceof Expr.Binary)) return e;
+        Expr.Binary b = (Expr.Binary) e;
+        Expr l = fold(b.left), r = fold(b.right);
+        if (b.isLogical()) {
+            boolean and = b.op.equals("and");
+            for (Expr[] pair : new Expr[][] {{l, r}, {r, l}}) {
+                if (pair[0] instanceof Expr.Literal && ((Expr.Literal) pair[0]).value instanceof Boolean) {
+                    boolean v = (Boolean) ((Expr.Literal) pair[0]).value;
+                    // true and x = x, false and x = false, true or x = true, false or x = x
+                    return v == and ? pair[1] : pair[0];
+                }
+            }
+            return new Expr.Binary(b.op, l, r);
+        }
+        if (l instanceof Expr.Literal && r instanceof Expr.Literal) {
+            Object a = ((Expr.Literal) l).value, c = ((Expr.Literal) r).value;
+            if (a instanceof Number && c instanceof Number) {
+                Object v = b.isComparison() ? compare(b.op, (Number) a, (Number) c) : arithmetic(b.op, (Number) a, (Number) c);
+                // an integer division by zero is left to fail at run time
+                if (v != null) return new Expr.Literal(v);
+            }
+            if (a instanceof String && c instanceof String && b.isComparison()) {
+                int cmp = ((String) a).compareTo((String) c);
+                return new Expr.Literal(compare(b.op, cmp, 0));
+            }
+        }
+        return new Expr.Binary(b.op, l, r);
+    }
+
+    private static Object arithmetic(String op, Number a, Number b) {
+        boolean real = a instanceof Double || b instanceof Double;
+        if (real) {
+            double x = a.doubleValue(), y = b.doubleValue();
+            switch (op) {
+                case "+": return x + y;
+                case "-": return x - y;
+                case "*": return x * y;
+                default:  return x / y;
+            }
+        }
+        long x = a.longValue(), y = b.longValue(), v;
+        switch (op) {
+            case "+": v = x + y; break;
+            case "-": v = x - y; break;
+            case "*": v = x * y; break;
+            default:
+                if (y == 0) return null;
+                v = x / y;
+                break;
+        }
+        boolean isLong = a instanceof Long || b instanceof Long || v != (int) v;
+        return isLong ? (Object) v : (Object) (int) v;
+    }
+
+    private static boolean compare(String op, Number a, Number b) {
+        int cmp = Double.compare(a.doubleValue(), b.doubleValue());
+        switch (op) {
+            case "=":  return cmp == 0;
+            case "<>": return cmp != 0;
+            case "<":  return cmp < 0;
+            case "<=": return cmp <= 0;
+            case ">":  return cmp > 0;
+            default:   return cmp >= 0;
+        }
+    }
+
+    // ================== EMISSION ==================
+
+    private Code emit(Expr e, Ctx ctx) {
+        if (e instanceof Expr.Literal) return literal(((Expr.Literal) e).value);
+        if (e instanceof Expr.Column) return column((Expr.Column) e, ctx);
+        if (e instanceof Expr.Aggregate) return aggregate((Expr.Aggregate) e, ctx);
+        if (e instanceof Expr.Not) {
+            Code c = emit(((Expr.Not) e).operand, ctx);
+            if (!c.type.equals("boolean")) throw new RuntimeException("NOT of a non-condition: " + e);
+            return new Code("!" + c.text, "boolean", c.row);
+        }
+        Expr.Binary b = (Expr.Binary) e;
+        if (b.isLogical()) {
+            Code l = emit(b.left, ctx), r = emit(b.right, ctx);
+            if (!l.type.equals("boolean") || !r.type.equals("boolean")) {
+                throw new RuntimeException("AND/OR of a non-condition: " + e);
+            }
+            return new Code("(" + l.text + (b.op.equals("and") ? " && " : " || ") + r.text + ")", "boolean", l.row && r.row);
+        }
+        if (b.isComparison()) return comparison(b, ctx);
+        return arithmetic(b, ctx);
+    }
+
+    private Code literal(Object v) {
+        if (v instanceof Integer) return new Code(v.toString(), "int", true);
+        if (v instanceof Long) return new Code(v + "L", "long", true);
+        if (v instanceof Double) return new Code(v.toString(), "double", true);
+        if (v instanceof Boolean) return new Code(v.toString(), "boolean", true);
+        return new Code(javaString((String) v), "string", true);
+    }
+
+    private boolean isRowColumn(Expr.Column c, Ctx ctx) {
+        return ctx.anyRow || (c.var != null && c.var.equals(ctx.rowVar));
+    }
+
+    private Code column(Expr.Column c, Ctx ctx) {
+        if (isRowColumn(c, ctx)) {
+            return column(c.name, ctx.scope);
+        }
+        if (c.var != null) {
+            throw new RuntimeException(ctx.rowVar != null
+                ? "σ of " + ctx.rowVar + " can only read columns of " + ctx.rowVar + ", not " + c
+                : "Column " + c + " outside σ; use an aggregate");
+        }
+        if (!phi.groupingAttributes.contains(c.name)) {
+            throw new RuntimeException("Unknown name " + c.name + ": not a grouping attribute");
+        }
+        return new Code(ctx.entry + "." + c.name, generator.getColumnType(c.name), false);
+    }
+
+    private Code column(String name, RowScope scope) {
+        String type = generator.getColumnType(name);
+        String read = scope.rs + "." + accessor(type) + "(" + scope.rs + "_" + name + ")";
+        if (!scope.hoist) return new Code(read, type, true);
+        return new Code(scope.local(javaType(type), read, "v_" + name), type, true);
+    }
+
+    // The dictionary code of a string column of the row
+    private String code(String name, RowScope scope) {
+        String read = scope.rs + ".getCode(" + scope.rs + "_" + name + ")";
+        return scope.hoist ? scope.local("int", read, "c_" + name) : read;
+    }
+
+    private Code aggregate(Expr.Aggregate a, Ctx ctx) {
+        if (ctx.entry == null) {
+            throw new RuntimeException("Aggregate " + a + " in σ0");
+        }
+        AggregateFunction agg = find(a);
+        String field = ctx.entry + "." + generator.fieldName(agg);
+        String guard = a.function.equals("avg") ? field + "_cnt > 0"
+            : agg.quantile() >= 0 ? field + "_sketch.count() > 0" : null;
+        if (ctx.guardAvg && guard != null && !ctx.guards.contains(guard)) {
+            ctx.guards.add(guard);
+        }
+        return new Code(field, generator.getAggregateType(agg), false);
+    }
+
+    private AggregateFunction find(Expr.Aggregate a) {
+        for (AggregateFunction agg : phi.fVect) {
+            if (agg.getFunctionName().equals(a.function) && agg.getGroupingVarName().equals(a.var)
+                    && agg.getAttribute().equals(a.attribute)) {
+                return agg;
+            }
+        }
+        throw new RuntimeException("Aggregate " + a + " is not computed by the query");
+    }
+
+    // Estimate code of an expression over aggregates, grouping attributes and constants
+    private String estimate(Expr e, String entry, String rate) {
+        if (e instanceof Expr.Aggregate) {
+            AggregateFunction agg = find((Expr.Aggregate) e);
+            return generator.aggregateEstimate(agg, entry + "." + generator.fieldName(agg), rate);
+        }
+        if (e instanceof Expr.Binary && !((Expr.Binary) e).isComparison() && !((Expr.Binary) e).isLogical()) {
+            Expr.Binary b = (Expr.Binary) e;
+            String op = b.op.equals("+") ? "plus" : b.op.equals("-") ? "minus" : b.op.equals("*") ? "times" : "div";
+            return estimate(b.left, entry, rate) + "." + op + "(" + estimate(b.right, entry, rate) + ")";
+        }
+        Code c = emit(e, entryCtx(entry));
+        if (!isNumeric(c.type)) {
+            throw new RuntimeException("Arithmetic on " + c.type + ": " + e);
+        }
+        return "Estimate.exact(" + c.text + ")";
+    }
+
+    // ================== BOUNDS ==================
+
+    // A numeric expression between the scans: exact code, or double bounds (null = unbounded)
+    private static class Range {
+        final Code exact;
+        final String lo, hi;
+
+        Range(Code exact, String lo, String hi) {
+            this.exact = exact;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        // a numeric literal keeps its value as both bounds, so constant bounds fold
+        String lo() {
+            return lo != null || exact == null ? lo : "(double) " + exact.text;
+        }
+
+        String hi() {
+            return hi != null || exact == null ? hi : "(double) " + exact.text;
+        }
+    }
+
+    private Range range(Expr e, Ctx ctx, Set<String> done, Set<String> nonNegative) {
+        if (e instanceof Expr.Aggregate && !done.contains(((Expr.Aggregate) e).var)) {
+            // not scanned yet: still 0, and what it grows to is bounded below when monotone
+            Expr.Aggregate a = (Expr.Aggregate) e;
+            boolean grows = a.function.equals("count")
+                || (nonNegative.contains(a.attribute) && (a.function.equals("sum") || a.function.equals("avg")));
+            return new Range(null, grows ? "0.0" : null, null);
+        }
+        if (e instanceof Expr.Literal && ((Expr.Literal) e).value instanceof Number) {
+            String value = String.valueOf(((Number) ((Expr.Literal) e).value).doubleValue());
+            return new Range(literal(((Expr.Literal) e).value), value, value);
+        }
+        if (e instanceof Expr.Binary && !((Expr.Binary) e).isComparison() && !((Expr.Binary) e).isLogical()) {
+            Expr.Binary b = (Expr.Binary) e;
+            Range l = range(b.left, ctx, done, nonNegative), r = range(b.right, ctx, done, nonNegative);
+            if (l.exact != null && r.exact != null) return new Range(emit(e, ctx), null, null);
+            switch (b.op) {
+                case "+": return new Range(null, bound(l.lo(), "+", r.lo()), bound(l.hi(), "+", r.hi()));
+                case "-": return new Range(null, bound(l.lo(), "-", r.hi()), bound(l.hi(), "-", r.lo()));
+                default:
+                    // scaled by a constant: * c on either side, / c on the right
+                    Expr.Literal c = b.right instanceof Expr.Literal ? (Expr.Literal) b.right
+                        : b.op.equals("*") && b.left instanceof Expr.Literal ? (Expr.Literal) b.left : null;
+                    if (c == null || !(c.value instanceof Number) || ((Number) c.value).doubleValue() == 0) {
+                        return new Range(null, null, null);
+                    }
+                    Range x = c == b.right ? l : r;
+                    String k = literal(c.value).text;
+                    boolean negative = ((Number) c.value).doubleValue() < 0;
+                    String lo = bound(negative ? x.hi() : x.lo(), b.op, k), hi = bound(negative ? x.lo() : x.hi(), b.op, k);
+                    if (b.op.equals("/") && !(c.value instanceof Double)) {
+                        // an integer operand truncates, up to 1 from the real quotient
+                        lo = bound(lo, "-", "1.0");
+                        hi = bound(hi, "+", "1.0");
+                    }
+                    return new Range(null, lo, hi);
+            }
+        }
+        return new Range(emit(e, ctx), null, null);
+    }
+
+    // a op b on double bounds, computed when both are constants
+    private static String bound(String a, String op, String b) {
+        if (a == null || b == null) return null;
+        Double x = constant(a), y = constant(b);
+        if (x == null || y == null) return "(" + a + " " + op + " " + b + ")";
+        switch (op) {
+            case "+":  return String.valueOf(x + y);
+            case "-":  return String.valueOf(x - y);
+            case "*":  return String.valueOf(x * y);
+            case "/":  return String.valueOf(x / y);
+            case "<":  return String.valueOf(x < y);
+            case "<=": return String.valueOf(x <= y);
+            case ">":  return String.valueOf(x > y);
+            default:   return String.valueOf(x >= y);
+        }
+    }
+
+    private static Double constant(String bound) {
+        try {
+            return Double.valueOf(bound);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // {may be true, may be false} of a condition between the scans
+    private String[] bounds(Expr e, Ctx ctx, Set<String> done, Set<String> nonNegative) {
+        if (e instanceof Expr.Not) {
+            String[] t = bounds(((Expr.Not) e).operand, ctx, done, nonNegative);
+            return new String[] {t[1], t[0]};
+        }
+        if (!(e instanceof Expr.Binary)) return new String[] {"true", "true"};
+        Expr.Binary b = (Expr.Binary) e;
+        if (b.isLogical()) {
+            String[] l = bounds(b.left, ctx, done, nonNegative), r = bounds(b.right, ctx, done, nonNegative);
+            return b.op.equals("and")
+                ? new String[] {and(l[0], r[0]), or(l[1], r[1])}
+                : new String[] {or(l[0], r[0]), and(l[1], r[1])};
+        }
+        if (!b.isComparison()) return new String[] {"true", "true"};
+        Range l = range(b.left, ctx, done, nonNegative), r = range(b.right, ctx, done, nonNegative);
+        if (l.exact != null && r.exact != null) {
+            String c = emit(b, ctx).text;
+            return new String[] {c, "!" + c};
+        }
+        if ((l.exact != null && !isNumeric(l.exact.type)) || (r.exact != null && !isNumeric(r.exact.type))) {
+            return new String[] {"true", "true"};
+        }
+        String overlap = and(bound(l.lo(), "<=", r.hi()), bound(l.hi(), ">=", r.lo()));
+        switch (b.op) {
+            case ">":  return new String[] {orTrue(bound(l.hi(), ">", r.lo())), orTrue(bound(l.lo(), "<=", r.hi()))};
+            case ">=": return new String[] {orTrue(bound(l.hi(), ">=", r.lo())), orTrue(bound(l.lo(), "<", r.hi()))};
+            case "<":  return new String[] {orTrue(bound(l.lo(), "<", r.hi())), orTrue(bound(l.hi(), ">=", r.lo()))};
+            case "<=": return new String[] {orTrue(bound(l.lo(), "<=", r.hi())), orTrue(bound(l.hi(), ">", r.lo()))};
+            case "=":  return new String[] {overlap, "true"};
+            default:   return new String[] {"true", overlap};
+        }
+    }
+
+    // An unbounded side decides nothing
+    private static String orTrue(String condition) {
+        return condition == null ? "true" : condition;
+    }
+
+    private static String and(String a, String b) {
+        a = orTrue(a);
+        b = orTrue(b);
+        if (a.equals("false") || b.equals("false")) return "false";
+        if (a.equals("true")) return b;
+        if (b.equals("true")) return a;
+        return "(" + a + " && " + b + ")";
+    }
+
+    private static String or(String a, String b) {
+        if (a.equals("true") || b.equals("true")) return "true";
+        if (a.equals("false")) return b;
+        if (b.equals("false")) return a;
+        return "(" + a + " || " + b + ")";
+    }
+
+    private static boolean hasSumOrAvg(Expr e) {
+        if (e instanceof Expr.Aggregate) {
+            String f = ((Expr.Aggregate) e).function;
+            return f.equals("sum") || f.equals("avg");
+        }
+        if (e instanceof Expr.Not) return hasSumOrAvg(((Expr.Not) e).operand);
+        if (e instanceof Expr.Binary) return hasSumOrAvg(((Expr.Binary) e).left) || hasSumOrAvg(((Expr.Binary) e).right);
+        return false;
+    }
+
+    private static boolean hasAggregate(Expr e) {
+        if (e instanceof Expr.Aggregate) return true;
+        if (e instanceof Expr.Not) return hasAggregate(((Expr.Not) e).operand);
+        if (e instanceof Expr.Binary) return hasAggregate(((Expr.Binary) e).left) || hasAggregate(((Expr.Binary) e).right);
+        return false;
+    }
+
+    private Code arithmetic(Expr.Binary b, Ctx ctx) {
+        Code l = emit(b.left, ctx), r = emit(b.right, ctx);
+        if (!isNumeric(l.type) || !isNumeric(r.type)) {
+            throw new RuntimeException("Arithmetic on " + l.type + " and " + r.type + ": " + b);
+        }
+        String type = l.type.equals("double") || r.type.equals("double") ? "double"
+            : l.type.equals("long") || r.type.equals("long") ? "long" : "int";
+        String text = "(" + l.text + " " + b.op + " " + r.text + ")";
+        if (b.op.equals("/") && !type.equals("double") && (hasSumOrAvg(b.left) || hasSumOrAvg(b.right))) {
+            type = "double";
+            text = "((double) " + l.text + " / " + r.text + ")";
+        }
+        return hoisted(new Code(text, type, l.row && r.row), ctx);
+    }
+
+    private Code comparison(Expr.Binary b, Ctx ctx) {
+        String codes = codeComparison(b, ctx);
+        if (codes != null) {
+            return hoisted(new Code("(" + codes + ")", "boolean", true), ctx);
+        }
+        int guards = ctx.guards.size();
+        Code l = emit(b.left, ctx), r = emit(b.right, ctx);
+        String op = b.op;
+        String text;
+
+        if (isNumeric(l.type) && isNumeric(r.type)) {
+            text = l.text + " " + javaOperator(op) + " " + r.text;
+        } else if (l.type.equals("string") && r.type.equals("string")) {
+            text = objectComparison(l.text, op, r.text);
+        } else if (l.type.equals("date") || r.type.equals("date")) {
+            l = asDate(l, b.left, ctx);
+            r = asDate(r, b.right, ctx);
+            text = objectComparison(l.text, op, r.text);
+        } else {
+            throw new RuntimeException("Cannot compare " + l.type + " with " + r.type + ": " + b);
+        }
+
+        // avg(...) of a group without rows is undefined: the comparison is false until it has one
+        List<String> added = ctx.guards.subList(guards, ctx.guards.size());
+        if (!added.isEmpty()) {
+            text = String.join(" && ", added) + " && " + text;
+            added.clear();
+        }
+        return hoisted(new Code("(" + text + ")", "boolean", l.row && r.row), ctx);
+    }
+
+    // gv.attr = 'NY' on the row's dictionary codes: one int compare, no string read
+    private String codeComparison(Expr.Binary b, Ctx ctx) {
+        if (ctx.scope == null || (!b.op.equals("=") && !b.op.equals("<>"))) return null;
+        Expr.Column col;
+        Expr.Literal lit;
+        if (b.left instanceof Expr.Column && b.right instanceof Expr.Literal) {
+            col = (Expr.Column) b.left;
+            lit = (Expr.Literal) b.right;
+        } else if (b.right instanceof Expr.Column && b.left instanceof Expr.Literal) {
+            col = (Expr.Column) b.right;
+            lit = (Expr.Literal) b.left;
+        } else {
+            return null;
+        }
+        if (!(lit.value instanceof String) || !isRowColumn(col, ctx) || !generator.getColumnType(col.name).equals("string")) {
+            return null;
+        }
+        String rs = ctx.scope.rs;
+        String constant = ctx.scope.constant("int", rs + ".codeOf(" + rs + "_" + col.name + ", " + javaString((String) lit.value) + ")");
+        return code(col.name, ctx.scope) + " " + javaOperator(b.op) + " " + constant;
+    }
+
+    private String objectComparison(String l, String op, String r) {
+        switch (op) {
+            case "=":  return l + ".equals(" + r + ")";
+            case "<>": return "!" + l + ".equals(" + r + ")";
+            default:   return l + ".compareTo(" + r + ") " + op + " 0";
+        }
+    }
+
+    private Code asDate(Code c, Expr e, Ctx ctx) {
+        if (c.type.equals("date")) return c;
+        if (c.type.equals("string") && e instanceof Expr.Literal) {
+            String value = (String) ((Expr.Literal) e).value;
+            try {
+                java.sql.Date.valueOf(value);
+            } catch (IllegalArgumentException ex) {
+                throw new RuntimeException("Not a date (yyyy-mm-dd): '" + value + "'");
+            }
+            String expr = "java.sql.Date.valueOf(" + javaString(value) + ")";
+            return new Code(ctx.scope != null ? ctx.scope.constant("java.sql.Date", expr) : expr, "date", true);
+        }
+        throw new RuntimeException("Cannot compare a date with " + c.type + ": " + e);
+    }
+
+    // Row-only work inside an entry loop is computed once per row instead
+    private Code hoisted(Code c, Ctx ctx) {
+        if (!c.row || !ctx.perEntry || ctx.scope == null || !ctx.scope.hoist) return c;
+        return new Code(ctx.scope.local(javaType(c.type), c.text, null), c.type, true);
+    }
+
+    // ================== HELPERS ==================
+
+    // Whether e reads nothing but the row (and constants)
+    private boolean readsRowOnly(Expr e) {
+        if (e instanceof Expr.Aggregate) return false;
+        if (e instanceof Expr.Column) return ((Expr.Column) e).var != null;
+        if (e instanceof Expr.Not) return readsRowOnly(((Expr.Not) e).operand);
+        if (e instanceof Expr.Binary) return readsRowOnly(((Expr.Binary) e).left) && readsRowOnly(((Expr.Binary) e).right);
+        return true;
+    }
+
+    private static boolean isNumeric(String type) {
+        return type.equals("int") || type.equals("long") || type.equals("double");
+    }
+
+    private static String javaOperator(String op) {
+        switch (op) {
+            case "=":  return "==";
+            case "<>": return "!=";
+            default:   return op;
+        }
+    }
+
+    private static String accessor(String type) {
+        switch (type) {
+            case "int":    return "getInt";
+            case "double": return "getDouble";
+            case "date":   return "getDate";
+            default:       return "getString";
+        }
+    }
+
+    private static String javaType(String type) {
+        switch (type) {
+            case "string":  return "String";
+            case "date":    return "java.sql.Date";
+            default:        return type;
+        }
+    }
+
+    static String javaString(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
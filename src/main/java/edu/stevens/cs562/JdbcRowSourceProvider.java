@@ -0,0 +1,305 @@
+package edu.stevens.cs562;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RowSourceProvider over a JDBC connection. Each open() runs SELECT * FROM table
+ * and streams the result with a fetch size, so large tables are not buffered in
+ * memory by the driver (PostgreSQL only streams inside a transaction, so the scan
+ * temporarily switches auto-commit off).
+ *
+ * JDBC has no notion of dictionary codes, so string codes come from a
+ * StringDictionary per table column that is shared by all scans of this provider.
+ *
+ * The scan's query runs on the first next(), so a BlockFilter passed to
+ * filterBlocks() before that is pushed down into its WHERE clause and the
+ * database only sends rows that can satisfy it. Its constants are bound as
+ * parameters, so the SQL text only depends on the shape of the filter. Column
+ * metadata comes from a WHERE 1 = 0 query when the scan is opened. Both queries
+ * are prepared through a StatementCache, so repeated scans of a table reuse their
+ * statements, also when the constants differ.
+ *
+ * A provider made from a connection owns it: closing the provider closes the
+ * connection. A provider made from a StatementCache (e.g. ConnectionPool.statements)
+ * leaves the connection and its statements open for the next query.
+ */
+public class JdbcRowSourceProvider implements RowSourceProvider {
+
+    private final Connection conn;
+    private final StatementCache statements;
+    private final boolean owned;
+    private final Map<String, StringDictionary> dictionaries = new HashMap<>();
+
+    public JdbcRowSourceProvider(Connection conn) {
+        this(new StatementCache(conn), true);
+    }
+
+    /** A provider over the caller's connection, scanning with the statements it has prepared. */
+    public JdbcRowSourceProvider(StatementCache statements) {
+        this(statements, false);
+    }
+
+    private JdbcRowSourceProvider(StatementCache statements, boolean owned) {
+        this.conn = statements.conn;
+        this.statements = statements;
+        this.owned = owned;
+    }
+
+    /**
+     * Map a java.sql.Types code to the simple type system used by the generator
+     * and the row sources: "int", "double", "date" or "string".
+     */
+    public static String simpleType(int sqlType) {
+        switch (sqlType) {
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.BIGINT:
+            case Types.TINYINT:
+                return "int";
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+            case Types.REAL:
+                return "double";
+            case Types.DATE:
+                return "date";
+            default:
+                return "string";
+        }
+    }
+
+    @Override
+    public RowSource open(String table) {
+        try {
+            return new JdbcRowSource(table);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to scan " + table + ": " + e.getMessage(), e);
+        }
+    }
+
+    public Connection connection() {
+        return conn;
+    }
+
+    @Override
+    public String sourceId() {
+        try {
+            return "jdbc:" + conn.getMetaData().getURL();
+        } catch (SQLException e) {
+            return RowSourceProvider.super.sourceId();
+        }
+    }
+
+    /**
+     * SQL condition for a BlockFilter, with a ? for every constant; the constants
+     * are added to params in order (String or Long). Int constraints keep NULLs
+     * when 0 satisfies them, because the generated code reads a NULL int as 0.
+     */
+    static String whereClause(BlockFilter filter, List<Object> params) {
+        List<String> parts = new ArrayList<>();
+        for (BlockFilter.Constraint c : filter.constraints) {
+            String sql;
+            if (c.value != null) {
+                sql = c.column + (c.notEqual ? " <> ?" : " = ?");
+                params.add(c.value);
+            } else if (c.notEqual) {
+                sql = c.column + " <> ?";
+                params.add(c.lo);
+                if (c.lo != 0) sql = "(" + sql + " OR " + c.column + " IS NULL)";
+            } else {
+                List<String> bounds = new ArrayList<>();
+                if (c.lo != Long.MIN_VALUE) {
+                    bounds.add(c.column + " >= ?");
+                    params.add(c.lo);
+                }
+                if (c.hi != Long.MAX_VALUE) {
+                    bounds.add(c.column + " <= ?");
+                    params.add(c.hi);
+                }
+                if (bounds.isEmpty()) continue;
+                sql = String.join(" AND ", bounds);
+                if (c.lo <= 0 && c.hi >= 0) sql = "(" + sql + " OR " + c.column + " IS NULL)";
+            }
+            parts.add(sql);
+        }
+        return String.join(" AND ", parts);
+    }
+
+    @Override
+    public void close() {
+        if (!owned) return;
+        statements.close();
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private class JdbcRowSource implements RowSource {
+        private final String table;
+        private String sql;
+        private PreparedStatement stmt;
+        private ResultSet rs;
+        private String where = "";
+        private final List<Object> params = new ArrayList<>();
+        private final boolean restoreAutoCommit;
+        private final Map<String, Integer> index = new HashMap<>();
+        private final String[] types;
+        private final StringDictionary[] dicts;
+
+        JdbcRowSource(String table) throws SQLException {
+            this.table = table;
+            restoreAutoCommit = conn.getAutoCommit();
+            if (restoreAutoCommit) {
+                conn.setAutoCommit(false);
+            }
+
+            // The columns of SELECT * are known before the scan query runs
+            String columns = "SELECT * FROM " + table + " WHERE 1 = 0";
+            PreparedStatement probe = statements.acquire(columns);
+            try (ResultSet empty = probe.executeQuery()) {
+                ResultSetMetaData meta = empty.getMetaData();
+                types = new String[meta.getColumnCount()];
+                dicts = new StringDictionary[types.length];
+                for (int c = 0; c < types.length; c++) {
+                    String name = meta.getColumnLabel(c + 1).toLowerCase();
+                    index.put(name, c);
+                    types[c] = simpleType(meta.getColumnType(c + 1));
+                    if (types[c].equals("string")) {
+                        dicts[c] = dictionaries.computeIfAbsent(table.toLowerCase() + "." + name, k -> new StringDictionary());
+                    }
+                }
+            } catch (SQLException e) {
+                if (restoreAutoCommit) {
+                    conn.setAutoCommit(true);
+                }
+                throw e;
+            } finally {
+                statements.release(columns, probe);
+            }
+        }
+
+        @Override
+        public void filterBlocks(BlockFilter filter) {
+            if (rs == null) {
+                params.clear();
+                where = whereClause(filter, params);
+            }
+        }
+
+        @Override
+        public int columnIndex(String column) {
+            Integer c = index.get(column.toLowerCase());
+            if (c == null) {
+                throw new IllegalArgumentException("Unknown column: " + column);
+            }
+            return c;
+        }
+
+        @Override
+        public String columnType(int col) {
+            return types[col];
+        }
+
+        @Override
+        public boolean next() {
+            try {
+                if (rs == null) {
+                    sql = "SELECT * FROM " + table + (where.isEmpty() ? "" : " WHERE " + where);
+                    PreparedStatement scan = statements.acquire(sql);
+                    try {
+                        for (int p = 0; p < params.size(); p++) {
+                            Object value = params.get(p);
+                            if (value instanceof String) {
+                                scan.setString(p + 1, (String) value);
+                            } else {
+                                scan.setLong(p + 1, (Long) value);
+                            }
+                        }
+                        rs = scan.executeQuery();
+                    } finally {
+                        // a failed scan gives the statement back here, a running one in close()
+                        if (rs == null) statements.release(sql, scan);
+                    }
+                    stmt = scan;
+                }
+                return rs.next();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public int getInt(int col) {
+            try {
+                return rs.getInt(col + 1);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public double getDouble(int col) {
+            try {
+                return rs.getDouble(col + 1);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public String getString(int col) {
+            try {
+                return rs.getString(col + 1);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public java.sql.Date getDate(int col) {
+            try {
+                return rs.getDate(col + 1);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public int getCode(int col) {
+            return dicts[col].code(getString(col));
+        }
+
+        @Override
+        public int codeOf(int col, String value) {
+            return dicts[col].code(value);
+        }
+
+        @Override
+        public String decode(int col, int code) {
+            return dicts[col].decode(code);
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (rs != null) {
+                    rs.close();
+                    statements.release(sql, stmt);
+                }
+                if (restoreAutoCommit) {
+                    conn.commit();
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
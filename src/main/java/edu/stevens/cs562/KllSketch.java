@@ -0,0 +1,201 @@
+package edu.stevens.cs562;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * KLL quantile sketch (Karnin, Lang, Liberty) over doubles.
+ *
+ * Values are kept in a stack of compactors: an item on level h stands for 2^h
+ * values. When the sketch holds more items than its capacity, the lowest full
+ * level is sorted and every other item (from a random offset) moves up one level,
+ * so the sketch never holds much more than 3k items however many values it sees.
+ * With k = 200 the rank error is about 1.7%; a sketch that has seen fewer than
+ * k values is exact. Sketches merge by concatenating levels and compacting, so
+ * partial sketches of shards combine into the sketch of all their values.
+ *
+ * quantile(q) is the nearest-rank quantile: the smallest retained value whose
+ * cumulative weight reaches q times the number of values.
+ */
+public class KllSketch {
+
+    public static final int DEFAULT_K = 200;
+    private static final int MIN_WIDTH = 8;
+
+    private final int k;
+    private double[][] levels = new double[0][];
+    private int[] sizes = new int[0];
+    private long n = 0;
+    private long random = 0x9E3779B97F4A7C15L;
+
+    // sorted (value, cumulative weight) view for quantile(), rebuilt after updates
+    private double[] sortedValues = null;
+    private long[] cumulative = null;
+
+    public KllSketch() {
+        this(DEFAULT_K);
+    }
+
+    public KllSketch(int k) {
+        if (k < MIN_WIDTH) {
+            throw new IllegalArgumentException("KLL k must be at least " + MIN_WIDTH);
+        }
+        this.k = k;
+    }
+
+    public void update(double value) {
+        if (levels.length == 0) addLevel();
+        append(0, value);
+        n++;
+        sortedValues = null;
+        if (retained() > capacity()) compress();
+    }
+
+    /** Merge another sketch (of any k) into this one. */
+    public void merge(KllSketch other) {
+        while (levels.length < other.levels.length) addLevel();
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        n += other.n;
+        sortedValues = null;
+        while (retained() > capacity()) compress();
+    }
+
+    /** Number of values the sketch has seen. */
+    public long count() {
+        return n;
+    }
+
+    /** Nearest-rank quantile for q in 0..1, NaN when the sketch is empty. */
+    public double quantile(double q) {
+        if (n == 0) return Double.NaN;
+        if (sortedValues == null) sort();
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        int i = Arrays.binarySearch(cumulative, rank);
+        if (i < 0) i = -i - 1;
+        return sortedValues[Math.min(i, sortedValues.length - 1)];
+    }
+
+    /** Estimated size of a full sketch: about 3k doubles plus the level arrays. */
+    public static long maxBytes(int k) {
+        return 64 + 8L * 3 * k + 16L * 16;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(k);
+        out.writeLong(n);
+        out.writeInt(levels.length);
+        for (int h = 0; h < levels.length; h++) {
+            out.writeInt(sizes[h]);
+            for (int i = 0; i < sizes[h]; i++) {
+                out.writeDouble(levels[h][i]);
+            }
+        }
+    }
+
+    public static KllSketch read(DataInputStream in) throws IOException {
+        KllSketch s = new KllSketch(in.readInt());
+        s.n = in.readLong();
+        int height = in.readInt();
+        for (int h = 0; h < height; h++) {
+            s.addLevel();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                s.append(h, in.readDouble());
+            }
+        }
+        return s;
+    }
+
+    // Items allowed on level h: k on the top level, shrinking by 2/3 per level below it
+    private int capacity(int h) {
+        int depth = levels.length - 1 - h;
+        return Math.max(MIN_WIDTH, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+    }
+
+    private int capacity() {
+        int total = 0;
+        for (int h = 0; h < levels.length; h++) total += capacity(h);
+        return total;
+    }
+
+    private int retained() {
+        int total = 0;
+        for (int size : sizes) total += size;
+        return total;
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, levels.length + 1);
+        sizes = Arrays.copyOf(sizes, sizes.length + 1);
+        levels[levels.length - 1] = new double[MIN_WIDTH];
+    }
+
+    private void append(int h, double value) {
+        if (sizes[h] == levels[h].length) {
+            levels[h] = Arrays.copyOf(levels[h], levels[h].length * 2);
+        }
+        levels[h][sizes[h]++] = value;
+    }
+
+    // Compact the lowest level that is at capacity into the level above it
+    private void compress() {
+        for (int h = 0; h < levels.length; h++) {
+            if (sizes[h] < capacity(h)) continue;
+            if (h == levels.length - 1) addLevel();
+            double[] items = levels[h];
+            int size = sizes[h];
+            Arrays.sort(items, 0, size);
+            // an odd item stays behind so the promoted items keep the total weight
+            int pairs = size / 2;
+            int offset = nextBit();
+            for (int i = 0; i < pairs; i++) {
+                append(h + 1, items[2 * i + offset]);
+            }
+            if (size % 2 == 1) {
+                items[0] = items[size - 1];
+                sizes[h] = 1;
+            } else {
+                sizes[h] = 0;
+            }
+            return;
+        }
+    }
+
+    // xorshift64: compaction offsets are pseudo-random but reproducible
+    private int nextBit() {
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        return (int) (random >>> 63);
+    }
+
+    private void sort() {
+        int total = retained();
+        double[] values = new double[total];
+        long[] weights = new long[total];
+        int m = 0;
+        for (int h = 0; h < levels.length; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[m] = levels[h][i];
+                weights[m++] = 1L << h;
+            }
+        }
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+        sortedValues = new double[total];
+        cumulative = new long[total];
+        long sum = 0;
+        for (int i = 0; i < total; i++) {
+            sortedValues[i] = values[order[i]];
+            sum += weights[order[i]];
+            cumulative[i] = sum;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package edu.stevens.cs562;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class Main {
@@ -10,6 +14,80 @@ public class Main {
             String rawQuery;
             int inputFormat = 1; // Default to ESQL
 
+            // Options (--name=value) may appear anywhere; the rest are positional
+            int spillPartitions = 0;
+            int shards = 0;
+            String snapshot = null;
+            boolean metrics = false;
+            boolean events = false;
+            boolean explain = false;
+            boolean analyze = false;
+            boolean optimize = false;
+            double sampleRate = 1;
+            long sampleMillis = 0;
+            boolean sampleBlocks = false;
+            boolean sampleScan0 = false;
+            boolean progressive = false;
+            boolean prune = true;
+            int servePort = -1;
+            int poolSize = QueryServer.DEFAULT_POOL_SIZE;
+            Path catalogFile = SchemaCatalog.DEFAULT_FILE;
+            long catalogTtl = SchemaCatalog.DEFAULT_TTL_MILLIS;
+            boolean refreshCatalog = false;
+            List<String> positional = new ArrayList<>();
+            for (String arg : args) {
+                if (arg.startsWith("--spill=")) {
+                    spillPartitions = Integer.parseInt(arg.substring("--spill=".length()));
+                } else if (arg.startsWith("--shards=")) {
+                    shards = Integer.parseInt(arg.substring("--shards=".length()));
+                } else if (arg.startsWith("--snapshot=")) {
+                    snapshot = arg.substring("--snapshot=".length());
+                } else if (arg.equals("--metrics")) {
+                    metrics = true;
+                } else if (arg.equals("--events")) {
+                    events = true;
+                } else if (arg.startsWith("--sample=")) {
+                    sampleRate = Double.parseDouble(arg.substring("--sample=".length()));
+                } else if (arg.startsWith("--sample-time=")) {
+                    sampleMillis = Long.parseLong(arg.substring("--sample-time=".length()));
+                } else if (arg.equals("--sample-blocks")) {
+                    sampleBlocks = true;
+                } else if (arg.equals("--sample-scan0")) {
+                    sampleScan0 = true;
+                } else if (arg.equals("--progressive")) {
+                    progressive = true;
+                } else if (arg.equals("--no-prune")) {
+                    prune = false;
+                } else if (arg.equals("--serve")) {
+                    servePort = QueryServer.DEFAULT_PORT;
+                } else if (arg.startsWith("--serve=")) {
+                    servePort = Integer.parseInt(arg.substring("--serve=".length()));
+                } else if (arg.startsWith("--pool=")) {
+                    poolSize = Integer.parseInt(arg.substring("--pool=".length()));
+                } else if (arg.startsWith("--catalog=")) {
+                    catalogFile = Paths.get(arg.substring("--catalog=".length()));
+                } else if (arg.startsWith("--catalog-ttl=")) {
+                    catalogTtl = Long.parseLong(arg.substring("--catalog-ttl=".length())) * 1000;
+                } else if (arg.equals("--refresh-catalog")) {
+                    refreshCatalog = true;
+                } else if (arg.equals("--optimize")) {
+                    optimize = true;
+                } else if (arg.equals("--explain")) {
+                    explain = true;
+                } else if (arg.equals("--explain-analyze")) {
+                    explain = true;
+                    analyze = true;
+                } else {
+                    positional.add(arg);
+                }
+            }
+            args = positional.toArray(new String[0]);
+
+            if (servePort >= 0) {
+                serve(servePort, snapshot, poolSize, catalogFile, catalogTtl);
+                return;
+            }
+
             if (args.length > 0) {
                 // Read from file if argument provided
                 rawQuery = readFile(args[0]);
@@ -109,6 +187,8 @@ public class Main {
             System.out.println(rawQuery);
             System.out.println();
 
+            QueryEvents.Parse parseEvent = new QueryEvents.Parse();
+            parseEvent.begin();
             EMFQuery emfQuery;
             if (inputFormat == 1) {
                 // Parse ESQL syntax
@@ -121,6 +201,7 @@ public class Main {
                // System.out.println("--------------This is for debugging The raw Query" + rawQuery);//Debugging
                 emfQuery = phiParser.parse(rawQuery);
             }
+            parseEvent.end();
 
             System.out.println("=== PARSED EMF QUERY ===");
             System.out.println(emfQuery);
@@ -131,14 +212,77 @@ public class Main {
             System.out.println("Query validation passed");
             System.out.println();
 
+            QueryEvents.Convert convertEvent = new QueryEvents.Convert();
+            convertEvent.begin();
             PhiConverter phiConverter = new PhiConverter();
             PhiOperator phi = phiConverter.convert(emfQuery);
+            convertEvent.end();
+
+            // The fingerprint needs the Phi operator, so both events commit only now
+            String fingerprint = QueryFingerprint.of(phi);
+            if (parseEvent.shouldCommit()) {
+                parseEvent.fingerprint = fingerprint;
+                parseEvent.format = inputFormat == 1 ? "esql" : "phi";
+                parseEvent.queryLength = rawQuery.length();
+                parseEvent.commit();
+            }
+            if (convertEvent.shouldCommit()) {
+                convertEvent.fingerprint = fingerprint;
+                convertEvent.groupingVariables = phi.n;
+                convertEvent.commit();
+            }
 
             System.out.println("=== CONVERTING TO PHI OPERATOR ===");
             System.out.println(phi);
+            System.out.println("Fingerprint: " + fingerprint);
 
             System.out.println("=== GENERATING CODE ===");
-            QueryGenerator generator = new QueryGenerator(phi);
+            // Take the schema from the snapshot, or from the catalog file while it is fresh,
+            // so no database connection is needed
+            SchemaCatalog catalog = snapshot != null
+                ? SchemaCatalog.forSnapshot(Paths.get(snapshot))
+                : SchemaCatalog.forDatabase(catalogFile, catalogTtl);
+            if (refreshCatalog) {
+                catalog.refresh(phi.fromTable);
+            }
+            TableSchema schema = catalog.schema(phi.fromTable);
+            System.out.println("Loaded column types from " + (snapshot != null ? "snapshot" : "catalog") + ": " + schema.columnTypes());
+            QueryGenerator generator = new QueryGenerator(phi, schema.columnTypes());
+            CostPlanner.Plan costPlan = null;
+            if (optimize) {
+                costPlan = optimize(phi, generator, catalog, snapshot != null, spillPartitions > 0 || shards > 0);
+            }
+            if (spillPartitions > 0) {
+                generator.setSpillPartitions(spillPartitions);
+                System.out.println("Spilling to " + spillPartitions + " partitions on "
+                    + PartitionAnalyzer.findPartitionAttribute(phi));
+            }
+            if (shards > 0) {
+                generator.setShards(shards);
+                String key = PartitionAnalyzer.findPartitionAttribute(phi);
+                System.out.println("Sharding over " + shards + " workers "
+                    + (key != null ? "on " + key : "by row hash with merged partial aggregates"));
+            }
+            if (sampleMillis > 0) {
+                sampleRate = sampleRateFor(phi, generator, catalog, snapshot != null, costPlan, sampleMillis);
+            }
+            if (sampleRate < 1) {
+                generator.setSampling(sampleRate, sampleBlocks, sampleScan0);
+                System.out.println("Approximate: sampling " + (sampleBlocks ? "blocks" : "rows") + " at rate " + sampleRate
+                    + (sampleScan0 ? " in every scan" : " in scans 1.." + phi.n));
+            }
+            if (progressive) {
+                generator.setProgressive(true);
+                System.out.println("Progressive: estimates are printed to stderr while scan 1 runs"
+                    + " (--progress-interval=MS, --no-progress when running the query)");
+            }
+            generator.setPruning(prune);
+            generator.setMetrics(metrics);
+            generator.setEvents(events);
+            if (explain) {
+                explain(phi, generator, snapshot, analyze, costPlan);
+                return;
+            }
             String generatedCode = generator.generate();
 
             String outputPath = "src/main/java/GeneratedQuery.java";
@@ -150,8 +294,18 @@ public class Main {
 
             System.out.println("\n=== INSTRUCTIONS ===");
             System.out.println("To compile and run:");
-            System.out.println("  javac src/main/java/GeneratedQuery.java");
-            System.out.println("  java -cp src/main/java GeneratedQuery");
+            // Generated code reads rows through edu.stevens.cs562.RowSource, so run it with the project classpath
+            System.out.println("  mvn compile exec:java -Dexec.mainClass=GeneratedQuery"
+                + (snapshot != null ? " -Dexec.args=\"--snapshot=" + snapshot + "\"" : ""));
+            System.out.println("Add --output=csv[:PATH] or --output=columnar:PATH to the arguments to write the result elsewhere");
+            if (metrics) {
+                System.out.println("Metrics are exposed as MBeans under edu.stevens.cs562:type=QueryMetrics;");
+                System.out.println("add --metrics-file=PATH to the arguments to write them as JSON at the end");
+            }
+            if (shards > 0) {
+                System.out.println("Remote workers (coordinator started with --bind=0.0.0.0 --local-workers=M):");
+                System.out.println("  java -cp <classpath> GeneratedQuery --worker=<coordinator-host>:<port>");
+            }
 
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
@@ -160,6 +314,101 @@ public class Main {
         }
     }
 
+    /**
+     * Gather the statistics of the FROM table (pg_stats or a sampling pass, kept in the catalog)
+     * and configure the generator with the cheapest plan. An explicit --spill or
+     * --shards takes precedence over the planner's choice of execution mode.
+     */
+    private static CostPlanner.Plan optimize(PhiOperator phi, QueryGenerator generator, SchemaCatalog catalog,
+                                             boolean local, boolean explicitMode) {
+        CostPlanner.Plan plan = new CostPlanner(phi, generator, catalog.statistics(phi.fromTable), local,
+            Runtime.getRuntime().maxMemory(), Runtime.getRuntime().availableProcessors()).plan();
+        if (explicitMode) {
+            plan.spillPartitions = 0;
+            plan.shards = 0;
+        }
+        plan.apply(generator);
+        System.out.println(plan.comment());
+        return plan;
+    }
+
+    /**
+     * Sample rate that fits the estimated cost of the query into a time budget
+     * (--sample-time=MS), from the cost-based plan when there is one.
+     */
+    private static double sampleRateFor(PhiOperator phi, QueryGenerator generator, SchemaCatalog catalog, boolean local,
+                                        CostPlanner.Plan costPlan, long millis) {
+        CostPlanner.Plan plan = costPlan;
+        if (plan == null) {
+            plan = new CostPlanner(phi, generator, catalog.statistics(phi.fromTable), local,
+                Runtime.getRuntime().maxMemory(), Runtime.getRuntime().availableProcessors()).plan();
+        }
+        double rate = CostPlanner.sampleRate(plan, millis);
+        System.out.println(String.format("Time budget %d ms for estimated cost %.3g: sample rate %.4g", millis, plan.cost, rate));
+        return rate;
+    }
+
+    /**
+     * Server mode: answer queries over HTTP on the loopback interface until the JVM
+     * is stopped, over the snapshots or the database (see QueryServer). The schemas
+     * of a database come from the catalog file while it is fresh, as when generating.
+     */
+    private static void serve(int port, String snapshot, int poolSize, Path catalogFile, long catalogTtl) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        QueryServer server = snapshot != null
+            ? new QueryServer(address, new SnapshotRowSourceProvider(Paths.get(snapshot)),
+                SchemaCatalog.forSnapshot(Paths.get(snapshot)))
+            : new QueryServer(address, new ConnectionPool(Database::connect, poolSize),
+                SchemaCatalog.forDatabase(catalogFile, catalogTtl));
+        server.start();
+        System.out.println("Query server listening on http://" + address.getHostString() + ":" + server.port() + "/query");
+        System.out.println("  curl --data-binary @query.esql 'http://" + address.getHostString() + ":" + server.port() + "/query?output=text'");
+    }
+
+    /**
+     * EXPLAIN: print the plan of the generated query instead of writing it.
+     * EXPLAIN ANALYZE: also compile and run it in this JVM with metrics (the result
+     * rows are discarded) and annotate every step with the actual numbers.
+     */
+    private static void explain(PhiOperator phi, QueryGenerator generator, String snapshot, boolean analyze,
+                                CostPlanner.Plan costPlan) throws Exception {
+        QueryPlan plan = new QueryPlan(phi, generator);
+        if (costPlan != null) {
+            plan.setCostPlan(costPlan);
+        }
+        SnapshotRowSourceProvider snapshots = snapshot != null ? new SnapshotRowSourceProvider(Paths.get(snapshot)) : null;
+        try {
+            if (snapshots != null) {
+                plan.estimateGroups(snapshots.snapshot(phi.fromTable));
+            }
+            QueryMetrics metrics = null;
+            if (analyze) {
+                if (generator.shards() > 0) {
+                    throw new RuntimeException("EXPLAIN ANALYZE runs the query in this JVM and cannot run --shards");
+                }
+                generator.setMetrics(true);
+                QueryCompiler.CompiledQuery query = QueryCompiler.compile(generator.generate());
+                RowSourceProvider source = snapshots != null ? snapshots : new JdbcRowSourceProvider(Database.connect());
+                PrintStream stdout = System.out;
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                try {
+                    query.evaluate(source);
+                    // the spilling evaluation outputs each partition itself
+                    if (generator.spillPartitions() == 0) query.output();
+                } finally {
+                    System.setOut(stdout);
+                    if (source != snapshots) source.close();
+                }
+                metrics = query.metrics();
+                metrics.finish(new String[0]);
+            }
+            System.out.println("\n=== EXPLAIN" + (analyze ? " ANALYZE" : "") + " ===");
+            System.out.print(plan.explain(metrics));
+        } finally {
+            if (snapshots != null) snapshots.close();
+        }
+    }
+
     private static String readFile(String filePath) throws IOException {
         return Files.readString(Paths.get(filePath));
     }
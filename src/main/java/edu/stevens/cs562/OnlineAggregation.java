@@ -0,0 +1,127 @@
+package edu.stevens.cs562;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progressive results of a query generated with QueryGenerator.setProgressive():
+ * while the scan of the grouping variables runs, the current estimate of every
+ * SELECT item of every group is published to a Listener at a fixed interval.
+ *
+ * The scan reads the table in random block order, so the rows seen so far are a
+ * sample of the fraction of the table read; sums and counts are scaled up by that
+ * fraction and carry a 95% bound (see Estimate), which shrinks to 0 when the scan
+ * is done. A listener stops the scan by returning false; output() then prints the
+ * estimates at that point instead of the exact values.
+ *
+ * A new instance has no listener, so a query evaluated by a caller (QueryEngine,
+ * the server, CompiledQuery.evaluate) writes nothing to the console. Generated
+ * main() installs a console view on System.err (redrawn in place on a terminal)
+ * every second, with --progress-interval=MS and --no-progress;
+ * CompiledQuery.onProgress() installs any other listener.
+ */
+public class OnlineAggregation {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+
+    /** Receives the estimates; returns false to stop the scan early. */
+    public interface Listener {
+        boolean update(Progress progress);
+    }
+
+    /** Estimates at one point of the scan. */
+    public static class Progress {
+        // Fraction of the rows passing σ0 that the scan has read, 1 when done
+        public final double fraction;
+        public final long rows;
+        public final long elapsedMillis;
+        public final boolean done;
+        // SELECT items, and per group one value per item: grouping attributes as
+        // they are, items that read an aggregate as Estimate
+        public final List<String> columns;
+        public final List<Object[]> groups;
+
+        public Progress(double fraction, long rows, long elapsedMillis, boolean done,
+                        List<String> columns, List<Object[]> groups) {
+            this.fraction = fraction;
+            this.rows = rows;
+            this.elapsedMillis = elapsedMillis;
+            this.done = done;
+            this.columns = columns;
+            this.groups = groups;
+        }
+    }
+
+    private final List<String> columns;
+    private Listener listener;
+    private long intervalNanos;
+    private long start;
+    private long next;
+
+    public OnlineAggregation(String... columns) {
+        this.columns = List.of(columns);
+    }
+
+    /** Publish to listener every intervalMillis; a null listener only runs the query. */
+    public void setListener(Listener listener, long intervalMillis) {
+        this.listener = listener;
+        this.intervalNanos = intervalMillis * 1_000_000;
+    }
+
+    /**
+     * Install the console view of a command-line run on System.err, applying
+     * --progress-interval=MS and --no-progress.
+     */
+    public void configure(String[] args) {
+        Listener console = console(System.err);
+        long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+        for (String arg : args) {
+            if (arg.startsWith("--progress-interval=")) {
+                intervalMillis = Long.parseLong(arg.substring("--progress-interval=".length()));
+            } else if (arg.equals("--no-progress")) {
+                console = null;
+            }
+        }
+        setListener(console, intervalMillis);
+    }
+
+    /** Called when the query starts; the first update is due one interval later. */
+    public void start() {
+        start = System.nanoTime();
+        next = start + intervalNanos;
+    }
+
+    /** Whether an update is due (checked by the scan every few thousand rows). */
+    public boolean due() {
+        return listener != null && System.nanoTime() >= next;
+    }
+
+    /** Hand the estimates to the listener; false when it asks to stop. */
+    public boolean publish(double fraction, long rows, List<Object[]> groups, boolean done) {
+        if (listener == null) return true;
+        long now = System.nanoTime();
+        next = now + intervalNanos;
+        return listener.update(new Progress(fraction, rows, (now - start) / 1_000_000, done, columns, groups));
+    }
+
+    /** Prints every update as a table; on a terminal the table is redrawn in place. */
+    public static Listener console(PrintStream out) {
+        boolean terminal = System.console() != null;
+        return progress -> {
+            StringBuilder sb = new StringBuilder();
+            if (terminal) sb.append("\033[H\033[2J");
+            sb.append(String.format("%s %.1f%% of the rows (%d) after %d ms%n",
+                progress.done ? "done:" : "progress:", progress.fraction * 100, progress.rows, progress.elapsedMillis));
+            sb.append(String.join(" | ", progress.columns)).append("\n");
+            for (Object[] group : progress.groups) {
+                List<String> values = new ArrayList<>();
+                for (Object v : group) values.add(String.valueOf(v));
+                sb.append(String.join(" | ", values)).append("\n");
+            }
+            out.print(sb);
+            out.flush();
+            return true;
+        };
+    }
+}
@@ -0,0 +1,110 @@
+package edu.stevens.cs562;
+
+import java.util.Arrays;
+
+/**
+ * ORDER BY and LIMIT of the generated query's output, over the entry numbers of
+ * the groups that pass HAVING.
+ *
+ * With LIMIT k, top() keeps the k best entries in a bounded binary heap whose
+ * root is the worst one kept, so each group costs one comparison against the
+ * root and at most log k more: O(groups log k) instead of sorting every group.
+ * Without LIMIT the entries are sorted; a single int key is packed with the
+ * entry number into a long and sorted as primitives, a single double key is
+ * merge sorted over a primitive array, and other keys use the comparator the
+ * query generates. Ties are broken by entry number (the order of scan 0), so
+ * the output is the same every run.
+ */
+public class OrderBy {
+
+    /** Order of two entries of the mf-structure, negative when a comes first. */
+    public interface EntryComparator {
+        int compare(int a, int b);
+    }
+
+    /**
+     * The best k of the first n entries, in order, in entries[0..result); the
+     * rest of the array is scratch.
+     */
+    public static int top(int[] entries, int n, int k, EntryComparator cmp) {
+        if (k <= 0) return 0;
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            int e = entries[i];
+            if (size < k) {
+                // sift up: the root is the entry that comes last
+                int c = size++;
+                while (c > 0) {
+                    int p = (c - 1) >>> 1;
+                    if (cmp.compare(entries[p], e) >= 0) break;
+                    entries[c] = entries[p];
+                    c = p;
+                }
+                entries[c] = e;
+            } else if (cmp.compare(e, entries[0]) < 0) {
+                siftDown(entries, 0, size, e, cmp);
+            }
+        }
+        // heap sort: move the last entry to the end until the heap is empty
+        for (int end = size - 1; end > 0; end--) {
+            int last = entries[end];
+            entries[end] = entries[0];
+            siftDown(entries, 0, end, last, cmp);
+        }
+        return size;
+    }
+
+    private static void siftDown(int[] heap, int c, int size, int e, EntryComparator cmp) {
+        while (true) {
+            int child = 2 * c + 1;
+            if (child >= size) break;
+            if (child + 1 < size && cmp.compare(heap[child + 1], heap[child]) > 0) child++;
+            if (cmp.compare(heap[child], e) <= 0) break;
+            heap[c] = heap[child];
+            c = child;
+        }
+        heap[c] = e;
+    }
+
+    /** Sort the first n entries by keys[entry]; entries are below 2^31. */
+    public static void sort(int[] entries, int n, int[] keys, boolean descending) {
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            int key = keys[entries[i]];
+            // key in the high half (~key reverses the order), entry in the low half
+            packed[i] = ((long) (descending ? ~key : key) << 32) | entries[i];
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < n; i++) entries[i] = (int) packed[i];
+    }
+
+    /** Sort the first n entries by keys[entry] (Double.compare order), ties by entry. */
+    public static void sort(int[] entries, int n, double[] keys, boolean descending) {
+        sort(entries, n, (a, b) -> {
+            int c = descending ? Double.compare(keys[b], keys[a]) : Double.compare(keys[a], keys[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+    }
+
+    /** Sort the first n entries with cmp (a stable merge sort over the primitive array). */
+    public static void sort(int[] entries, int n, EntryComparator cmp) {
+        int[] buf = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n - width; lo += 2 * width) {
+                int mid = lo + width, hi = Math.min(lo + 2 * width, n);
+                if (cmp.compare(entries[mid - 1], entries[mid]) <= 0) continue;
+                System.arraycopy(entries, lo, buf, lo, hi - lo);
+                int i = lo, j = mid, o = lo;
+                while (i < mid && j < hi) entries[o++] = cmp.compare(buf[j], buf[i]) < 0 ? buf[j++] : buf[i++];
+                while (i < mid) entries[o++] = buf[i++];
+                while (j < hi) entries[o++] = buf[j++];
+            }
+        }
+    }
+
+    /** Compare strings or dates, nulls first. */
+    public static <T extends Comparable<T>> int compare(T a, T b) {
+        if (a == null || b == null) return a == null ? (b == null ? 0 : -1) : 1;
+        return a.compareTo(b);
+    }
+}
@@ -0,0 +1,34 @@
+package edu.stevens.cs562;
+
+/**
+ * One key of ORDER BY: a SELECT-style expression over the grouping attributes
+ * and aggregates (e.g. "sum(x.quant)" or "cust"), ascending unless descending.
+ */
+public class OrderItem {
+
+    public final String expression;
+    public final boolean descending;
+
+    public OrderItem(String expression, boolean descending) {
+        this.expression = expression;
+        this.descending = descending;
+    }
+
+    /** Parse "expr", "expr asc" or "expr desc" (case-insensitive). */
+    public static OrderItem parse(String s) {
+        String t = s.trim();
+        String lower = t.toLowerCase();
+        if (lower.endsWith(" desc")) {
+            return new OrderItem(t.substring(0, t.length() - 5).trim(), true);
+        }
+        if (lower.endsWith(" asc")) {
+            return new OrderItem(t.substring(0, t.length() - 4).trim(), false);
+        }
+        return new OrderItem(t, false);
+    }
+
+    @Override
+    public String toString() {
+        return expression + (descending ? " desc" : "");
+    }
+}
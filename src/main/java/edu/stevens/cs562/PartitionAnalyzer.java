@@ -0,0 +1,182 @@
+package edu.stevens.cs562;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether the rows of a query can be split into independent partitions.
+ *
+ * A grouping attribute a is a partition attribute when every σi (i = 1..n) is a
+ * pure AND chain that contains the equality  gv.a = a  for its grouping variable.
+ * In that case a row t can only update entries e with t.a == e.a, so hashing both
+ * rows and entries on a gives partitions that can be evaluated one at a time.
+ *
+ * Example:
+ *   σ1 = x.cust = cust AND x.state = 'NY'
+ *   σ2 = y.cust = cust AND y.state = 'NJ'      -> partition attribute: cust
+ *
+ *   σ1 = x.prod = prod AND x.month = month
+ *   σ2 = y.prod = prod                         -> partition attribute: prod
+ *
+ *   σ2 = y.cust <> cust AND y.prod = prod      -> prod (cust is not an equality)
+ */
+public class PartitionAnalyzer {
+
+    /**
+     * Returns the first grouping attribute (in V order) that partitions every σi,
+     * or null if there is none.
+     */
+    public static String findPartitionAttribute(PhiOperator phi) {
+        for (String attr : phi.groupingAttributes) {
+            boolean all = true;
+            for (int i = 0; i < phi.n && all; i++) {
+                String gv = phi.groupingVariableNames.get(i);
+                all = isEqualityOn(phi.predicates.get(i + 1), gv, attr);
+            }
+            if (all) {
+                return attr;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * True when the rows can be split arbitrarily (for example by row hash) and the
+     * partial aggregates merged afterwards. That holds as long as no σi compares
+     * against an aggregate, because such a comparison needs the global value of
+     * that aggregate while scanning.
+     */
+    public static boolean isRowPartitionable(PhiOperator phi) {
+        for (int i = 1; i < phi.predicates.size(); i++) {
+            for (Condition c : phi.predicates.get(i).conditions) {
+                if (AGGREGATE.matcher(c.left).find() || AGGREGATE.matcher(c.right).find()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps a key or row hash to one of n partitions. The murmur3 finalizer spreads
+     * small consecutive keys (day, month) evenly before taking the modulus.
+     */
+    public static int partitionOf(int hash, int n) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, n);
+    }
+
+    /**
+     * Columns a scan over the spilled rows needs: the grouping attributes, every
+     * gv.attr read by a σi and every aggregated attribute. Columns only used by σ0
+     * are not needed because σ0 is applied before spilling.
+     */
+    public static List<String> referencedColumns(PhiOperator phi) {
+        Set<String> cols = new LinkedHashSet<>(phi.groupingAttributes);
+        for (int i = 1; i < phi.predicates.size(); i++) {
+            Expr.columns(Expr.of(phi.predicates.get(i)), false, cols);
+        }
+        for (AggregateFunction agg : phi.fVect) {
+            if (!agg.getAttribute().equals("*")) {
+                cols.add(agg.getAttribute());
+            }
+        }
+        return new ArrayList<>(cols);
+    }
+
+    /**
+     * Grouping attributes a for which σ of grouping variable i (0-based) is an AND
+     * chain containing gv.a = a. A row can only match entries with the same values
+     * of these attributes, so they can key a hash index of the entries.
+     */
+    public static List<String> equalityAttributes(PhiOperator phi, int i) {
+        List<String> attrs = new ArrayList<>();
+        for (String attr : phi.groupingAttributes) {
+            if (isEqualityOn(phi.predicates.get(i + 1), phi.groupingVariableNames.get(i), attr)) {
+                attrs.add(attr);
+            }
+        }
+        return attrs;
+    }
+
+    /**
+     * Grouping attributes a for which σ of grouping variable i (0-based) is an AND
+     * chain containing gv.a = a + k for an integer constant k (gv.a = a, a + 1,
+     * a - 1, ...), mapped to k. Entries matching a row then have a = gv.a - k.
+     */
+    public static Map<String, Integer> equalityOffsets(PhiOperator phi, int i) {
+        Map<String, Integer> offsets = new LinkedHashMap<>();
+        ConditionExpression sigma = phi.predicates.get(i + 1);
+        for (String op : sigma.operators) {
+            if (!op.equalsIgnoreCase("and")) return offsets;
+        }
+        String gv = phi.groupingVariableNames.get(i);
+        for (Condition c : sigma.conditions) {
+            if (c.negated || !c.operator.equals("=") || !c.left.startsWith(gv + ".")) continue;
+            String attr = c.left.substring(gv.length() + 1);
+            Matcher m = OFFSET.matcher(c.right);
+            if (phi.groupingAttributes.contains(attr) && m.matches() && m.group(1).equals(attr)) {
+                int k = m.group(2) == null ? 0 : Integer.parseInt(m.group(3));
+                offsets.putIfAbsent(attr, "-".equals(m.group(2)) ? -k : k);
+            }
+        }
+        return offsets;
+    }
+
+    /** The entry a row of grouping variable i maps to, e.g. "(prod, month) = (x.prod, x.month + 1)". */
+    static String offsetEntry(PhiOperator phi, int i) {
+        Map<String, Integer> offsets = equalityOffsets(phi, i);
+        String gv = phi.groupingVariableNames.get(i);
+        List<String> values = new ArrayList<>();
+        for (String attr : phi.groupingAttributes) {
+            int k = offsets.getOrDefault(attr, 0);
+            values.add(gv + "." + attr + (k == 0 ? "" : k > 0 ? " - " + k : " + " + (-k)));
+        }
+        return "(" + String.join(", ", phi.groupingAttributes) + ") = (" + String.join(", ", values) + ")";
+    }
+
+    private static final Pattern OFFSET = Pattern.compile("(\\w+)\\s*(?:([+-])\\s*(\\d+))?");
+
+    /**
+     * Grouping variables whose aggregates σ of grouping variable i (0-based) compares
+     * against; they must be complete before i is evaluated.
+     */
+    public static List<String> dependencies(PhiOperator phi, int i) {
+        Set<String> deps = new LinkedHashSet<>();
+        String gv = phi.groupingVariableNames.get(i);
+        for (Condition c : phi.predicates.get(i + 1).conditions) {
+            Matcher m = AGGREGATE.matcher(c.left + " " + c.right);
+            while (m.find()) {
+                if (!m.group(1).equals(gv)) deps.add(m.group(1));
+            }
+        }
+        return new ArrayList<>(deps);
+    }
+
+    private static final Pattern AGGREGATE = Pattern.compile("\\b(?:" + AggregateFunction.FUNCTIONS + ")\\((\\w+)\\.");
+
+    private static boolean isEqualityOn(ConditionExpression sigma, String gv, String attr) {
+        for (String op : sigma.operators) {
+            if (!op.equalsIgnoreCase("and")) {
+                return false;
+            }
+        }
+        for (Condition c : sigma.conditions) {
+            if (!c.negated && c.operator.equals("=")
+                    && c.left.equals(gv + "." + attr) && c.right.equals(attr)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,5 +1,7 @@
 package edu.stevens.cs562;
 
+import java.util.ArrayList;
+
 /**
  * Converts EMFQuery to PhiOperator
  *
@@ -42,6 +44,8 @@ public class PhiConverter {
         // Additional metadata
         phi.fromTable = query.fromTable;
         phi.groupingVariableNames = query.groupingVariableNames;
+        phi.orderBy = query.orderBy != null ? query.orderBy : new ArrayList<>();
+        phi.limit = query.limit;
 
         return phi;
     }
@@ -19,6 +19,12 @@ import java.util.*;
  * 3.state='CT'
  * HAVING_CONDITION(G) 𝛔
  * 1_sum_quant > 2 * 2_sum_quant or 1_avg_quant > 3_avg_quant
+ * ORDER BY:
+ * sum(1.quant) desc, cust
+ * LIMIT:
+ * 10
+ *
+ * ORDER BY and LIMIT are optional and order and cut the output.
  */
 public class PhiInputParser {
 
@@ -55,7 +61,27 @@ public class PhiInputParser {
         String havingLine = sections.getOrDefault("HAVING_CONDITION(G)", "").trim();
 
         // Convert to EMFQuery format
-        return convertToEMFQuery(fromTable, whereCondition, selectAttributes, n, groupingAttributes, fVect, predicates, havingLine);
+        EMFQuery query = convertToEMFQuery(fromTable, whereCondition, selectAttributes, n, groupingAttributes, fVect, predicates, havingLine);
+
+        // Parse ORDER BY and LIMIT
+        for (String item : parseCommaSeparated(sections.get("ORDER BY"))) {
+            OrderItem order = OrderItem.parse(item);
+            query.orderBy.add(order);
+            extractAggregatesFromExpression(order.expression, query.fVectors);
+        }
+        String limitLine = sections.getOrDefault("LIMIT", "").trim();
+        if (!limitLine.isEmpty()) {
+            try {
+                query.limit = Integer.parseInt(limitLine);
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Invalid LIMIT: " + limitLine);
+            }
+            if (query.limit < 0) {
+                throw new RuntimeException("Invalid LIMIT: " + limitLine);
+            }
+        }
+
+        return query;
     }
 
     private Map<String, String> parseSections(String input) {
@@ -299,7 +325,7 @@ public class PhiInputParser {
             if (openParen == -1) break;
 
             int fnStart = openParen - 1;
-            while (fnStart >= 0 && Character.isLetterOrDigit(expr.charAt(fnStart))) {
+            while (fnStart >= 0 && (Character.isLetterOrDigit(expr.charAt(fnStart)) || expr.charAt(fnStart) == '_')) {
                 fnStart--;
             }
             fnStart++;
@@ -311,7 +337,7 @@ public class PhiInputParser {
 
             String fn = expr.substring(fnStart, openParen).trim();
 
-            if (fn.matches("(sum|avg|count|min|max)")) {
+            if (AggregateFunction.isFunction(fn)) {
                 int closeParen = openParen + 1;
                 int parenCount = 1;
                 while (closeParen < expr.length() && parenCount > 0) {
@@ -348,7 +374,7 @@ public class PhiInputParser {
             if (openParen == -1) break;
 
             int fnStart = openParen - 1;
-            while (fnStart >= 0 && Character.isLetterOrDigit(expr.charAt(fnStart))) {
+            while (fnStart >= 0 && (Character.isLetterOrDigit(expr.charAt(fnStart)) || expr.charAt(fnStart) == '_')) {
                 fnStart--;
             }
             fnStart++;
@@ -360,7 +386,7 @@ public class PhiInputParser {
 
             String fn = expr.substring(fnStart, openParen).trim();
 
-            if (fn.matches("(sum|avg|count|min|max)")) {
+            if (AggregateFunction.isFunction(fn)) {
                 int closeParen = openParen + 1;
                 int parenCount = 1;
                 while (closeParen < expr.length() && parenCount > 0) {
@@ -402,7 +428,7 @@ public class PhiInputParser {
             if (openParen == -1) break;
 
             int fnStart = openParen - 1;
-            while (fnStart >= 0 && Character.isLetterOrDigit(expr.charAt(fnStart))) {
+            while (fnStart >= 0 && (Character.isLetterOrDigit(expr.charAt(fnStart)) || expr.charAt(fnStart) == '_')) {
                 fnStart--;
             }
             fnStart++;
@@ -414,7 +440,7 @@ public class PhiInputParser {
 
             String fn = expr.substring(fnStart, openParen).trim();
 
-            if (fn.matches("(sum|avg|count|min|max)")) {
+            if (AggregateFunction.isFunction(fn)) {
                 int closeParen = openParen + 1;
                 int parenCount = 1;
                 while (closeParen < expr.length() && parenCount > 0) {
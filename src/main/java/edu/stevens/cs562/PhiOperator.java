@@ -14,6 +14,8 @@ import java.util.List;
  * - F: aggregate functions
  * - σ: predicates (σ0=WHERE, σ1..σn=SUCH THAT for each grouping var)
  * - G: HAVING clause
+ *
+ * ORDER BY and LIMIT are not Phi operands; they only order and cut the output.
  */
 public class PhiOperator {
     // 1. S - List of projected attributes/expressions for query output
@@ -40,6 +42,10 @@ public class PhiOperator {
     public String fromTable;
     public List<String> groupingVariableNames;  // ["x", "y", "z"]
 
+    // ORDER BY keys and LIMIT of the output (-1 = every group)
+    public List<OrderItem> orderBy;
+    public int limit = -1;
+
     public PhiOperator() {
         this.selectAttributes = new ArrayList<>();
         this.n = 0;
@@ -48,6 +54,7 @@ public class PhiOperator {
         this.predicates = new ArrayList<>();
         this.having = new ConditionExpression();
         this.groupingVariableNames = new ArrayList<>();
+        this.orderBy = new ArrayList<>();
     }
 
     @Override
@@ -70,6 +77,12 @@ public class PhiOperator {
             }
         }
         sb.append(" 6. G (HAVING):        ").append(having).append("\n");
+        if (!orderBy.isEmpty()) {
+            sb.append("    ORDER BY:          ").append(orderBy).append("\n");
+        }
+        if (limit >= 0) {
+            sb.append("    LIMIT:             ").append(limit).append("\n");
+        }
         sb.append("+----------------------------------------------------------------------------+\n");
         return sb.toString();
     }
@@ -0,0 +1,78 @@
+package edu.stevens.cs562;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A query compiled by QueryEngine.prepare(), ready to run against any source of
+ * its table. Every execution evaluates in a fresh instance of the generated class,
+ * so executions on different threads do not share an mf-structure.
+ *
+ * The cursors and streams returned here iterate a materialized result: the query runs
+ * to completion, its output rows are copied into a ResultTable, and the cursor or
+ * stream iterates that table. No row is known before the last scan and HAVING are
+ * done, so nothing could be streamed earlier, but the result is held in memory
+ * next to the mf-structure until it is built. To write a large result without
+ * holding it, use execute(rows, sink).
+ */
+public class PreparedQuery {
+
+    public final PhiOperator phi;
+    // Generated Java source, as GeneratedQuery.java would hold it
+    public final String source;
+    private final QueryCompiler.CompiledQuery compiled;
+
+    PreparedQuery(PhiOperator phi, String source, QueryCompiler.CompiledQuery compiled) {
+        this.phi = phi;
+        this.source = source;
+        this.compiled = compiled;
+    }
+
+    /** The SELECT items, the columns of every result. */
+    public List<String> columns() {
+        return phi.selectAttributes;
+    }
+
+    /**
+     * Run against rows, e.g. a SnapshotRowSourceProvider, and return a cursor over
+     * the materialized result; the provider is left open.
+     */
+    public ResultCursor execute(RowSourceProvider rows) throws Exception {
+        ResultTable table = new ResultTable();
+        compiled.execute(rows, table);
+        return new ResultCursor(table);
+    }
+
+    /** Run against a JDBC connection; the connection is left open. */
+    public ResultCursor execute(Connection conn) throws Exception {
+        // the scans of this execution share their statements, closed afterwards
+        try (StatementCache statements = new StatementCache(conn)) {
+            return execute(new JdbcRowSourceProvider(statements));
+        }
+    }
+
+    /** Run on a connection borrowed from pool, reusing the statements it has prepared. */
+    public ResultCursor execute(ConnectionPool pool) throws Exception {
+        Connection conn = pool.borrow();
+        try {
+            return execute(new JdbcRowSourceProvider(pool.statements(conn)));
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    /** Run against rows and write the result to sink (e.g. ResultSink.csv), which is then closed. */
+    public void execute(RowSourceProvider rows, ResultSink sink) throws Exception {
+        compiled.execute(rows, sink);
+    }
+
+    /** The result rows, one value per SELECT item (see ResultCursor.get), read from a materialized result. */
+    public Stream<Object[]> stream(RowSourceProvider rows) throws Exception {
+        return execute(rows).stream();
+    }
+
+    public Stream<Object[]> stream(ConnectionPool pool) throws Exception {
+        return execute(pool).stream();
+    }
+}
@@ -0,0 +1,269 @@
+package edu.stevens.cs562;
+
+import javax.tools.*;
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles generated query source in memory with the system Java compiler and
+ * loads it into its own class loader, so a query can be generated, compiled and
+ * run inside one JVM (benchmarks, tests) without writing GeneratedQuery.java.
+ *
+ * Every compile gets a fresh class loader and every execution a fresh instance of
+ * the generated class, so the mf-structure of one query or execution never leaks
+ * into another. The generated code is compiled against the classpath of the
+ * running JVM.
+ */
+public class QueryCompiler {
+
+    public static final String CLASS_NAME = "GeneratedQuery";
+
+    // The FINGERPRINT constant of generated code, for the compile event
+    private static final Pattern FINGERPRINT = Pattern.compile("static final String FINGERPRINT = \"(\\w+)\"");
+
+    /**
+     * Compile the source of GeneratedQuery (as returned by QueryGenerator.generate()).
+     * Compilation errors are reported in the RuntimeException message.
+     */
+    public static CompiledQuery compile(String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new RuntimeException("No Java compiler available (running on a JRE?)");
+        }
+
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, null);
+        JavaFileManager fileManager = new ForwardingJavaFileManager<>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                       JavaFileObject.Kind kind, FileObject sibling) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                classes.put(className, bytes);
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return bytes;
+                    }
+                };
+            }
+        };
+
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + CLASS_NAME + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        QueryEvents.Compile event = new QueryEvents.Compile();
+        event.begin();
+        List<String> options = List.of("-classpath", classpath(), "-proc:none");
+        boolean ok = compiler.getTask(null, fileManager, diagnostics, options, null, List.of(file)).call();
+        event.end();
+        if (event.shouldCommit()) {
+            Matcher m = FINGERPRINT.matcher(source);
+            event.fingerprint = m.find() ? m.group(1) : "";
+            event.sourceLength = source.length();
+            event.succeeded = ok;
+            event.commit();
+        }
+        if (!ok) {
+            StringBuilder sb = new StringBuilder("Generated query does not compile:");
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                sb.append("\n  line ").append(d.getLineNumber()).append(": ").append(d.getMessage(null));
+            }
+            throw new RuntimeException(sb.toString());
+        }
+
+        ClassLoader loader = new ClassLoader(QueryCompiler.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                ByteArrayOutputStream bytes = classes.get(name);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                byte[] b = bytes.toByteArray();
+                return defineClass(name, b, 0, b.length);
+            }
+        };
+        try {
+            return new CompiledQuery(loader.loadClass(CLASS_NAME));
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The JVM classpath plus the location of this class: under mvn exec:java the
+     * project classes are not on java.class.path.
+     */
+    private static String classpath() {
+        String cp = System.getProperty("java.class.path");
+        try {
+            String self = new File(QueryCompiler.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+            return cp.isEmpty() ? self : cp + File.pathSeparator + self;
+        } catch (Exception e) {
+            return cp;
+        }
+    }
+
+    /**
+     * A loaded GeneratedQuery class. The mf-structure and the rest of the query's
+     * state are fields of a GeneratedQuery instance, so one class can run any
+     * number of queries at once: execute() evaluates in a fresh instance and is
+     * safe to call from several threads.
+     *
+     * evaluate(), output() and the other methods below work on one current
+     * instance (for benchmarks and tests); reset() replaces it with a fresh one.
+     */
+    public static class CompiledQuery {
+        private final Class<?> queryClass;
+        private final Constructor<?> constructor;
+        private final Method evaluate;
+        private final Method execute;
+        private final Method run;
+        private final Method output;
+        private final Method printHeader;
+        private final Field sink;
+        private final Field entries;
+        private Object instance;
+
+        CompiledQuery(Class<?> queryClass) {
+            this.queryClass = queryClass;
+            try {
+                this.constructor = queryClass.getDeclaredConstructor();
+                this.evaluate = queryClass.getDeclaredMethod("evaluate", RowSourceProvider.class);
+                this.execute = queryClass.getDeclaredMethod("execute", RowSourceProvider.class);
+                this.run = queryClass.getDeclaredMethod("run", String[].class);
+                this.output = queryClass.getDeclaredMethod("output");
+                this.printHeader = queryClass.getDeclaredMethod("printHeader");
+                this.sink = queryClass.getDeclaredField("SINK");
+                this.entries = queryClass.getDeclaredField("NUM_OF_ENTRIES");
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Not a generated query class: " + e.getMessage(), e);
+            }
+            constructor.setAccessible(true);
+            evaluate.setAccessible(true);
+            execute.setAccessible(true);
+            run.setAccessible(true);
+            output.setAccessible(true);
+            printHeader.setAccessible(true);
+            sink.setAccessible(true);
+            entries.setAccessible(true);
+        }
+
+        public Class<?> queryClass() {
+            return queryClass;
+        }
+
+        /**
+         * Evaluate the query against source in a fresh instance and write the header
+         * and the result rows that pass HAVING to sink, which is then closed.
+         */
+        public void execute(RowSourceProvider source, ResultSink sink) throws Exception {
+            Object query = newInstance();
+            this.sink.set(query, sink);
+            try {
+                execute.invoke(query, source);
+            } catch (InvocationTargetException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } finally {
+                sink.close();
+            }
+        }
+
+        /**
+         * Run the query as its main() would, with the same arguments, in a fresh
+         * instance in this JVM (e.g. a shard coordinator or worker).
+         */
+        public void run(String... args) throws Exception {
+            try {
+                run.invoke(newInstance(), (Object) args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        public void evaluate(RowSourceProvider source) throws Exception {
+            // a spilling evaluation outputs as it goes
+            sink.set(current(), ResultSink.text(System.out));
+            evaluate.invoke(current(), source);
+        }
+
+        /** Print the result rows that pass HAVING to System.out. */
+        public void output() throws Exception {
+            sink.set(current(), ResultSink.text(System.out));
+            output.invoke(current());
+        }
+
+        /** Write the header and the result rows that pass HAVING to sink, then close it. */
+        public void output(ResultSink sink) throws Exception {
+            this.sink.set(current(), sink);
+            printHeader.invoke(current());
+            output.invoke(current());
+            sink.close();
+        }
+
+        /** The result rows that pass HAVING as typed columns in memory. */
+        public ResultTable result() throws Exception {
+            ResultTable table = new ResultTable();
+            output(table);
+            return table;
+        }
+
+        /** Number of groups in the mf-structure. */
+        public int entries() throws Exception {
+            return entries.getInt(current());
+        }
+
+        /** The query's QueryMetrics, or null when it was generated without metrics. */
+        public QueryMetrics metrics() throws Exception {
+            Field f = optionalField("METRICS");
+            return f == null ? null : (QueryMetrics) f.get(current());
+        }
+
+        /**
+         * Publish the estimates of a progressive query (QueryGenerator.setProgressive)
+         * to listener every intervalMillis while it evaluates.
+         */
+        public void onProgress(OnlineAggregation.Listener listener, long intervalMillis) throws Exception {
+            Field progress = optionalField("PROGRESS");
+            if (progress == null) {
+                throw new RuntimeException("The query was not generated in progressive mode");
+            }
+            ((OnlineAggregation) progress.get(current())).setListener(listener, intervalMillis);
+        }
+
+        /** Start over with an empty mf-structure. */
+        public void reset() throws Exception {
+            instance = newInstance();
+        }
+
+        private Object current() throws Exception {
+            if (instance == null) instance = newInstance();
+            return instance;
+        }
+
+        private Object newInstance() throws Exception {
+            return constructor.newInstance();
+        }
+
+        private Field optionalField(String name) {
+            try {
+                Field f = queryClass.getDeclaredField(name);
+                f.setAccessible(true);
+                return f;
+            } catch (NoSuchFieldException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package edu.stevens.cs562;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Runs ESQL or Phi queries from other Java code, without Main, GeneratedQuery.java
+ * on disk or a second JVM:
+ *
+ *   QueryEngine engine = new QueryEngine(TableSchema.load(conn, "sales").columnTypes());
+ *   PreparedQuery query = engine.prepare("select cust, sum(x.quant) from sales group by cust ; x"
+ *       + " such that x.cust = cust");
+ *   try (ResultCursor rows = query.execute(conn)) {
+ *       while (rows.next()) {
+ *           System.out.println(rows.getString(0) + " " + rows.getInt(1));
+ *       }
+ *   }
+ *
+ * prepare() parses, validates, generates and compiles once (QueryCompiler); the
+ * PreparedQuery runs any number of times, from any number of threads at once,
+ * each execution in its own instance of the generated class. The engine itself
+ * only holds the column types, so engines for different schemas can share a JVM.
+ */
+public class QueryEngine {
+
+    private final Map<String, String> columnTypes;
+
+    /** An engine for tables with these columns (name -> "int", "double", "date" or "string"). */
+    public QueryEngine(Map<String, String> columnTypes) {
+        this.columnTypes = Map.copyOf(columnTypes);
+    }
+
+    /** Prepare a query in ESQL syntax. */
+    public PreparedQuery prepare(String esql) {
+        return prepare(new EMFParser().parse(esql), null);
+    }
+
+    /** Prepare a query in the Phi operator input format (see PhiInputParser). */
+    public PreparedQuery preparePhi(String phi) {
+        return prepare(new PhiInputParser().parse(phi), null);
+    }
+
+    /**
+     * Prepare a query in ESQL syntax with generator options set by options (e.g.
+     * setHashGroups, setSpillPartitions). Sharding starts worker processes and is
+     * not available here.
+     */
+    public PreparedQuery prepare(String esql, Consumer<QueryGenerator> options) {
+        return prepare(new EMFParser().parse(esql), options);
+    }
+
+    /** Prepare an already parsed query (QueryServer parses first to find the table). */
+    PreparedQuery prepare(EMFQuery query, Consumer<QueryGenerator> options) {
+        new EMFValidator().validate(query);
+        PhiOperator phi = PhiConverter.convert(query);
+        QueryGenerator generator = new QueryGenerator(phi, columnTypes);
+        if (options != null) {
+            options.accept(generator);
+        }
+        if (generator.shards() > 0) {
+            throw new RuntimeException("A prepared query runs in this JVM and cannot use shards");
+        }
+        String source = generator.generate();
+        return new PreparedQuery(phi, source, QueryCompiler.compile(source));
+    }
+}
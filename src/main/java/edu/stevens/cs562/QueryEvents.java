@@ -0,0 +1,147 @@
+package edu.stevens.cs562;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the stages of an EMF query: parse, Phi
+ * conversion, code generation and compilation in the engine, every scan and the
+ * output in the generated query. Every event carries the query fingerprint
+ * (QueryFingerprint), so a slow query can be lined up with the GC, I/O and lock
+ * events of the same recording:
+ *
+ *   java -XX:StartFlightRecording=filename=emf.jfr ... GeneratedQuery
+ *   jfr print --events edu.stevens.cs562.Scan emf.jfr
+ *
+ * The engine stages are always recorded. The scan and output events are only in
+ * code generated with --events (QueryGenerator.setEvents): they report row counts,
+ * and the counters would otherwise cost every scanned row whether or not a
+ * recording runs. The generated code creates one event per scan, not per row.
+ */
+public class QueryEvents {
+
+    @Name("edu.stevens.cs562.Parse")
+    @Label("EMF Parse")
+    @Category({"EMF", "Engine"})
+    @StackTrace(false)
+    public static class Parse extends Event {
+        @Label("Fingerprint")
+        public String fingerprint;
+        @Label("Format")
+        @Description("esql or phi")
+        public String format;
+        @Label("Query Length")
+        public int queryLength;
+    }
+
+    @Name("edu.stevens.cs562.Convert")
+    @Label("EMF Phi Conversion")
+    @Category({"EMF", "Engine"})
+    @StackTrace(false)
+    public static class Convert extends Event {
+        @Label("Fingerprint")
+        public String fingerprint;
+        @Label("Grouping Variables")
+        public int groupingVariables;
+    }
+
+    @Name("edu.stevens.cs562.Generate")
+    @Label("EMF Code Generation")
+    @Category({"EMF", "Engine"})
+    @StackTrace(false)
+    public static class Generate extends Event {
+        @Label("Fingerprint")
+        public String fingerprint;
+        @Label("Mode")
+        @Description("memory, spill or shards")
+        public String mode;
+        @Label("Source Length")
+        public int sourceLength;
+    }
+
+    @Name("edu.stevens.cs562.Compile")
+    @Label("EMF Compilation")
+    @Category({"EMF", "Engine"})
+    @StackTrace(false)
+    public static class Compile extends Event {
+        @Label("Fingerprint")
+        public String fingerprint;
+        @Label("Source Length")
+        public int sourceLength;
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    @Name("edu.stevens.cs562.Scan")
+    @Label("EMF Scan")
+    @Category({"EMF", "Query"})
+    @StackTrace(false)
+    public static class Scan extends Event {
+        @Label("Fingerprint")
+        public String fingerprint;
+        @Label("Scan")
+        @Description("0 builds the groups, i > 0 computes the aggregates of grouping variable i")
+        public int scan;
+        @Label("Grouping Variable")
+        public String groupingVariable;
+        @Label("Rows Read")
+        public long rowsRead;
+        @Label("Rows Passing Where")
+        public long rowsPassingWhere;
+        @Label("Matches")
+        public long matches;
+
+        /** End the scan and commit the event if it is enabled. */
+        public void finish(long rowsRead, long rowsPassingWhere, long matches) {
+            end();
+            if (shouldCommit()) {
+                this.rowsRead = rowsRead;
+                this.rowsPassingWhere = rowsPassingWhere;
+                this.matches = matches;
+                commit();
+            }
+        }
+    }
+
+    @Name("edu.stevens.cs562.Output")
+    @Label("EMF Output")
+    @Category({"EMF", "Query"})
+    @StackTrace(false)
+    public static class Output extends Event {
+        @Label("Fingerprint")
+        public String fingerprint;
+        @Label("Entries")
+        public long entries;
+        @Label("Rows Output")
+        public long rowsOutput;
+
+        public void finish(long entries, long rowsOutput) {
+            end();
+            if (shouldCommit()) {
+                this.entries = entries;
+                this.rowsOutput = rowsOutput;
+                commit();
+            }
+        }
+    }
+
+    public static Scan beginScan(String fingerprint, int scan, String groupingVariable) {
+        Scan e = new Scan();
+        e.fingerprint = fingerprint;
+        e.scan = scan;
+        e.groupingVariable = groupingVariable;
+        e.begin();
+        return e;
+    }
+
+    public static Output beginOutput(String fingerprint) {
+        Output e = new Output();
+        e.fingerprint = fingerprint;
+        e.begin();
+        return e;
+    }
+}
@@ -0,0 +1,62 @@
+package edu.stevens.cs562;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Fingerprint of a query: a short hash of its Phi operator with the constants of
+ * σ and HAVING replaced by ?, so runs of the same query shape with different
+ * constants (year = 2016, year = 2017) share one fingerprint. Used to correlate
+ * the JFR events (QueryEvents) and metrics of one query.
+ */
+public class QueryFingerprint {
+
+    public static String of(PhiOperator phi) {
+        return hash(canonical(phi));
+    }
+
+    /** The text that is hashed: every Phi operand, constants replaced by ?. */
+    static String canonical(PhiOperator phi) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("from ").append(phi.fromTable.toLowerCase()).append('\n');
+        sb.append("S ").append(phi.selectAttributes).append('\n');
+        sb.append("V ").append(phi.groupingAttributes).append('\n');
+        sb.append("gv ").append(phi.groupingVariableNames).append('\n');
+        sb.append("F ").append(phi.fVect).append('\n');
+        for (int i = 0; i < phi.predicates.size(); i++) {
+            sb.append("σ").append(i).append(' ').append(canonical(phi.predicates.get(i))).append('\n');
+        }
+        sb.append("G ").append(canonical(phi.having));
+        if (!phi.orderBy.isEmpty()) sb.append('\n').append("order ").append(phi.orderBy);
+        if (phi.limit >= 0) sb.append('\n').append("limit ?");
+        return sb.toString();
+    }
+
+    private static String canonical(ConditionExpression expr) {
+        if (expr == null) return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < expr.conditions.size(); i++) {
+            if (i > 0) {
+                sb.append(i - 1 < expr.operators.size() ? " " + expr.operators.get(i - 1).toLowerCase() + " " : " and ");
+            }
+            Condition c = expr.conditions.get(i);
+            String right = c.right.startsWith("'") || c.right.matches("-?\\d+(\\.\\d+)?") ? "?" : c.right;
+            sb.append(c.negated ? "not " : "").append(c.left).append(' ').append(c.operator).append(' ').append(right);
+        }
+        return sb.toString();
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
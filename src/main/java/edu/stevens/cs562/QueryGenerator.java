@@ -33,68 +33,402 @@ public class QueryGenerator {
     private PhiOperator phi;
     // Column type cache: column name -> "int", "double", or "string"
     private Map<String, String> columnTypes = new HashMap<>();
+    // Number of on-disk hash partitions; 0 keeps the whole mf-structure in memory
+    private int spillPartitions = 0;
+    // Number of worker shards; 0 generates a single-process query
+    private int shards = 0;
+    // Generate code that counts into QueryMetrics
+    private boolean metrics = false;
+    // Generate code that emits JFR events per scan and for the output (QueryEvents)
+    private boolean events = false;
+    // Pass BlockFilters to the row sources (zone-map skipping, SQL WHERE)
+    private boolean pushdown = true;
+    // Grouping variables (0-based) evaluated together in one scan; null is one scan each
+    private List<List<Integer>> passes = null;
+    // Grouping variables whose entries are found through an EntryIndex
+    private Set<Integer> indexed = new HashSet<>();
+    // Printed as a comment at the top of the generated class (CostPlanner estimates)
+    private String planComment = null;
+    // Initial length of the mf_struct array (doubled whenever it is full)
+    private int groupCapacity = DEFAULT_GROUP_CAPACITY;
+    // Find the group of a row through a hash map instead of a linear search
+    private boolean hashGroups = false;
+
+    // Direct-addressed groups: grouping attribute -> {lowest value or code, domain size}
+    private Map<String, int[]> directDomains = new LinkedHashMap<>();
+    // σ, HAVING and SELECT expressions (typed tree -> Java)
+    private final ExprCompiler expressions;
+    // Approximate mode: fraction of the rows the scans read (1 reads every row)
+    private double sampleRate = 1;
+    // Sample whole blocks where the source has them instead of single rows
+    private boolean sampleBlocks = false;
+    // Sample scan 0 as well (groups without sampled rows are then missing)
+    private boolean sampleScan0 = false;
+    // Publish estimates while the grouping variables' scan runs (OnlineAggregation)
+    private boolean progressive = false;
+    // Drop the entries HAVING rules out between the scans
+    private boolean pruning = true;
+    // Columns without negative values: their sums only grow during the scans
+    private Set<String> nonNegative = new HashSet<>();
+
+    static final int DEFAULT_GROUP_CAPACITY = 10000;
+    // Seed of the samples; scan k samples with SAMPLE_SEED + k
+    static final long SAMPLE_SEED = 0x5EED;
+    // Two-sided 95% normal quantile for the error bounds of the approximate mode
+    static final double CONFIDENCE_Z = 1.96;
+    // Seed of the random block order of a progressive scan
+    static final long PROGRESS_SEED = 0x0A66;
+    // Largest slot array of a direct-addressed mf-structure (64 MB of ints)
+    static final int MAX_DIRECT_SLOTS = 1 << 24;
 
     public QueryGenerator(PhiOperator phi) {
         this.phi = phi;
-        loadColumnTypesFromDatabase();
+        this.expressions = new ExprCompiler(phi, this);
+        loadColumnTypesFromCatalog();
     }
 
     /**
-     * Dynamically load column types from the database using JDBC metadata.
-     * Falls back to defaults if DB connection fails.
+     * Create a generator for an already known schema (column name -> "int", "double",
+     * "date" or "string"), without connecting to the database.
      */
-    private void loadColumnTypesFromDatabase() {
-        try {
-            Properties props = new Properties();
-            props.load(new FileInputStream("src/main/resources/db.properties"));
-            String url = "jdbc:postgresql://" + props.getProperty("db.host") + ":" + props.getProperty("db.port") + "/" + props.getProperty("db.name");
-            Connection conn = DriverManager.getConnection(url,
-                props.getProperty("db.user"),
-                props.getProperty("db.password"));
-
-            DatabaseMetaData metaData = conn.getMetaData();
-            ResultSet columns = metaData.getColumns(null, null, phi.fromTable, null);
-
-            while (columns.next()) {
-                String columnName = columns.getString("COLUMN_NAME").toLowerCase();
-                int sqlType = columns.getInt("DATA_TYPE");
-
-                // Map SQL types to our simple type system
-                String type;
-                switch (sqlType) {
-                    case Types.INTEGER:
-                    case Types.SMALLINT:
-                    case Types.BIGINT:
-                    case Types.TINYINT:
-                        type = "int";
-                        break;
-                    case Types.FLOAT:
-                    case Types.DOUBLE:
-                    case Types.DECIMAL:
-                    case Types.NUMERIC:
-                    case Types.REAL:
-                        type = "double";
-                        break;
-                    case Types.DATE:
-                        type = "date";
-                        break;
-                    default:
-                        type = "string";
+    public QueryGenerator(PhiOperator phi, Map<String, String> columnTypes) {
+        this.phi = phi;
+        this.expressions = new ExprCompiler(phi, this);
+        this.columnTypes.putAll(columnTypes);
+    }
+
+    /**
+     * Generate code that hash-partitions the rows into the given number of spill files
+     * during scan 0 and evaluates scans 1..n one partition at a time.
+     * Requires every σi to be equality-partitioned on a grouping attribute; the
+     * modes it cannot be combined with are checked by generate().
+     */
+    public void setSpillPartitions(int partitions) {
+        if (partitions > 0 && ordered()) {
+            throw new RuntimeException("Spilling outputs each partition separately and cannot apply ORDER BY or LIMIT");
+        }
+        if (partitions > 0 && PartitionAnalyzer.findPartitionAttribute(phi) == null) {
+            throw new RuntimeException("Spilling requires every SUCH THAT predicate to be an AND chain "
+                + "containing gv.a = a for a common grouping attribute a");
+        }
+        this.spillPartitions = partitions;
+    }
+
+    /**
+     * Generate a coordinator/worker query (see ShardCoordinator). Rows are sharded on the
+     * partition attribute when every σi is equality-partitioned on it, otherwise by row
+     * hash with partial aggregates merged by the coordinator. The latter needs σ-predicates
+     * that do not compare against aggregates.
+     */
+    public void setShards(int shards) {
+        if (shards > 0 && PartitionAnalyzer.findPartitionAttribute(phi) == null
+                && !PartitionAnalyzer.isRowPartitionable(phi)) {
+            throw new RuntimeException("Sharded execution requires the SUCH THAT predicates to be either "
+                + "equality-partitioned on a grouping attribute or free of aggregate comparisons");
+        }
+        this.shards = shards;
+    }
+
+    /**
+     * Generate code that records runtime metrics per phase (scan 0, every grouping
+     * variable's scan, output) in a QueryMetrics, exposed as JMX MBeans and written
+     * to the file given by --metrics-file=PATH when the query ends. The counters are
+     * locals inside the loops, added to the phase once it is done.
+     */
+    public void setMetrics(boolean metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Emit a JFR event (QueryEvents.Scan, QueryEvents.Output) per scan and for the
+     * output, tagged with the query fingerprint. Off by default: the events carry
+     * row counts, so every scanned row pays for counters even when no recording runs.
+     */
+    public void setEvents(boolean events) {
+        this.events = events;
+    }
+
+    int spillPartitions() {
+        return spillPartitions;
+    }
+
+    /** Whether the output is ordered or cut by ORDER BY or LIMIT. */
+    boolean ordered() {
+        return !phi.orderBy.isEmpty() || phi.limit >= 0;
+    }
+
+    int shards() {
+        return shards;
+    }
+
+    /**
+     * Approximate mode: scans 1..n (and scan 0 with scan0) read a random sample of
+     * the table, each row with probability rate, or each block of a source that
+     * has blocks (ColumnarSnapshot) with blocks set. At the end of every scan
+     * sum and count are scaled by 1/rate and get a 95% error bound from their
+     * Bernoulli-sampling variance, avg gets the bound of a sample mean, and the
+     * output prints every item that reads an aggregate as "value +/- error"
+     * (Estimate). Min, max and the sketch aggregates have no bound ("+/- ?").
+     * HAVING and σ comparisons against aggregates use the estimates.
+     *
+     * The bounds assume the sampled rows are independent; a block sample with
+     * rows clustered by value in blocks has a larger error than reported.
+     */
+    public void setSampling(double rate, boolean blocks, boolean scan0) {
+        if (!(rate > 0 && rate <= 1)) {
+            throw new RuntimeException("Sample rate must be in (0, 1]: " + rate);
+        }
+        this.sampleRate = rate;
+        this.sampleBlocks = blocks;
+        this.sampleScan0 = scan0;
+    }
+
+    boolean sampling() {
+        return sampleRate < 1;
+    }
+
+    // Row-hash shards split scans 1..n by block where the source has blocks; a row
+    // sample is drawn over the whole table, so sampled scans keep the row filter
+    private boolean blockSharded() {
+        return PartitionAnalyzer.findPartitionAttribute(phi) == null && !sampling();
+    }
+
+    /**
+     * Online aggregation: scan 0 builds the groups as usual, then every grouping
+     * variable is evaluated in one scan that reads the table in random block order
+     * and publishes the estimates of every SELECT item so far through
+     * OnlineAggregation at a fixed interval. The listener can stop the scan early.
+     * Needs grouping variables whose σ do not read each other's aggregates, and no
+     * HAVING (a partial group cannot be filtered on its final aggregates). Spilling,
+     * shards and sampling are rejected by generate().
+     */
+    public void setProgressive(boolean progressive) {
+        if (progressive) {
+            for (int i = 0; i < phi.n; i++) {
+                if (!PartitionAnalyzer.dependencies(phi, i).isEmpty()) {
+                    throw new RuntimeException("Progressive mode needs independent grouping variables, but "
+                        + phi.groupingVariableNames.get(i) + " depends on " + PartitionAnalyzer.dependencies(phi, i));
+                }
+            }
+            if (!phi.having.conditions.isEmpty()) {
+                throw new RuntimeException("Progressive mode does not support HAVING");
+            }
+        }
+        this.progressive = progressive;
+    }
+
+    // Sampled or progressive: sums and avgs also accumulate the squares of their values
+    private boolean estimating() {
+        return sampling() || progressive;
+    }
+
+    double sampleRate() {
+        return sampleRate;
+    }
+
+    /** Whether the approximate mode computes an error bound for agg (sum, count, avg). */
+    static boolean hasErrorBound(AggregateFunction agg) {
+        String func = agg.getFunctionName();
+        return func.equals("sum") || func.equals("count") || func.equals("avg");
+    }
+
+    /**
+     * Between the scans, drop the entries for which HAVING can no longer hold
+     * (ExprCompiler.mayHold): later scans skip them and the mf-structure is
+     * compacted. On by default; a no-op without HAVING or when no condition can be
+     * decided before the last scan.
+     */
+    public void setPruning(boolean pruning) {
+        this.pruning = pruning;
+    }
+
+    /** Declare that column has no negative values, so HAVING can bound its sums early. */
+    public void setNonNegative(String column) {
+        nonNegative.add(column.toLowerCase());
+    }
+
+    /**
+     * The condition (on mf_struct[i]) that an entry may still pass HAVING after
+     * scan k+1, or null if no entry is dropped there: not before the last scan,
+     * and not when workers hold partial aggregates of shared groups.
+     */
+    String pruneCondition(int k) {
+        List<List<Integer>> passes = passes();
+        if (!pruning || progressive || phi.having.conditions.isEmpty() || k >= passes.size() - 1) return null;
+        if (shards > 0 && PartitionAnalyzer.findPartitionAttribute(phi) == null) return null;
+        Set<String> done = new HashSet<>();
+        for (int p = 0; p <= k; p++) {
+            for (int i : passes.get(p)) done.add(phi.groupingVariableNames.get(i));
+        }
+        String condition = expressions.mayHold(phi.having, "mf_struct[i]", done, nonNegative);
+        return condition.equals("true") ? null : condition;
+    }
+
+    /** Pass the constant comparisons of σ0 and σi to the row sources (default on). */
+    public void setPushdown(boolean pushdown) {
+        this.pushdown = pushdown;
+    }
+
+    /**
+     * Evaluate the grouping variables (0-based) of each inner list in one shared scan.
+     * Every variable must appear once, and a variable whose σ compares against an
+     * aggregate of another variable must come in a later scan than that variable.
+     */
+    public void setPasses(List<List<Integer>> passes) {
+        Map<String, Integer> passOf = new HashMap<>();
+        for (int k = 0; k < passes.size(); k++) {
+            for (int i : passes.get(k)) {
+                if (i < 0 || i >= phi.n || passOf.put(phi.groupingVariableNames.get(i), k) != null) {
+                    throw new RuntimeException("Invalid scan passes " + passes + " for " + phi.n + " grouping variables");
+                }
+            }
+        }
+        if (passOf.size() != phi.n) {
+            throw new RuntimeException("Scan passes " + passes + " do not cover all " + phi.n + " grouping variables");
+        }
+        for (int i = 0; i < phi.n; i++) {
+            for (String dep : PartitionAnalyzer.dependencies(phi, i)) {
+                if (passOf.get(dep) >= passOf.get(phi.groupingVariableNames.get(i))) {
+                    throw new RuntimeException(phi.groupingVariableNames.get(i) + " needs the aggregates of " + dep
+                        + " and cannot be evaluated in the same or an earlier scan");
                 }
-                columnTypes.put(columnName, type);
             }
+        }
+        this.passes = passes;
+    }
+
+    /**
+     * Look up the entries of grouping variable i (0-based) through a hash index on
+     * the grouping attributes its σ equates (gv.a = a) instead of testing every entry.
+     */
+    public void setIndexed(int i, boolean index) {
+        if (index && PartitionAnalyzer.equalityAttributes(phi, i).isEmpty()) {
+            throw new RuntimeException("σ" + (i + 1) + " has no gv.a = a equality to index on");
+        }
+        if (index) indexed.add(i); else indexed.remove(i);
+    }
+
+    /**
+     * Presize the mf-structure for the expected number of groups, so neither a
+     * small query allocates 10000 slots nor a large one copies the array over and
+     * over while scan 0 grows it.
+     */
+    public void setGroupCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new RuntimeException("Group capacity must be positive: " + capacity);
+        }
+        this.groupCapacity = capacity;
+    }
+
+    /**
+     * Layout of the group lookup of scan 0: false searches the mf_struct array
+     * linearly (cheapest for a handful of groups), true keeps a HashMap from the
+     * grouping attribute values to the entry, presized like the array.
+     */
+    public void setHashGroups(boolean hashGroups) {
+        this.hashGroups = hashGroups;
+    }
+
+    /**
+     * Address the groups directly: when every grouping attribute has a domain, a
+     * group's slot in an int array is computed arithmetically from its values
+     * (ints as value - lo, strings as their RowSource dictionary code - lo) and the
+     * array holds the entry of the slot. Scan 0 then needs no comparisons or hashing,
+     * and a grouping variable whose σ pins every grouping attribute with
+     * gv.a = a or gv.a = a ± k finds its single candidate entry the same way.
+     * Keys outside the domains still work, through the regular lookup.
+     */
+    public void setDirectDomain(String attr, int lo, int size) {
+        if (!phi.groupingAttributes.contains(attr)) {
+            throw new RuntimeException(attr + " is not a grouping attribute");
+        }
+        String type = getColumnType(attr);
+        if (!type.equals("int") && !type.equals("string")) {
+            throw new RuntimeException("Direct addressing needs int or string grouping attributes, " + attr + " is " + type);
+        }
+        if (size < 1) {
+            throw new RuntimeException("Empty domain for " + attr);
+        }
+        directDomains.put(attr, new int[] {lo, size});
+        if (direct() && directSlots() > MAX_DIRECT_SLOTS) {
+            directDomains.remove(attr);
+            throw new RuntimeException("Direct-addressed mf-structure would need more than " + MAX_DIRECT_SLOTS + " slots");
+        }
+    }
+
+    /** Whether every grouping attribute has a direct domain. */
+    boolean direct() {
+        return directDomains.keySet().containsAll(phi.groupingAttributes);
+    }
+
+    long directSlots() {
+        long slots = 1;
+        for (String attr : phi.groupingAttributes) {
+            slots *= directDomains.get(attr)[1];
+        }
+        return slots;
+    }
+
+    /** Domains in grouping attribute order, e.g. "cust codes 0..8 x month 1..12". */
+    String directDescription() {
+        List<String> parts = new ArrayList<>();
+        for (String attr : phi.groupingAttributes) {
+            int[] d = directDomains.get(attr);
+            parts.add(attr + (getColumnType(attr).equals("string") ? " codes " : " ") + d[0] + ".." + (d[0] + d[1] - 1));
+        }
+        return String.join(" x ", parts);
+    }
+
+    /**
+     * Per grouping attribute, the value to subtract from the row's gv.a to get the
+     * matching entry's a, if σ of grouping variable i pins every grouping attribute
+     * (gv.a = a + k) and the mf-structure is directly addressed; otherwise null.
+     */
+    int[] directProbe(int i) {
+        if (!direct()) return null;
+        Map<String, Integer> offsets = PartitionAnalyzer.equalityOffsets(phi, i);
+        int[] shifts = new int[phi.groupingAttributes.size()];
+        for (int k = 0; k < shifts.length; k++) {
+            String attr = phi.groupingAttributes.get(k);
+            Integer offset = offsets.get(attr);
+            if (offset == null || (offset != 0 && !getColumnType(attr).equals("int"))) return null;
+            shifts[k] = offset;
+        }
+        return shifts;
+    }
+
+    int groupCapacity() {
+        return groupCapacity;
+    }
+
+    boolean hashGroups() {
+        return hashGroups;
+    }
+
+    public void setPlanComment(String comment) {
+        this.planComment = comment;
+    }
 
-            columns.close();
-            conn.close();
+    boolean isIndexed(int i) {
+        return indexed.contains(i);
+    }
 
-            System.out.println("Loaded column types from database: " + columnTypes);
+    // Row counters are generated for metrics as well as for events
+    private boolean counting() {
+        return metrics || events;
+    }
 
+    // Column types from the database's SchemaCatalog: no connection while the table is cached
+    private void loadColumnTypesFromCatalog() {
+        try {
+            columnTypes.putAll(SchemaCatalog.forDatabase().schema(phi.fromTable).columnTypes());
+            System.out.println("Loaded column types from catalog: " + columnTypes);
         } catch (Exception e) {
-            throw new RuntimeException("Failed to load column types from database: " + e.getMessage(), e);
+            throw new RuntimeException("Failed to load column types: " + e.getMessage(), e);
         }
     }
 
-    private String getColumnType(String column) {
+    String getColumnType(String column) {
         return columnTypes.getOrDefault(column.toLowerCase(), "string");
     }
 
@@ -117,16 +451,99 @@ public class QueryGenerator {
         }
     }
 
+    /**
+     * Reject modes that cannot be combined. Checked once the settings are final, so
+     * the outcome does not depend on the order of the setters.
+     */
+    private void checkModes() {
+        if (spillPartitions > 0 && shards > 0) {
+            throw new RuntimeException("Spilling and sharded execution cannot be combined");
+        }
+        if (progressive && (spillPartitions > 0 || shards > 0 || sampling())) {
+            throw new RuntimeException("Progressive mode cannot be combined with spilling, shards or sampling");
+        }
+    }
+
     public String generate() {
+        checkModes();
+        QueryEvents.Generate event = new QueryEvents.Generate();
+        event.begin();
         try {
             InputStream is = getClass().getClassLoader().getResourceAsStream("QueryTemplate.txt");
             String template = new String(is.readAllBytes());
-            return String.format(template, generateDeclarations(), generateScan0(), generateScans(), "        output();");
+            String code;
+            if (spillPartitions > 0) {
+                code = String.format(template, generateDeclarations(), generateMain(), generateSpillScan0(), generateSpillScans());
+            } else {
+                code = String.format(template, generateDeclarations(), generateMain(), generateScan0(), generateScans());
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.fingerprint = QueryFingerprint.of(phi);
+                event.mode = spillPartitions > 0 ? "spill" : shards > 0 ? "shards" : "memory";
+                event.sourceLength = code.length();
+                event.commit();
+            }
+            return code;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Body of main(). The evaluation itself lives in evaluate(conn); main decides
+     * whether this process evaluates everything, one shard, or coordinates shards.
+     */
+    private String generateMain() {
+        if (shards > 0) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("        ShardCoordinator.Worker worker = ShardCoordinator.worker(args);\n");
+            sb.append("        if (worker != null) {\n");
+            sb.append("            // WORKER: evaluate one shard and send the partial mf-structure to the coordinator\n");
+            sb.append("            SHARD = worker.shard();\n");
+            sb.append("            SHARDS = worker.shards();\n");
+            if (metrics) sb.append("            METRICS.shard = SHARD;\n");
+            sb.append("            worker.run(() -> {\n");
+            sb.append("                RowSourceProvider source = connect(args);\n");
+            sb.append("                evaluate(source);\n");
+            sb.append("                source.close();\n");
+            if (metrics) sb.append("                recordMfStructure();\n");
+            sb.append("            }, this::writeEntries);\n");
+            sb.append("        } else {\n");
+            sb.append("            // COORDINATOR: launch workers, merge their partial mf-structures, apply HAVING\n");
+            sb.append("            SINK = ResultSink.open(args);\n");
+            sb.append("            ShardCoordinator.coordinate(\"GeneratedQuery\", " + shards + ", args, this::mergeEntries);\n");
+            sb.append("            printHeader();\n");
+            sb.append("            output();\n");
+            sb.append("            SINK.close();\n");
+            sb.append("        }");
+            return finishMetrics(sb.toString());
+        }
+
+        StringBuilder sb = new StringBuilder();
+        if (progressive) {
+            sb.append("        PROGRESS.configure(args);\n");
+        }
+        sb.append("        SINK = ResultSink.open(args);\n");
+        sb.append("        RowSourceProvider source = connect(args);\n");
+        sb.append("        evaluate(source);\n");
+        sb.append("        source.close();");
+        if (spillPartitions == 0) {
+            // the spilling evaluation outputs each partition itself
+            sb.append("\n\n        printHeader();\n");
+            sb.append("        output();");
+        }
+        sb.append("\n        SINK.close();");
+        return finishMetrics(sb.toString());
+    }
+
+    // The metrics end with the run, also when it fails, so its MBeans go away
+    private String finishMetrics(String body) {
+        if (!metrics) return body;
+        return "        try {\n" + indent(body, "    ") + "\n        } finally {\n"
+            + "            METRICS.finish(args);\n        }";
+    }
+
     public void writeToFile(String filename) throws IOException {
         FileWriter w = new FileWriter(filename);
         w.write(generate());
@@ -138,6 +555,13 @@ public class QueryGenerator {
     private String generateDeclarations() {
         StringBuilder sb = new StringBuilder();
 
+        if (planComment != null) {
+            for (String line : planComment.split("\n")) {
+                sb.append("    // " + line + "\n");
+            }
+            sb.append("\n");
+        }
+
         // MFStruct class with proper types based on schema
         sb.append("    static class MFStruct {\n");
         for (String attr : phi.groupingAttributes) {
@@ -151,24 +575,63 @@ public class QueryGenerator {
             if (agg.getFunctionName().equals("avg")) {
                 sb.append("        int " + field + "_cnt;\n");
                 sb.append("        double " + field + "_sum;\n");
+            } else if (agg.isSketch()) {
+                sb.append("        " + sketchType(agg) + " " + field + "_sketch;\n");
+            }
+            if (estimating() && hasErrorBound(agg) && !agg.getFunctionName().equals("count")) {
+                sb.append("        double " + field + "_sq;\n");
+            }
+            if (sampling() && hasErrorBound(agg)) {
+                sb.append("        double " + field + "_err;\n");
             }
         }
         sb.append("    }\n\n");
 
+        if (sampling()) {
+            sb.append("    // Approximate mode: sample rate and seed, z of the 95% error bounds\n");
+            sb.append("    static final double SAMPLE_RATE = " + sampleRate + ";\n");
+            sb.append("    static final long SAMPLE_SEED = " + SAMPLE_SEED + "L;\n");
+            sb.append("    static final double Z = " + CONFIDENCE_Z + ";\n\n");
+        } else if (progressive) {
+            sb.append("    // z of the 95% error bounds of the progressive estimates\n");
+            sb.append("    static final double Z = " + CONFIDENCE_Z + ";\n\n");
+        }
+        if (progressive) {
+            sb.append(generateProgressDeclarations());
+        }
+
         // Array and counter
-        sb.append("    static MFStruct[] mf_struct = new MFStruct[10000];\n");
-        sb.append("    static int NUM_OF_ENTRIES = 0;\n\n");
+        sb.append("    MFStruct[] mf_struct = new MFStruct[" + groupCapacity + "];\n");
+        sb.append("    int NUM_OF_ENTRIES = 0;\n\n");
+        if (direct()) {
+            sb.append(generateDirectDeclarations());
+        }
+        if (hashGroups) {
+            sb.append("    // Entry of every group by its grouping attribute values\n");
+            sb.append("    HashMap<Object, Integer> GROUPS = new HashMap<>(" + hashCapacity() + ");\n\n");
+        }
+        for (int i : new TreeSet<>(indexed)) {
+            sb.append("    // Entries by " + String.join(", ", PartitionAnalyzer.equalityAttributes(phi, i))
+                + " for " + phi.groupingVariableNames.get(i) + "\n");
+            sb.append("    EntryIndex IDX_" + (i + 1) + ";\n\n");
+        }
 
         // Lookup function with proper type comparisons
-        sb.append("    static int lookup(" + params() + ") {\n");
-        sb.append("        for (int i = 0; i < NUM_OF_ENTRIES; i++) {\n");
-        sb.append("            if (" + lookupCondition() + ") return i;\n");
-        sb.append("        }\n");
-        sb.append("        return -1;\n");
+        sb.append("    int lookup(" + params() + ") {\n");
+        if (hashGroups) {
+            sb.append("        Integer i = GROUPS.get(" + groupKey() + ");\n");
+            sb.append("        return i == null ? -1 : i;\n");
+        } else {
+            sb.append("        for (int i = 0; i < NUM_OF_ENTRIES; i++) {\n");
+            sb.append("            if (" + lookupCondition() + ") return i;\n");
+            sb.append("        }\n");
+            sb.append("        return -1;\n");
+        }
         sb.append("    }\n\n");
 
-        // Add function
-        sb.append("    static void add(" + params() + ") {\n");
+        // Add function - doubles the array when it is full
+        sb.append("    void add(" + params() + ") {\n");
+        sb.append("        if (NUM_OF_ENTRIES == mf_struct.length) mf_struct = Arrays.copyOf(mf_struct, mf_struct.length * 2);\n");
         sb.append("        mf_struct[NUM_OF_ENTRIES] = new MFStruct();\n");
         for (String attr : phi.groupingAttributes) {
             sb.append("        mf_struct[NUM_OF_ENTRIES]." + attr + " = " + attr + ";\n");
@@ -180,37 +643,245 @@ public class QueryGenerator {
             if (agg.getFunctionName().equals("avg")) {
                 sb.append("        mf_struct[NUM_OF_ENTRIES]." + field + "_cnt = 0;\n");
                 sb.append("        mf_struct[NUM_OF_ENTRIES]." + field + "_sum = 0.0;\n");
+            } else if (agg.isSketch()) {
+                String size = agg.quantile() >= 0 ? "" : "HyperLogLog.GROUP_PRECISION";
+                sb.append("        mf_struct[NUM_OF_ENTRIES]." + field + "_sketch = new " + sketchType(agg) + "(" + size + ");\n");
+            }
+            if (estimating() && hasErrorBound(agg) && !agg.getFunctionName().equals("count")) {
+                sb.append("        mf_struct[NUM_OF_ENTRIES]." + field + "_sq = 0.0;\n");
             }
+            if (sampling() && hasErrorBound(agg)) {
+                sb.append("        mf_struct[NUM_OF_ENTRIES]." + field + "_err = 0.0;\n");
+            }
+        }
+        if (hashGroups) {
+            sb.append("        GROUPS.put(" + groupKey() + ", NUM_OF_ENTRIES);\n");
         }
         sb.append("        NUM_OF_ENTRIES++;\n");
         sb.append("    }\n\n");
 
-        // Output function
-        sb.append("    static void output() {\n");
-        sb.append("        System.out.println(\"\\n" + String.join(" | ", phi.selectAttributes) + "\");\n");
-        sb.append("        System.out.println(\"" + "-".repeat(60) + "\");\n");
-        sb.append("        for (int i = 0; i < NUM_OF_ENTRIES; i++) {\n");
+        sb.append("    // Tags the JFR events of this query (QueryFingerprint)\n");
+        sb.append("    static final String FINGERPRINT = \"" + QueryFingerprint.of(phi) + "\";\n\n");
+        if (metrics) {
+            sb.append("    // Runtime metrics; MF_ENTRY_BYTES estimates the shallow size of one MFStruct\n");
+            sb.append("    final QueryMetrics METRICS = QueryMetrics.forExecution(FINGERPRINT);\n");
+            sb.append("    static final long MF_ENTRY_BYTES = " + mfEntryBytes() + ";\n\n");
+            sb.append("    void recordMfStructure() {\n");
+            sb.append("        METRICS.mfStructure(NUM_OF_ENTRIES, NUM_OF_ENTRIES * MF_ENTRY_BYTES + 4L * mf_struct.length"
+                + (hashGroups ? " + " + HASH_ENTRY_BYTES + "L * GROUPS.size()" : "")
+                + (direct() ? " + 4L * SLOTS.length" : "") + ");\n");
+            sb.append("    }\n\n");
+        }
 
-        if (!phi.having.conditions.isEmpty()) {
-            sb.append("            if (" + buildHaving() + ")\n    ");
+        // Output functions - the header is written once, output() may run once per spill partition
+        List<String> columns = new ArrayList<>();
+        for (String item : phi.selectAttributes) {
+            columns.add(ExprCompiler.javaString(item));
         }
-        sb.append("            System.out.println(" + buildPrintExpr() + ");\n");
-        sb.append("        }\n");
+        sb.append("    // Destination of the result rows: text on System.out unless main() gets --output=\n");
+        sb.append("    ResultSink SINK = ResultSink.text(System.out);\n");
+        sb.append("    static final List<String> COLUMNS = List.of(" + String.join(", ", columns) + ");\n");
+        sb.append("    static final List<String> TYPES = List.of(" + resultTypes(sampling()) + ");\n");
+        if (progressive) {
+            sb.append("    static final List<String> ESTIMATE_TYPES = List.of(" + resultTypes(true) + ");\n");
+        }
+        sb.append("\n");
+        sb.append("    void printHeader() {\n");
+        if (progressive) {
+            // stopped early: the estimates at that point
+            sb.append("        SINK.begin(COLUMNS, PROGRESS_FRACTION < 1 ? ESTIMATE_TYPES : TYPES);\n");
+        } else {
+            sb.append("        SINK.begin(COLUMNS, TYPES);\n");
+        }
+        if (sampling()) {
+            sb.append("        SINK.note(\"approximate: " + (float) (sampleRate * 100) + "% " + (sampleBlocks ? "block" : "row")
+                + " sample, aggregates with 95% error bounds\");\n");
+        }
+        sb.append("    }\n\n");
+        if (!phi.orderBy.isEmpty()) {
+            sb.append(generateCompareEntries());
+        }
+        sb.append("    void output() {\n");
+        if (counting()) {
+            sb.append("        long mo_start = System.nanoTime(), mo_rows = 0;\n");
+        }
+        if (events) {
+            sb.append("        QueryEvents.Output mo_event = QueryEvents.beginOutput(FINGERPRINT);\n");
+        }
+        if (!phi.orderBy.isEmpty()) {
+            sb.append(generateOrderedOutput());
+        } else {
+            if (phi.limit >= 0) {
+                sb.append("        int mo_limit = " + phi.limit + ";\n");
+            }
+            sb.append("        for (int i = 0; i < NUM_OF_ENTRIES; i++) {\n");
+            if (!phi.having.conditions.isEmpty()) {
+                sb.append("            if (!(" + buildHaving() + ")) continue;\n");
+            }
+            if (phi.limit >= 0) {
+                // LIMIT without ORDER BY: the first groups in scan 0 order
+                sb.append("            if (mo_limit-- == 0) break;\n");
+            }
+            if (counting()) {
+                sb.append("            mo_rows++;\n");
+            }
+            sb.append(buildRowWrite("            "));
+            sb.append("        }\n");
+        }
+        sb.append("        SINK.flush();\n");
+        if (metrics) {
+            String havingEvals = phi.having.conditions.isEmpty() ? "0" : "NUM_OF_ENTRIES";
+            sb.append("        recordMfStructure();\n");
+            sb.append("        METRICS.phase(\"output\").add(mo_start, NUM_OF_ENTRIES, 0, 0, " + havingEvals + ", mo_rows, 0);\n");
+        }
+        if (events) {
+            sb.append("        mo_event.finish(NUM_OF_ENTRIES, mo_rows);\n");
+        }
+        sb.append("    }\n\n");
+
+        sb.append("    // Evaluate and write the result to SINK (QueryCompiler.CompiledQuery.execute)\n");
+        sb.append("    void execute(RowSourceProvider source) throws Exception {\n");
+        String execute = "        evaluate(source);\n";
+        if (spillPartitions == 0) {
+            // the spilling evaluation outputs each partition itself
+            execute += "        printHeader();\n        output();\n";
+        }
+        if (metrics) {
+            execute = "        try {\n" + indent(execute, "    ") + "        } finally {\n"
+                + "            METRICS.finish(new String[0]);\n        }\n";
+        }
+        sb.append(execute);
         sb.append("    }");
 
+        String prune = generatePruneDeclarations();
+        if (!prune.isEmpty()) {
+            sb.append("\n\n").append(prune);
+        }
+        if (shards > 0) {
+            sb.append("\n\n").append(generateShardDeclarations());
+        }
+
+        return sb.toString();
+    }
+
+    private String generateDirectDeclarations() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("    // Direct-addressed groups (" + directDescription() + "): entry of every slot, -1 if none.\n");
+        sb.append("    // OVERFLOW counts the entries with a key outside the domains, found by lookup()\n");
+        sb.append("    int[] SLOTS = new int[" + directSlots() + "];\n");
+        sb.append("    int OVERFLOW = 0;\n");
+        sb.append("    { Arrays.fill(SLOTS, -1); }\n\n");
+
+        List<String> params = new ArrayList<>();
+        List<String> bounds = new ArrayList<>();
+        String slot = null;
+        for (String attr : phi.groupingAttributes) {
+            int[] d = directDomains.get(attr);
+            params.add("int " + attr);
+            bounds.add(attr + " < " + d[0] + " || " + attr + " > " + (d[0] + d[1] - 1));
+            String offset = d[0] == 0 ? attr : "(" + attr + (d[0] > 0 ? " - " + d[0] : " + " + (-(long) d[0])) + ")";
+            slot = slot == null ? offset : "(" + slot + ") * " + d[1] + " + " + offset;
+        }
+        sb.append("    // Slot of a key (strings as dictionary codes), -1 outside the domains\n");
+        sb.append("    int slot(" + String.join(", ", params) + ") {\n");
+        sb.append("        if (" + String.join(" || ", bounds) + ") return -1;\n");
+        sb.append("        return " + slot + ";\n");
+        sb.append("    }\n\n");
+
+        // Entries of a slot for the scans: [directFrom, directTo)
+        sb.append("    int directFrom(int d) {\n");
+        sb.append("        return d >= 0 ? Math.max(SLOTS[d], 0) : 0;\n");
+        sb.append("    }\n\n");
+        sb.append("    int directTo(int d) {\n");
+        sb.append("        return d >= 0 ? SLOTS[d] + 1 : OVERFLOW > 0 ? NUM_OF_ENTRIES : 0;\n");
+        sb.append("    }\n\n");
         return sb.toString();
     }
 
-    private String getAggregateType(AggregateFunction agg) {
+    // slot(...) arguments of the current row, each grouping attribute minus shifts[k]
+    private String slotArgs(String rs, int[] shifts) {
+        List<String> args = new ArrayList<>();
+        for (int k = 0; k < phi.groupingAttributes.size(); k++) {
+            String attr = phi.groupingAttributes.get(k);
+            if (getColumnType(attr).equals("string")) {
+                args.add(read(rs, "getCode", attr));
+            } else if (shifts[k] == 0) {
+                args.add(read(rs, "getInt", attr));
+            } else {
+                args.add(read(rs, "getInt", attr) + (shifts[k] > 0 ? " - " + shifts[k] : " + " + (-(long) shifts[k])));
+            }
+        }
+        return String.join(", ", args);
+    }
+
+    // HashMap node, boxed entry number and key (a boxed value or a short List) per group
+    static final long HASH_ENTRY_BYTES = 80;
+
+    // Initial HashMap capacity that holds groupCapacity groups without rehashing
+    private int hashCapacity() {
+        return (int) Math.min(1 << 30, groupCapacity * 4L / 3 + 1);
+    }
+
+    private String groupKey() {
+        return "EntryIndex.key(" + String.join(", ", phi.groupingAttributes) + ")";
+    }
+
+    /**
+     * Estimated shallow size of one MFStruct: a 12-byte object header plus its fields
+     * (references count 4 bytes, as with compressed oops), rounded up to 8 bytes.
+     */
+    long mfEntryBytes() {
+        long bytes = 12;
+        for (String attr : phi.groupingAttributes) {
+            bytes += getJavaType(attr).equals("double") ? 8 : 4;
+        }
+        for (AggregateFunction agg : phi.fVect) {
+            String type = getAggregateType(agg);
+            bytes += type.equals("double") || type.equals("long") ? 8 : 4;
+            if (agg.getFunctionName().equals("avg")) {
+                bytes += 4 + 8;
+            }
+            if (estimating() && hasErrorBound(agg)) {
+                bytes += (agg.getFunctionName().equals("count") ? 0 : 8) + (sampling() ? 8 : 0);
+            }
+            if (agg.isSketch()) {
+                // reference plus the sketch at its full size
+                bytes += 4 + (agg.quantile() >= 0 ? KllSketch.maxBytes(KllSketch.DEFAULT_K)
+                    : 16 + 16 + (1 << HyperLogLog.GROUP_PRECISION));
+            }
+        }
+        return (bytes + 7) / 8 * 8;
+    }
+
+    /**
+     * Java type of an aggregate field: a sum is long over an int column and double
+     * over a double column (an int sum of quant overflows on a few million rows),
+     * min and max have the type of their column.
+     */
+    String getAggregateType(AggregateFunction agg) {
         String func = agg.getFunctionName();
-        if (func.equals("avg")) {
+        if (func.equals("avg") || agg.quantile() >= 0) {
+            return "double";
+        } else if (func.equals("count_distinct_approx")) {
+            return "long";
+        } else if (sampling() && (func.equals("count") || func.equals("sum"))) {
+            // scaled by 1 / SAMPLE_RATE
             return "double";
         } else if (func.equals("count")) {
             return "int";
-        } else {
-            // sum, min, max - depends on column type, but usually int for quant
-            return "int";
         }
+        String column = getColumnType(agg.getAttribute());
+        if (!column.equals("int") && !column.equals("double")) {
+            throw new RuntimeException(agg + " needs a numeric column");
+        }
+        if (func.equals("sum")) {
+            return column.equals("int") ? "long" : "double";
+        }
+        return column;
+    }
+
+    private String sketchType(AggregateFunction agg) {
+        return agg.quantile() >= 0 ? "KllSketch" : "HyperLogLog";
     }
 
     private String params() {
@@ -239,85 +910,477 @@ public class QueryGenerator {
     }
 
     private String getInitValue(AggregateFunction agg) {
+        boolean real = getAggregateType(agg).equals("double");
         switch (agg.getFunctionName()) {
-            case "min": return "Integer.MAX_VALUE";
-            case "max": return "Integer.MIN_VALUE";
+            case "min": return real ? "Double.POSITIVE_INFINITY" : "Integer.MAX_VALUE";
+            case "max": return real ? "Double.NEGATIVE_INFINITY" : "Integer.MIN_VALUE";
             case "avg": return "0.0";
-            default: return "0";
+            default: return agg.quantile() >= 0 ? "0.0" : "0";
         }
     }
 
-    private String buildPrintExpr() {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < phi.selectAttributes.size(); i++) {
-            if (i > 0) sb.append(" + \" | \" + ");
-            String attr = phi.selectAttributes.get(i);
-
-            if (phi.groupingAttributes.contains(attr)) {
-                sb.append("mf_struct[i]." + attr);
-            } else {
-                String field = findField(attr);
-                if (field != null) {
-                    sb.append("mf_struct[i]." + field);
-                } else {
-                    sb.append(translateExpr(attr, "i"));
-                }
-            }
+    /**
+     * Statements writing the SELECT items of mf_struct[i] to SINK, each with the put
+     * method of its type; a progressive query stopped early writes the estimates.
+     */
+    private String buildRowWrite(String indent) {
+        if (!progressive) {
+            return buildPuts(indent, sampling(), null);
         }
-        return sb.toString();
+        return indent + "if (PROGRESS_FRACTION < 1) {\n"
+            + buildPuts(indent + "    ", true, "PROGRESS_FRACTION")
+            + indent + "} else {\n"
+            + buildPuts(indent + "    ", false, null)
+            + indent + "}\n";
     }
 
-    private String buildHaving() {
+    // With estimates, the items reading an aggregate go in as Estimates (see ExprCompiler.estimate)
+    private String buildPuts(String indent, boolean estimates, String rate) {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < phi.having.conditions.size(); i++) {
-            if (i > 0) {
-                // Use the correct operator (and/or) from the parsed condition
-                String logicalOp = (i - 1 < phi.having.operators.size()) ? phi.having.operators.get(i - 1) : "and";
-                sb.append(logicalOp.equals("or") ? " || " : " && ");
+        for (String item : phi.selectAttributes) {
+            if (estimates && expressions.readsAggregate(item)) {
+                sb.append(indent + "SINK.putEstimate(" + expressions.estimate(item, "mf_struct[i]", rate) + ");\n");
+                continue;
+            }
+            String[] key = expressions.key(item, "mf_struct[i]");
+            switch (key[1]) {
+                case "int":    sb.append(indent + "SINK.putInt(" + key[0] + ");\n"); break;
+                case "long":   sb.append(indent + "SINK.putLong(" + key[0] + ");\n"); break;
+                case "double": sb.append(indent + "SINK.putDouble(" + key[0] + ");\n"); break;
+                case "date":   sb.append(indent + "SINK.putDate(" + key[0] + ");\n"); break;
+                case "string": sb.append(indent + "SINK.putString(" + key[0] + ");\n"); break;
+                default:       sb.append(indent + "SINK.putString(String.valueOf(" + key[0] + "));\n");
             }
-            Condition c = phi.having.conditions.get(i);
-            String op = c.operator.equals("=") ? "==" : (c.operator.equals("<>") || c.operator.equals("!=") ? "!=" : c.operator);
-            sb.append("(" + translateExpr(c.left, "i") + " " + op + " " + translateExpr(c.right, "i") + ")");
         }
+        sb.append(indent + "SINK.endRow();\n");
         return sb.toString();
     }
 
-    // ================== SCAN 0 ==================
-
-    private String generateScan0() {
-        StringBuilder sb = new StringBuilder();
-        ConditionExpression where = phi.predicates.get(0);
-
-        sb.append("        Statement s0 = conn.createStatement();\n");
-        sb.append("        ResultSet r0 = s0.executeQuery(\"SELECT * FROM " + phi.fromTable + "\");\n");
-        sb.append("        while (r0.next()) {\n");
-
-        if (!where.conditions.isEmpty()) {
-            sb.append("            if (" + buildWhere(where, "r0") + ") {\n    ");
+    // Result column types of the SELECT items, as Java string literals
+    private String resultTypes(boolean estimates) {
+        List<String> types = new ArrayList<>();
+        for (String item : phi.selectAttributes) {
+            String type = estimates && expressions.readsAggregate(item) ? "estimate"
+                : expressions.key(item, "mf_struct[i]")[1];
+            types.add(ExprCompiler.javaString(type.equals("boolean") ? "string" : type));
         }
+        return String.join(", ", types);
+    }
 
-        sb.append("            if (lookup(" + rsArgs("r0") + ") == -1) add(" + rsArgs("r0") + ");\n");
-
-        if (!where.conditions.isEmpty()) {
-            sb.append("            }\n");
+    /**
+     * Estimate code of aggregate field f (e.g. "mf_struct[i].sum_1_quant"). With a
+     * null rate, the already scaled value and bound of the approximate mode; else
+     * the running aggregate of a progressive scan that has read that fraction.
+     */
+    String aggregateEstimate(AggregateFunction agg, String f, String rate) {
+        if (rate == null) {
+            return hasErrorBound(agg) ? "new Estimate(" + f + ", " + f + "_err)" : "Estimate.unbounded(" + f + ")";
+        }
+        switch (agg.getFunctionName()) {
+            case "count":
+                return "new Estimate(" + f + " / " + rate + ", Estimate.countError(" + f + ", " + rate + ", Z))";
+            case "sum":
+                return "new Estimate(" + f + " / " + rate + ", Estimate.sumError(" + f + "_sq, " + rate + ", Z))";
+            case "avg":
+                return "new Estimate(" + f + ", Estimate.meanError(" + f + "_sum, " + f + "_sq, " + f + "_cnt, " + rate + ", Z))";
+            default:
+                String value = !agg.isSketch() ? f
+                    : agg.quantile() >= 0 ? f + "_sketch.quantile(" + agg.quantile() + ")" : f + "_sketch.estimate()";
+                return "Estimate.partial(" + value + ", " + rate + ")";
+        }
+    }
+
+    /**
+     * Counters of a progressive query: the rows passing σ0 (counted by scan 0) and
+     * those the grouping variables' scan has read so far, and the estimates of
+     * every group for OnlineAggregation.
+     */
+    private String generateProgressDeclarations() {
+        StringBuilder sb = new StringBuilder();
+        List<String> columns = new ArrayList<>();
+        for (String item : phi.selectAttributes) {
+            columns.add(ExprCompiler.javaString(item));
+        }
+        sb.append("    // Online aggregation: estimates are published while scan 1 runs\n");
+        sb.append("    final OnlineAggregation PROGRESS = new OnlineAggregation(" + String.join(", ", columns) + ");\n");
+        sb.append("    static final long PROGRESS_SEED = " + PROGRESS_SEED + "L;\n");
+        sb.append("    long PROGRESS_TOTAL = 0, PROGRESS_SEEN = 0;\n");
+        sb.append("    double PROGRESS_FRACTION = 1;\n\n");
+
+        sb.append("    List<Object[]> estimates(double rate) {\n");
+        sb.append("        List<Object[]> groups = new ArrayList<>(NUM_OF_ENTRIES);\n");
+        sb.append("        for (int i = 0; i < NUM_OF_ENTRIES; i++) {\n");
+        List<String> values = new ArrayList<>();
+        for (String item : phi.selectAttributes) {
+            values.add(expressions.estimate(item, "mf_struct[i]", "rate"));
+        }
+        sb.append("            groups.add(new Object[] {" + String.join(", ", values) + "});\n");
+        sb.append("        }\n");
+        sb.append("        return groups;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    boolean publishProgress(boolean done) {\n");
+        sb.append("        if (!done && PROGRESS_SEEN == 0) return true;\n");
+        sb.append("        PROGRESS_FRACTION = done ? 1 : (double) PROGRESS_SEEN / PROGRESS_TOTAL;\n");
+        sb.append("        return PROGRESS.publish(PROGRESS_FRACTION, PROGRESS_SEEN, estimates(PROGRESS_FRACTION), done);\n");
+        sb.append("    }\n\n");
+        return sb.toString();
+    }
+
+    private String buildHaving() {
+        return expressions.having(phi.having, "mf_struct[i]");
+    }
+
+    /**
+     * pruneAfterScanK() for every scan after which HAVING rules out entries, and
+     * compact(), which moves the remaining entries down in order and rebuilds
+     * the lookups that hold entry numbers.
+     */
+    private String generatePruneDeclarations() {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < passes().size(); k++) {
+            String condition = pruneCondition(k);
+            if (condition == null) continue;
+            sb.append("    // Entries that can no longer pass HAVING once " + passVariables(passes().get(k)) + " are final\n");
+            sb.append("    void pruneAfterScan" + (k + 1) + "() {\n");
+            if (metrics) {
+                sb.append("        long mq_start = System.nanoTime(), mq_entries = NUM_OF_ENTRIES;\n");
+            }
+            sb.append("        int[] remap = new int[NUM_OF_ENTRIES];\n");
+            sb.append("        int live = 0;\n");
+            sb.append("        for (int i = 0; i < NUM_OF_ENTRIES; i++) {\n");
+            sb.append("            remap[i] = " + condition + " ? live++ : -1;\n");
+            sb.append("        }\n");
+            sb.append("        compact(remap, live);\n");
+            if (metrics) {
+                sb.append("        METRICS.phase(\"prune after scan " + (k + 1) + "\").add(mq_start, mq_entries, 0, mq_entries, mq_entries, live, 0);\n");
+            }
+            sb.append("    }\n\n");
+        }
+        if (sb.length() == 0) return "";
+
+        sb.append("    void compact(int[] remap, int live) {\n");
+        sb.append("        if (live == NUM_OF_ENTRIES) return;\n");
+        sb.append("        for (int i = 0; i < NUM_OF_ENTRIES; i++) {\n");
+        sb.append("            if (remap[i] >= 0) mf_struct[remap[i]] = mf_struct[i];\n");
+        sb.append("        }\n");
+        sb.append("        Arrays.fill(mf_struct, live, NUM_OF_ENTRIES, null);\n");
+        sb.append("        NUM_OF_ENTRIES = live;\n");
+        sb.append("        if (live < mf_struct.length / 4) mf_struct = Arrays.copyOf(mf_struct, Math.max(live, 16));\n");
+        if (hashGroups) {
+            List<String> key = new ArrayList<>();
+            for (String attr : phi.groupingAttributes) {
+                key.add("mf_struct[i]." + attr);
+            }
+            sb.append("        GROUPS.clear();\n");
+            sb.append("        for (int i = 0; i < live; i++) GROUPS.put(EntryIndex.key(" + String.join(", ", key) + "), i);\n");
+        }
+        if (direct()) {
+            // entries no slot points to are the overflow entries
+            sb.append("        int slotted = 0;\n");
+            sb.append("        for (int s = 0; s < SLOTS.length; s++) {\n");
+            sb.append("            if (SLOTS[s] >= 0 && (SLOTS[s] = remap[SLOTS[s]]) >= 0) slotted++;\n");
+            sb.append("        }\n");
+            sb.append("        OVERFLOW = live - slotted;\n");
+        }
+        sb.append(generateIndexBuild("        "));
+        sb.append("    }");
+        return sb.toString();
+    }
+
+    /**
+     * compareEntries(a, b) of the ORDER BY keys of two entries, ties by entry
+     * number, for OrderBy.top() and the multi-key sort.
+     */
+    private String generateCompareEntries() {
+        StringBuilder sb = new StringBuilder();
+        String keys = phi.orderBy.toString();
+        sb.append("    // ORDER BY " + keys.substring(1, keys.length() - 1) + "\n");
+        sb.append("    int compareEntries(int a, int b) {\n");
+        sb.append("        int c;\n");
+        for (OrderItem item : phi.orderBy) {
+            String[] first = expressions.key(item.expression, "mf_struct[" + (item.descending ? "b" : "a") + "]");
+            String[] second = expressions.key(item.expression, "mf_struct[" + (item.descending ? "a" : "b") + "]");
+            sb.append("        c = " + compareCall(first[1]) + "(" + first[0] + ", " + second[0] + ");\n");
+            sb.append("        if (c != 0) return c;\n");
+        }
+        sb.append("        return Integer.compare(a, b);\n");
+        sb.append("    }\n\n");
+        return sb.toString();
+    }
+
+    private static String compareCall(String type) {
+        switch (type) {
+            case "int":     return "Integer.compare";
+            case "long":    return "Long.compare";
+            case "double":  return "Double.compare";
+            case "boolean": return "Boolean.compare";
+            default:        return "OrderBy.compare";
+        }
+    }
+
+    /**
+     * Output with ORDER BY: collect the entries passing HAVING, select the best
+     * LIMIT of them with a bounded heap (OrderBy.top) or sort them all (a single
+     * int or double key as a primitive array), then write them in that order.
+     */
+    private String generateOrderedOutput() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("        int[] mo_order = new int[NUM_OF_ENTRIES];\n");
+        sb.append("        int mo_n = 0;\n");
+        sb.append("        for (int i = 0; i < NUM_OF_ENTRIES; i++) {\n");
+        if (!phi.having.conditions.isEmpty()) {
+            sb.append("            if (!(" + buildHaving() + ")) continue;\n");
+        }
+        sb.append("            mo_order[mo_n++] = i;\n");
+        sb.append("        }\n");
+        if (phi.limit >= 0) {
+            sb.append("        mo_n = OrderBy.top(mo_order, mo_n, " + phi.limit + ", this::compareEntries);\n");
+        } else {
+            OrderItem single = phi.orderBy.size() == 1 ? phi.orderBy.get(0) : null;
+            String[] key = single == null ? null : expressions.key(single.expression, "mf_struct[i]");
+            if (key != null && (key[1].equals("int") || key[1].equals("double"))) {
+                sb.append("        " + key[1] + "[] mo_keys = new " + key[1] + "[NUM_OF_ENTRIES];\n");
+                sb.append("        for (int mo_k = 0; mo_k < mo_n; mo_k++) {\n");
+                sb.append("            int i = mo_order[mo_k];\n");
+                sb.append("            mo_keys[i] = " + key[0] + ";\n");
+                sb.append("        }\n");
+                sb.append("        OrderBy.sort(mo_order, mo_n, mo_keys, " + single.descending + ");\n");
+            } else {
+                sb.append("        OrderBy.sort(mo_order, mo_n, this::compareEntries);\n");
+            }
+        }
+        sb.append("        for (int mo_k = 0; mo_k < mo_n; mo_k++) {\n");
+        sb.append("            int i = mo_order[mo_k];\n");
+        if (counting()) {
+            sb.append("            mo_rows++;\n");
+        }
+        sb.append(buildRowWrite("            "));
+        sb.append("        }\n");
+        return sb.toString();
+    }
+
+    // ================== SCAN 0 ==================
+
+    private String generateScan0() {
+        StringBuilder sb = new StringBuilder();
+        ConditionExpression where = phi.predicates.get(0);
+
+        ExprCompiler.RowScope row = new ExprCompiler.RowScope("r0", false);
+        String filter = expressions.where(where, row);
+
+        sb.append(openScan("r0", scanColumns()));
+        sb.append(generateBlockFilter("r0", -1));
+        sb.append(row.constants("        "));
+        sb.append(openSampler("r0", 0, sampleScan0));
+        if (progressive) {
+            sb.append("        PROGRESS_TOTAL = 0;\n");
+            sb.append("        PROGRESS_SEEN = 0;\n");
+            sb.append("        PROGRESS.start();\n");
+        }
+        if (counting()) {
+            sb.append("        long m0_start = System.nanoTime(), m0_rows = 0, m0_where = 0, m0_passed = 0, m0_probed = 0;\n");
+        }
+        sb.append(beginScanEvent("m0", 0, ""));
+        sb.append("        while (r0.next()) {\n");
+        if (counting()) {
+            sb.append("            m0_rows++;\n");
+        }
+        sb.append(sampleRow("r0", sampleScan0));
+
+        // With row-hash shards every worker needs every group, so scan 0 is not sharded
+        if (shards > 0 && PartitionAnalyzer.findPartitionAttribute(phi) != null) {
+            sb.append("            if (!inShard(" + shardHash("r0") + ")) continue;\n");
+        }
+
+        String indent = "            ";
+        if (!where.conditions.isEmpty()) {
+            if (counting()) {
+                sb.append("            m0_where++;\n");
+            }
+            sb.append("            if (" + filter + ") {\n");
+            indent += "    ";
+        }
+
+        if (progressive) {
+            sb.append(indent + "PROGRESS_TOTAL++;\n");
+        }
+        sb.append(lookupOrAdd("r0", "m0", indent));
+
+        if (!where.conditions.isEmpty()) {
+            sb.append("            }\n");
         }
 
         sb.append("        }\n");
-        sb.append("        r0.close(); s0.close();");
+        sb.append("        r0.close();");
+        if (metrics) {
+            sb.append("\n        METRICS.phase(\"scan 0\").add(m0_start, m0_rows, m0_passed, m0_probed, m0_where + m0_probed, m0_passed, 0);");
+        }
+        if (events) {
+            sb.append("\n        m0_event.finish(m0_rows, m0_passed, m0_passed);");
+        }
+        if (!indexed.isEmpty()) {
+            sb.append("\n").append(generateIndexBuild("        "));
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    private String beginScanEvent(String m, int scan, String gv) {
+        if (!events) return "";
+        return "        QueryEvents.Scan " + m + "_event = QueryEvents.beginScan(FINGERPRINT, " + scan + ", \"" + gv + "\");\n";
+    }
+
+    /**
+     * Add the current row's group to the mf-structure unless it is already there.
+     * With metrics or events, also counts the row in <m>_passed and the lookup
+     * comparisons in <m>_probed.
+     */
+    private String lookupOrAdd(String rs, String m, String indent) {
+        if (direct()) {
+            String d = m + "_d", e = m + "_i";
+            StringBuilder sb = new StringBuilder();
+            sb.append(indent + "int " + d + " = slot(" + slotArgs(rs, new int[phi.groupingAttributes.size()]) + ");\n");
+            sb.append(indent + "int " + e + " = " + d + " >= 0 ? SLOTS[" + d + "] : lookup(" + rsArgs(rs) + ");\n");
+            if (counting()) {
+                sb.append(indent + m + "_passed++;\n");
+                sb.append(indent + m + "_probed += " + d + " >= 0 ? 1 : " + (hashGroups ? "1" : e + " == -1 ? NUM_OF_ENTRIES : " + e + " + 1") + ";\n");
+            }
+            sb.append(indent + "if (" + e + " == -1) {\n");
+            sb.append(indent + "    add(" + rsArgs(rs) + ");\n");
+            sb.append(indent + "    if (" + d + " >= 0) SLOTS[" + d + "] = NUM_OF_ENTRIES - 1; else OVERFLOW++;\n");
+            sb.append(indent + "}\n");
+            return sb.toString();
+        }
+        if (!counting()) {
+            return indent + "if (lookup(" + rsArgs(rs) + ") == -1) add(" + rsArgs(rs) + ");\n";
+        }
+        String probed = hashGroups ? "1" : m + "_i == -1 ? NUM_OF_ENTRIES : " + m + "_i + 1";
+        return indent + "int " + m + "_i = lookup(" + rsArgs(rs) + ");\n"
+            + indent + m + "_passed++;\n"
+            + indent + m + "_probed += " + probed + ";\n"
+            + indent + "if (" + m + "_i == -1) add(" + rsArgs(rs) + ");\n";
+    }
+
+    /**
+     * Open a scan of the base table and resolve the ordinal of every column the
+     * scan reads once, into locals named <rs>_<column>.
+     */
+    private String openScan(String rs, List<String> columns) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("        RowSource " + rs + " = source.open(\"" + phi.fromTable + "\");\n");
+        sb.append(resolveColumns(rs, columns));
         return sb.toString();
     }
 
+    private String resolveColumns(String rs, List<String> columns) {
+        StringBuilder sb = new StringBuilder();
+        for (String col : columns) {
+            sb.append("        int " + rs + "_" + col + " = " + rs + ".columnIndex(\"" + col + "\");\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Every column read by any scan: the columns σ0 filters on plus the grouping
+     * attributes, σi columns and aggregated columns.
+     */
+    private List<String> scanColumns() {
+        Set<String> cols = new LinkedHashSet<>();
+        Expr.columns(Expr.of(phi.predicates.get(0)), true, cols);
+        cols.addAll(PartitionAnalyzer.referencedColumns(phi));
+        return new ArrayList<>(cols);
+    }
+
+    /**
+     * Block skipping hint for a scan (see BlockFilter): the constant comparisons of σ0
+     * and, for scan i+1 (i >= 0), those of σi+1 on its grouping variable. A predicate
+     * only contributes when it is a pure AND chain; NOT conditions and comparisons
+     * the zone maps cannot answer are left out, which only makes the hint weaker.
+     */
+    private String generateBlockFilter(String rs, int i) {
+        if (!pushdown) return "";
+        List<String> calls = new ArrayList<>();
+        blockConstraints(i, calls, new ArrayList<>());
+        if (calls.isEmpty()) return "";
+        return "        " + rs + ".filterBlocks(new BlockFilter()" + String.join("", calls) + ");\n";
+    }
+
+    /** The conditions generateBlockFilter pushes down to the row source of scan i+1 (-1: scan 0). */
+    List<Condition> pushedDownConditions(int i) {
+        List<Condition> pushed = new ArrayList<>();
+        blockConstraints(i, new ArrayList<>(), pushed);
+        return pushed;
+    }
+
+    private void blockConstraints(int i, List<String> calls, List<Condition> pushed) {
+        addBlockConstraints(phi.predicates.get(0), null, calls, pushed);
+        if (i >= 0) {
+            addBlockConstraints(phi.predicates.get(i + 1), phi.groupingVariableNames.get(i), calls, pushed);
+        }
+    }
+
+    private void addBlockConstraints(ConditionExpression sigma, String gv, List<String> calls, List<Condition> pushed) {
+        for (String op : sigma.operators) {
+            if (!op.equalsIgnoreCase("and")) return;
+        }
+        for (Condition c : sigma.conditions) {
+            if (c.negated) continue;
+            String attr;
+            if (gv == null) {
+                attr = c.left.contains(".") ? c.left.split("\\.")[1] : c.left;
+            } else if (c.left.startsWith(gv + ".")) {
+                attr = c.left.substring(gv.length() + 1);
+            } else {
+                continue;
+            }
+            String type = getColumnType(attr);
+            boolean notEqual = c.operator.equals("<>") || c.operator.equals("!=");
+
+            if (type.equals("string") && c.right.startsWith("'")) {
+                String val = c.right.substring(1, c.right.length() - 1);
+                if (c.operator.equals("=") || notEqual) {
+                    calls.add("." + (notEqual ? "notEqualTo" : "equalTo") + "(\"" + attr + "\", \"" + val + "\")");
+                    pushed.add(c);
+                }
+            } else if (type.equals("int") && c.right.matches("-?\\d+")) {
+                long v = Long.parseLong(c.right);
+                String lo = "Long.MIN_VALUE", hi = "Long.MAX_VALUE";
+                switch (c.operator) {
+                    case "=":  lo = v + "L"; hi = v + "L"; break;
+                    case "<":  hi = (v - 1) + "L"; break;
+                    case "<=": hi = v + "L"; break;
+                    case ">":  lo = (v + 1) + "L"; break;
+                    case ">=": lo = v + "L"; break;
+                    default:
+                        if (notEqual) {
+                            calls.add(".notEqual(\"" + attr + "\", " + v + "L)");
+                            pushed.add(c);
+                        }
+                        continue;
+                }
+                calls.add(".range(\"" + attr + "\", " + lo + ", " + hi + ")");
+                pushed.add(c);
+            }
+        }
+    }
+
+    // Read a column of the current row through the ordinal resolved by openScan
+    private String read(String rs, String accessor, String column) {
+        return rs + "." + accessor + "(" + rs + "_" + column + ")";
+    }
+
     private String rsArgs(String rs) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < phi.groupingAttributes.size(); i++) {
             if (i > 0) sb.append(", ");
             String attr = phi.groupingAttributes.get(i);
             if (isNumericColumn(attr)) {
-                sb.append(rs + ".getInt(\"" + attr + "\")");
+                sb.append(read(rs, "getInt", attr));
             } else if (isDateColumn(attr)) {
-                sb.append(rs + ".getDate(\"" + attr + "\")");
+                sb.append(read(rs, "getDate", attr));
             } else {
-                sb.append(rs + ".getString(\"" + attr + "\")");
+                sb.append(read(rs, "getString", attr));
             }
         }
         return sb.toString();
@@ -327,254 +1390,639 @@ public class QueryGenerator {
 
     private String generateScans() {
         StringBuilder sb = new StringBuilder();
-        ConditionExpression where = phi.predicates.get(0);
 
-        for (int i = 0; i < phi.n; i++) {
-            String gv = phi.groupingVariableNames.get(i);
-            String rs = "r" + (i + 1);
-            ConditionExpression sigma = phi.predicates.get(i + 1);
+        List<List<Integer>> passes = passes();
+        for (int k = 0; k < passes.size(); k++) {
+            List<Integer> pass = passes.get(k);
+            String rs = "r" + (k + 1);
+
+            sb.append("\n        // SCAN " + (k + 1) + ": " + passVariables(pass) + "\n");
+            sb.append(openScan(rs, scanColumns()));
+            // A fused pass reads rows for several σi, so only σ0 can skip blocks; a
+            // progressive scan must see every row passing σ0 to measure its progress
+            sb.append(generateBlockFilter(rs, pass.size() == 1 && !progressive ? pass.get(0) : -1));
+            sb.append(generatePassLoop(k, pass, rs, true));
+            sb.append("        " + rs + ".close();");
+            if (pruneCondition(k) != null) {
+                sb.append("\n        pruneAfterScan" + (k + 1) + "();");
+            }
+        }
+        return sb.toString();
+    }
 
-            sb.append("\n        // SCAN " + (i + 1) + ": " + gv + "\n");
-            sb.append("        Statement s" + (i + 1) + " = conn.createStatement();\n");
-            sb.append("        ResultSet " + rs + " = s" + (i + 1) + ".executeQuery(\"SELECT * FROM " + phi.fromTable + "\");\n");
-            sb.append("        while (" + rs + ".next()) {\n");
+    /**
+     * The row loop of scan k+1: for every row (optionally filtered by σ0) update the
+     * aggregates of each grouping variable of the pass in every entry that satisfies
+     * its σ. Entries are either all tested (nested loop) or looked up in the
+     * variable's EntryIndex. rs is any RowSource with the scan's column ordinals
+     * already resolved. The row's columns are read once into locals, and the σ
+     * conjuncts that only read the row gate the entry loop (see ExprCompiler).
+     */
+    private String generatePassLoop(int k, List<Integer> pass, String rs, boolean applyWhere) {
+        StringBuilder sb = new StringBuilder();
+        ConditionExpression where = phi.predicates.get(0);
+        boolean filter = applyWhere && !where.conditions.isEmpty();
+        boolean fused = pass.size() > 1;
+        String m = "m" + (k + 1);
+        // σ0's columns are read before the filter, the rest after it
+        ExprCompiler.RowScope row = new ExprCompiler.RowScope(rs, true);
+        String whereCode = filter ? expressions.where(where, row) : null;
+        String whereReads = row.takeDeclarations("            ");
+
+        StringBuilder body = new StringBuilder();
+        int updates = 0;
+        for (int i : pass) {
+            String gv = phi.groupingVariableNames.get(i);
+            String[] match = expressions.match(phi.predicates.get(i + 1), gv, row);
 
-            if (!where.conditions.isEmpty()) {
-                sb.append("            if (" + buildWhere(where, rs) + ") {\n");
+            // σ conjuncts that only read the row are tested once, before the entries
+            if (match[0] != null) {
+                body.append("            if (" + match[0] + ") {\n");
+            }
+            int[] shifts = directProbe(i);
+            if (shifts != null) {
+                String d = m + "_" + gv + "_d", to = m + "_" + gv + "_to";
+                body.append("            int " + d + " = slot(" + slotArgs(rs, shifts) + "), " + to + " = directTo(" + d + ");\n");
+                if (counting()) {
+                    body.append("            " + m + "_probed += " + to + " - directFrom(" + d + ");\n");
+                }
+                body.append("            for (int j = directFrom(" + d + "); j < " + to + "; j++) {\n");
+            } else if (indexed.contains(i)) {
+                String probe = "IDX_" + (i + 1) + ".get(" + indexKey(rs, i) + ")";
+                if (counting()) {
+                    body.append("            int[] " + m + "_" + gv + " = " + probe + ";\n");
+                    body.append("            " + m + "_probed += " + m + "_" + gv + ".length;\n");
+                    body.append("            for (int j : " + m + "_" + gv + ") {\n");
+                } else {
+                    body.append("            for (int j : " + probe + ") {\n");
+                }
+            } else {
+                if (counting()) {
+                    body.append("            " + m + "_probed += NUM_OF_ENTRIES;\n");
+                }
+                body.append("            for (int j = 0; j < NUM_OF_ENTRIES; j++) {\n");
+            }
+            body.append("                if (" + match[1] + ") {\n");
+            if (counting()) {
+                body.append("                    " + m + "_matches++;\n");
             }
 
-            sb.append("            for (int j = 0; j < NUM_OF_ENTRIES; j++) {\n");
-            sb.append("                if (" + buildMatch(sigma, gv, rs) + ") {\n");
-
+            int gvUpdates = 0;
             for (AggregateFunction agg : phi.fVect) {
                 if (agg.getGroupingVarName().equals(gv)) {
-                    sb.append(generateAggUpdate(agg, rs));
+                    body.append(generateAggUpdate(agg, row));
+                    gvUpdates++;
                 }
             }
+            if (counting() && fused) {
+                body.append("                    " + m + "_updates += " + gvUpdates + ";\n");
+            }
+            updates += gvUpdates;
 
-            sb.append("                }\n");
+            body.append("                }\n");
+            body.append("            }\n");
+            if (match[0] != null) {
+                body.append("            }\n");
+            }
+        }
+
+        // the spill files of a sampled scan 0 already hold a sample
+        boolean sampled = sampling() && (applyWhere || !sampleScan0);
+        sb.append(row.constants("        "));
+        sb.append(openSampler(rs, k + 1, sampled));
+        boolean blockShards = shards > 0 && blockSharded();
+        if (blockShards) {
+            // any split of the rows works for row-hash shards: read only this shard's blocks
+            sb.append("        boolean " + rs + "_blocks = " + rs + ".shardBlocks(SHARD, SHARDS);\n");
+        }
+        if (progressive) {
+            // every prefix of a scan in random block order is a sample of the table
+            sb.append("        " + rs + ".shuffleBlocks(PROGRESS_SEED);\n");
+            sb.append("        long " + m + "_seen = 0;\n");
+            sb.append("        boolean " + m + "_stopped = false;\n");
+        }
+        if (counting()) {
+            sb.append("        long " + m + "_start = System.nanoTime(), " + m + "_rows = 0, " + m + "_where = 0, "
+                + m + "_passed = 0, " + m + "_probed = 0, " + m + "_matches = 0"
+                + (fused ? ", " + m + "_updates = 0" : "") + ";\n");
+        }
+        sb.append(beginScanEvent(m, k + 1, passVariables(pass)));
+        sb.append("        while (" + rs + ".next()) {\n");
+        if (progressive) {
+            sb.append("            if ((++" + m + "_seen & 4095) == 0 && PROGRESS.due() && !publishProgress(false)) {\n");
+            sb.append("                " + m + "_stopped = true;\n");
+            sb.append("                break;\n");
             sb.append("            }\n");
+        }
+        if (counting()) {
+            sb.append("            " + m + "_rows++;\n");
+        }
+        sb.append(sampleRow(rs, sampled));
 
-            if (!where.conditions.isEmpty()) {
-                sb.append("            }\n");
+        if (blockShards) {
+            sb.append("            if (!" + rs + "_blocks && !inShard(" + shardHash(rs) + ")) continue;\n");
+        } else if (shards > 0) {
+            sb.append("            if (!inShard(" + shardHash(rs) + ")) continue;\n");
+        }
+
+        if (filter) {
+            if (counting()) {
+                sb.append("            " + m + "_where++;\n");
             }
+            sb.append(whereReads);
+            sb.append("            if (" + whereCode + ") {\n");
+        }
+        if (counting()) {
+            sb.append("            " + m + "_passed++;\n");
+        }
+        if (progressive) {
+            sb.append("            PROGRESS_SEEN++;\n");
+        }
+        sb.append(row.takeDeclarations("            "));
+        sb.append(body);
 
-            sb.append("        }\n");
-            sb.append("        " + rs + ".close(); s" + (i + 1) + ".close();");
+        if (filter) {
+            sb.append("            }\n");
+        }
+
+        sb.append("        }\n");
+        if (metrics) {
+            sb.append("        METRICS.phase(\"" + passName(k) + "\").add(" + m + "_start, " + m + "_rows, "
+                + m + "_passed, " + m + "_probed, " + m + "_where + " + m + "_probed, " + m + "_matches, "
+                + (fused ? m + "_updates" : m + "_matches * " + updates) + ");\n");
+        }
+        if (events) {
+            sb.append("        " + m + "_event.finish(" + m + "_rows, " + m + "_passed, " + m + "_matches);\n");
+        }
+        sb.append(generatePassValues(pass));
+        if (progressive) {
+            sb.append("        if (!" + m + "_stopped) publishProgress(true);\n");
         }
         return sb.toString();
     }
 
-    private String generateAggUpdate(AggregateFunction agg, String rs) {
-        String f = fieldName(agg);
-        String attr = agg.getAttribute();
-        String indent = "                    ";
+    /**
+     * After the scan of a pass: the values of its sketch aggregates (distinct
+     * estimate, quantile) and, for a sampled scan, the scaled sums and counts and
+     * the error bounds, which later σ, HAVING and the output read as plain fields.
+     */
+    private String generatePassValues(List<Integer> pass) {
+        List<String> updates = new ArrayList<>();
+        for (int i : pass) {
+            for (AggregateFunction agg : phi.fVect) {
+                if (!agg.getGroupingVarName().equals(phi.groupingVariableNames.get(i))) continue;
+                if (agg.isSketch()) {
+                    updates.add("            " + sketchValue(agg, "mf_struct[j]") + "\n");
+                } else if (sampling() && hasErrorBound(agg)) {
+                    updates.add(sampleEstimate(agg, "mf_struct[j]"));
+                }
+            }
+        }
+        if (updates.isEmpty()) return "";
+        return "        for (int j = 0; j < NUM_OF_ENTRIES; j++) {\n" + String.join("", updates) + "        }\n";
+    }
+
+    private String sketchValue(AggregateFunction agg, String entry) {
+        String f = entry + "." + fieldName(agg);
+        if (agg.quantile() >= 0) {
+            return "if (" + f + "_sketch.count() > 0) " + f + " = " + f + "_sketch.quantile(" + agg.quantile() + ");";
+        }
+        return f + " = " + f + "_sketch.estimate();";
+    }
 
+    /**
+     * Scale a sampled sum or count by 1 / SAMPLE_RATE and set its error bound (see
+     * Estimate); avg only gets the bound of its sample mean. With a sampled scan 0
+     * the spill files hold the sample, so such a pass is not sampled again but is
+     * still scaled.
+     */
+    private String sampleEstimate(AggregateFunction agg, String entry) {
+        String f = entry + "." + fieldName(agg);
+        String indent = "            ";
         switch (agg.getFunctionName()) {
-            case "count":
-                return indent + "mf_struct[j]." + f + "++;\n";
-            case "sum":
-                return indent + "mf_struct[j]." + f + " += " + rs + ".getInt(\"" + attr + "\");\n";
-            case "max":
-                return indent + "if (" + rs + ".getInt(\"" + attr + "\") > mf_struct[j]." + f + ") mf_struct[j]." + f + " = " + rs + ".getInt(\"" + attr + "\");\n";
-            case "min":
-                return indent + "if (mf_struct[j]." + f + " == Integer.MAX_VALUE || " + rs + ".getInt(\"" + attr + "\") < mf_struct[j]." + f + ") mf_struct[j]." + f + " = " + rs + ".getInt(\"" + attr + "\");\n";
             case "avg":
-                return indent + "mf_struct[j]." + f + "_cnt++;\n" +
-                       indent + "mf_struct[j]." + f + "_sum += " + rs + ".getInt(\"" + attr + "\");\n" +
-                       indent + "mf_struct[j]." + f + " = mf_struct[j]." + f + "_sum / mf_struct[j]." + f + "_cnt;\n";
+                return indent + f + "_err = Estimate.meanError(" + f + "_sum, " + f + "_sq, " + f + "_cnt, SAMPLE_RATE, Z);\n";
+            case "count":
+                return indent + f + "_err = Estimate.countError(" + f + ", SAMPLE_RATE, Z);\n"
+                    + indent + f + " /= SAMPLE_RATE;\n";
             default:
-                return "";
+                return indent + f + "_err = Estimate.sumError(" + f + "_sq, SAMPLE_RATE, Z);\n"
+                    + indent + f + " /= SAMPLE_RATE;\n";
         }
     }
 
-    // ================== CONDITION BUILDING ==================
-
-    private String buildWhere(ConditionExpression sigma, String rs) {
-        if (sigma == null || sigma.conditions.isEmpty()) {
-            return "true";  // No conditions means always true
+    /**
+     * Approximate mode: the Sampler of scan k over rs, seeded per scan. A source
+     * that can sample its blocks does so and the Sampler keeps all its rows.
+     */
+    private String openSampler(String rs, int k, boolean sampled) {
+        if (!sampled) return "";
+        String args = "SAMPLE_RATE, SAMPLE_SEED + " + k;
+        if (sampleBlocks) {
+            return "        Sampler " + rs + "_sample = " + rs + ".sampleBlocks(" + args + ") ? Sampler.all() : new Sampler(" + args + ");\n";
         }
+        return "        Sampler " + rs + "_sample = new Sampler(" + args + ");\n";
+    }
 
-        List<String> parts = new ArrayList<>();
-        for (int i = 0; i < sigma.conditions.size(); i++) {
-            Condition c = sigma.conditions.get(i);
-            String attr = c.left.contains(".") ? c.left.split("\\.")[1] : c.left;
-            String op = c.operator.equals("=") ? "==" :
-                       (c.operator.equals("<>") || c.operator.equals("!=")) ? "!=" : c.operator;
-
-            String part = null;
-            if (c.right.startsWith("'")) {
-                String val = c.right.substring(1, c.right.length() - 1);
-                if (c.operator.equals("<>") || c.operator.equals("!=")) {
-                    part = "!" + rs + ".getString(\"" + attr + "\").equals(\"" + val + "\")";
-                } else {
-                    part = rs + ".getString(\"" + attr + "\").equals(\"" + val + "\")";
-                }
-            } else if (c.right.matches("-?\\d+")) {
-                part = rs + ".getInt(\"" + attr + "\") " + op + " " + c.right;
-            }
+    private String sampleRow(String rs, boolean sampled) {
+        if (!sampled) return "";
+        return "            if (!" + rs + "_sample.keep()) continue;\n";
+    }
 
-            if (part != null) {
-                parts.add(part);
-            }
+    /** Scans 1..n: one pass per grouping variable unless setPasses() fused some. */
+    List<List<Integer>> passes() {
+        if (progressive) {
+            List<Integer> all = new ArrayList<>();
+            for (int i = 0; i < phi.n; i++) all.add(i);
+            return List.of(all);
         }
+        if (passes != null) return passes;
+        List<List<Integer>> single = new ArrayList<>();
+        for (int i = 0; i < phi.n; i++) {
+            single.add(List.of(i));
+        }
+        return single;
+    }
 
-        if (parts.isEmpty()) {
-            return "true";
+    private String passVariables(List<Integer> pass) {
+        List<String> names = new ArrayList<>();
+        for (int i : pass) {
+            names.add(phi.groupingVariableNames.get(i));
         }
+        return String.join(", ", names);
+    }
+
+    /** Metrics phase of scan k+1 (QueryMetrics, QueryPlan). */
+    String passName(int k) {
+        return "scan " + (k + 1) + ": " + passVariables(passes().get(k));
+    }
 
-        // Build expression with proper AND/OR operators
+    /**
+     * Build the EntryIndex of every indexed grouping variable over the entries of
+     * the mf-structure (after scan 0, or per spill partition).
+     */
+    private String generateIndexBuild(String indent) {
         StringBuilder sb = new StringBuilder();
-        sb.append("(").append(parts.get(0)).append(")");
-        for (int i = 1; i < parts.size(); i++) {
-            String logicalOp = (i - 1 < sigma.operators.size()) ?
-                (sigma.operators.get(i - 1).equalsIgnoreCase("or") ? "||" : "&&") : "&&";
-            sb.append(" ").append(logicalOp).append(" (").append(parts.get(i)).append(")");
+        for (int i : new TreeSet<>(indexed)) {
+            List<String> values = new ArrayList<>();
+            for (String attr : PartitionAnalyzer.equalityAttributes(phi, i)) {
+                values.add("mf_struct[j]." + attr);
+            }
+            sb.append(indent + "IDX_" + (i + 1) + " = EntryIndex.build(NUM_OF_ENTRIES, j -> EntryIndex.key("
+                + String.join(", ", values) + "));\n");
         }
         return sb.toString();
     }
 
-    private String buildMatch(ConditionExpression sigma, String gv, String rs) {
-        List<String> parts = new ArrayList<>();
-        List<String> operators = new ArrayList<>();
-
-        for (int i = 0; i < sigma.conditions.size(); i++) {
-            Condition c = sigma.conditions.get(i);
-            if (!c.left.startsWith(gv + ".")) continue;
-
-            String attr = c.left.split("\\.")[1];
-            String right = c.right;
-            String op = c.operator.equals("=") ? "==" :
-                       (c.operator.equals("<>") || c.operator.equals("!=")) ? "!=" : c.operator;
-
-            String part = null;
-
-            // gv.attr = groupingAttr (e.g., x.prod = prod)
-            if (phi.groupingAttributes.contains(right)) {
-                if (isNumericColumn(right)) {
-                    // Numeric grouping attribute - direct comparison
-                    part = rs + ".getInt(\"" + attr + "\") " + op + " mf_struct[j]." + right;
-                } else if (c.operator.equals("=")) {
-                    part = rs + ".getString(\"" + attr + "\").equals(mf_struct[j]." + right + ")";
-                } else if (c.operator.equals("<>") || c.operator.equals("!=")) {
-                    // Not equals - use !equals() for strings
-                    part = "!" + rs + ".getString(\"" + attr + "\").equals(mf_struct[j]." + right + ")";
-                } else {
-                    // Numeric comparison (<, >, <=, >=) on string that needs parsing
-                    part = rs + ".getInt(\"" + attr + "\") " + c.operator + " Integer.parseInt(mf_struct[j]." + right + ")";
-                }
+    // Index key of the current row for grouping variable i: the row's values of gv.a for gv.a = a
+    private String indexKey(String rs, int i) {
+        List<String> values = new ArrayList<>();
+        for (String attr : PartitionAnalyzer.equalityAttributes(phi, i)) {
+            String type = getColumnType(attr);
+            String accessor = type.equals("int") ? "getInt" : type.equals("double") ? "getDouble"
+                : type.equals("date") ? "getDate" : "getString";
+            values.add(read(rs, accessor, attr));
+        }
+        return "EntryIndex.key(" + String.join(", ", values) + ")";
+    }
+
+    // ================== SHARDING ==================
+
+    /**
+     * Shard filter plus (de)serialization of the mf-structure for ShardCoordinator.
+     * Workers write every entry; the coordinator looks each one up and either adds it
+     * or merges the aggregates into the existing entry (sum/count add, min/max compare,
+     * avg merges its running sum and count). Every worker samples the whole table
+     * in the same order before its shard filter, so in the approximate mode the
+     * shards together read one sample; their error bounds add in quadrature.
+     *
+     * With row-hash shards, scans 1..n of a snapshot read only the worker's blocks
+     * (RowSource.shardBlocks). Scan 0 is not sharded, because every worker needs
+     * every group. Sharding on the partition attribute, and any shard over JDBC,
+     * still reads the whole table in every worker and drops other shards' rows
+     * with inShard(): that splits the mf-structure and the matching work, not the
+     * reading.
+     */
+    private String generateShardDeclarations() {
+        StringBuilder sb = new StringBuilder();
+        String key = PartitionAnalyzer.findPartitionAttribute(phi);
+
+        sb.append("    int SHARD = 0;\n");
+        sb.append("    int SHARDS = 1;\n\n");
+
+        if (key != null) {
+            sb.append("    // Shard on " + key + ": every such-that predicate requires gv." + key + " = " + key + "\n");
+        } else {
+            sb.append("    // Shard by row hash: partial aggregates are merged by the coordinator\n");
+        }
+        sb.append("    boolean inShard(int hash) {\n");
+        sb.append("        return PartitionAnalyzer.partitionOf(hash, SHARDS) == SHARD;\n");
+        sb.append("    }\n\n");
+
+        // Worker side: write all entries
+        sb.append("    void writeEntries(DataOutputStream out) throws IOException {\n");
+        sb.append("        out.writeInt(NUM_OF_ENTRIES);\n");
+        sb.append("        for (int i = 0; i < NUM_OF_ENTRIES; i++) {\n");
+        sb.append("            MFStruct e = mf_struct[i];\n");
+        for (String attr : phi.groupingAttributes) {
+            sb.append("            " + writeValue(getJavaType(attr), "e." + attr) + ";\n");
+        }
+        for (AggregateFunction agg : phi.fVect) {
+            String f = fieldName(agg);
+            if (agg.getFunctionName().equals("avg")) {
+                sb.append("            out.writeInt(e." + f + "_cnt);\n");
+                sb.append("            out.writeDouble(e." + f + "_sum);\n");
+                if (sampling()) sb.append("            out.writeDouble(e." + f + "_sq);\n");
+            } else if (sampling() && hasErrorBound(agg)) {
+                sb.append("            out.writeDouble(e." + f + ");\n");
+                sb.append("            out.writeDouble(e." + f + "_err);\n");
+            } else if (agg.isSketch()) {
+                sb.append("            e." + f + "_sketch.write(out);\n");
+            } else {
+                sb.append("            " + writeValue(getAggregateType(agg), "e." + f) + ";\n");
             }
-            // gv.attr = month+1 or month-1
-            else if (right.matches(".*[+-]\\d+$") && !right.contains("(")) {
-                for (String g : phi.groupingAttributes) {
-                    if (right.startsWith(g)) {
-                        String rest = right.substring(g.length()).trim();
-                        if (isNumericColumn(g)) {
-                            // Numeric grouping attribute - direct comparison
-                            part = rs + ".getInt(\"" + attr + "\") " + op + " (mf_struct[j]." + g + " " + rest + ")";
-                        } else {
-                            part = rs + ".getInt(\"" + attr + "\") " + op + " (Integer.parseInt(mf_struct[j]." + g + ") " + rest + ")";
-                        }
-                        break;
-                    }
-                }
+        }
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+
+        // Coordinator side: merge a worker's entries
+        sb.append("    void mergeEntries(DataInputStream in) throws IOException {\n");
+        sb.append("        int count = in.readInt();\n");
+        sb.append("        for (int k = 0; k < count; k++) {\n");
+        List<String> keyVars = new ArrayList<>();
+        for (String attr : phi.groupingAttributes) {
+            String type = getJavaType(attr);
+            sb.append("            " + type + " " + attr + " = " + readValue(type) + ";\n");
+            keyVars.add(attr);
+        }
+        String keys = String.join(", ", keyVars);
+        sb.append("            int i = lookup(" + keys + ");\n");
+        sb.append("            if (i == -1) {\n");
+        sb.append("                add(" + keys + ");\n");
+        sb.append("                i = NUM_OF_ENTRIES - 1;\n");
+        sb.append("            }\n");
+        sb.append("            MFStruct e = mf_struct[i];\n");
+        for (AggregateFunction agg : phi.fVect) {
+            String f = fieldName(agg);
+            if (agg.isSketch()) {
+                sb.append("            e." + f + "_sketch.merge(" + sketchType(agg) + ".read(in));\n");
+                sb.append("            " + sketchValue(agg, "e") + "\n");
+                continue;
             }
-            // gv.attr > avg(x.quant)
-            else if (right.matches("(sum|avg|count|min|max)\\(.*\\)")) {
-                for (AggregateFunction agg : phi.fVect) {
-                    String pattern = agg.getFunctionName() + "(" + agg.getGroupingVarName() + "." + agg.getAttribute() + ")";
-                    if (right.equals(pattern)) {
-                        String field = fieldName(agg);
-                        // For avg, also check that count > 0 (i.e., the aggregate was computed)
-                        if (agg.getFunctionName().equals("avg")) {
-                            parts.add("mf_struct[j]." + field + "_cnt > 0");
-                            operators.add("&&");
-                        }
-                        part = rs + ".getInt(\"" + attr + "\") " + op + " mf_struct[j]." + field;
-                        break;
+            switch (agg.getFunctionName()) {
+                case "avg":
+                    sb.append("            e." + f + "_cnt += in.readInt();\n");
+                    sb.append("            e." + f + "_sum += in.readDouble();\n");
+                    sb.append("            if (e." + f + "_cnt > 0) e." + f + " = e." + f + "_sum / e." + f + "_cnt;\n");
+                    if (sampling()) {
+                        sb.append("            e." + f + "_sq += in.readDouble();\n");
+                        sb.append(sampleEstimate(agg, "e"));
+                    }
+                    break;
+                case "min":
+                    sb.append("            e." + f + " = Math.min(e." + f + ", " + readValue(getAggregateType(agg)) + ");\n");
+                    break;
+                case "max":
+                    sb.append("            e." + f + " = Math.max(e." + f + ", " + readValue(getAggregateType(agg)) + ");\n");
+                    break;
+                default:
+                    sb.append("            e." + f + " += " + readValue(getAggregateType(agg)) + ";\n");
+                    if (sampling()) {
+                        // the workers' samples are independent: their variances add
+                        sb.append("            e." + f + "_err = Math.hypot(e." + f + "_err, in.readDouble());\n");
                     }
-                }
-            }
-            // gv.attr = 'NY'
-            else if (right.startsWith("'")) {
-                String val = right.substring(1, right.length() - 1);
-                if (c.operator.equals("<>") || c.operator.equals("!=")) {
-                    part = "!" + rs + ".getString(\"" + attr + "\").equals(\"" + val + "\")";
-                } else {
-                    part = rs + ".getString(\"" + attr + "\").equals(\"" + val + "\")";
-                }
-            }
-            // gv.attr = 100
-            else if (right.matches("-?\\d+")) {
-                part = rs + ".getInt(\"" + attr + "\") " + op + " " + right;
             }
+        }
+        sb.append("        }\n");
+        sb.append("    }");
+        return sb.toString();
+    }
 
-            if (part != null) {
-                parts.add(part);
-                // Track the logical operator (AND/OR) for this condition
-                if (i < sigma.operators.size()) {
-                    operators.add(sigma.operators.get(i).equalsIgnoreCase("or") ? "||" : "&&");
-                }
+    /**
+     * Hash of the current row used to pick its shard: the partition attribute when
+     * there is one, otherwise every column the scans read. Strings and dates hash by
+     * value (not dictionary code) so every worker process agrees.
+     */
+    private String shardHash(String rs) {
+        String key = PartitionAnalyzer.findPartitionAttribute(phi);
+        List<String> hashed = key != null ? List.of(key) : PartitionAnalyzer.referencedColumns(phi);
+
+        String h = "1";
+        for (String col : hashed) {
+            String type = getColumnType(col);
+            String v;
+            if (type.equals("int")) {
+                v = "Integer.hashCode(" + read(rs, "getInt", col) + ")";
+            } else if (type.equals("double")) {
+                v = "Double.hashCode(" + read(rs, "getDouble", col) + ")";
+            } else if (type.equals("date")) {
+                v = "Objects.hashCode(" + read(rs, "getDate", col) + ")";
+            } else {
+                v = "Objects.hashCode(" + read(rs, "getString", col) + ")";
             }
+            h = h.equals("1") ? "31 + " + v : "31 * (" + h + ") + " + v;
         }
+        return h;
+    }
 
-        if (parts.isEmpty()) return "true";
+    private String writeValue(String javaType, String value) {
+        switch (javaType) {
+            case "int": return "out.writeInt(" + value + ")";
+            case "long": return "out.writeLong(" + value + ")";
+            case "double": return "out.writeDouble(" + value + ")";
+            case "java.sql.Date": return "out.writeLong(" + value + ".getTime())";
+            default: return "out.writeUTF(" + value + ")";
+        }
+    }
 
-        // Build the expression respecting AND/OR operators
-        StringBuilder result = new StringBuilder();
-        result.append("(").append(parts.get(0)).append(")");
-        for (int i = 1; i < parts.size(); i++) {
-            String logicalOp = (i - 1 < operators.size()) ? operators.get(i - 1) : "&&";
-            result.append(" ").append(logicalOp).append(" (").append(parts.get(i)).append(")");
+    private String readValue(String javaType) {
+        switch (javaType) {
+            case "int": return "in.readInt()";
+            case "long": return "in.readLong()";
+            case "double": return "in.readDouble()";
+            case "java.sql.Date": return "new java.sql.Date(in.readLong())";
+            default: return "in.readUTF()";
         }
-        return result.toString();
     }
 
-    // ================== HELPERS ==================
+    // ================== SPILLING ==================
 
-    private String fieldName(AggregateFunction agg) {
-        int idx = phi.groupingVariableNames.indexOf(agg.getGroupingVarName());
-        String gvNum = idx >= 0 ? String.valueOf(idx + 1) : agg.getGroupingVarName();
-        String attr = agg.getAttribute().equals("*") ? "star" : agg.getAttribute();
-        return agg.getFunctionName() + "_" + gvNum + "_" + attr;
+    /**
+     * Spilling scan 0: rows that satisfy σ0 are hash-partitioned on the partition
+     * attribute into on-disk files instead of being added to the mf-structure.
+     */
+    private String generateSpillScan0() {
+        StringBuilder sb = new StringBuilder();
+        ConditionExpression where = phi.predicates.get(0);
+        String key = PartitionAnalyzer.findPartitionAttribute(phi);
+        List<String> cols = PartitionAnalyzer.referencedColumns(phi);
+
+        List<String> names = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        for (String col : cols) {
+            names.add("\"" + col + "\"");
+            types.add("\"" + getColumnType(col) + "\"");
+        }
+
+        sb.append("        // SCAN 0: partition rows on " + key + " into " + spillPartitions + " spill files\n");
+        sb.append("        SpillPartitions spill = new SpillPartitions(" + spillPartitions + ", \"" + key + "\",\n");
+        sb.append("            new String[] {" + String.join(", ", names) + "},\n");
+        sb.append("            new String[] {" + String.join(", ", types) + "});\n");
+        ExprCompiler.RowScope row = new ExprCompiler.RowScope("r0", false);
+        String filter = expressions.where(where, row);
+        sb.append(openScan("r0", scanColumns()));
+        sb.append(generateBlockFilter("r0", -1));
+        sb.append(row.constants("        "));
+        sb.append(openSampler("r0", 0, sampleScan0));
+        if (counting()) {
+            sb.append("        long m0_start = System.nanoTime(), m0_rows = 0, m0_where = 0, m0_passed = 0;\n");
+            sb.append(beginScanEvent("m0", 0, ""));
+            sb.append("        while (r0.next()) {\n");
+            sb.append("            m0_rows++;\n");
+            sb.append(sampleRow("r0", sampleScan0));
+            if (!where.conditions.isEmpty()) {
+                sb.append("            m0_where++;\n");
+                sb.append("            if (!(" + filter + ")) continue;\n");
+            }
+            sb.append("            m0_passed++;\n");
+            sb.append("            spill.add(r0);\n");
+        } else {
+            sb.append("        while (r0.next()) {\n");
+            sb.append(sampleRow("r0", sampleScan0));
+            if (!where.conditions.isEmpty()) {
+                sb.append("            if (" + filter + ") spill.add(r0);\n");
+            } else {
+                sb.append("            spill.add(r0);\n");
+            }
+        }
+        sb.append("        }\n");
+        sb.append("        r0.close();");
+        if (metrics) {
+            // the per-partition group building adds its lookups to scan 0 as well
+            sb.append("\n        METRICS.phase(\"scan 0\").add(m0_start, m0_rows, m0_passed, 0, m0_where, 0, 0);");
+        }
+        if (events) {
+            sb.append("\n        m0_event.finish(m0_rows, m0_passed, 0);");
+        }
+        return sb.toString();
     }
 
-    private String findField(String expr) {
-        for (AggregateFunction agg : phi.fVect) {
-            String pattern = agg.getFunctionName() + "(" + agg.getGroupingVarName() + "." + agg.getAttribute() + ")";
-            if (expr.equals(pattern)) return fieldName(agg);
+    /**
+     * Per-partition evaluation: build the partition's mf-structure, run scans 1..n
+     * over the partition file and output it before moving to the next partition.
+     */
+    private String generateSpillScans() {
+        StringBuilder sb = new StringBuilder();
+        String indent = "    ";
+
+        sb.append("        printHeader();\n");
+        sb.append("        for (int p = 0; p < spill.partitionCount(); p++) {\n");
+        sb.append("            Arrays.fill(mf_struct, 0, NUM_OF_ENTRIES, null);\n");
+        if (hashGroups) {
+            sb.append("            GROUPS.clear();\n");
+        }
+        if (direct()) {
+            sb.append("            Arrays.fill(SLOTS, -1);\n");
+            sb.append("            OVERFLOW = 0;\n");
+        }
+        sb.append("            NUM_OF_ENTRIES = 0;\n\n");
+
+        sb.append("            SpillPartitions.Reader p0 = spill.open(p);\n");
+        sb.append(indent(resolveColumns("p0", phi.groupingAttributes), indent));
+        if (counting()) {
+            sb.append("            long mp_start = System.nanoTime(), mp_passed = 0, mp_probed = 0;\n");
         }
-        return null;
+        sb.append("            while (p0.next()) {\n");
+        sb.append(lookupOrAdd("p0", "mp", "                "));
+        sb.append("            }\n");
+        sb.append("            p0.close();\n");
+        if (metrics) {
+            sb.append("            METRICS.phase(\"scan 0\").add(mp_start, 0, 0, mp_probed, mp_probed, mp_passed, 0);\n");
+        }
+
+        sb.append(generateIndexBuild("            "));
+
+        List<List<Integer>> passes = passes();
+        for (int k = 0; k < passes.size(); k++) {
+            String rs = "p" + (k + 1);
+            sb.append("\n            // SCAN " + (k + 1) + ": " + passVariables(passes.get(k)) + "\n");
+            sb.append("            SpillPartitions.Reader " + rs + " = spill.open(p);\n");
+            sb.append(indent(resolveColumns(rs, PartitionAnalyzer.referencedColumns(phi)), indent));
+            // σ0 was already applied while spilling
+            sb.append(indent(generatePassLoop(k, passes.get(k), rs, false), indent));
+            sb.append("            " + rs + ".close();\n");
+            if (pruneCondition(k) != null) {
+                sb.append("            pruneAfterScan" + (k + 1) + "();\n");
+            }
+        }
+
+        sb.append("\n            output();\n");
+        sb.append("        }\n");
+        sb.append("        spill.close();");
+        return sb.toString();
     }
 
-    private String translateExpr(String expr, String idx) {
-        if (expr.matches("-?\\d+(\\.\\d+)?")) return expr;
+    private String indent(String code, String prefix) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : code.split("\n", -1)) {
+            if (!line.isEmpty()) sb.append(prefix);
+            sb.append(line).append("\n");
+        }
+        sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
 
-        // Check if expression involves division - need double cast to avoid integer division
-        boolean hasDiv = expr.contains("/");
-        boolean hasNonIntAgg = false;
-        if (hasDiv) {
-            for (AggregateFunction agg : phi.fVect) {
-                String pattern = agg.getFunctionName() + "(" + agg.getGroupingVarName() + "." + agg.getAttribute() + ")";
-                if (expr.contains(pattern) && (agg.getFunctionName().equals("sum") || agg.getFunctionName().equals("avg"))) {
-                    hasNonIntAgg = true;
-                    break;
-                }
+    private String generateAggUpdate(AggregateFunction agg, ExprCompiler.RowScope row) {
+        String f = fieldName(agg);
+        String indent = "                    ";
+        String attr = agg.getAttribute();
+        String value = attr.equals("*") ? null
+            : getColumnType(attr).equals("double") ? expressions.columnValue(attr, row) : expressions.intColumn(attr, row);
+
+        if (agg.isSketch()) {
+            String type = getColumnType(attr);
+            if (attr.equals("*") || (agg.quantile() >= 0 && !isNumericColumn(attr))) {
+                throw new RuntimeException(agg + " needs a " + (agg.quantile() >= 0 ? "numeric " : "") + "column");
+            }
+            String v = expressions.columnValue(attr, row);
+            if (agg.quantile() >= 0) {
+                return indent + "mf_struct[j]." + f + "_sketch.update(" + v + ");\n";
             }
+            // strings by value, not dictionary code, so shards' sketches agree
+            String hashed = type.equals("double") ? "Double.doubleToLongBits(" + v + ")"
+                : type.equals("date") ? v + " == null ? 0L : " + v + ".getTime()" : v;
+            return indent + "mf_struct[j]." + f + "_sketch.add(" + hashed + ");\n";
         }
 
-        // Replace aggregate function patterns with field references
-        for (AggregateFunction agg : phi.fVect) {
-            String pattern = agg.getFunctionName() + "(" + agg.getGroupingVarName() + "." + agg.getAttribute() + ")";
-            String replacement = (hasDiv && hasNonIntAgg ? "(double)" : "") + "mf_struct[" + idx + "]." + fieldName(agg);
-            expr = expr.replace(pattern, replacement);
+        switch (agg.getFunctionName()) {
+            case "count":
+                return indent + "mf_struct[j]." + f + "++;\n";
+            case "sum":
+                if (estimating()) {
+                    return indent + "mf_struct[j]." + f + " += " + value + ";\n"
+                        + indent + "mf_struct[j]." + f + "_sq += (double) " + value + " * " + value + ";\n";
+                }
+                return indent + "mf_struct[j]." + f + " += " + value + ";\n";
+            case "max":
+                return indent + "if (" + value + " > mf_struct[j]." + f + ") mf_struct[j]." + f + " = " + value + ";\n";
+            case "min":
+                return indent + "if (mf_struct[j]." + f + " == " + getInitValue(agg) + " || " + value + " < mf_struct[j]." + f + ") mf_struct[j]." + f + " = " + value + ";\n";
+            case "avg":
+                return indent + "mf_struct[j]." + f + "_cnt++;\n" +
+                       indent + "mf_struct[j]." + f + "_sum += " + value + ";\n" +
+                       (estimating() ? indent + "mf_struct[j]." + f + "_sq += (double) " + value + " * " + value + ";\n" : "") +
+                       indent + "mf_struct[j]." + f + " = mf_struct[j]." + f + "_sum / mf_struct[j]." + f + "_cnt;\n";
+            default:
+                return "";
         }
+    }
 
-        // Handle arithmetic expressions: "2 * sum(...)" or "sum(...) * 2"
-        // The pattern replacement above should have replaced sum(...) with mf_struct reference
-        // Now we just need to make sure the arithmetic operators are preserved
-        // Java arithmetic operators (+, -, *, /) work directly, so no additional transformation needed
+    // ================== HELPERS ==================
 
-        return expr;
+    String fieldName(AggregateFunction agg) {
+        int idx = phi.groupingVariableNames.indexOf(agg.getGroupingVarName());
+        String gvNum = idx >= 0 ? String.valueOf(idx + 1) : agg.getGroupingVarName();
+        String attr = agg.getAttribute().equals("*") ? "star" : agg.getAttribute();
+        return agg.getFunctionName() + "_" + gvNum + "_" + attr;
     }
-}
\ No newline at end of file
+}
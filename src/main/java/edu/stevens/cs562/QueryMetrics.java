@@ -0,0 +1,223 @@
+package edu.stevens.cs562;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runtime metrics of one generated query run (QueryGenerator.setMetrics(true)).
+ *
+ * The generated code counts into local variables inside its loops and adds them to
+ * a Phase when the phase ends: scan 0, one phase per grouping variable scan, and
+ * output. With spilling, the scans of every partition add to the same phases.
+ *
+ * Every phase and the query itself are registered as standard MBeans under
+ *   edu.stevens.cs562:type=QueryMetrics,query=<name>[,phase=<phase>]
+ * as soon as they are created, so jconsole and other JMX clients can watch them
+ * while the query runs. A generated query names its metrics forExecution(), so
+ * executions in one JVM (QueryEngine, QueryServer) do not replace each other's
+ * MBeans. The mf-structure size is the peak seen by mfStructure() (with spilling,
+ * the largest partition). finish() writes all numbers as JSON to PATH when the
+ * query was started with --metrics-file=PATH (workers of a sharded query write
+ * PATH.shard<N>) and unregisters the MBeans; the object keeps its numbers.
+ */
+public class QueryMetrics implements QueryMetricsMBean {
+
+    /**
+     * Counters of one phase:
+     *   rowsRead              rows the scan read (output: mf-structure entries)
+     *   rowsPassingWhere      rows that passed σ0 (and the shard filter)
+     *   entriesProbed         entries compared against a row (scan 0: lookup comparisons)
+     *   predicateEvaluations  σ0 plus σi (scan 0: lookup, output: HAVING) evaluations
+     *   matches               scan 0: rows assigned to a group, scan i: row/entry pairs
+     *                         satisfying σi, output: rows printed
+     *   aggregateUpdates      aggregate values updated by the matches
+     */
+    public static class Phase implements PhaseMBean {
+        private final String name;
+        private volatile long wallNanos, rowsRead, rowsPassingWhere, entriesProbed,
+            predicateEvaluations, matches, aggregateUpdates;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Add the counts of one pass of this phase (for example one spill partition).
+         * Counts that do not apply to a phase are passed as 0.
+         */
+        public synchronized void add(long startNanos, long rowsRead, long rowsPassingWhere, long entriesProbed,
+                                     long predicateEvaluations, long matches, long aggregateUpdates) {
+            this.wallNanos += System.nanoTime() - startNanos;
+            this.rowsRead += rowsRead;
+            this.rowsPassingWhere += rowsPassingWhere;
+            this.entriesProbed += entriesProbed;
+            this.predicateEvaluations += predicateEvaluations;
+            this.matches += matches;
+            this.aggregateUpdates += aggregateUpdates;
+        }
+
+        public String getName() { return name; }
+        public long getWallNanos() { return wallNanos; }
+        public long getRowsRead() { return rowsRead; }
+        public long getRowsPassingWhere() { return rowsPassingWhere; }
+        public long getEntriesProbed() { return entriesProbed; }
+        public long getPredicateEvaluations() { return predicateEvaluations; }
+        public long getMatches() { return matches; }
+        public long getAggregateUpdates() { return aggregateUpdates; }
+    }
+
+    public interface PhaseMBean {
+        String getName();
+        long getWallNanos();
+        long getRowsRead();
+        long getRowsPassingWhere();
+        long getEntriesProbed();
+        long getPredicateEvaluations();
+        long getMatches();
+        long getAggregateUpdates();
+    }
+
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private volatile long wallNanos;
+    private volatile long mfStructureEntries;
+    private volatile long mfStructureBytes;
+    private volatile long heapUsedBytes;
+    private volatile boolean finished;
+    // Shard index of a worker process, -1 otherwise
+    public volatile int shard = -1;
+
+    private static final AtomicLong EXECUTIONS = new AtomicLong();
+
+    public QueryMetrics(String name) {
+        this.name = name;
+        register(objectName(null), this);
+    }
+
+    /** Metrics of one execution of a query, named by its fingerprint and a sequence number. */
+    public static QueryMetrics forExecution(String fingerprint) {
+        return new QueryMetrics(fingerprint + "-" + EXECUTIONS.incrementAndGet());
+    }
+
+    /** The phase with this name, created (and registered) on first use. */
+    public synchronized Phase phase(String phaseName) {
+        Phase p = phases.get(phaseName);
+        if (p == null) {
+            p = new Phase(phaseName);
+            phases.put(phaseName, p);
+            register(objectName(phaseName), p);
+        }
+        return p;
+    }
+
+    public synchronized List<Phase> phases() {
+        return new ArrayList<>(phases.values());
+    }
+
+    /** Record the current mf-structure size, keeping the peak. */
+    public synchronized void mfStructure(long entries, long bytes) {
+        mfStructureEntries = Math.max(mfStructureEntries, entries);
+        mfStructureBytes = Math.max(mfStructureBytes, bytes);
+    }
+
+    /**
+     * End of the query: unregister the MBeans and write the metrics file if
+     * --metrics-file=PATH is among the arguments.
+     */
+    public void finish(String[] args) throws IOException {
+        wallNanos = System.nanoTime() - startNanos;
+        Runtime rt = Runtime.getRuntime();
+        heapUsedBytes = rt.totalMemory() - rt.freeMemory();
+        finished = true;
+        unregister();
+
+        for (String arg : args) {
+            if (arg.startsWith("--metrics-file=")) {
+                String path = arg.substring("--metrics-file=".length()) + (shard >= 0 ? ".shard" + shard : "");
+                Files.writeString(Paths.get(path), toJson());
+            }
+        }
+    }
+
+    /** Unregister the MBeans (finish() does). */
+    public synchronized void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName n : registered) {
+            try {
+                server.unregisterMBean(n);
+            } catch (Exception ignored) {
+                // already gone
+            }
+        }
+        registered.clear();
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"query\": \"").append(name).append("\",\n");
+        if (shard >= 0) sb.append("  \"shard\": ").append(shard).append(",\n");
+        sb.append("  \"wallNanos\": ").append(wallNanos).append(",\n");
+        sb.append("  \"mfStructureEntries\": ").append(mfStructureEntries).append(",\n");
+        sb.append("  \"mfStructureBytes\": ").append(mfStructureBytes).append(",\n");
+        sb.append("  \"heapUsedBytes\": ").append(heapUsedBytes).append(",\n");
+        sb.append("  \"phases\": [");
+        List<Phase> list = phases();
+        for (int i = 0; i < list.size(); i++) {
+            Phase p = list.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"name\": \"").append(p.name).append("\"")
+              .append(", \"wallNanos\": ").append(p.wallNanos)
+              .append(", \"rowsRead\": ").append(p.rowsRead)
+              .append(", \"rowsPassingWhere\": ").append(p.rowsPassingWhere)
+              .append(", \"entriesProbed\": ").append(p.entriesProbed)
+              .append(", \"predicateEvaluations\": ").append(p.predicateEvaluations)
+              .append(", \"matches\": ").append(p.matches)
+              .append(", \"aggregateUpdates\": ").append(p.aggregateUpdates)
+              .append("}");
+        }
+        sb.append("\n  ]\n}\n");
+        return sb.toString();
+    }
+
+    private ObjectName objectName(String phaseName) {
+        try {
+            String n = "edu.stevens.cs562:type=QueryMetrics,query=" + ObjectName.quote(name);
+            return new ObjectName(phaseName == null ? n : n + ",phase=" + ObjectName.quote(phaseName));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void register(ObjectName n, Object mbean) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, n);
+            registered.add(n);
+        } catch (Exception e) {
+            // Metrics must never fail a query
+            System.err.println("Could not register MBean " + n + ": " + e.getMessage());
+        }
+    }
+
+    public String getName() { return name; }
+    public long getWallNanos() { return finished ? wallNanos : System.nanoTime() - startNanos; }
+    public long getMfStructureEntries() { return mfStructureEntries; }
+    public long getMfStructureBytes() { return mfStructureBytes; }
+    public long getHeapUsedBytes() { return heapUsedBytes; }
+    public boolean isFinished() { return finished; }
+
+    public synchronized String[] getPhases() {
+        return phases.keySet().toArray(new String[0]);
+    }
+}
@@ -0,0 +1,14 @@
+package edu.stevens.cs562;
+
+/**
+ * JMX view of a query run (see QueryMetrics). The phases are separate MBeans.
+ */
+public interface QueryMetricsMBean {
+    String getName();
+    long getWallNanos();
+    long getMfStructureEntries();
+    long getMfStructureBytes();
+    long getHeapUsedBytes();
+    boolean isFinished();
+    String[] getPhases();
+}
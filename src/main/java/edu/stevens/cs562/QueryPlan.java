@@ -0,0 +1,310 @@
+package edu.stevens.cs562;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The physical plan of a generated query, for EXPLAIN (Main --explain):
+ * the scans and what each one does, the conditions pushed down to the row
+ * source, how every grouping variable is evaluated, and the estimated number
+ * of groups and mf-structure memory.
+ *
+ * explain(metrics) is EXPLAIN ANALYZE: the same plan with the actual numbers
+ * of a run that was generated with QueryGenerator.setMetrics(true).
+ */
+public class QueryPlan {
+
+    private static final Pattern AGGREGATE = Pattern.compile("\\b(" + AggregateFunction.FUNCTIONS + ")\\((\\w+)\\.(\\w+|\\*)\\)");
+
+    private final PhiOperator phi;
+    private final QueryGenerator generator;
+    private long estimatedGroups = -1;
+    private String estimateSource = "unknown";
+    private CostPlanner.Plan costPlan = null;
+
+    public QueryPlan(PhiOperator phi, QueryGenerator generator) {
+        this.phi = phi;
+        this.generator = generator;
+    }
+
+    /**
+     * Estimate the number of groups from snapshot statistics: the product of the
+     * distinct counts of the grouping attributes (dictionary size for strings,
+     * min/max range for ints and dates), capped by the row count. σ0 is ignored,
+     * so this is an upper bound.
+     */
+    public void estimateGroups(ColumnarSnapshot snapshot) {
+        TableSchema schema = snapshot.schema();
+        double groups = 1;
+        List<String> parts = new ArrayList<>();
+        for (String attr : phi.groupingAttributes) {
+            int col = schema.columns.indexOf(attr.toLowerCase());
+            if (col < 0) return;
+            long distinct;
+            String type = schema.types.get(col);
+            if (type.equals("string")) {
+                distinct = Arrays.stream(snapshot.dictionary(col)).filter(Objects::nonNull).count();
+            } else if (type.equals("int") || type.equals("date")) {
+                long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+                for (int b = 0; b < snapshot.blockCount(); b++) {
+                    min = Math.min(min, snapshot.min(b, col));
+                    max = Math.max(max, snapshot.max(b, col));
+                }
+                distinct = max >= min ? Math.min(max - min + 1, snapshot.rowCount()) : 0;
+            } else {
+                distinct = snapshot.rowCount();
+            }
+            groups *= distinct;
+            parts.add(attr + " " + distinct);
+        }
+        estimatedGroups = (long) Math.min(groups, snapshot.rowCount());
+        estimateSource = "snapshot statistics: " + String.join(" x ", parts) + ", at most " + snapshot.rowCount() + " rows";
+    }
+
+    /** Show the estimates of the cost-based plan the generator was configured with. */
+    public void setCostPlan(CostPlanner.Plan plan) {
+        this.costPlan = plan;
+        if (estimatedGroups < 0) {
+            estimatedGroups = plan.groups;
+            estimateSource = "table statistics";
+        }
+    }
+
+    public String explain() {
+        return explain(null);
+    }
+
+    public String explain(QueryMetrics actual) {
+        Map<String, QueryMetrics.Phase> phases = new HashMap<>();
+        if (actual != null) {
+            for (QueryMetrics.Phase p : actual.phases()) {
+                phases.put(p.getName(), p);
+            }
+        }
+        String partitionKey = PartitionAnalyzer.findPartitionAttribute(phi);
+        int spill = generator.spillPartitions();
+        int shards = generator.shards();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("EMF query ").append(QueryFingerprint.of(phi)).append(" on ").append(phi.fromTable);
+        if (spill > 0) {
+            sb.append(", spilling to ").append(spill).append(" partitions on ").append(partitionKey);
+        } else if (shards > 0) {
+            sb.append(", ").append(shards).append(" shards ")
+              .append(partitionKey != null ? "on " + partitionKey : "by row hash, partial aggregates merged");
+        } else {
+            sb.append(", in memory");
+        }
+        sb.append("\n");
+        List<List<Integer>> passes = generator.passes();
+        sb.append("Scans: ").append(passes.size() + 1).append(" passes over ").append(phi.fromTable)
+          .append(passes.size() < phi.n ? " (scan 0 + fused scans)\n" : " (scan 0 + one per grouping variable, not fused)\n");
+        List<String> independent = independentVariables();
+        if (independent.size() > 1 && passes.size() == phi.n) {
+            sb.append("  independent grouping variables (could share a pass): ")
+              .append(String.join(", ", independent)).append("\n");
+        }
+        if (costPlan != null) {
+            sb.append("Cost-based plan, estimated cost ").append(String.format(Locale.ROOT, "%.3g", costPlan.cost)).append(":\n");
+            for (String note : costPlan.notes) {
+                sb.append("  ").append(note).append("\n");
+            }
+        }
+
+        if (generator.sampling()) {
+            sb.append("Approximate: sample rate ").append(generator.sampleRate())
+              .append(", sum/count scaled, 95% error bounds on sum, count and avg\n");
+        }
+
+        // Scan 0
+        sb.append("-> Scan 0: ");
+        if (spill > 0) {
+            sb.append("hash-partition rows on ").append(partitionKey).append(" into spill files, then build the groups of every partition\n");
+        } else {
+            sb.append("build groups on (").append(String.join(", ", phi.groupingAttributes)).append(")\n");
+        }
+        appendFilter(sb, phi.predicates.get(0), -1);
+        if (generator.direct()) {
+            sb.append("     lookup: direct-addressed, ").append(generator.directSlots()).append(" slots (")
+              .append(generator.directDescription()).append(")\n");
+        } else {
+            sb.append(generator.hashGroups() ? "     lookup: hash map of the groups\n"
+                : "     lookup: linear search of the mf-structure per row\n");
+        }
+        appendActual(sb, phases.get("scan 0"));
+
+        for (int k = 0; k < passes.size(); k++) {
+            List<Integer> pass = passes.get(k);
+            boolean fused = pass.size() > 1;
+            sb.append("-> Scan ").append(k + 1).append(": grouping variable");
+            if (fused) {
+                List<String> names = new ArrayList<>();
+                for (int i : pass) {
+                    names.add(phi.groupingVariableNames.get(i));
+                }
+                sb.append("s ").append(String.join(", ", names)).append(" in one pass\n");
+            } else {
+                sb.append(" ").append(phi.groupingVariableNames.get(pass.get(0))).append(" computing ")
+                  .append(computing(pass.get(0))).append("\n");
+            }
+            if (spill == 0) {
+                appendFilter(sb, phi.predicates.get(0), fused ? -1 : pass.get(0));
+            }
+            for (int i : pass) {
+                appendVariable(sb, i, fused, partitionKey);
+            }
+            appendActual(sb, phases.get(generator.passName(k)));
+            if (generator.pruneCondition(k) != null) {
+                sb.append("-> Prune: drop the entries that can no longer pass HAVING, compact the mf-structure\n");
+                QueryMetrics.Phase prune = phases.get("prune after scan " + (k + 1));
+                if (prune != null) {
+                    sb.append("     actual: time=").append(formatMillis(prune.getWallNanos()))
+                      .append(" entries=").append(prune.getRowsRead())
+                      .append(" kept=").append(prune.getMatches()).append("\n");
+                }
+            }
+        }
+
+        sb.append("-> Output: ");
+        sb.append(phi.having.conditions.isEmpty() ? "every group" : "HAVING " + phi.having);
+        if (!phi.orderBy.isEmpty()) {
+            String keys = phi.orderBy.toString();
+            sb.append(", ORDER BY ").append(keys, 1, keys.length() - 1);
+            sb.append(phi.limit >= 0 ? " LIMIT " + phi.limit + " (top-k heap)" : " (sort)");
+        } else if (phi.limit >= 0) {
+            sb.append(", first ").append(phi.limit);
+        }
+        sb.append("\n");
+        QueryMetrics.Phase output = phases.get("output");
+        if (output != null) {
+            sb.append("     actual: time=").append(formatMillis(output.getWallNanos()))
+              .append(" entries=").append(output.getRowsRead())
+              .append(" rows=").append(output.getMatches()).append("\n");
+        }
+
+        long entryBytes = generator.mfEntryBytes();
+        sb.append("Estimated groups: ");
+        if (estimatedGroups >= 0) {
+            long bytes = mfBytes(estimatedGroups);
+            sb.append(estimatedGroups).append(" (").append(estimateSource).append("), mf-structure ~")
+              .append(formatBytes(bytes)).append(" (").append(entryBytes).append(" bytes per entry)");
+            if (spill > 0) {
+                long perPartition = (estimatedGroups + spill - 1) / spill;
+                sb.append(", ~").append(formatBytes(mfBytes(perPartition)))
+                  .append(" per partition");
+            }
+        } else {
+            sb.append(estimateSource).append(" (").append(entryBytes).append(" bytes per entry)");
+        }
+        sb.append("\n");
+        if (actual != null) {
+            sb.append("Actual: ").append(actual.getMfStructureEntries()).append(" groups")
+              .append(spill > 0 ? " in the largest partition" : "")
+              .append(", mf-structure ~").append(formatBytes(actual.getMfStructureBytes()))
+              .append(", heap used ").append(formatBytes(actual.getHeapUsedBytes()))
+              .append(", total ").append(formatMillis(actual.getWallNanos())).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private String computing(int i) {
+        List<String> aggs = new ArrayList<>();
+        for (AggregateFunction agg : phi.fVect) {
+            if (agg.getGroupingVarName().equals(phi.groupingVariableNames.get(i))) aggs.add(agg.toString());
+        }
+        return aggs.isEmpty() ? "nothing" : String.join(", ", aggs);
+    }
+
+    // σ, evaluation and dependencies of grouping variable i; indented under its name in a fused scan
+    private void appendVariable(StringBuilder sb, int i, boolean fused, String partitionKey) {
+        String gv = phi.groupingVariableNames.get(i);
+        ConditionExpression sigma = phi.predicates.get(i + 1);
+        String indent = "     ";
+        if (fused) {
+            sb.append(indent).append(gv).append(" computing ").append(computing(i)).append("\n");
+            indent += "  ";
+        }
+        sb.append(indent).append("σ").append(i + 1).append(": ").append(sigma.conditions.isEmpty() ? "true" : sigma).append("\n");
+        sb.append(indent).append("evaluation: ");
+        if (generator.directProbe(i) != null) {
+            sb.append("direct slot, only the entry ").append(PartitionAnalyzer.offsetEntry(phi, i)).append(" is tested");
+        } else if (generator.isIndexed(i)) {
+            sb.append("hash index on (").append(String.join(", ", PartitionAnalyzer.equalityAttributes(phi, i)))
+              .append("), only entries with the row's values are tested");
+        } else {
+            sb.append("nested loop, every row against every entry");
+            if (partitionKey != null) {
+                sb.append(" (equality-partitioned on ").append(partitionKey).append(")");
+            }
+        }
+        sb.append("\n");
+        Set<String> uses = aggregatesUsed(sigma, gv);
+        if (!uses.isEmpty()) {
+            sb.append(indent).append("depends on: ").append(String.join(", ", uses)).append("\n");
+        }
+    }
+
+    // Entries plus the mf_struct array (presized, doubled when full) and the group hash map
+    private long mfBytes(long groups) {
+        long slots = generator.groupCapacity();
+        while (slots < groups) slots *= 2;
+        return groups * generator.mfEntryBytes() + 4 * slots
+            + (generator.hashGroups() ? groups * QueryGenerator.HASH_ENTRY_BYTES : 0)
+            + (generator.direct() ? 4 * generator.directSlots() : 0);
+    }
+
+    private void appendFilter(StringBuilder sb, ConditionExpression where, int scan) {
+        if (!where.conditions.isEmpty()) {
+            sb.append("     filter σ0: ").append(where).append("\n");
+        }
+        List<String> pushed = new ArrayList<>();
+        for (Condition c : generator.pushedDownConditions(scan)) {
+            pushed.add(c.toString());
+        }
+        if (!pushed.isEmpty()) {
+            sb.append("     pushed down (block skipping): ").append(String.join(" and ", pushed)).append("\n");
+        }
+    }
+
+    private void appendActual(StringBuilder sb, QueryMetrics.Phase p) {
+        if (p == null) return;
+        sb.append("     actual: time=").append(formatMillis(p.getWallNanos()))
+          .append(" rows=").append(p.getRowsRead())
+          .append(" passed σ0=").append(p.getRowsPassingWhere())
+          .append(" probes=").append(p.getEntriesProbed())
+          .append(" matches=").append(p.getMatches())
+          .append(" updates=").append(p.getAggregateUpdates()).append("\n");
+    }
+
+    /** Aggregates of other grouping variables that σ of gv compares against. */
+    private Set<String> aggregatesUsed(ConditionExpression sigma, String gv) {
+        Set<String> uses = new LinkedHashSet<>();
+        for (Condition c : sigma.conditions) {
+            Matcher m = AGGREGATE.matcher(c.right);
+            while (m.find()) {
+                if (!m.group(2).equals(gv)) uses.add(m.group());
+            }
+        }
+        return uses;
+    }
+
+    private List<String> independentVariables() {
+        List<String> independent = new ArrayList<>();
+        for (int i = 0; i < phi.n; i++) {
+            String gv = phi.groupingVariableNames.get(i);
+            if (aggregatesUsed(phi.predicates.get(i + 1), gv).isEmpty()) independent.add(gv);
+        }
+        return independent;
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,281 @@
+package edu.stevens.cs562;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running query server: one JVM answers any number of queries, so the
+ * generated classes are compiled once and reach steady-state JIT code instead of
+ * starting Main and GeneratedQuery in two new JVMs per query.
+ *
+ *   POST /query    body: an ESQL query (?format=phi: the Phi input format)
+ *                  ?output=csv (default) or text: the result, streamed back
+ *   GET  /health   "ok"
+ *
+ * What stays warm between requests:
+ * - the schema of every table, taken once from a SchemaCatalog (the snapshot's
+ *   own, or the catalog file while it is fresh) into one QueryEngine per table
+ * - prepared queries (parsed, generated and compiled) in an LRU plan cache keyed
+ *   by the query text
+ * - JDBC connections, borrowed from a ConnectionPool for the length of a query,
+ *   with their prepared scan statements; a snapshot directory is mapped once and
+ *   shared by all requests
+ *
+ * Every request runs on its own virtual thread. Each execution evaluates in its
+ * own instance of the generated class (see PreparedQuery).
+ *
+ * Errors in the query (parsing, validation, generation, compilation) answer 400,
+ * errors while evaluating answer 500 if no row has been sent yet. Once rows have
+ * gone out with a 200, an evaluation error is logged on System.err and the body
+ * ends with a "Query failed: ..." line after the rows already sent.
+ */
+public class QueryServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 8562;
+    public static final int DEFAULT_POOL_SIZE = 8;
+    static final int PLAN_CACHE_SIZE = 256;
+
+    private final HttpServer http;
+    private final ExecutorService executor;
+    // Exactly one of the two is set
+    private final SnapshotRowSourceProvider snapshots;
+    private final ConnectionPool pool;
+    private final SchemaCatalog catalog;
+
+    private final Map<String, QueryEngine> engines = new ConcurrentHashMap<>();
+    private final Map<String, PreparedQuery> plans = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedQuery> eldest) {
+            return size() > PLAN_CACHE_SIZE;
+        }
+    };
+    private final AtomicLong planHits = new AtomicLong();
+    private final AtomicLong planMisses = new AtomicLong();
+
+    /**
+     * A server over the columnar snapshots in a directory (or one .emfc file), with
+     * their schemas from catalog (SchemaCatalog.forSnapshot).
+     */
+    public QueryServer(InetSocketAddress address, SnapshotRowSourceProvider snapshots, SchemaCatalog catalog) throws IOException {
+        this(address, snapshots, null, catalog);
+    }
+
+    /** A server over a database, with connections from pool and the schemas from catalog. */
+    public QueryServer(InetSocketAddress address, ConnectionPool pool, SchemaCatalog catalog) throws IOException {
+        this(address, null, pool, catalog);
+    }
+
+    private QueryServer(InetSocketAddress address, SnapshotRowSourceProvider snapshots, ConnectionPool pool,
+                        SchemaCatalog catalog) throws IOException {
+        this.snapshots = snapshots;
+        this.pool = pool;
+        this.catalog = catalog;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.http = HttpServer.create(address, 0);
+        http.setExecutor(executor);
+        http.createContext("/query", this::query);
+        http.createContext("/health", exchange -> respond(exchange, 200, "ok\n"));
+    }
+
+    public void start() {
+        http.start();
+    }
+
+    /** The port the server listens on (useful when it was created with port 0). */
+    public int port() {
+        return http.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        http.stop(0);
+        executor.shutdown();
+        if (pool != null) pool.close();
+    }
+
+    public long planCacheHits() {
+        return planHits.get();
+    }
+
+    public long planCacheMisses() {
+        return planMisses.get();
+    }
+
+    private void query(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "POST the query to /query\n");
+                return;
+            }
+            Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+            String text;
+            try (InputStream in = exchange.getRequestBody()) {
+                text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            String output = params.getOrDefault("output", "csv");
+            if (!output.equals("csv") && !output.equals("text")) {
+                respond(exchange, 400, "Unknown output format: " + output + " (csv or text)\n");
+                return;
+            }
+
+            PreparedQuery query;
+            try {
+                query = plan(text, "phi".equals(params.get("format")));
+            } catch (RuntimeException e) {
+                respond(exchange, 400, "Invalid query: " + e.getMessage() + "\n");
+                return;
+            }
+
+            // headers go out with the first row, so an evaluation error can still answer 500
+            Body body = new Body(exchange, output.equals("csv") ? "text/csv" : "text/plain");
+            try {
+                execute(query, output.equals("csv") ? ResultSink.csv(body) : ResultSink.text(body));
+            } catch (Exception e) {
+                if (!body.started) {
+                    respond(exchange, 500, "Query failed: " + e.getMessage() + "\n");
+                    return;
+                }
+                // too late for a status: tell the client after the rows it already has
+                System.err.println("Query failed after sending rows: " + e);
+                body.write(("Query failed: " + e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            body.end();
+        } catch (Exception e) {
+            System.err.println("Failed to answer " + exchange.getRequestURI() + ": " + e);
+            exchange.close();
+        }
+    }
+
+    /** The prepared query for text, from the plan cache or prepared now. */
+    PreparedQuery plan(String text, boolean phi) {
+        String key = (phi ? "phi:" : "esql:") + text.strip();
+        synchronized (plans) {
+            PreparedQuery cached = plans.get(key);
+            if (cached != null) {
+                planHits.incrementAndGet();
+                return cached;
+            }
+        }
+        // prepared outside the lock: compiling takes a while and other queries must not wait
+        planMisses.incrementAndGet();
+        EMFQuery parsed = phi ? new PhiInputParser().parse(text) : new EMFParser().parse(text);
+        PreparedQuery prepared = engine(parsed.fromTable).prepare(parsed, null);
+        synchronized (plans) {
+            plans.put(key, prepared);
+        }
+        return prepared;
+    }
+
+    private QueryEngine engine(String table) {
+        String t = table.toLowerCase();
+        QueryEngine engine = engines.get(t);
+        if (engine != null) return engine;
+        // read outside the map, which must not wait for the catalog or the database
+        TableSchema schema = catalog.schema(t);
+        return engines.computeIfAbsent(t, k -> new QueryEngine(schema.columnTypes()));
+    }
+
+    private void execute(PreparedQuery query, ResultSink sink) throws Exception {
+        if (snapshots != null) {
+            query.execute(snapshots, sink);
+            return;
+        }
+        Connection conn = pool.borrow();
+        try {
+            // the pooled connection keeps its prepared scan statements for later queries
+            query.execute(new JdbcRowSourceProvider(pool.statements(conn)), sink);
+        } finally {
+            pool.release(conn);
+        }
+    }
+
+    private static Map<String, String> params(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Chunked response body that sends the 200 headers on the first write. Closing
+     * the sink only flushes it; end() finishes the response, so an error can still
+     * be written after the sink was closed.
+     */
+    private static class Body extends OutputStream {
+        private final HttpExchange exchange;
+        private final String contentType;
+        private OutputStream out;
+        boolean started = false;
+
+        Body(HttpExchange exchange, String contentType) {
+            this.exchange = exchange;
+            this.contentType = contentType;
+        }
+
+        private OutputStream out() throws IOException {
+            if (!started) {
+                started = true;
+                exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+                exchange.sendResponseHeaders(200, 0);
+                out = exchange.getResponseBody();
+            }
+            return out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // a sink flushed on close after a failed evaluation writes nothing: no 200 yet
+            if (len > 0) out().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (started) out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        void end() throws IOException {
+            // headers and an empty body if the sink wrote nothing
+            out().close();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package edu.stevens.cs562;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Forward cursor over the result of a PreparedQuery, in the style of a JDBC
+ * ResultSet but with 0-based columns: next() moves to the next row, the typed
+ * getters read the current one straight from the ResultTable's column arrays.
+ * The table holds the whole result of an execution that has already finished;
+ * the cursor does not stream rows from a running query.
+ */
+public class ResultCursor implements AutoCloseable {
+
+    private final ResultTable table;
+    private int row = -1;
+
+    public ResultCursor(ResultTable table) {
+        this.table = table;
+    }
+
+    public List<String> columns() {
+        return table.columns();
+    }
+
+    /** Type of column c: "int", "long", "double", "string", "date" or "estimate". */
+    public String type(int c) {
+        return table.type(c);
+    }
+
+    public int columnIndex(String column) {
+        return table.columnIndex(column);
+    }
+
+    public int rowCount() {
+        return table.rowCount();
+    }
+
+    public boolean next() {
+        if (row < table.rowCount()) row++;
+        return row < table.rowCount();
+    }
+
+    public int getInt(int c) {
+        return table.getInt(row, c);
+    }
+
+    public long getLong(int c) {
+        return table.getLong(row, c);
+    }
+
+    public double getDouble(int c) {
+        return table.getDouble(row, c);
+    }
+
+    public String getString(int c) {
+        return table.getString(row, c);
+    }
+
+    public java.sql.Date getDate(int c) {
+        return table.getDate(row, c);
+    }
+
+    /** Error bound of an estimate column (0 for exact columns). */
+    public double getError(int c) {
+        return table.getError(row, c);
+    }
+
+    public Object get(int c) {
+        return table.get(row, c);
+    }
+
+    /** The remaining rows, one boxed value per column. */
+    public Stream<Object[]> stream() {
+        Spliterator<Object[]> rows = new Spliterators.AbstractSpliterator<>(table.rowCount() - row - 1,
+                Spliterator.ORDERED | Spliterator.SIZED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Object[]> action) {
+                if (!next()) return false;
+                Object[] values = new Object[table.columns().size()];
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = get(c);
+                }
+                action.accept(values);
+                return true;
+            }
+        };
+        return StreamSupport.stream(rows, false);
+    }
+
+    @Override
+    public void close() {
+    }
+}
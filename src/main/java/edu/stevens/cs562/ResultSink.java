@@ -0,0 +1,99 @@
+package edu.stevens.cs562;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Destination of the result rows of a generated query.
+ *
+ * The generated output() writes every SELECT item of a group straight from the
+ * mf-structure with the put method of its type and ends the row with endRow(),
+ * so no sink needs a String per row:
+ *
+ *   SINK.putString(mf_struct[i].cust);
+ *   SINK.putInt(mf_struct[i].sum_1_quant);
+ *   SINK.endRow();
+ *
+ * begin() comes first with the SELECT items and their types ("int", "long",
+ * "double", "string", "date", or "estimate" for the aggregates of the approximate
+ * mode). Implementations: TextResultSink (the " | " table and CSV), ColumnarResultSink
+ * (a columnar snapshot that can be queried again) and ResultTable (in memory).
+ *
+ * Generated main() takes --output=text|csv[:PATH]|columnar:PATH (see open());
+ * CompiledQuery.output(sink) and CompiledQuery.result() pick one from code.
+ */
+public interface ResultSink extends AutoCloseable {
+
+    void begin(List<String> columns, List<String> types);
+
+    /** A line about the whole result (e.g. the sample rate); only the text table prints it. */
+    default void note(String line) {
+    }
+
+    void putInt(int v);
+
+    void putLong(long v);
+
+    void putDouble(double v);
+
+    void putString(String v);
+
+    void putDate(java.sql.Date v);
+
+    void putEstimate(Estimate v);
+
+    void endRow();
+
+    /** Push buffered rows to the destination (called at the end of every output()). */
+    void flush();
+
+    @Override
+    void close();
+
+    /** The " | " table of the console, buffered. */
+    static ResultSink text(OutputStream out) {
+        return new TextResultSink(out, false);
+    }
+
+    /** RFC 4180 CSV with a header row. */
+    static ResultSink csv(OutputStream out) {
+        return new TextResultSink(out, true);
+    }
+
+    /**
+     * The sink chosen by --output= on the command line of the generated query:
+     * text or csv on System.out, text:PATH or csv:PATH to a file, columnar:PATH to
+     * a columnar snapshot. Text on System.out without the flag.
+     */
+    static ResultSink open(String[] args) {
+        String spec = "text";
+        for (String arg : args) {
+            if (arg.startsWith("--output=")) {
+                spec = arg.substring("--output=".length());
+            }
+        }
+        int colon = spec.indexOf(':');
+        String format = colon < 0 ? spec : spec.substring(0, colon);
+        String path = colon < 0 ? null : spec.substring(colon + 1);
+        try {
+            switch (format) {
+                case "text":
+                case "csv":
+                    OutputStream out = path == null ? System.out : new BufferedOutputStream(new FileOutputStream(path));
+                    return format.equals("csv") ? csv(out) : text(out);
+                case "columnar":
+                    if (path == null) throw new RuntimeException("--output=columnar needs a file: --output=columnar:PATH");
+                    return new ColumnarResultSink(Path.of(path));
+                default:
+                    throw new RuntimeException("Unknown output format: " + format + " (text, csv or columnar)");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package edu.stevens.cs562;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ResultSink that keeps the result in memory as typed columns: one int[], long[],
+ * double[], String[] or Date[] per SELECT item (estimates as their value in a
+ * double[] and the error in a second one), grown by doubling.
+ *
+ * Returned by CompiledQuery.result(); values are read by row and column number.
+ */
+public class ResultTable implements ResultSink {
+
+    private List<String> columns;
+    private List<String> types;
+    private Object[] data;
+    private double[][] errors;
+    private int rows = 0;
+    private int capacity = 16;
+    private int col = 0;
+
+    @Override
+    public void begin(List<String> columns, List<String> types) {
+        this.columns = columns;
+        this.types = types;
+        data = new Object[columns.size()];
+        errors = new double[columns.size()][];
+        for (int c = 0; c < data.length; c++) {
+            data[c] = allocate(types.get(c), capacity);
+            if (types.get(c).equals("estimate")) errors[c] = new double[capacity];
+        }
+    }
+
+    public List<String> columns() {
+        return columns;
+    }
+
+    /** Type of column c: "int", "long", "double", "string", "date" or "estimate". */
+    public String type(int c) {
+        return types.get(c);
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    public int columnIndex(String column) {
+        int c = columns.indexOf(column);
+        if (c < 0) throw new IllegalArgumentException("No result column " + column);
+        return c;
+    }
+
+    public int getInt(int row, int c) {
+        return ((int[]) data[c])[check(row)];
+    }
+
+    /** An int or long column. */
+    public long getLong(int row, int c) {
+        return data[c] instanceof int[] ? ((int[]) data[c])[check(row)] : ((long[]) data[c])[check(row)];
+    }
+
+    /** A numeric column; the value of an estimate. */
+    public double getDouble(int row, int c) {
+        if (data[c] instanceof double[]) return ((double[]) data[c])[check(row)];
+        return getLong(row, c);
+    }
+
+    public String getString(int row, int c) {
+        return ((String[]) data[c])[check(row)];
+    }
+
+    public java.sql.Date getDate(int row, int c) {
+        return ((java.sql.Date[]) data[c])[check(row)];
+    }
+
+    /** Error bound of an estimate column (0 for exact columns). */
+    public double getError(int row, int c) {
+        return errors[c] == null ? 0 : errors[c][check(row)];
+    }
+
+    /** Any column as an Object (Integer, Long, Double, String, Date or Estimate). */
+    public Object get(int row, int c) {
+        switch (types.get(c)) {
+            case "int": return getInt(row, c);
+            case "long": return getLong(row, c);
+            case "string": return getString(row, c);
+            case "date": return getDate(row, c);
+            case "estimate": return new Estimate(getDouble(row, c), getError(row, c));
+            default: return getDouble(row, c);
+        }
+    }
+
+    @Override
+    public void putInt(int v) {
+        Object column = data[col];
+        if (column instanceof int[]) {
+            ((int[]) column)[rows] = v;
+            col++;
+        } else {
+            putLong(v);
+        }
+    }
+
+    @Override
+    public void putLong(long v) {
+        Object column = data[col];
+        if (column instanceof long[]) ((long[]) column)[rows] = v;
+        else ((double[]) column)[rows] = v;
+        col++;
+    }
+
+    @Override
+    public void putDouble(double v) {
+        ((double[]) data[col++])[rows] = v;
+    }
+
+    @Override
+    public void putString(String v) {
+        ((String[]) data[col++])[rows] = v;
+    }
+
+    @Override
+    public void putDate(java.sql.Date v) {
+        ((java.sql.Date[]) data[col++])[rows] = v;
+    }
+
+    @Override
+    public void putEstimate(Estimate v) {
+        if (errors[col] != null) errors[col][rows] = v.error;
+        ((double[]) data[col++])[rows] = v.value;
+    }
+
+    @Override
+    public void endRow() {
+        col = 0;
+        if (++rows == capacity) {
+            capacity *= 2;
+            for (int c = 0; c < data.length; c++) {
+                data[c] = grow(data[c], capacity);
+                if (errors[c] != null) errors[c] = Arrays.copyOf(errors[c], capacity);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private int check(int row) {
+        if (row < 0 || row >= rows) throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+        return row;
+    }
+
+    private static Object allocate(String type, int n) {
+        switch (type) {
+            case "int": return new int[n];
+            case "long": return new long[n];
+            case "string": return new String[n];
+            case "date": return new java.sql.Date[n];
+            default: return new double[n];
+        }
+    }
+
+    private static Object grow(Object column, int n) {
+        if (column instanceof int[]) return Arrays.copyOf((int[]) column, n);
+        if (column instanceof long[]) return Arrays.copyOf((long[]) column, n);
+        if (column instanceof double[]) return Arrays.copyOf((double[]) column, n);
+        return Arrays.copyOf((Object[]) column, n);
+    }
+}
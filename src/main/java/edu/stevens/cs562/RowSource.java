@@ -0,0 +1,90 @@
+package edu.stevens.cs562;
+
+/**
+ * One sequential scan over a table, as read by the generated EMF scans.
+ *
+ * Columns are addressed by ordinal. The generated code resolves every column it
+ * reads once per scan with columnIndex() and then calls the primitive accessors
+ * with that ordinal for every row, so providers never look columns up by name
+ * in the hot loop.
+ *
+ * Column types use the same simple type system as QueryGenerator:
+ * "int", "double", "date" and "string".
+ *
+ * String columns also expose dictionary codes: getCode() returns an int that is
+ * equal for equal strings across all scans of the same provider, and decode()
+ * maps it back. Sources that store strings dictionary-coded return the stored
+ * code without materializing a String.
+ *
+ * Accessors do not throw checked exceptions; providers wrap I/O and SQL errors
+ * in RuntimeException.
+ */
+public interface RowSource extends AutoCloseable {
+
+    /** Ordinal of a column, or an IllegalArgumentException if the table has no such column. */
+    int columnIndex(String column);
+
+    /** Type of the column at the given ordinal: "int", "double", "date" or "string". */
+    String columnType(int col);
+
+    /** Advance to the next row; false once the scan is exhausted. */
+    boolean next();
+
+    int getInt(int col);
+
+    double getDouble(int col);
+
+    String getString(int col);
+
+    java.sql.Date getDate(int col);
+
+    /** Dictionary code of the current row's value in a string column. */
+    int getCode(int col);
+
+    /** Dictionary code of a given string in a string column (used to resolve literals once per scan). */
+    int codeOf(int col, String value);
+
+    /** String for a dictionary code of a string column. */
+    String decode(int col, int code);
+
+    /**
+     * Hint that the scan may leave out rows that cannot satisfy the filter. Called
+     * before the first next(). Sources with per-block statistics use it to skip
+     * blocks; the default ignores it, which is always correct.
+     */
+    default void filterBlocks(BlockFilter filter) {
+    }
+
+    /**
+     * Ask the scan to read only a random sample of its blocks, each kept with
+     * probability rate (decided by a hash of the block number and the seed). Called
+     * before the first next(). Returns false when the source has no blocks, in
+     * which case the caller samples rows itself (Sampler).
+     */
+    default boolean sampleBlocks(double rate, long seed) {
+        return false;
+    }
+
+    /**
+     * Ask the scan to read its blocks in a random order (a permutation given by
+     * the seed), so every prefix of the scan is a sample of the table. Called
+     * before the first next(). Returns false when the source reads in its own
+     * order.
+     */
+    default boolean shuffleBlocks(long seed) {
+        return false;
+    }
+
+    /**
+     * Ask the scan to read only the blocks b with b % shards == shard, so the workers
+     * of a sharded query split the reading of the table between them. Called before
+     * the first next(). Returns false when the source has no blocks, in which case
+     * the caller drops the rows of the other shards itself.
+     */
+    default boolean shardBlocks(int shard, int shards) {
+        return false;
+    }
+
+    @Override
+    void close();
+}
@@ -0,0 +1,25 @@
+package edu.stevens.cs562;
+
+/**
+ * Opens row sources for the tables a generated query scans.
+ *
+ * A query opens one RowSource per scan (scan 0 and scans 1..n), so a provider
+ * must support scanning the same table repeatedly and must keep dictionary codes
+ * stable across those scans. JdbcRowSourceProvider is the default implementation;
+ * faster local providers can be plugged in without touching the generated code.
+ */
+public interface RowSourceProvider extends AutoCloseable {
+
+    RowSource open(String table);
+
+    /**
+     * Identifies the data behind this provider (database URL, snapshot path), so
+     * per-table caches such as TableStatistics can be shared between providers.
+     */
+    default String sourceId() {
+        return getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(this));
+    }
+
+    @Override
+    void close();
+}
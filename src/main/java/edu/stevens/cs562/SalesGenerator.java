@@ -0,0 +1,295 @@
+package edu.stevens.cs562;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Deterministic synthetic data generator for the sales table:
+ *
+ *   sales(cust, prod, day, month, year, state, quant, date)
+ *
+ * Rows are generated in chunks of CHUNK_ROWS rows. Every chunk draws from its own
+ * random stream derived from the seed and the chunk number, so the output depends
+ * only on the options and not on the number of threads. Chunks are generated in
+ * parallel; text formats are written in chunk order, columnar snapshots write
+ * every chunk as one block at its fixed offset.
+ *
+ * Customers and products are picked with a Zipf distribution (skew 0 is uniform,
+ * 1 is classic Zipf: the most popular customer is twice as frequent as the second).
+ * The first names are the ones of the original 10,000-row data set; larger domains
+ * add numbered names (Dan, Claire, ..., Dan2, Claire2, ...). Quantities are uniform
+ * in 1..1000, states uniform over NY, NJ, CT, PA, and dates uniform in the date
+ * range, or increasing with the row number when --ordered is given (like data
+ * that is inserted in date order).
+ *
+ * Usage:
+ *   mvn compile exec:java -Dexec.mainClass=edu.stevens.cs562.SalesGenerator \
+ *       -Dexec.args="--rows=100000000 --format=columnar --out=snapshots/sales.emfc"
+ *
+ * Options (defaults in brackets):
+ *   --rows=N             number of rows [10000]
+ *   --customers=C        distinct customers [9]
+ *   --products=P         distinct products [10]
+ *   --skew=S             Zipf exponent for customers and products [0]
+ *   --start=YYYY-MM-DD   first date [2016-01-01]
+ *   --end=YYYY-MM-DD     last date [2020-12-31]
+ *   --ordered            dates increase with the row number
+ *   --seed=S             random seed [562]
+ *   --threads=T          generator threads [available processors]
+ *   --format=F           csv (with header), copy (PostgreSQL COPY text format) or columnar [csv]
+ *   --out=PATH           output file; a directory gets sales.csv / sales.copy / sales.emfc
+ *
+ * Load a COPY file with:  \copy sales FROM 'sales.copy'
+ */
+public class SalesGenerator {
+
+    static final int CHUNK_ROWS = ColumnarSnapshot.DEFAULT_BLOCK_ROWS;
+
+    static final String[] CUSTOMERS = {"Dan", "Claire", "Chae", "Mia", "Sam", "Wally", "Helen", "Emily", "Boo"};
+    static final String[] PRODUCTS = {"Ham", "Fish", "Apple", "Jelly", "Dates", "Butter", "Cherry", "Eggs", "Grapes", "Ice"};
+    static final String[] STATES = {"NY", "NJ", "CT", "PA"};
+
+    public static final TableSchema SCHEMA = new TableSchema("sales",
+        List.of("cust", "prod", "day", "month", "year", "state", "quant", "date"),
+        List.of("string", "string", "int", "int", "int", "string", "int", "date"));
+
+    private final long rows;
+    private final long seed;
+    private final boolean ordered;
+    private final long startDay;
+    private final long days;
+    private final String[] customers;
+    private final String[] products;
+    private final double[] customerCdf;
+    private final double[] productCdf;
+
+    public SalesGenerator(long rows, int customers, int products, double skew,
+                          LocalDate start, LocalDate end, boolean ordered, long seed) {
+        if (rows < 0 || customers < 1 || products < 1 || skew < 0 || end.isBefore(start)) {
+            throw new IllegalArgumentException("Need rows >= 0, customers and products >= 1, skew >= 0 and start <= end");
+        }
+        this.rows = rows;
+        this.seed = seed;
+        this.ordered = ordered;
+        this.startDay = start.toEpochDay();
+        this.days = end.toEpochDay() - startDay + 1;
+        this.customers = names(CUSTOMERS, customers);
+        this.products = names(PRODUCTS, products);
+        this.customerCdf = zipfCdf(customers, skew);
+        this.productCdf = zipfCdf(products, skew);
+    }
+
+    static String[] names(String[] base, int n) {
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = base[i % base.length] + (i < base.length ? "" : String.valueOf(i / base.length + 1));
+        }
+        return names;
+    }
+
+    static double[] zipfCdf(int n, double skew) {
+        double[] cdf = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += 1.0 / Math.pow(i + 1, skew);
+            cdf[i] = total;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= total;
+        }
+        return cdf;
+    }
+
+    private static int sample(double[] cdf, SplittableRandom rnd) {
+        int i = Arrays.binarySearch(cdf, rnd.nextDouble());
+        i = i >= 0 ? i : -i - 1;
+        return Math.min(i, cdf.length - 1);
+    }
+
+    public long rowCount() {
+        return rows;
+    }
+
+    public long chunkCount() {
+        return (rows + CHUNK_ROWS - 1) / CHUNK_ROWS;
+    }
+
+    /**
+     * One chunk of rows, column-wise. Strings are indexes into the customer, product
+     * and state name arrays; dates are epoch days.
+     */
+    class Chunk {
+        final int size;
+        final int[] cust, prod, day, month, year, state, quant, date;
+
+        Chunk(long chunk) {
+            long first = chunk * CHUNK_ROWS;
+            size = (int) Math.min(CHUNK_ROWS, rows - first);
+            cust = new int[size];
+            prod = new int[size];
+            day = new int[size];
+            month = new int[size];
+            year = new int[size];
+            state = new int[size];
+            quant = new int[size];
+            date = new int[size];
+
+            SplittableRandom rnd = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + chunk);
+            for (int r = 0; r < size; r++) {
+                cust[r] = sample(customerCdf, rnd);
+                prod[r] = sample(productCdf, rnd);
+                state[r] = rnd.nextInt(STATES.length);
+                quant[r] = 1 + rnd.nextInt(1000);
+                long offset = ordered
+                    ? (long) ((double) (first + r) / Math.max(rows, 1) * days)
+                    : rnd.nextLong(days);
+                LocalDate d = LocalDate.ofEpochDay(startDay + offset);
+                date[r] = (int) d.toEpochDay();
+                day[r] = d.getDayOfMonth();
+                month[r] = d.getMonthValue();
+                year[r] = d.getYear();
+            }
+        }
+
+        byte[] text(boolean csv) {
+            char sep = csv ? ',' : '\t';
+            StringBuilder sb = new StringBuilder(size * 48);
+            for (int r = 0; r < size; r++) {
+                sb.append(customers[cust[r]]).append(sep)
+                  .append(products[prod[r]]).append(sep)
+                  .append(day[r]).append(sep)
+                  .append(month[r]).append(sep)
+                  .append(year[r]).append(sep)
+                  .append(STATES[state[r]]).append(sep)
+                  .append(quant[r]).append(sep)
+                  .append(LocalDate.ofEpochDay(date[r])).append('\n');
+            }
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Write CSV (csv = true) or COPY text. Chunks are generated by the pool and
+     * written in order, with at most a few chunks per thread in flight.
+     */
+    public void writeText(Path file, boolean csv, int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20)) {
+            if (csv) {
+                out.write((String.join(",", SCHEMA.columns) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+            long next = 0;
+            while (next < chunkCount() || !inFlight.isEmpty()) {
+                while (next < chunkCount() && inFlight.size() < threads * 2) {
+                    long chunk = next++;
+                    inFlight.add(pool.submit(() -> new Chunk(chunk).text(csv)));
+                }
+                out.write(inFlight.poll().get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Write a columnar snapshot, one block per chunk, blocks written in parallel. */
+    public void writeColumnar(Path file, int threads) throws Exception {
+        String[] sortedCustomers = sorted(customers);
+        String[] sortedProducts = sorted(products);
+        String[] sortedStates = sorted(STATES);
+        int[] customerCode = codes(customers, sortedCustomers);
+        int[] productCode = codes(products, sortedProducts);
+        int[] stateCode = codes(STATES, sortedStates);
+        String[][] dictionaries = {sortedCustomers, sortedProducts, null, null, null, sortedStates, null, null};
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (ColumnarSnapshotWriter writer = new ColumnarSnapshotWriter(file, SCHEMA, CHUNK_ROWS, dictionaries)) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (long c = 0; c < chunkCount(); c++) {
+                long chunk = c;
+                tasks.add(pool.submit(() -> {
+                    Chunk ch = new Chunk(chunk);
+                    recode(ch.cust, customerCode);
+                    recode(ch.prod, productCode);
+                    recode(ch.state, stateCode);
+                    int[][] ints = {ch.cust, ch.prod, ch.day, ch.month, ch.year, ch.state, ch.quant, ch.date};
+                    writer.writeBlock((int) chunk, ch.size, ints, new double[ints.length][]);
+                    return null;
+                }));
+            }
+            for (Future<?> t : tasks) {
+                t.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String[] sorted(String[] values) {
+        String[] s = values.clone();
+        Arrays.sort(s);
+        return s;
+    }
+
+    private static int[] codes(String[] values, String[] sorted) {
+        int[] codes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            codes[i] = Arrays.binarySearch(sorted, values[i]);
+        }
+        return codes;
+    }
+
+    private static void recode(int[] values, int[] codes) {
+        for (int r = 0; r < values.length; r++) {
+            values[r] = codes[values[r]];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                System.err.println("Unexpected argument: " + arg);
+                System.exit(1);
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+
+        String format = options.getOrDefault("format", "csv");
+        if (!format.equals("csv") && !format.equals("copy") && !format.equals("columnar")) {
+            System.err.println("Unknown format: " + format + " (csv, copy or columnar)");
+            System.exit(1);
+        }
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        SalesGenerator generator = new SalesGenerator(
+            Long.parseLong(options.getOrDefault("rows", "10000")),
+            Integer.parseInt(options.getOrDefault("customers", "9")),
+            Integer.parseInt(options.getOrDefault("products", "10")),
+            Double.parseDouble(options.getOrDefault("skew", "0")),
+            LocalDate.parse(options.getOrDefault("start", "2016-01-01")),
+            LocalDate.parse(options.getOrDefault("end", "2020-12-31")),
+            options.containsKey("ordered"),
+            Long.parseLong(options.getOrDefault("seed", "562")));
+
+        Path out = Paths.get(options.getOrDefault("out", "."));
+        if (Files.isDirectory(out)) {
+            out = out.resolve(format.equals("columnar") ? "sales" + ColumnarSnapshot.FILE_EXTENSION : "sales." + format);
+        }
+
+        long start = System.nanoTime();
+        if (format.equals("columnar")) {
+            generator.writeColumnar(out, threads);
+        } else {
+            generator.writeText(out, format.equals("csv"), threads);
+        }
+        System.out.printf("Wrote %d rows to %s (%d bytes) in %.1f s%n",
+            generator.rowCount(), out, Files.size(out), (System.nanoTime() - start) / 1e9);
+    }
+}
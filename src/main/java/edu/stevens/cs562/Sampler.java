@@ -0,0 +1,73 @@
+package edu.stevens.cs562;
+
+/**
+ * Bernoulli row sample for the approximate mode of the generated query: every row
+ * is kept independently with probability rate.
+ *
+ * Instead of drawing a random number per row, keep() counts down a geometric skip
+ * (the number of rows rejected before the next one is kept), so a 1% sample costs
+ * one random number per kept row. The sequence depends only on the seed, so a
+ * sampled query gives the same answer every time it runs.
+ *
+ * keepBlock() is the block-level variant used by sources that store rows in blocks
+ * (ColumnarSnapshot): a block is kept when a hash of its number is below the rate.
+ */
+public class Sampler {
+
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private final double rate;
+    private final double logReject;
+    private long random;
+    private long skip;
+
+    public Sampler(double rate, long seed) {
+        if (!(rate > 0 && rate <= 1)) {
+            throw new IllegalArgumentException("Sample rate must be in (0, 1]: " + rate);
+        }
+        this.rate = rate;
+        this.logReject = Math.log1p(-rate);
+        this.random = seed;
+        this.skip = nextSkip();
+    }
+
+    /** A sampler that keeps every row (the source already sampled its blocks). */
+    public static Sampler all() {
+        return new Sampler(1, 1);
+    }
+
+    /** Whether the current row is in the sample. */
+    public boolean keep() {
+        if (skip > 0) {
+            skip--;
+            return false;
+        }
+        skip = nextSkip();
+        return true;
+    }
+
+    public double rate() {
+        return rate;
+    }
+
+    /** Whether block b of a scan sampled with the given seed and rate is read. */
+    public static boolean keepBlock(int b, long seed, double rate) {
+        long h = mix(seed + (b + 1) * GOLDEN);
+        return (h >>> 11) * 0x1.0p-53 < rate;
+    }
+
+    // Rows to reject before the next kept one: floor(log(u) / log(1 - rate))
+    private long nextSkip() {
+        if (rate >= 1) return 0;
+        random += GOLDEN;
+        double u = ((mix(random) >>> 11) + 1) * 0x1.0p-53;
+        return (long) Math.floor(Math.log(u) / logReject);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,296 @@
+package edu.stevens.cs562;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Schemas (column names in ordinal order and their types) and TableStatistics of
+ * the tables of one source, kept in memory and in a local properties file, so
+ * planning and code generation need no database round trip once a table is known
+ * and still work when the database is unreachable.
+ *
+ * An entry is read from the source when it is missing or older than the TTL, or
+ * on refresh(). A schema read again keeps the table's statistics unless its
+ * columns or types changed. When that read fails, a stale entry is used (with a warning on
+ * System.err); only a table the catalog has never seen needs the database.
+ *
+ * The file holds the entries of any number of sources, keyed by source id (the
+ * JDBC URL) and table:
+ *
+ *   jdbc\:postgresql\://localhost\:5432/sales#sales.columns=cust,prod,day,...
+ *   jdbc\:postgresql\://localhost\:5432/sales#sales.statistics.quant=...
+ *
+ * Statistics are stored without their sample rows, like pg_stats statistics, and
+ * their ranges are never exact: the source may have changed since they were read.
+ * Snapshots carry their own schema, so forSnapshot() keeps its catalog in memory.
+ */
+public class SchemaCatalog {
+
+    public static final Path DEFAULT_FILE = Paths.get("esql-catalog.properties");
+    public static final long DEFAULT_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /** Opens the source behind the catalog when an entry has to be read. */
+    public interface Source {
+        RowSourceProvider open() throws Exception;
+    }
+
+    private final Path file;
+    private final String sourceId;
+    private final Source source;
+    private final long ttlMillis;
+    // Everything in the file, other sources included
+    private final Properties stored = new Properties();
+    private final Map<String, TableSchema> schemas = new HashMap<>();
+    private final Map<String, TableStatistics> statistics = new HashMap<>();
+
+    /** A catalog of the tables of source, identified by sourceId in file (null keeps it in memory). */
+    public SchemaCatalog(Path file, String sourceId, Source source, long ttlMillis) throws IOException {
+        this.file = file;
+        this.sourceId = sourceId;
+        this.source = source;
+        this.ttlMillis = ttlMillis;
+        if (file != null && Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                stored.load(in);
+            }
+        }
+    }
+
+    /** The catalog of the database in db.properties, in DEFAULT_FILE with the default TTL. */
+    public static SchemaCatalog forDatabase() throws IOException {
+        return forDatabase(DEFAULT_FILE, DEFAULT_TTL_MILLIS);
+    }
+
+    public static SchemaCatalog forDatabase(Path file, long ttlMillis) throws IOException {
+        return new SchemaCatalog(file, Database.url(), () -> new JdbcRowSourceProvider(Database.connect()), ttlMillis);
+    }
+
+    /** An in-memory catalog of a snapshot directory or file. */
+    public static SchemaCatalog forSnapshot(Path snapshot) throws IOException {
+        return new SchemaCatalog(null, "snapshot:" + snapshot.toAbsolutePath().normalize(),
+            () -> new SnapshotRowSourceProvider(snapshot), Long.MAX_VALUE);
+    }
+
+    /** Schema of a table, from the catalog while it is fresh. */
+    public synchronized TableSchema schema(String table) {
+        String key = key(table);
+        TableSchema schema = schemas.get(key);
+        if (schema == null && stored.containsKey(key + ".columns")) {
+            schema = decodeSchema(key, table);
+            schemas.put(key, schema);
+        }
+        if (schema == null || stale(key)) {
+            try {
+                schema = read(provider -> TableSchema.load(provider, table));
+            } catch (Exception e) {
+                if (schema == null) {
+                    throw new RuntimeException("Table " + table + " is not in the catalog and its schema cannot be read: "
+                        + e.getMessage(), e);
+                }
+                System.err.println("Using the cataloged schema of " + table + ": " + e.getMessage());
+                return schema;
+            }
+            schema = store(table, schema);
+        }
+        return schema;
+    }
+
+    /** Statistics of a table, from the catalog while they are fresh. */
+    public synchronized TableStatistics statistics(String table) {
+        String key = key(table);
+        TableSchema schema = schema(table);
+        TableStatistics stats = statistics.get(key);
+        if (stats == null && stored.containsKey(key + ".statistics.rows")) {
+            stats = decodeStatistics(key, schema);
+            statistics.put(key, stats);
+        }
+        if (stats == null || stale(key + ".statistics")) {
+            try {
+                stats = read(provider -> TableStatistics.compute(provider, table));
+            } catch (Exception e) {
+                if (stats == null) {
+                    throw new RuntimeException("No statistics of " + table + " in the catalog and they cannot be read: "
+                        + e.getMessage(), e);
+                }
+                System.err.println("Using the cataloged statistics of " + table + ": " + e.getMessage());
+                return stats;
+            }
+            statistics.put(key, stats);
+            encodeStatistics(key, stats);
+            save();
+        }
+        return stats;
+    }
+
+    /**
+     * Read the schema of a table again now, and its statistics on their next use.
+     * The cataloged entries stay when the source cannot be read.
+     */
+    public synchronized void refresh(String table) {
+        TableSchema schema;
+        try {
+            schema = read(provider -> TableSchema.load(provider, table));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to refresh the schema of " + table + ": " + e.getMessage(), e);
+        }
+        String key = key(table);
+        store(table, schema);
+        // stale, so read on their next use; the cataloged ones stay as a fallback
+        stored.remove(key + ".statistics.loaded");
+    }
+
+    /**
+     * Catalog a schema read from the source and return the table's schema. A changed
+     * schema replaces the table's entries, statistics included; an unchanged one only
+     * renews the entry's age and keeps the cataloged schema and statistics.
+     */
+    private TableSchema store(String table, TableSchema schema) {
+        String key = key(table);
+        TableSchema old = schemas.get(key);
+        if (old == null && stored.containsKey(key + ".columns")) {
+            old = decodeSchema(key, table);
+        }
+        if (old != null && old.columns.equals(schema.columns) && old.types.equals(schema.types)) {
+            schemas.put(key, old);
+            stored.setProperty(key + ".loaded", Long.toString(System.currentTimeMillis()));
+        } else {
+            old = schema;
+            schemas.put(key, schema);
+            statistics.remove(key);
+            remove(key);
+            encodeSchema(key, schema);
+        }
+        save();
+        return old;
+    }
+
+    // ================== SOURCE ==================
+
+    private interface Reader<T> {
+        T read(RowSourceProvider provider) throws Exception;
+    }
+
+    private <T> T read(Reader<T> reader) throws Exception {
+        try (RowSourceProvider provider = source.open()) {
+            return reader.read(provider);
+        }
+    }
+
+    private String key(String table) {
+        return sourceId + "#" + table.toLowerCase();
+    }
+
+    private boolean stale(String prefix) {
+        String loaded = stored.getProperty(prefix + ".loaded");
+        return loaded == null || System.currentTimeMillis() - Long.parseLong(loaded) > ttlMillis;
+    }
+
+    // Drop every stored key of the table
+    private void remove(String key) {
+        stored.keySet().removeIf(k -> ((String) k).startsWith(key + "."));
+    }
+
+    private void save() {
+        if (file == null) return;
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                stored.store(out, "ESQL schema catalog");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the catalog still works in memory
+            System.err.println("Failed to write the schema catalog " + file + ": " + e.getMessage());
+        }
+    }
+
+    // ================== FILE FORMAT ==================
+
+    private void encodeSchema(String key, TableSchema schema) {
+        stored.setProperty(key + ".loaded", Long.toString(System.currentTimeMillis()));
+        stored.setProperty(key + ".columns", String.join(",", schema.columns));
+        stored.setProperty(key + ".types", String.join(",", schema.types));
+    }
+
+    private TableSchema decodeSchema(String key, String table) {
+        return new TableSchema(table.toLowerCase(),
+            List.of(stored.getProperty(key + ".columns").split(",")),
+            List.of(stored.getProperty(key + ".types").split(",")));
+    }
+
+    private void encodeStatistics(String key, TableStatistics stats) {
+        String p = key + ".statistics";
+        stored.keySet().removeIf(k -> ((String) k).startsWith(p + "."));
+        stored.setProperty(p + ".loaded", Long.toString(System.currentTimeMillis()));
+        stored.setProperty(p + ".rows", Long.toString(stats.rowCount));
+        for (TableStatistics.Column col : stats.columns.values()) {
+            String c = p + "." + col.name;
+            stored.setProperty(c, col.distinct + "," + col.nullFraction + "," + col.min + "," + col.max);
+            if (col.histogram != null) {
+                stored.setProperty(c + ".histogram", numbers(col.histogram));
+            }
+            if (col.mostCommon.length > 0) {
+                List<String> values = new ArrayList<>();
+                for (String v : col.mostCommon) {
+                    values.add(URLEncoder.encode(v, StandardCharsets.UTF_8));
+                }
+                stored.setProperty(c + ".mcv", String.join(",", values));
+                stored.setProperty(c + ".mcf", numbers(col.mostCommonFrequencies));
+            }
+        }
+    }
+
+    private TableStatistics decodeStatistics(String key, TableSchema schema) {
+        String p = key + ".statistics";
+        TableStatistics stats = new TableStatistics(schema, sourceId);
+        stats.rowCount = Long.parseLong(stored.getProperty(p + ".rows"));
+        for (TableStatistics.Column col : stats.columns.values()) {
+            String c = p + "." + col.name;
+            String values = stored.getProperty(c);
+            if (values == null) continue;
+            String[] v = values.split(",");
+            col.distinct = Long.parseLong(v[0]);
+            col.nullFraction = Double.parseDouble(v[1]);
+            col.min = Double.parseDouble(v[2]);
+            col.max = Double.parseDouble(v[3]);
+            if (stored.containsKey(c + ".histogram")) {
+                col.histogram = numbers(stored.getProperty(c + ".histogram"));
+            }
+            if (stored.containsKey(c + ".mcv")) {
+                String[] mcv = stored.getProperty(c + ".mcv").split(",", -1);
+                for (int i = 0; i < mcv.length; i++) {
+                    mcv[i] = URLDecoder.decode(mcv[i], StandardCharsets.UTF_8);
+                }
+                col.mostCommon = mcv;
+                col.mostCommonFrequencies = numbers(stored.getProperty(c + ".mcf"));
+            }
+        }
+        return stats;
+    }
+
+    private static String numbers(double[] values) {
+        List<String> out = new ArrayList<>();
+        for (double v : values) {
+            out.add(Double.toString(v));
+        }
+        return String.join(",", out);
+    }
+
+    private static double[] numbers(String text) {
+        return Arrays.stream(text.split(",")).mapToDouble(Double::parseDouble).toArray();
+    }
+}
@@ -0,0 +1,242 @@
+package edu.stevens.cs562;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coordinator/worker protocol for sharded execution of a generated query.
+ *
+ * The coordinator listens on a TCP port, optionally launches local worker JVMs
+ * running the same generated class with --worker=host:port, and waits for the
+ * configured number of workers. Workers started by hand on other hosts join the
+ * same way. Every worker receives its shard index and the shard count, runs the
+ * EMF scans on its shard and streams back its partial mf-structure. The
+ * coordinator merges the partials one worker at a time, then the generated code
+ * applies HAVING and prints the result.
+ *
+ * Wire format (DataInput/DataOutput, big-endian):
+ *   coordinator -> worker:  int shard, int shards
+ *   worker -> coordinator:  boolean ok, then either the partial mf-structure
+ *                           (written by the generated writeEntries) or a UTF error message
+ *
+ * Coordinator options (passed to the generated main):
+ *   --shards=N          number of shards (default: the value chosen at generation time)
+ *   --local-workers=M   worker JVMs to launch on this host (default: N)
+ *   --bind=ADDR         address to listen on (default 127.0.0.1; use 0.0.0.0 for remote workers)
+ *   --port=P            port to listen on (default: any free port)
+ *
+ * Any other arguments (for example --snapshot=DIR) are passed on to local workers.
+ *
+ * The query fails with a RuntimeException when a worker reports an error, closes
+ * its connection before sending its partial, or (for a local worker) exits before
+ * connecting. A worker retries connecting for a while, so it may be started
+ * before the coordinator listens.
+ *
+ * With row-hash shards, scans 1..n of a snapshot read only the worker's blocks.
+ * Otherwise every worker reads the whole table and keeps its shard's rows, which
+ * splits the mf-structure and the matching but not the reading (see
+ * QueryGenerator.setShards).
+ */
+public class ShardCoordinator {
+
+    private static final int ACCEPT_TIMEOUT_MS = 120_000;
+    // How often accept() wakes up to check that the local workers are still alive
+    private static final int ACCEPT_POLL_MS = 500;
+    private static final int CONNECT_TIMEOUT_MS = 30_000;
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    public interface PartialWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    public interface PartialMerger {
+        void merge(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Returns the worker connection if the arguments contain --worker=host:port,
+     * or null if this process is the coordinator.
+     */
+    public static Worker worker(String[] args) throws IOException {
+        String address = option(args, "--worker=", null);
+        if (address == null) {
+            return null;
+        }
+        int colon = address.lastIndexOf(':');
+        String host = address.substring(0, colon);
+        int port = Integer.parseInt(address.substring(colon + 1));
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (true) {
+            try {
+                return new Worker(new Socket(host, port));
+            } catch (ConnectException e) {
+                // the coordinator is not listening yet
+                if (System.currentTimeMillis() > deadline) throw e;
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the coordinator: accept the workers, hand out shards and merge every
+     * worker's partial mf-structure with the given merger.
+     */
+    public static void coordinate(String mainClass, int defaultShards, String[] args, PartialMerger merger) throws Exception {
+        int shards = Integer.parseInt(option(args, "--shards=", String.valueOf(defaultShards)));
+        int localWorkers = Integer.parseInt(option(args, "--local-workers=", String.valueOf(shards)));
+        String bind = option(args, "--bind=", "127.0.0.1");
+        int port = Integer.parseInt(option(args, "--port=", "0"));
+
+        if (shards < 1 || localWorkers < 0 || localWorkers > shards) {
+            throw new IllegalArgumentException("Need 1 <= shards and 0 <= local workers <= shards");
+        }
+
+        List<Process> processes = new ArrayList<>();
+        List<Socket> sockets = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(port, shards, InetAddress.getByName(bind))) {
+            server.setSoTimeout(ACCEPT_POLL_MS);
+            String address = (bind.equals("0.0.0.0") ? InetAddress.getLocalHost().getHostAddress() : bind)
+                + ":" + server.getLocalPort();
+            System.err.println("Coordinator listening on " + address + ", waiting for " + shards
+                + " workers (" + localWorkers + " local)");
+
+            for (int i = 0; i < localWorkers; i++) {
+                processes.add(launchLocalWorker(mainClass, "127.0.0.1:" + server.getLocalPort(), args));
+            }
+
+            for (int shard = 0; shard < shards; shard++) {
+                Socket socket = accept(server, processes);
+                sockets.add(socket);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(shard);
+                out.writeInt(shards);
+                out.flush();
+            }
+
+            for (int shard = 0; shard < shards; shard++) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(sockets.get(shard).getInputStream(), 1 << 16));
+                try {
+                    if (!in.readBoolean()) {
+                        throw new RuntimeException("Worker for shard " + shard + " failed: " + in.readUTF());
+                    }
+                    merger.merge(in);
+                } catch (EOFException | SocketException e) {
+                    throw new RuntimeException("Worker for shard " + shard + " disconnected before sending its result", e);
+                }
+            }
+
+            for (Process p : processes) {
+                p.waitFor();
+            }
+        } finally {
+            for (Socket s : sockets) {
+                s.close();
+            }
+            for (Process p : processes) {
+                if (p.isAlive()) p.destroyForcibly();
+            }
+        }
+    }
+
+    // Wait for the next worker; fail early when a local worker died instead of connecting
+    private static Socket accept(ServerSocket server, List<Process> processes) throws IOException {
+        long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT_MS;
+        while (true) {
+            try {
+                return server.accept();
+            } catch (SocketTimeoutException e) {
+                for (Process p : processes) {
+                    if (!p.isAlive() && p.exitValue() != 0) {
+                        throw new RuntimeException("Local worker exited with code " + p.exitValue() + " before connecting");
+                    }
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new RuntimeException("Timed out waiting for workers to connect", e);
+                }
+            }
+        }
+    }
+
+    private static Process launchLocalWorker(String mainClass, String address, String[] args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        command.add("--worker=" + address);
+        for (String arg : args) {
+            if (!isCoordinatorOption(arg)) command.add(arg);
+        }
+        return new ProcessBuilder(command)
+            .inheritIO()
+            .start();
+    }
+
+    private static boolean isCoordinatorOption(String arg) {
+        return arg.startsWith("--shards=") || arg.startsWith("--local-workers=")
+            || arg.startsWith("--bind=") || arg.startsWith("--port=");
+    }
+
+    private static String option(String[] args, String prefix, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return arg.substring(prefix.length());
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The worker side of one coordinator connection.
+     */
+    public static class Worker {
+        private final Socket socket;
+        private final int shard;
+        private final int shards;
+
+        private Worker(Socket socket) throws IOException {
+            this.socket = socket;
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            this.shard = in.readInt();
+            this.shards = in.readInt();
+        }
+
+        public int shard() {
+            return shard;
+        }
+
+        public int shards() {
+            return shards;
+        }
+
+        /**
+         * Evaluate the shard and send the partial mf-structure, or the error if the
+         * evaluation failed, back to the coordinator.
+         */
+        public void run(Task evaluation, PartialWriter writer) throws IOException {
+            try (socket) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                try {
+                    evaluation.run();
+                } catch (Exception e) {
+                    out.writeBoolean(false);
+                    out.writeUTF(String.valueOf(e));
+                    out.flush();
+                    return;
+                }
+                out.writeBoolean(true);
+                writer.write(out);
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package edu.stevens.cs562;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+
+/**
+ * Dumps a database table into a columnar snapshot that generated queries can scan
+ * with --snapshot=PATH instead of querying the database.
+ *
+ * Usage:
+ *   mvn compile exec:java -Dexec.mainClass=edu.stevens.cs562.SnapshotExporter -Dexec.args="sales snapshots/"
+ *
+ * Arguments: table, output (a directory, written as <table>.emfc, or a file name),
+ * and optionally the number of rows per block.
+ */
+public class SnapshotExporter {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: SnapshotExporter <table> <output file or directory> [block rows]");
+            System.exit(1);
+        }
+        String table = args[0].toLowerCase();
+        Path output = Paths.get(args[1]);
+        int blockRows = args.length > 2 ? Integer.parseInt(args[2]) : ColumnarSnapshot.DEFAULT_BLOCK_ROWS;
+        if (Files.isDirectory(output)) {
+            output = output.resolve(table + ColumnarSnapshot.FILE_EXTENSION);
+        }
+
+        long start = System.nanoTime();
+        long rows;
+        try (Connection conn = Database.connect()) {
+            TableSchema schema = TableSchema.load(conn, table);
+            System.out.println("Exporting " + schema);
+            RowSourceProvider provider = new JdbcRowSourceProvider(conn);
+            try (RowSource source = provider.open(table);
+                 ColumnarSnapshotWriter writer = new ColumnarSnapshotWriter(output, schema, blockRows)) {
+                writer.appendAll(source);
+                rows = writer.rowCount();
+            }
+        }
+        System.out.printf("Wrote %d rows to %s (%d bytes) in %.1f s%n",
+            rows, output, Files.size(output), (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,68 @@
+package edu.stevens.cs562;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RowSourceProvider over columnar snapshots written by SnapshotExporter.
+ *
+ * The path is either a single .emfc file (which then must hold the scanned table)
+ * or a directory holding one <table>.emfc file per table. Each snapshot is opened
+ * and mapped once and shared by all scans, so scan 0 and scans 1..n all read the
+ * same mapped pages and dictionary codes are stable across them. Scans only read
+ * the mapping, so one provider can serve queries on several threads at once.
+ */
+public class SnapshotRowSourceProvider implements RowSourceProvider {
+
+    private final Path path;
+    private final Map<String, ColumnarSnapshot> snapshots = new HashMap<>();
+
+    public SnapshotRowSourceProvider(Path path) {
+        this.path = path;
+    }
+
+    /** The snapshot of a table, opened on first use. */
+    public synchronized ColumnarSnapshot snapshot(String table) {
+        String key = table.toLowerCase();
+        ColumnarSnapshot snapshot = snapshots.get(key);
+        if (snapshot == null) {
+            Path file = Files.isDirectory(path) ? path.resolve(key + ColumnarSnapshot.FILE_EXTENSION) : path;
+            try {
+                snapshot = ColumnarSnapshot.open(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open snapshot " + file, e);
+            }
+            if (!snapshot.schema().table.equalsIgnoreCase(table)) {
+                throw new RuntimeException("Snapshot " + file + " holds table " + snapshot.schema().table + ", not " + table);
+            }
+            snapshots.put(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    @Override
+    public RowSource open(String table) {
+        return snapshot(table).scan();
+    }
+
+    @Override
+    public String sourceId() {
+        return "snapshot:" + path.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            for (ColumnarSnapshot s : snapshots.values()) {
+                s.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        snapshots.clear();
+    }
+}
@@ -0,0 +1,267 @@
+package edu.stevens.cs562;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * On-disk hash partitions used by the spilling evaluation mode.
+ *
+ * During scan 0 the generated code hands every row that satisfies σ0 to add().
+ * The row is hashed on the partition attribute (a grouping attribute that every
+ * σi equates with its grouping variable, see PartitionAnalyzer) and appended to
+ * one of the partition files. Only the columns the query actually reads are written,
+ * and strings are written as dictionary codes.
+ *
+ * Scans 1..n then run partition by partition: the generated code rebuilds the
+ * mf-structure from one partition, runs every grouping variable's scan over the
+ * same file, outputs it and moves on. Because t.a == e.a is required by every σi,
+ * a row can only ever update entries living in its own partition, so at most one
+ * partition's mf-structure is resident at a time.
+ *
+ * Column types use the same simple type system as QueryGenerator:
+ * "int", "double", "date" and "string".
+ */
+public class SpillPartitions implements AutoCloseable {
+
+    private final String[] columns;
+    private final String[] types;
+    private final int keyColumn;
+    private final StringDictionary[] dicts;
+    private final Path directory;
+    private final Path[] files;
+    private final DataOutputStream[] writers;
+    private final long[] rowCounts;
+
+    // Ordinals of the spilled columns in the source currently being partitioned
+    private RowSource boundSource;
+    private int[] sourceColumns;
+
+    public SpillPartitions(int partitions, String keyColumn, String[] columns, String[] types) throws IOException {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Number of spill partitions must be at least 1");
+        }
+        this.columns = columns;
+        this.types = types;
+        this.keyColumn = indexOf(columns, keyColumn);
+        if (this.keyColumn < 0) {
+            throw new IllegalArgumentException("Partition attribute " + keyColumn + " is not a spilled column");
+        }
+        this.dicts = new StringDictionary[columns.length];
+        for (int c = 0; c < columns.length; c++) {
+            if (types[c].equals("string")) dicts[c] = new StringDictionary();
+        }
+
+        this.directory = Files.createTempDirectory("emf-spill");
+        this.files = new Path[partitions];
+        this.writers = new DataOutputStream[partitions];
+        this.rowCounts = new long[partitions];
+        for (int p = 0; p < partitions; p++) {
+            files[p] = directory.resolve("partition-" + p + ".bin");
+            writers[p] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(files[p]), 1 << 16));
+        }
+    }
+
+    public int partitionCount() {
+        return files.length;
+    }
+
+    public long rowCount(int partition) {
+        return rowCounts[partition];
+    }
+
+    /**
+     * Append the current row of the source to the partition its key hashes to.
+     */
+    public void add(RowSource row) throws IOException {
+        if (row != boundSource) {
+            sourceColumns = new int[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                sourceColumns[c] = row.columnIndex(columns[c]);
+            }
+            boundSource = row;
+        }
+
+        int p = PartitionAnalyzer.partitionOf(keyHash(row), files.length);
+        DataOutputStream out = writers[p];
+        for (int c = 0; c < columns.length; c++) {
+            int col = sourceColumns[c];
+            switch (types[c]) {
+                case "int":
+                    out.writeInt(row.getInt(col));
+                    break;
+                case "double":
+                    out.writeDouble(row.getDouble(col));
+                    break;
+                case "date":
+                    java.sql.Date d = row.getDate(col);
+                    out.writeBoolean(d != null);
+                    if (d != null) out.writeLong(d.getTime());
+                    break;
+                default:
+                    out.writeInt(dicts[c].code(row.getString(col)));
+            }
+        }
+        rowCounts[p]++;
+    }
+
+    /**
+     * Open a partition for one pass. Writers are flushed on the first call so the
+     * files are complete; a partition can be opened any number of times.
+     */
+    public Reader open(int partition) throws IOException {
+        for (DataOutputStream w : writers) {
+            w.flush();
+        }
+        return new Reader(files[partition], rowCounts[partition]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DataOutputStream w : writers) {
+            w.close();
+        }
+        for (Path f : files) {
+            Files.deleteIfExists(f);
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    private int keyHash(RowSource row) {
+        int col = sourceColumns[keyColumn];
+        switch (types[keyColumn]) {
+            case "int":
+                return Integer.hashCode(row.getInt(col));
+            case "double":
+                return Double.hashCode(row.getDouble(col));
+            case "date":
+                return java.util.Objects.hashCode(row.getDate(col));
+            default:
+                return java.util.Objects.hashCode(row.getString(col));
+        }
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Sequential reader over one partition file. Strings come back as the codes
+     * they were written with, so getCode() needs no dictionary lookup.
+     */
+    public class Reader implements RowSource {
+        private final DataInputStream in;
+        private final long rows;
+        private long read = 0;
+        private final Map<String, Integer> index = new HashMap<>();
+        private final int[] ints;
+        private final double[] doubles;
+        private final java.sql.Date[] dates;
+
+        private Reader(Path file, long rows) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+            this.rows = rows;
+            this.ints = new int[columns.length];
+            this.doubles = new double[columns.length];
+            this.dates = new java.sql.Date[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                index.put(columns[c], c);
+            }
+        }
+
+        @Override
+        public int columnIndex(String column) {
+            Integer c = index.get(column);
+            if (c == null) {
+                throw new IllegalArgumentException("Column " + column + " was not spilled");
+            }
+            return c;
+        }
+
+        @Override
+        public String columnType(int col) {
+            return types[col];
+        }
+
+        @Override
+        public boolean next() {
+            if (read == rows) return false;
+            try {
+                for (int c = 0; c < columns.length; c++) {
+                    switch (types[c]) {
+                        case "int":
+                            ints[c] = in.readInt();
+                            doubles[c] = ints[c];
+                            break;
+                        case "double":
+                            doubles[c] = in.readDouble();
+                            ints[c] = (int) doubles[c];
+                            break;
+                        case "date":
+                            dates[c] = in.readBoolean() ? new java.sql.Date(in.readLong()) : null;
+                            break;
+                        default:
+                            ints[c] = in.readInt();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            read++;
+            return true;
+        }
+
+        @Override
+        public int getInt(int col) {
+            return ints[col];
+        }
+
+        @Override
+        public double getDouble(int col) {
+            return doubles[col];
+        }
+
+        @Override
+        public String getString(int col) {
+            switch (types[col]) {
+                case "int": return String.valueOf(ints[col]);
+                case "double": return String.valueOf(doubles[col]);
+                case "date": return dates[col] == null ? null : dates[col].toString();
+                default: return dicts[col].decode(ints[col]);
+            }
+        }
+
+        @Override
+        public java.sql.Date getDate(int col) {
+            return dates[col];
+        }
+
+        @Override
+        public int getCode(int col) {
+            return ints[col];
+        }
+
+        @Override
+        public int codeOf(int col, String value) {
+            return dicts[col].code(value);
+        }
+
+        @Override
+        public String decode(int col, int code) {
+            return dicts[col].decode(code);
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
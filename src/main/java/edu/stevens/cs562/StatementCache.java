@@ -0,0 +1,83 @@
+package edu.stevens.cs562;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prepared scan statements of one connection, reused across scans and queries so
+ * the database parses and plans SELECT * FROM table once instead of per scan
+ * (PostgreSQL keeps a server-side plan for a statement executed repeatedly).
+ *
+ * A statement is out for one scan at a time: acquire() hands out an idle statement
+ * for the SQL or prepares one, release() gives it back. At most CAPACITY idle
+ * statements are kept, least recently used are closed first. A connection is used
+ * by one query at a time, so the cache is per connection (see ConnectionPool).
+ */
+public class StatementCache implements AutoCloseable {
+
+    static final int CAPACITY = 64;
+    private static final int FETCH_SIZE = 10_000;
+
+    public final Connection conn;
+    private final Map<String, PreparedStatement> idle = new LinkedHashMap<>(16, 0.75f, true);
+    private long prepared = 0;
+    private long reused = 0;
+
+    public StatementCache(Connection conn) {
+        this.conn = conn;
+    }
+
+    /** A statement for sql, for the caller's use until release(). */
+    public synchronized PreparedStatement acquire(String sql) throws SQLException {
+        PreparedStatement stmt = idle.remove(sql);
+        if (stmt != null && !stmt.isClosed()) {
+            reused++;
+            return stmt;
+        }
+        prepared++;
+        // streamed with a fetch size (PostgreSQL only streams with auto-commit off, see JdbcRowSourceProvider)
+        stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(FETCH_SIZE);
+        return stmt;
+    }
+
+    public synchronized void release(String sql, PreparedStatement stmt) throws SQLException {
+        PreparedStatement other = idle.put(sql, stmt);
+        if (other != null) other.close();
+        if (idle.size() > CAPACITY) {
+            Map.Entry<String, PreparedStatement> eldest = idle.entrySet().iterator().next();
+            idle.remove(eldest.getKey());
+            eldest.getValue().close();
+        }
+    }
+
+    /** Statements prepared so far. */
+    public synchronized long prepared() {
+        return prepared;
+    }
+
+    /** Scans that ran an already prepared statement. */
+    public synchronized long reused() {
+        return reused;
+    }
+
+    /** Close the idle statements; the connection stays open. */
+    @Override
+    public synchronized void close() {
+        List<PreparedStatement> statements = new ArrayList<>(idle.values());
+        idle.clear();
+        for (PreparedStatement stmt : statements) {
+            try {
+                stmt.close();
+            } catch (SQLException ignored) {
+                // the connection is gone
+            }
+        }
+    }
+}
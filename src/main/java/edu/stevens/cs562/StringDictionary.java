@@ -0,0 +1,34 @@
+package edu.stevens.cs562;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns dense int codes (0, 1, 2, ...) to strings in order of first appearance.
+ * Used by row sources that do not store strings dictionary-coded themselves.
+ */
+public class StringDictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /** Code of the string, assigning the next code if it has not been seen yet. */
+    public int code(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    public String decode(int code) {
+        return values.get(code);
+    }
+
+    public int size() {
+        return values.size();
+    }
+}
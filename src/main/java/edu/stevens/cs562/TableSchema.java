@@ -0,0 +1,77 @@
+package edu.stevens.cs562;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column names and simple types ("int", "double", "date", "string") of one table,
+ * in table order.
+ *
+ * Loaded from JDBC DatabaseMetaData, or read back from a columnar snapshot so
+ * that code generation can run without a database.
+ */
+public class TableSchema {
+    public final String table;
+    public final List<String> columns;
+    public final List<String> types;
+
+    public TableSchema(String table, List<String> columns, List<String> types) {
+        this.table = table;
+        this.columns = columns;
+        this.types = types;
+    }
+
+    public static TableSchema load(Connection conn, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+
+        DatabaseMetaData metaData = conn.getMetaData();
+        try (ResultSet rs = metaData.getColumns(null, null, table, null)) {
+            while (rs.next()) {
+                columns.add(rs.getString("COLUMN_NAME").toLowerCase());
+                types.add(JdbcRowSourceProvider.simpleType(rs.getInt("DATA_TYPE")));
+            }
+        }
+
+        if (columns.isEmpty()) {
+            throw new RuntimeException("Table not found or has no columns: " + table);
+        }
+        return new TableSchema(table, columns, types);
+    }
+
+    /** The schema as provider sees it: a snapshot's own, or DatabaseMetaData over JDBC. */
+    public static TableSchema load(RowSourceProvider provider, String table) throws SQLException {
+        if (provider instanceof SnapshotRowSourceProvider snapshots) {
+            return snapshots.snapshot(table).schema();
+        }
+        if (provider instanceof JdbcRowSourceProvider jdbc) {
+            return load(jdbc.connection(), table);
+        }
+        throw new RuntimeException("No schema for row sources of type " + provider.getClass().getSimpleName());
+    }
+
+    /** Ordinal of a column in table order, -1 when the table has no such column. */
+    public int ordinal(String column) {
+        return columns.indexOf(column.toLowerCase());
+    }
+
+    /** Column name -> simple type, as used by QueryGenerator. */
+    public Map<String, String> columnTypes() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            map.put(columns.get(i), types.get(i));
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return table + columnTypes();
+    }
+}
@@ -0,0 +1,564 @@
+package edu.stevens.cs562;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Statistics of one table for the CostPlanner: row count and, per column, the
+ * number of distinct values, null fraction, min/max, most common values with
+ * their frequencies and an equi-depth histogram (ints and dates).
+ *
+ * They come from PostgreSQL's pg_stats when the table has been ANALYZEd, and
+ * otherwise from one sampling pass over a RowSource: exact row count, a
+ * HyperLogLog per column for the distinct counts and a uniform reservoir sample
+ * of SAMPLE_ROWS rows for the frequencies and histograms. The sample rows are
+ * kept (sample is empty for pg_stats) so callers can evaluate predicates on it.
+ *
+ * get() caches the statistics per source and table for the life of the JVM;
+ * SchemaCatalog also keeps them in a file between runs (without the sample).
+ */
+public class TableStatistics {
+
+    public static final int SAMPLE_ROWS = 10_000;
+    static final int MOST_COMMON = 10;
+    static final int HISTOGRAM_BUCKETS = 20;
+
+    // Default selectivity of a comparison the statistics cannot answer
+    static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
+
+    private static final Map<String, TableStatistics> CACHE = new ConcurrentHashMap<>();
+
+    /** Statistics of one column. min, max and histogram are NaN/null for strings. */
+    public static class Column {
+        public final String name;
+        public final String type;
+        public long distinct;
+        public double nullFraction;
+        public double min = Double.NaN;
+        public double max = Double.NaN;
+        public String[] mostCommon = new String[0];
+        public double[] mostCommonFrequencies = new double[0];
+        public double[] histogram;
+
+        Column(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        /** Fraction of rows with column = value (value as text; dates as YYYY-MM-DD). */
+        public double equalSelectivity(String value) {
+            double mcvTotal = 0;
+            for (int i = 0; i < mostCommon.length; i++) {
+                if (mostCommon[i].equals(value)) return mostCommonFrequencies[i];
+                mcvTotal += mostCommonFrequencies[i];
+            }
+            if (!Double.isNaN(min) && isNumber(value)) {
+                double v = Double.parseDouble(value);
+                if (v < min || v > max) return 0;
+            }
+            long rest = Math.max(1, distinct - mostCommon.length);
+            return Math.max(0, 1 - nullFraction - mcvTotal) / rest;
+        }
+
+        /** Fraction of rows with lo <= column <= hi. */
+        public double rangeSelectivity(double lo, double hi) {
+            if (hi < lo) return 0;
+            if (histogram == null || histogram.length < 2) {
+                if (Double.isNaN(min)) return DEFAULT_RANGE_SELECTIVITY;
+                if (hi < min || lo > max) return 0;
+                if (max == min) return 1 - nullFraction;
+                double from = Math.max(lo, min), to = Math.min(hi, max);
+                return (1 - nullFraction) * Math.min(1, (to - from + 1) / (max - min + 1));
+            }
+            return (1 - nullFraction) * Math.max(0, fractionAtMost(hi) - fractionBelow(lo));
+        }
+
+        // Fraction of non-null values <= v, interpolated within histogram buckets
+        private double fractionAtMost(double v) {
+            return fraction(v + 0.5);
+        }
+
+        private double fractionBelow(double v) {
+            return fraction(v - 0.5);
+        }
+
+        private double fraction(double v) {
+            int buckets = histogram.length - 1;
+            if (v < histogram[0]) return 0;
+            if (v >= histogram[buckets]) return 1;
+            for (int b = 0; b < buckets; b++) {
+                double lo = histogram[b], hi = histogram[b + 1];
+                if (v < hi) {
+                    double within = hi > lo ? (v - lo) / (hi - lo) : 1;
+                    return (b + within) / buckets;
+                }
+            }
+            return 1;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + type + " distinct=" + distinct
+                + (Double.isNaN(min) ? "" : " range=[" + (long) min + ", " + (long) max + "]")
+                + (mostCommon.length > 0 ? " mcv=" + mostCommon[0] + ":" + String.format("%.3f", mostCommonFrequencies[0]) : "");
+        }
+    }
+
+    public final String table;
+    public final String source;
+    public long rowCount;
+    // min/max were read from every row by this process (a sampling pass), not
+    // estimated (pg_stats) or restored from a catalog
+    public boolean exactRanges;
+    public final Map<String, Column> columns = new LinkedHashMap<>();
+    public final TableSchema schema;
+    // Sampled rows, values as Integer, Double, String or java.sql.Date in schema order
+    public final List<Object[]> sample = new ArrayList<>();
+
+    TableStatistics(TableSchema schema, String source) {
+        this.table = schema.table;
+        this.schema = schema;
+        this.source = source;
+        for (int c = 0; c < schema.columns.size(); c++) {
+            String name = schema.columns.get(c);
+            columns.put(name, new Column(name, schema.types.get(c)));
+        }
+    }
+
+    public Column column(String name) {
+        return columns.get(name.toLowerCase());
+    }
+
+    /**
+     * Cached statistics of a table: pg_stats for a PostgreSQL source when available,
+     * otherwise a sampling pass over the provider.
+     */
+    public static TableStatistics get(RowSourceProvider provider, String table) {
+        return CACHE.computeIfAbsent(provider.sourceId() + "#" + table.toLowerCase(), k -> compute(provider, table));
+    }
+
+    /** Statistics read now, bypassing the cache (SchemaCatalog keeps its own). */
+    public static TableStatistics compute(RowSourceProvider provider, String table) {
+        TableSchema schema;
+        try {
+            schema = TableSchema.load(provider, table);
+            if (provider instanceof JdbcRowSourceProvider jdbc) {
+                TableStatistics stats = fromPgStats(jdbc.connection(), schema);
+                if (stats != null) return stats;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to read the schema of " + table + ": " + e.getMessage(), e);
+        }
+        RowSource rs = provider.open(table);
+        try {
+            return sample(rs, schema, provider.sourceId(), SAMPLE_ROWS, 562);
+        } finally {
+            rs.close();
+        }
+    }
+
+    /** Drop cached statistics (all tables of all sources). */
+    public static void invalidate() {
+        CACHE.clear();
+    }
+
+    /**
+     * One pass over rs: exact row count, HyperLogLog distinct counts, min/max and a
+     * reservoir sample from which frequencies and histograms are derived.
+     */
+    public static TableStatistics sample(RowSource rs, TableSchema schema, String source, int sampleSize, long seed) {
+        TableStatistics stats = new TableStatistics(schema, source);
+        int n = schema.columns.size();
+        int[] ordinals = new int[n];
+        HyperLogLog[] sketches = new HyperLogLog[n];
+        long[] nulls = new long[n];
+        double[] min = new double[n], max = new double[n];
+        for (int c = 0; c < n; c++) {
+            ordinals[c] = rs.columnIndex(schema.columns.get(c));
+            sketches[c] = new HyperLogLog();
+            min[c] = Double.POSITIVE_INFINITY;
+            max[c] = Double.NEGATIVE_INFINITY;
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        long rows = 0;
+        while (rs.next()) {
+            Object[] row = new Object[n];
+            for (int c = 0; c < n; c++) {
+                Object v;
+                switch (schema.types.get(c)) {
+                    case "int": {
+                        int x = rs.getInt(ordinals[c]);
+                        v = x;
+                        sketches[c].add(x);
+                        break;
+                    }
+                    case "double": {
+                        double x = rs.getDouble(ordinals[c]);
+                        v = x;
+                        sketches[c].add(Double.doubleToLongBits(x));
+                        break;
+                    }
+                    case "date": {
+                        java.sql.Date d = rs.getDate(ordinals[c]);
+                        v = d;
+                        if (d != null) sketches[c].add(d.toLocalDate().toEpochDay());
+                        break;
+                    }
+                    default: {
+                        String s = rs.getString(ordinals[c]);
+                        v = s;
+                        if (s != null) sketches[c].add(s);
+                    }
+                }
+                if (v == null) {
+                    nulls[c]++;
+                } else if (!(v instanceof String)) {
+                    double x = numeric(v);
+                    min[c] = Math.min(min[c], x);
+                    max[c] = Math.max(max[c], x);
+                }
+                row[c] = v;
+            }
+            // Algorithm R: row k (0-based) replaces a random slot with probability size/(k+1)
+            if (rows < sampleSize) {
+                stats.sample.add(row);
+            } else {
+                long slot = random.nextLong(rows + 1);
+                if (slot < sampleSize) stats.sample.set((int) slot, row);
+            }
+            rows++;
+        }
+
+        stats.rowCount = rows;
+        for (int c = 0; c < n; c++) {
+            Column col = stats.columns.get(schema.columns.get(c));
+            col.distinct = Math.min(sketches[c].estimate(), rows - nulls[c]);
+            col.nullFraction = rows == 0 ? 0 : (double) nulls[c] / rows;
+            if (!col.type.equals("string") && min[c] <= max[c]) {
+                col.min = min[c];
+                col.max = max[c];
+                if (!col.type.equals("double")) {
+                    // the sketch may overshoot a small integer range
+                    col.distinct = Math.min(col.distinct, (long) (max[c] - min[c]) + 1);
+                }
+            }
+            stats.deriveFromSample(col, c);
+        }
+        stats.exactRanges = true;
+        return stats;
+    }
+
+    private void deriveFromSample(Column col, int c) {
+        Map<String, Integer> counts = new HashMap<>();
+        List<Double> values = new ArrayList<>();
+        for (Object[] row : sample) {
+            if (row[c] == null) continue;
+            counts.merge(text(row[c]), 1, Integer::sum);
+            if (!(row[c] instanceof String)) values.add(numeric(row[c]));
+        }
+        // A value is "common" when it appears clearly more often than the average value
+        double average = sample.isEmpty() ? 0 : (double) sample.size() / Math.max(1, col.distinct);
+        List<Map.Entry<String, Integer>> common = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            if (e.getValue() > 1 && e.getValue() >= 1.25 * average) common.add(e);
+        }
+        if (col.distinct <= MOST_COMMON) {
+            common = new ArrayList<>(counts.entrySet());
+        }
+        common.sort((a, b) -> b.getValue() - a.getValue());
+        int k = Math.min(MOST_COMMON, common.size());
+        col.mostCommon = new String[k];
+        col.mostCommonFrequencies = new double[k];
+        for (int i = 0; i < k; i++) {
+            col.mostCommon[i] = common.get(i).getKey();
+            col.mostCommonFrequencies[i] = (double) common.get(i).getValue() / sample.size();
+        }
+
+        if (!values.isEmpty()) {
+            Collections.sort(values);
+            col.histogram = new double[HISTOGRAM_BUCKETS + 1];
+            for (int b = 0; b <= HISTOGRAM_BUCKETS; b++) {
+                col.histogram[b] = values.get((int) Math.min(values.size() - 1, (long) b * values.size() / HISTOGRAM_BUCKETS));
+            }
+        }
+    }
+
+    /**
+     * Statistics from PostgreSQL's pg_class and pg_stats, or null if the database is
+     * not PostgreSQL or the table has not been analyzed.
+     */
+    static TableStatistics fromPgStats(Connection conn, TableSchema schema) {
+        try {
+            TableStatistics stats = new TableStatistics(schema, conn.getMetaData().getURL());
+            try (PreparedStatement ps = conn.prepareStatement("SELECT reltuples FROM pg_class WHERE relname = ?")) {
+                ps.setString(1, schema.table.toLowerCase());
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next() || rs.getDouble(1) < 0) return null;
+                    stats.rowCount = (long) rs.getDouble(1);
+                }
+            }
+            int found = 0;
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT attname, null_frac, n_distinct, most_common_vals::text, most_common_freqs::text, "
+                    + "histogram_bounds::text FROM pg_stats WHERE tablename = ?")) {
+                ps.setString(1, schema.table.toLowerCase());
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        Column col = stats.column(rs.getString(1));
+                        if (col == null) continue;
+                        found++;
+                        col.nullFraction = rs.getDouble(2);
+                        double nDistinct = rs.getDouble(3);
+                        // negative n_distinct is minus the fraction of rows
+                        col.distinct = nDistinct >= 0 ? (long) nDistinct : (long) (-nDistinct * stats.rowCount);
+                        String[] mcv = pgArray(rs.getString(4));
+                        String[] freqs = pgArray(rs.getString(5));
+                        if (mcv.length == freqs.length) {
+                            col.mostCommon = mcv;
+                            col.mostCommonFrequencies = Arrays.stream(freqs).mapToDouble(Double::parseDouble).toArray();
+                        }
+                        String[] bounds = pgArray(rs.getString(6));
+                        if (bounds.length > 1 && !col.type.equals("string")) {
+                            col.histogram = Arrays.stream(bounds).mapToDouble(TableStatistics::parseNumeric).toArray();
+                        }
+                        double[] range = valueRange(col);
+                        col.min = range[0];
+                        col.max = range[1];
+                    }
+                }
+            }
+            return found == 0 ? null : stats;
+        } catch (SQLException e) {
+            // not PostgreSQL (no pg_class/pg_stats): fall back to sampling
+            return null;
+        }
+    }
+
+    // min/max of the histogram and most common values of a numeric column
+    private static double[] valueRange(Column col) {
+        if (col.type.equals("string")) return new double[] {Double.NaN, Double.NaN};
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        if (col.histogram != null) {
+            min = col.histogram[0];
+            max = col.histogram[col.histogram.length - 1];
+        }
+        for (String v : col.mostCommon) {
+            double x = parseNumeric(v);
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+        }
+        return min <= max ? new double[] {min, max} : new double[] {Double.NaN, Double.NaN};
+    }
+
+    /** Split the text form of a PostgreSQL array: {a,"b c",d}. */
+    static String[] pgArray(String text) {
+        if (text == null || text.length() < 2) return new String[0];
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 1; i < text.length() - 1; i++) {
+            char ch = text.charAt(i);
+            if (quoted) {
+                if (ch == '\\' && i + 1 < text.length() - 1) {
+                    cur.append(text.charAt(++i));
+                } else if (ch == '"') {
+                    quoted = false;
+                } else {
+                    cur.append(ch);
+                }
+            } else if (ch == '"') {
+                quoted = true;
+            } else if (ch == ',') {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(ch);
+            }
+        }
+        out.add(cur.toString());
+        return out.toArray(new String[0]);
+    }
+
+    // Numbers as is, dates (YYYY-MM-DD) as epoch days
+    private static double parseNumeric(String s) {
+        return isNumber(s) ? Double.parseDouble(s) : LocalDate.parse(s).toEpochDay();
+    }
+
+    private static boolean isNumber(String s) {
+        return s.matches("-?\\d+(\\.\\d+)?");
+    }
+
+    static double numeric(Object v) {
+        if (v instanceof java.sql.Date d) return d.toLocalDate().toEpochDay();
+        return ((Number) v).doubleValue();
+    }
+
+    static String text(Object v) {
+        if (v instanceof Double d && d == Math.rint(d)) return String.valueOf(d.longValue());
+        return String.valueOf(v);
+    }
+
+    /**
+     * Estimated number of distinct combinations of attrs among the rows satisfying
+     * where, from the sample: the sampled rows passing where are grouped, and the
+     * count is scaled up with the GEE estimator (Charikar et al.),
+     *
+     *   D = sqrt(N / n) * f1 + (number of combinations seen more than once)
+     *
+     * where n rows of the sample pass, N rows of the table are expected to pass
+     * and f1 combinations were seen exactly once. The result is exact when the
+     * sample is the whole table, and is capped by the product of the attributes'
+     * distinct counts and by N. Returns -1 when there is no sample (pg_stats).
+     */
+    public long estimateGroups(List<String> attrs, ConditionExpression where) {
+        if (sample.isEmpty()) return -1;
+        int[] cols = new int[attrs.size()];
+        double product = 1;
+        for (int k = 0; k < cols.length; k++) {
+            cols[k] = schema.columns.indexOf(attrs.get(k).toLowerCase());
+            if (cols[k] < 0) return -1;
+            product *= Math.max(1, column(attrs.get(k)).distinct);
+        }
+        Expr predicate = Expr.of(where);
+        Map<List<Object>, Integer> counts = new HashMap<>();
+        int passing = 0;
+        for (Object[] row : sample) {
+            if (predicate != null && !matches(row, predicate)) continue;
+            passing++;
+            List<Object> key = new ArrayList<>(cols.length);
+            for (int c : cols) key.add(row[c]);
+            counts.merge(key, 1, Integer::sum);
+        }
+        if (passing == 0) return 1;
+        long once = counts.values().stream().filter(v -> v == 1).count();
+        double total = (double) rowCount * passing / sample.size();
+        double estimate = Math.sqrt(total / passing) * once + (counts.size() - once);
+        return Math.max(1, (long) Math.min(Math.min(estimate, product), Math.max(1, total)));
+    }
+
+    /**
+     * Whether a sampled row satisfies the constant comparisons of σ0 (its Expr.of
+     * tree, AND before OR). Conditions the sample cannot decide (column against
+     * column or expression) count as true, so the estimate errs towards more groups.
+     */
+    boolean matches(Object[] row, Expr e) {
+        if (e instanceof Expr.Binary b && b.isLogical()) {
+            return b.op.equals("or")
+                ? matches(row, b.left) || matches(row, b.right)
+                : matches(row, b.left) && matches(row, b.right);
+        }
+        if (e instanceof Expr.Not not) {
+            Boolean m = compare(row, not.operand);
+            return m == null || !m;
+        }
+        Boolean m = compare(row, e);
+        return m == null || m;
+    }
+
+    // A column against a constant on a sampled row, null when it cannot be decided
+    private Boolean compare(Object[] row, Expr e) {
+        if (!(e instanceof Expr.Binary b) || !b.isComparison() || !(b.left instanceof Expr.Column left)) return null;
+        int col = schema.columns.indexOf(left.name.toLowerCase());
+        String constant = constant(b.right);
+        if (col < 0 || constant == null) return null;
+        Object v = row[col];
+        if (v == null) return false;
+        int cmp;
+        if (v instanceof String str) {
+            cmp = str.compareTo(constant);
+        } else {
+            try {
+                cmp = Double.compare(numeric(v), parseNumeric(constant));
+            } catch (RuntimeException ex) {
+                // neither a number nor a date
+                return null;
+            }
+        }
+        switch (b.op) {
+            case "=":  return cmp == 0;
+            case "<>": return cmp != 0;
+            case "<":  return cmp < 0;
+            case "<=": return cmp <= 0;
+            case ">":  return cmp > 0;
+            default:   return cmp >= 0;
+        }
+    }
+
+    // The text of a string or number literal (-n parses as 0 - n), null for anything else
+    private static String constant(Expr e) {
+        if (e instanceof Expr.Literal l) {
+            return l.value instanceof String || l.value instanceof Number ? String.valueOf(l.value) : null;
+        }
+        if (e instanceof Expr.Binary b && b.op.equals("-") && b.left instanceof Expr.Literal zero
+                && Integer.valueOf(0).equals(zero.value) && b.right instanceof Expr.Literal l && l.value instanceof Number) {
+            return "-" + l.value;
+        }
+        return null;
+    }
+
+    /**
+     * Estimated fraction of rows satisfying the constant comparisons of a σ:
+     * σ0 when gv is null, otherwise the conditions on gv's columns. Comparisons
+     * against grouping attributes or aggregates are per entry and count as 1.
+     * The Expr.of tree is combined as independent events, AND before OR.
+     */
+    public double selectivity(ConditionExpression sigma, String gv) {
+        Expr predicate = Expr.of(sigma);
+        return predicate == null ? 1 : selectivity(predicate, gv);
+    }
+
+    private double selectivity(Expr e, String gv) {
+        if (e instanceof Expr.Binary b && b.isLogical()) {
+            double l = selectivity(b.left, gv), r = selectivity(b.right, gv);
+            return b.op.equals("or") ? l + r - l * r : l * r;
+        }
+        if (e instanceof Expr.Not not) {
+            Double s = comparisonSelectivity(not.operand, gv);
+            return s == null ? 1 : 1 - s;
+        }
+        Double s = comparisonSelectivity(e, gv);
+        return s == null ? 1 : s;
+    }
+
+    // Selectivity of a column of gv (any column for σ0) against a constant, null when unknown
+    private Double comparisonSelectivity(Expr e, String gv) {
+        if (!(e instanceof Expr.Binary b) || !b.isComparison() || !(b.left instanceof Expr.Column left)) return null;
+        if (gv != null && !gv.equals(left.var)) return null;
+        Column col = column(left.name);
+        String value = constant(b.right);
+        if (col == null || value == null) return null;
+
+        double s;
+        switch (b.op) {
+            case "=":
+                s = col.equalSelectivity(value);
+                break;
+            case "<>":
+                s = 1 - col.nullFraction - col.equalSelectivity(value);
+                break;
+            default:
+                if (!isNumber(value)) return null;
+                double v = Double.parseDouble(value);
+                switch (b.op) {
+                    case "<":  s = col.rangeSelectivity(Double.NEGATIVE_INFINITY, v - 1); break;
+                    case "<=": s = col.rangeSelectivity(Double.NEGATIVE_INFINITY, v); break;
+                    case ">":  s = col.rangeSelectivity(v + 1, Double.POSITIVE_INFINITY); break;
+                    case ">=": s = col.rangeSelectivity(v, Double.POSITIVE_INFINITY); break;
+                    default:   s = DEFAULT_RANGE_SELECTIVITY;
+                }
+        }
+        return Math.max(0, Math.min(1, s));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(table + ": " + rowCount + " rows");
+        for (Column col : columns.values()) {
+            sb.append("\n  ").append(col);
+        }
+        return sb.toString();
+    }
+}
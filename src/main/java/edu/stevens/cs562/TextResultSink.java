@@ -0,0 +1,226 @@
+package edu.stevens.cs562;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * ResultSink for the console table ("a | b" rows under a header and a dashed
+ * line, as System.out.println of the joined items printed it) and for CSV.
+ *
+ * Values are encoded straight into one reused byte buffer that is written to the
+ * stream when full and on flush(): ints and longs digit by digit, doubles through
+ * a reused StringBuilder (the same digits as Double.toString, whole numbers below
+ * 10^7 without it), ASCII strings char by char. Only estimates, dates and
+ * non-ASCII strings go through a String.
+ *
+ * CSV quotes the fields that hold a comma, a quote or a line break (RFC 4180),
+ * writes null as an empty field and an estimate as two fields, the value and the
+ * error ("col" and "col error" in the header row; empty when no bound is known).
+ */
+public class TextResultSink implements ResultSink {
+
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final boolean csv;
+    private final byte[] buf = new byte[1 << 16];
+    private int pos = 0;
+    // Items written to the current row
+    private int items = 0;
+    private final byte[] digits = new byte[20];
+    private final StringBuilder scratch = new StringBuilder(32);
+
+    public TextResultSink(OutputStream out, boolean csv) {
+        this.out = out;
+        this.csv = csv;
+    }
+
+    @Override
+    public void begin(List<String> columns, List<String> types) {
+        if (csv) {
+            for (int c = 0; c < columns.size(); c++) {
+                putString(columns.get(c));
+                if (types.get(c).equals("estimate")) putString(columns.get(c) + " error");
+            }
+            endRow();
+        } else {
+            write(NEWLINE);
+            ascii(String.join(" | ", columns));
+            write(NEWLINE);
+            for (int i = 0; i < 60; i++) put('-');
+            write(NEWLINE);
+        }
+        // keep the header ahead of anything else printed before the rows
+        flush();
+    }
+
+    @Override
+    public void note(String line) {
+        if (csv) return;
+        ascii(line);
+        write(NEWLINE);
+    }
+
+    @Override
+    public void putInt(int v) {
+        separator();
+        digits(v);
+    }
+
+    @Override
+    public void putLong(long v) {
+        separator();
+        digits(v);
+    }
+
+    @Override
+    public void putDouble(double v) {
+        separator();
+        number(v);
+    }
+
+    @Override
+    public void putString(String v) {
+        separator();
+        if (v == null) {
+            if (!csv) ascii("null");
+        } else if (csv && needsQuotes(v)) {
+            put('"');
+            text(v.replace("\"", "\"\""));
+            put('"');
+        } else {
+            text(v);
+        }
+    }
+
+    @Override
+    public void putDate(java.sql.Date v) {
+        separator();
+        if (v != null || !csv) ascii(String.valueOf(v));
+    }
+
+    @Override
+    public void putEstimate(Estimate v) {
+        separator();
+        if (!csv) {
+            text(v.toString());
+            return;
+        }
+        number(v.value);
+        separator();
+        if (!Double.isNaN(v.error)) number(v.error);
+    }
+
+    @Override
+    public void endRow() {
+        write(NEWLINE);
+        items = 0;
+    }
+
+    @Override
+    public void flush() {
+        try {
+            out.write(buf, 0, pos);
+            pos = 0;
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        if (out != System.out) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void separator() {
+        if (items++ > 0) {
+            if (csv) {
+                put(',');
+            } else {
+                put(' ');
+                put('|');
+                put(' ');
+            }
+        }
+    }
+
+    private void digits(long v) {
+        if (v == Long.MIN_VALUE) {
+            write(MIN_LONG);
+            return;
+        }
+        if (v < 0) {
+            put('-');
+            v = -v;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        while (n > 0) put(digits[--n]);
+    }
+
+    // The digits of Double.toString(v)
+    private void number(double v) {
+        if (v == (long) v && Math.abs(v) < 1e7 && Double.doubleToRawLongBits(v) != Long.MIN_VALUE) {
+            digits((long) v);
+            put('.');
+            put('0');
+            return;
+        }
+        scratch.setLength(0);
+        scratch.append(v);
+        for (int i = 0; i < scratch.length(); i++) put(scratch.charAt(i));
+    }
+
+    private static boolean needsQuotes(String v) {
+        for (int i = 0; i < v.length(); i++) {
+            char ch = v.charAt(i);
+            if (ch == ',' || ch == '"' || ch == '\n' || ch == '\r') return true;
+        }
+        return false;
+    }
+
+    private void text(String v) {
+        for (int i = 0; i < v.length(); i++) {
+            if (v.charAt(i) >= 0x80) {
+                write(v.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        ascii(v);
+    }
+
+    private void ascii(String v) {
+        for (int i = 0; i < v.length(); i++) put(v.charAt(i));
+    }
+
+    private void write(byte[] bytes) {
+        for (byte b : bytes) put(b);
+    }
+
+    private void put(int b) {
+        if (pos == buf.length) {
+            try {
+                out.write(buf, 0, pos);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pos = 0;
+        }
+        buf[pos++] = (byte) b;
+    }
+}
@@ -39,12 +39,13 @@ FROM (SELECT DISTINCT cust, month FROM sales) AS s1
 GROUP BY s1.cust, s1.month;
 
 
+-- an average over no months is 0, as the EMF query prints it
 SELECT
     Z.cust,
     Z.month,
-    X.avg_quant AS avg_before,
+    COALESCE(X.avg_quant, 0) AS avg_before,
     Z.avg_quant AS avg_current,
-    Y.avg_quant AS avg_after
+    COALESCE(Y.avg_quant, 0) AS avg_after
 FROM Z_view AS Z
          LEFT JOIN X_view AS X
                    ON Z.cust = X.cust AND Z.month = X.month
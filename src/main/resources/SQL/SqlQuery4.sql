@@ -17,14 +17,17 @@ GROUP BY prod, month;
 
 -- Z: count of tuples where quant > avg(previous month)
 --                            and quant < avg(next month)
+-- Every (prod, month) of 2016 is a group, with count 0 when no tuple qualifies
+-- (as in the EMF query, where a missing neighbouring month makes the condition false)
 SELECT
-    s.prod,
-    s.month,
-    COUNT(*) AS count_z
-FROM sales s
-         JOIN X_view X ON s.prod = X.prod AND s.month = X.month
-         JOIN Y_view Y ON s.prod = Y.prod AND s.month = Y.month
-WHERE s.year = 2016
-  AND s.quant > X.avg_quant
-  AND s.quant < Y.avg_quant
-GROUP BY s.prod, s.month;
\ No newline at end of file
+    g.prod,
+    g.month,
+    COUNT(s.prod) AS count_z
+FROM (SELECT DISTINCT prod, month FROM sales WHERE year = 2016) AS g
+         LEFT JOIN X_view X ON g.prod = X.prod AND g.month = X.month
+         LEFT JOIN Y_view Y ON g.prod = Y.prod AND g.month = Y.month
+         LEFT JOIN sales s ON s.prod = g.prod AND s.month = g.month
+                          AND s.year = 2016
+                          AND s.quant > X.avg_quant
+                          AND s.quant < Y.avg_quant
+GROUP BY g.prod, g.month;
\ No newline at end of file
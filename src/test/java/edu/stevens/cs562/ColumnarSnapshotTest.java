@@ -0,0 +1,184 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.List;
+
+/**
+ * Round-trip tests for the columnar snapshot format.
+ */
+public class ColumnarSnapshotTest {
+
+    private static final TableSchema SCHEMA = new TableSchema("sales",
+        List.of("cust", "quant", "date", "price"),
+        List.of("string", "int", "date", "double"));
+
+    private static final Object[][] ROWS = {
+        {"Sam", 10, Date.valueOf("2020-01-05"), 1.5},
+        {"Bloom", 20, null, 2.5},
+        {"Helen", 30, Date.valueOf("2020-03-01"), 3.5},
+        {null, 40, Date.valueOf("2019-12-31"), 4.5},
+        {"Bloom", 50, Date.valueOf("2020-02-01"), 5.5},
+    };
+
+    @TempDir
+    Path dir;
+
+    private ColumnarSnapshot write(int blockRows) throws Exception {
+        Path file = dir.resolve("sales" + ColumnarSnapshot.FILE_EXTENSION);
+        try (ColumnarSnapshotWriter writer = new ColumnarSnapshotWriter(file, SCHEMA, blockRows)) {
+            writer.appendAll(new ArrayRowSource());
+        }
+        return ColumnarSnapshot.open(file);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        try (ColumnarSnapshot snapshot = write(2)) {
+            assertEquals(5, snapshot.rowCount());
+            assertEquals(3, snapshot.blockCount());
+            assertEquals(SCHEMA.columnTypes(), snapshot.schema().columnTypes());
+
+            RowSource rs = snapshot.scan();
+            int cust = rs.columnIndex("cust"), quant = rs.columnIndex("quant");
+            int date = rs.columnIndex("date"), price = rs.columnIndex("price");
+            for (Object[] row : ROWS) {
+                assertTrue(rs.next());
+                assertEquals(row[0], rs.getString(cust));
+                assertEquals(row[1], rs.getInt(quant));
+                assertEquals(row[2], rs.getDate(date));
+                assertEquals((double) row[3], rs.getDouble(price));
+            }
+            assertFalse(rs.next());
+        }
+    }
+
+    @Test
+    public void testTypedAppend() throws Exception {
+        Path file = dir.resolve("typed" + ColumnarSnapshot.FILE_EXTENSION);
+        try (ColumnarSnapshotWriter writer = new ColumnarSnapshotWriter(file, SCHEMA, 2)) {
+            for (Object[] row : ROWS) {
+                writer.putString((String) row[0]);
+                writer.putInt((Integer) row[1]);
+                writer.putDate((Date) row[2]);
+                writer.putDouble((Double) row[3]);
+                writer.endRow();
+            }
+            // columns come in schema order, all of them
+            assertThrows(IllegalArgumentException.class, () -> writer.putInt(1));
+            writer.putString("Sam");
+            assertThrows(IllegalStateException.class, writer::endRow);
+        }
+        try (ColumnarSnapshot typed = ColumnarSnapshot.open(file); ColumnarSnapshot appended = write(2)) {
+            assertEquals(appended.rowCount(), typed.rowCount());
+            assertArrayEquals(appended.dictionary(0), typed.dictionary(0));
+            RowSource a = appended.scan(), t = typed.scan();
+            while (a.next()) {
+                assertTrue(t.next());
+                assertEquals(a.getString(0), t.getString(0));
+                assertEquals(a.getInt(1), t.getInt(1));
+                assertEquals(a.getDate(2), t.getDate(2));
+                assertEquals(a.getDouble(3), t.getDouble(3));
+            }
+            assertFalse(t.next());
+        }
+    }
+
+    @Test
+    public void testSortedDictionaryAndZoneMaps() throws Exception {
+        try (ColumnarSnapshot snapshot = write(2)) {
+            assertArrayEquals(new String[] {null, "Bloom", "Helen", "Sam"}, snapshot.dictionary(0));
+
+            // Block 0 holds Sam, Bloom; block 1 Helen, null
+            assertEquals(1, snapshot.min(0, 0));
+            assertEquals(3, snapshot.max(0, 0));
+            assertEquals(0, snapshot.min(1, 0));
+            assertEquals(30, snapshot.min(1, 1));
+            assertEquals(40, snapshot.max(1, 1));
+            // Null dates are left out of the zone map
+            assertEquals(Date.valueOf("2020-01-05").toLocalDate().toEpochDay(), snapshot.min(0, 2));
+            assertEquals(5.5, Double.longBitsToDouble(snapshot.max(2, 3)));
+
+            RowSource rs = snapshot.scan();
+            assertEquals(2, rs.codeOf(0, "Helen"));
+            assertTrue(rs.codeOf(0, "Nobody") < 0);
+        }
+    }
+
+    @Test
+    public void testBlockFilterSkipsBlocks() throws Exception {
+        try (ColumnarSnapshot snapshot = write(2)) {
+            // quant 30..40 only occurs in block 1
+            ColumnarSnapshot.Scan scan = snapshot.scan();
+            scan.filterBlocks(new BlockFilter().range("quant", 30, 40));
+            int rows = 0;
+            while (scan.next()) rows++;
+            assertEquals(2, rows);
+            assertEquals(2, scan.skippedBlocks());
+
+            // Bloom occurs in blocks 0 and 2; the filter is a hint, so all of block 0 comes back
+            scan = snapshot.scan();
+            scan.filterBlocks(new BlockFilter().equalTo("cust", "Bloom").range("quant", 0, 25));
+            rows = 0;
+            while (scan.next()) rows++;
+            assertEquals(2, rows);
+
+            scan = snapshot.scan();
+            scan.filterBlocks(new BlockFilter().equalTo("cust", "Nobody"));
+            assertFalse(scan.next());
+            assertEquals(3, scan.skippedBlocks());
+        }
+    }
+
+    /** Row source over ROWS, in SCHEMA column order. */
+    private static class ArrayRowSource implements RowSource {
+        private int row = -1;
+
+        public int columnIndex(String column) {
+            return SCHEMA.columns.indexOf(column);
+        }
+
+        public String columnType(int col) {
+            return SCHEMA.types.get(col);
+        }
+
+        public boolean next() {
+            return ++row < ROWS.length;
+        }
+
+        public int getInt(int col) {
+            return (Integer) ROWS[row][col];
+        }
+
+        public double getDouble(int col) {
+            return (Double) ROWS[row][col];
+        }
+
+        public String getString(int col) {
+            return (String) ROWS[row][col];
+        }
+
+        public Date getDate(int col) {
+            return (Date) ROWS[row][col];
+        }
+
+        public int getCode(int col) {
+            throw new UnsupportedOperationException();
+        }
+
+        public int codeOf(int col, String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        public String decode(int col, int code) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.stevens.cs562.QueryFixtures.*;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ConnectionPool borrowing and reuse, StatementCache reuse and eviction, and
+ * pooled queries that run the statements of earlier ones.
+ */
+public class ConnectionPoolTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testPoolReusesAndBoundsConnections() throws Exception {
+        String url = "jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1";
+        int[] opened = {0};
+        try (ConnectionPool pool = new ConnectionPool(() -> {
+            opened[0]++;
+            return DriverManager.getConnection(url, "sa", "");
+        }, 2)) {
+            Connection a = pool.borrow(), b = pool.borrow();
+            assertNotSame(a, b);
+            assertEquals(2, opened[0]);
+
+            // the third borrower waits until a connection comes back, and gets that one
+            CompletableFuture<Connection> third = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return pool.borrow();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertThrows(TimeoutException.class, () -> third.get(200, TimeUnit.MILLISECONDS));
+            pool.release(a);
+            assertSame(a, third.get(10, TimeUnit.SECONDS));
+            assertEquals(2, opened[0]);
+
+            // a connection left in a transaction is rolled back, a closed one is dropped
+            b.setAutoCommit(false);
+            pool.release(b);
+            assertEquals(1, pool.idleCount());
+            Connection again = pool.borrow();
+            assertSame(b, again);
+            assertTrue(again.getAutoCommit());
+            again.close();
+            pool.release(again);
+            assertEquals(0, pool.idleCount());
+            pool.release(third.get());
+            assertEquals(1, pool.idleCount());
+        }
+        assertThrows(IllegalArgumentException.class, () -> new ConnectionPool(() -> null, 0));
+    }
+
+    @Test
+    public void testStatementCacheReusesAndEvicts() throws Exception {
+        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:statements", "sa", "");
+             StatementCache cache = new StatementCache(conn)) {
+            PreparedStatement first = cache.acquire("SELECT 1");
+            // out for a scan: a second scan of the same SQL prepares its own
+            PreparedStatement second = cache.acquire("SELECT 1");
+            assertNotSame(first, second);
+            cache.release("SELECT 1", first);
+            assertSame(first, cache.acquire("SELECT 1"));
+            assertEquals(2, cache.prepared());
+            assertEquals(1, cache.reused());
+            cache.release("SELECT 1", first);
+            // a second idle statement for the same SQL replaces the first
+            cache.release("SELECT 1", second);
+            assertTrue(first.isClosed());
+
+            // beyond CAPACITY idle statements the least recently used is closed
+            PreparedStatement last = null;
+            for (int i = 2; i <= StatementCache.CAPACITY + 1; i++) {
+                last = cache.acquire("SELECT " + i);
+                cache.release("SELECT " + i, last);
+            }
+            assertTrue(second.isClosed());
+            assertFalse(last.isClosed());
+        }
+    }
+
+    @Test
+    public void testPooledQueriesReusePreparedStatements() throws Exception {
+        SalesGenerator data = sales(5_000, 9, 1.0, 7);
+        Path csv = dir.resolve("sales.csv");
+        data.writeText(csv, true, 2);
+        writeSnapshot(dir, data);
+
+        PreparedQuery query = new QueryEngine(SalesGenerator.SCHEMA.columnTypes()).prepare("""
+            select cust, sum(x.quant), avg(y.quant)
+            from sales
+            group by cust ; x, y
+            such that x.cust = cust and x.state = 'NY', y.cust = cust
+            """);
+        List<String> expected;
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            expected = query.stream(provider).map(java.util.Arrays::toString).sorted().toList();
+        }
+
+        String url = "jdbc:h2:mem:pooled;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=DAY,MONTH,YEAR,DATE";
+        try (ConnectionPool pool = new ConnectionPool(() -> DriverManager.getConnection(url, "sa", ""), 1)) {
+            Connection conn = pool.borrow();
+            loadSales(conn, csv);
+            pool.release(conn);
+
+            assertEquals(expected, query.stream(pool).map(java.util.Arrays::toString).sorted().toList());
+            conn = pool.borrow();
+            StatementCache statements = pool.statements(conn);
+            pool.release(conn);
+            long prepared = statements.prepared();
+            assertTrue(prepared > 0);
+
+            // the second run scans with the statements the first one prepared
+            assertEquals(expected, query.stream(pool).map(java.util.Arrays::toString).sorted().toList());
+            assertEquals(prepared, statements.prepared());
+            assertTrue(statements.reused() >= 3);
+
+            // pushed-down constants are parameters, so another state runs the same statements
+            PreparedQuery other = new QueryEngine(SalesGenerator.SCHEMA.columnTypes()).prepare("""
+                select cust, sum(x.quant), avg(y.quant)
+                from sales
+                group by cust ; x, y
+                such that x.cust = cust and x.state = 'NJ', y.cust = cust
+                """);
+            try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+                expected = other.stream(provider).map(java.util.Arrays::toString).sorted().toList();
+            }
+            assertEquals(expected, other.stream(pool).map(java.util.Arrays::toString).sorted().toList());
+            assertEquals(prepared, statements.prepared());
+        }
+    }
+}
@@ -238,6 +238,33 @@ public class EMFParserTest {
         assertEquals(List.of("cust", "prod"), result.groupingAttributes);
     }
 
+    // ==================== ORDER BY and LIMIT ====================
+
+    @Test
+    public void testOrderByAndLimit() {
+        String query = """
+            SELECT cust, sum(x.quant)
+            FROM sales
+            GROUP BY cust; x
+            SUCH THAT x.state = 'NY'
+            HAVING sum(x.quant) > 10
+            ORDER BY avg(x.quant) DESC, cust
+            LIMIT 5
+            """;
+
+        EMFQuery result = parser.parse(query);
+
+        assertEquals(2, result.orderBy.size());
+        assertEquals("avg(x.quant)", result.orderBy.get(0).expression);
+        assertTrue(result.orderBy.get(0).descending);
+        assertEquals("cust", result.orderBy.get(1).expression);
+        assertFalse(result.orderBy.get(1).descending);
+        assertEquals(5, result.limit);
+        // HAVING ends before ORDER BY, and the ORDER BY aggregate is computed
+        assertEquals("10", result.havingConditions.conditions.get(0).right);
+        assertTrue(result.fVectors.stream().anyMatch(f -> f.getFunctionName().equals("avg")));
+    }
+
     // ==================== Error Cases ====================
 
     @Test
@@ -0,0 +1,103 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.stevens.cs562.QueryFixtures.*;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Error bounds of Estimate and their propagation, and the estimates a sampled
+ * query prints.
+ */
+public class EstimateTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testBounds() {
+        // all rows read: no error left
+        assertEquals(0, Estimate.countError(100, 1, 1.96));
+        assertEquals(0, Estimate.meanError(10, 30, 5, 1, 1.96));
+        // a 10% sample of 100 matching rows: sqrt(100 * 0.9) / 0.1 standard deviations
+        assertEquals(1.96 * Math.sqrt(90) / 0.1, Estimate.countError(100, 0.1, 1.96), 1e-9);
+        assertEquals(1.96 * Math.sqrt(0.9 * 250) / 0.1, Estimate.sumError(250, 0.1, 1.96), 1e-9);
+        // values 1, 2, 3: s = 1, bound z s / sqrt(3) scaled by the finite population correction
+        assertEquals(1.96 / Math.sqrt(3) * Math.sqrt(0.5), Estimate.meanError(6, 14, 3, 0.5, 1.96), 1e-9);
+        assertTrue(Double.isNaN(Estimate.meanError(4, 16, 1, 0.5, 1.96)));
+
+        assertEquals(Estimate.exact(7).error, Estimate.partial(7, 1).error);
+        assertTrue(Double.isNaN(Estimate.partial(7, 0.5).error));
+    }
+
+    @Test
+    public void testArithmeticPropagatesErrors() {
+        Estimate a = new Estimate(100, 3), b = new Estimate(50, 4);
+        assertEquals(150, a.plus(b).value);
+        assertEquals(5, a.plus(b).error, 1e-9);
+        assertEquals(50, a.minus(b).value);
+        assertEquals(5, a.minus(b).error, 1e-9);
+        // relative errors 3% and 8% add in quadrature
+        Estimate product = a.times(b);
+        assertEquals(5000, product.value);
+        assertEquals(5000 * Math.hypot(0.03, 0.08), product.error, 1e-9);
+        Estimate quotient = a.div(b);
+        assertEquals(2, quotient.value);
+        assertEquals(2 * Math.hypot(0.03, 0.08), quotient.error, 1e-9);
+        // a constant adds no error, an unbounded operand makes the result unbounded
+        assertEquals(3, a.times(Estimate.exact(1)).error, 1e-9);
+        assertTrue(Double.isNaN(a.plus(Estimate.unbounded(1)).error));
+    }
+
+    @Test
+    public void testPrintedForm() {
+        assertEquals("150", Estimate.exact(150).toString());
+        assertEquals("150 +/- 5", new Estimate(150, 5).toString());
+        assertEquals(String.format("%.2f +/- %.2f", 2.5, 0.25), new Estimate(2.5, 0.25).toString());
+        assertEquals("3 +/- ?", Estimate.unbounded(3).toString());
+    }
+
+    @Test
+    public void testSampledAggregatesWithinErrorBounds() throws Exception {
+        writeSnapshot(dir, sales(50_000, 9, 0, 23));
+
+        Map<String, double[]> exact = new TreeMap<>();
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            RowSource rs = provider.open("sales");
+            int cust = rs.columnIndex("cust"), quant = rs.columnIndex("quant");
+            while (rs.next()) {
+                double[] e = exact.computeIfAbsent(rs.getString(cust), c -> new double[2]);
+                e[0]++;
+                e[1] += rs.getInt(quant);
+            }
+        }
+
+        String query = """
+            select cust, count(x.quant), sum(x.quant), avg(x.quant)
+            from sales
+            group by cust ; x
+            such that x.cust = cust
+            """;
+        QueryCompiler.CompiledQuery compiled = runOnSnapshot(dir, query,
+            generator -> generator.setSampling(0.1, false, false));
+        int groups = 0;
+        for (String line : captureOutput(compiled).split("\n")) {
+            String[] parts = line.split(" \\| ");
+            if (parts.length != 4 || !exact.containsKey(parts[0])) continue;
+            double[] e = exact.get(parts[0]);
+            double[] expected = {e[0], e[1], e[1] / e[0]};
+            for (int k = 0; k < 3; k++) {
+                String[] estimate = parts[k + 1].split(" \\+/- ");
+                double value = Double.parseDouble(estimate[0]), error = Double.parseDouble(estimate[1]);
+                // a 95% bound; twice the bound leaves no room for a fixed seed to fail
+                assertTrue(error > 0 && Math.abs(value - expected[k]) <= 2 * error, line);
+            }
+            groups++;
+        }
+        assertEquals(exact.size(), groups);
+    }
+}
@@ -0,0 +1,85 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Set;
+
+/**
+ * Expression trees: parsing, folding and the typed code of σ, HAVING and SELECT.
+ */
+public class ExprCompilerTest {
+
+    @Test
+    public void testParseAndFold() {
+        assertEquals("((6 + month) - 1)", ExprCompiler.fold(Expr.parse("2 * 3 + month - 1")).toString());
+        assertEquals("(sum(x.quant) / count(y.*))", Expr.parse("sum(x.quant)/count(y.*)").toString());
+        // integer division truncates like SQL, a double operand divides exactly
+        assertEquals("2", ExprCompiler.fold(Expr.parse("5 / 2")).toString());
+        assertEquals("2.5", ExprCompiler.fold(Expr.parse("5.0 / 2")).toString());
+
+        // AND binds tighter than OR
+        ConditionExpression sigma = PhiConverter.convert(new EMFParser().parse(
+            "select cust, sum(x.quant) from sales group by cust ; x "
+            + "such that x.cust = cust or x.state = 'NY' and x.quant > 10")).predicates.get(1);
+        assertEquals("((x.cust = cust) or ((x.state = 'NY') and (x.quant > 10)))", Expr.of(sigma).toString());
+    }
+
+    @Test
+    public void testTypedCode() throws Exception {
+        String query = """
+            select cust, count(x.prod), count(y.prod), sum(x.quant) / count(y.prod)
+            from sales
+            group by cust ; x, y
+            such that x.cust = cust and x.state = 'NY' and x.quant > 2 * 5,
+            y.cust < cust
+            having count(y.prod) = count(x.prod) / 2
+            """;
+        PhiOperator phi = PhiConverter.convert(new EMFParser().parse(query));
+        QueryGenerator generator = new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes());
+        ExprCompiler expressions = new ExprCompiler(phi, generator);
+
+        ExprCompiler.RowScope row = new ExprCompiler.RowScope("r1", true);
+        String[] x = expressions.match(phi.predicates.get(1), "x", row);
+        assertEquals("(c_state == r1_k0) && (v_quant > 10)", x[0]);
+        assertEquals("v_cust.equals(mf_struct[j].cust)", x[1]);
+        assertTrue(row.constants("").contains("r1.codeOf(r1_state, \"NY\")"));
+        // string ordering compares strings, it does not parse them
+        assertEquals("v_cust.compareTo(mf_struct[j].cust) < 0", expressions.match(phi.predicates.get(2), "y", row)[1]);
+
+        assertEquals("mf_struct[i].count_2_prod == (mf_struct[i].count_1_prod / 2)",
+            expressions.having(phi.having, "mf_struct[i]"));
+        // a ratio of a sum stays a double
+        assertEquals("((double) mf_struct[i].sum_1_quant / mf_struct[i].count_2_prod)",
+            expressions.value("sum(x.quant) / count(y.prod)", "mf_struct[i]"));
+
+        String source = generator.generate();
+        assertFalse(source.contains("parseInt"));
+        QueryCompiler.compile(source);
+
+        ConditionExpression bad = PhiConverter.convert(new EMFParser().parse(
+            "select cust, sum(x.quant) from sales group by cust ; x such that x.state > 5")).predicates.get(1);
+        assertThrows(RuntimeException.class, () -> expressions.match(bad, "x", new ExprCompiler.RowScope("r1", true)));
+    }
+
+    @Test
+    public void testHavingBoundsBetweenScans() {
+        String query = """
+            select cust, sum(x.quant), sum(y.quant), count(z.prod)
+            from sales
+            group by cust ; x, y, z
+            such that x.cust = cust, y.cust = cust, z.cust = cust
+            having sum(x.quant) > sum(y.quant) and count(z.prod) < 10
+            """;
+        PhiOperator phi = PhiConverter.convert(new EMFParser().parse(query));
+        ExprCompiler expressions = new ExprCompiler(phi, new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes()));
+
+        // nothing decided before any scan; sums of a column that may be negative are unbounded
+        assertEquals("true", expressions.mayHold(phi.having, "e", Set.of(), Set.of()));
+        assertEquals("true", expressions.mayHold(phi.having, "e", Set.of("x"), Set.of()));
+        // sum(y.quant) can only grow from 0 when quant is non-negative
+        assertEquals("(double) e.sum_1_quant > 0.0", expressions.mayHold(phi.having, "e", Set.of("x"), Set.of("quant")));
+        // x and y final: the exact comparison; count(z.prod) < 10 still holds at 0
+        assertEquals("e.sum_1_quant > e.sum_2_quant", expressions.mayHold(phi.having, "e", Set.of("x", "y"), Set.of()));
+    }
+}
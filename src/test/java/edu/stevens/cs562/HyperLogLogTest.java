@@ -0,0 +1,77 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+/**
+ * HyperLogLog estimates of cardinalities far beyond linear counting, merges and
+ * the serialized form the spill and shard paths use.
+ */
+public class HyperLogLogTest {
+
+    // three standard errors: 1.04 / sqrt(2^p)
+    private static double bound(int precision) {
+        return 3 * 1.04 / Math.sqrt(1 << precision);
+    }
+
+    @Test
+    public void testLargeCardinalities() {
+        for (int n : new int[] {200_000, 1_000_000}) {
+            HyperLogLog longs = new HyperLogLog();
+            HyperLogLog strings = new HyperLogLog(HyperLogLog.GROUP_PRECISION);
+            for (int i = 0; i < n; i++) {
+                // every value twice: duplicates must not count
+                longs.add(i * 7919L);
+                longs.add(i * 7919L);
+                strings.add("customer-" + i);
+            }
+            assertEquals(n, longs.estimate(), n * bound(HyperLogLog.DEFAULT_PRECISION));
+            assertEquals(n, strings.estimate(), n * bound(HyperLogLog.GROUP_PRECISION));
+        }
+    }
+
+    @Test
+    public void testMergeEqualsOneSketch() {
+        HyperLogLog all = new HyperLogLog();
+        HyperLogLog left = new HyperLogLog(), right = new HyperLogLog();
+        // 300000 values, the middle 100000 seen by both halves
+        for (int i = 0; i < 300_000; i++) {
+            all.add(i);
+            if (i < 200_000) left.add(i);
+            if (i >= 100_000) right.add(i);
+        }
+        left.merge(right);
+        assertArrayEquals(all.registers(), left.registers());
+        assertEquals(all.estimate(), left.estimate());
+        assertEquals(300_000, left.estimate(), 300_000 * bound(HyperLogLog.DEFAULT_PRECISION));
+
+        assertThrows(IllegalArgumentException.class, () -> left.merge(new HyperLogLog(HyperLogLog.GROUP_PRECISION)));
+    }
+
+    @Test
+    public void testSerializationRoundTrip() throws Exception {
+        HyperLogLog h = new HyperLogLog(HyperLogLog.GROUP_PRECISION);
+        for (int i = 0; i < 150_000; i++) {
+            h.add("p" + i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            h.write(out);
+        }
+        assertEquals(1 + (1 << HyperLogLog.GROUP_PRECISION), bytes.size());
+        HyperLogLog read = HyperLogLog.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertArrayEquals(h.registers(), read.registers());
+        assertEquals(h.estimate(), read.estimate());
+
+        HyperLogLog copy = HyperLogLog.fromRegisters(h.registers());
+        assertEquals(h.estimate(), copy.estimate());
+        // the copy is independent of the original
+        copy.add("one more");
+        assertArrayEquals(read.registers(), h.registers());
+    }
+}
@@ -0,0 +1,102 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.SplittableRandom;
+
+/**
+ * KLL quantiles of a large stream within the rank error, merged from partial
+ * sketches and read back from their serialized form.
+ */
+public class KllSketchTest {
+
+    static final int N = 1_000_000;
+    // rank error with k = 200, about 1.7%, with room for an unlucky compaction
+    static final double RANK_ERROR = 0.025;
+
+    // The values 0 .. N-1 in a random order, so a value is its own rank - 1
+    private static double[] permutation(long seed) {
+        double[] values = new double[N];
+        for (int i = 0; i < N; i++) values[i] = i;
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = N - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            double t = values[i];
+            values[i] = values[j];
+            values[j] = t;
+        }
+        return values;
+    }
+
+    private static void assertRanks(KllSketch sketch) {
+        assertEquals(N, sketch.count());
+        for (double q = 0.01; q < 1; q += 0.01) {
+            double rank = (sketch.quantile(q) + 1) / N;
+            assertEquals(q, rank, RANK_ERROR, "quantile " + q);
+        }
+    }
+
+    @Test
+    public void testQuantilesWithinRankError() {
+        KllSketch sketch = new KllSketch();
+        for (double v : permutation(3)) sketch.update(v);
+        assertRanks(sketch);
+        // min and max are kept exactly enough to bound the range
+        assertTrue(sketch.quantile(0) >= 0 && sketch.quantile(1) <= N - 1);
+        assertTrue(Double.isNaN(new KllSketch().quantile(0.5)));
+    }
+
+    @Test
+    public void testSmallStreamIsExact() {
+        KllSketch sketch = new KllSketch();
+        for (int i = 100; i >= 1; i--) sketch.update(i);
+        assertEquals(50, sketch.quantile(0.5));
+        assertEquals(1, sketch.quantile(0));
+        assertEquals(100, sketch.quantile(1));
+    }
+
+    @Test
+    public void testMergedPartsMatchOneSketch() {
+        double[] values = permutation(5);
+        KllSketch all = new KllSketch();
+        KllSketch[] parts = new KllSketch[4];
+        for (int p = 0; p < parts.length; p++) parts[p] = new KllSketch();
+        for (int i = 0; i < N; i++) {
+            all.update(values[i]);
+            parts[i % parts.length].update(values[i]);
+        }
+        KllSketch merged = new KllSketch();
+        for (KllSketch part : parts) merged.merge(part);
+        assertRanks(all);
+        assertRanks(merged);
+        // the two sketches differ in their compactions, not by more than twice the error
+        for (double q = 0.05; q < 1; q += 0.05) {
+            assertEquals(all.quantile(q), merged.quantile(q), 2 * RANK_ERROR * N, "quantile " + q);
+        }
+    }
+
+    @Test
+    public void testSerializationRoundTrip() throws Exception {
+        KllSketch sketch = new KllSketch();
+        for (double v : permutation(7)) sketch.update(v);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            sketch.write(out);
+        }
+        assertTrue(bytes.size() <= KllSketch.maxBytes(KllSketch.DEFAULT_K), bytes.size() + " bytes");
+        KllSketch read = KllSketch.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(sketch.count(), read.count());
+        for (double q = 0; q <= 1; q += 0.01) {
+            assertEquals(sketch.quantile(q), read.quantile(q), "quantile " + q);
+        }
+        // a read sketch keeps merging
+        read.merge(sketch);
+        assertEquals(2L * N, read.count());
+        assertEquals(N / 2.0, read.quantile(0.5), RANK_ERROR * N);
+    }
+}
@@ -0,0 +1,128 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.stevens.cs562.QueryFixtures.*;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Top-k and the sorts of OrderBy against a reference sort, and ORDER BY / LIMIT
+ * of a generated query.
+ */
+public class OrderByTest {
+
+    @TempDir
+    Path dir;
+
+    // Entries 0..n-1 in a random order, with keys that repeat so ties are broken by entry
+    private static int[] shuffled(int n, long seed) {
+        int[] entries = IntStream.range(0, n).toArray();
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = entries[i];
+            entries[i] = entries[j];
+            entries[j] = t;
+        }
+        return entries;
+    }
+
+    private static int[] reference(int[] entries, int n, OrderBy.EntryComparator cmp) {
+        return Arrays.stream(entries, 0, n).boxed().sorted(cmp::compare).mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void testTopKeepsTheFirstKOfTheSortedOrder() {
+        int n = 5_000;
+        int[] keys = new int[n];
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < n; i++) keys[i] = random.nextInt(100);
+        OrderBy.EntryComparator cmp = (a, b) -> keys[a] != keys[b] ? Integer.compare(keys[b], keys[a]) : Integer.compare(a, b);
+        int[] sorted = reference(shuffled(n, 2), n, cmp);
+
+        for (int k : new int[] {1, 7, 100, n, n + 10}) {
+            int[] entries = shuffled(n, 3);
+            int size = OrderBy.top(entries, n, k, cmp);
+            assertEquals(Math.min(k, n), size);
+            assertArrayEquals(Arrays.copyOf(sorted, size), Arrays.copyOf(entries, size), "top " + k);
+        }
+        assertEquals(0, OrderBy.top(shuffled(n, 4), n, 0, cmp));
+    }
+
+    @Test
+    public void testSortsMatchTheComparator() {
+        int n = 3_000;
+        int[] ints = new int[n];
+        double[] doubles = new double[n];
+        SplittableRandom random = new SplittableRandom(5);
+        for (int i = 0; i < n; i++) {
+            ints[i] = random.nextInt(-50, 50);
+            doubles[i] = random.nextInt(40) / 4.0;
+        }
+        doubles[17] = Double.NaN;
+
+        for (boolean descending : new boolean[] {false, true}) {
+            OrderBy.EntryComparator byInt = (a, b) -> {
+                int c = descending ? Integer.compare(ints[b], ints[a]) : Integer.compare(ints[a], ints[b]);
+                return c != 0 ? c : Integer.compare(a, b);
+            };
+            int[] entries = shuffled(n, 6);
+            OrderBy.sort(entries, n, ints, descending);
+            assertArrayEquals(reference(shuffled(n, 7), n, byInt), entries);
+
+            OrderBy.EntryComparator byDouble = (a, b) -> {
+                int c = descending ? Double.compare(doubles[b], doubles[a]) : Double.compare(doubles[a], doubles[b]);
+                return c != 0 ? c : Integer.compare(a, b);
+            };
+            entries = shuffled(n, 8);
+            OrderBy.sort(entries, n, doubles, descending);
+            assertArrayEquals(reference(shuffled(n, 9), n, byDouble), entries);
+        }
+
+        // only the first n entries are sorted
+        int[] entries = {3, 2, 1, 0};
+        OrderBy.sort(entries, 2, (a, b) -> Integer.compare(a, b));
+        assertArrayEquals(new int[] {2, 3, 1, 0}, entries);
+        assertTrue(OrderBy.compare(null, "a") < 0 && OrderBy.compare("a", null) > 0 && OrderBy.compare(null, null) == 0);
+    }
+
+    @Test
+    public void testOrderByLimitSelectsTopGroups() throws Exception {
+        writeSnapshot(dir, sales(20_000, 30, 1.0, 7));
+
+        String base = """
+            select cust, month, sum(x.quant)
+            from sales
+            group by cust, month ; x
+            such that x.cust = cust and x.month = month
+            """;
+        // every group, sorted by the comparator; the top 7 must be its first 7 lines
+        List<String> sorted = run(base + "order by sum(x.quant) desc, cust, month");
+        List<String> top = run(base + "order by sum(x.quant) desc, cust, month limit 7");
+        assertEquals(7, top.size());
+        assertEquals(sorted.subList(0, 7), top);
+        for (int i = 1; i < sorted.size(); i++) {
+            int prev = Integer.parseInt(sorted.get(i - 1).split(" \\| ")[2]);
+            assertTrue(prev >= Integer.parseInt(sorted.get(i).split(" \\| ")[2]));
+        }
+
+        // a single int key takes the primitive sort
+        List<String> months = run(base + "order by month");
+        assertEquals(sorted.size(), months.size());
+        for (int i = 1; i < months.size(); i++) {
+            assertTrue(Integer.parseInt(months.get(i - 1).split(" \\| ")[1])
+                <= Integer.parseInt(months.get(i).split(" \\| ")[1]));
+        }
+    }
+
+    // The output lines of a query in the order it prints them
+    private List<String> run(String query) throws Exception {
+        return List.of(captureOutput(runOnSnapshot(dir, query, generator -> { })).strip().split("\n"));
+    }
+}
@@ -0,0 +1,571 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.stevens.cs562.QueryFixtures.*;
+
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * End-to-end test: generate, compile in memory and run a query against a
+ * generated columnar snapshot.
+ */
+public class QueryCompilerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testGeneratedQueryMatchesDirectScan() throws Exception {
+        writeSnapshot(dir, sales(20_000, 9, 1.0, 7));
+
+        String query = """
+            select cust, sum(x.quant)
+            from sales
+            where year = 2017
+            group by cust ; x
+            such that x.cust = cust and x.state = 'NY'
+            """;
+        QueryCompiler.CompiledQuery compiled = QueryCompiler.compile(generator(query).generate());
+
+        Map<String, Integer> expected = new TreeMap<>();
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            RowSource rs = provider.open("sales");
+            int cust = rs.columnIndex("cust"), year = rs.columnIndex("year");
+            int state = rs.columnIndex("state"), quant = rs.columnIndex("quant");
+            while (rs.next()) {
+                if (rs.getInt(year) != 2017) continue;
+                int q = rs.getString(state).equals("NY") ? rs.getInt(quant) : 0;
+                expected.merge(rs.getString(cust), q, Integer::sum);
+            }
+
+            // Run twice to check that reset() gives a clean mf-structure
+            for (int run = 0; run < 2; run++) {
+                compiled.reset();
+                compiled.evaluate(provider);
+                assertEquals(expected.size(), compiled.entries());
+                assertEquals(expected, parseOutput(compiled));
+            }
+        }
+    }
+
+    @Test
+    public void testSpilledQueriesMatchInMemory() throws Exception {
+        writeSnapshot(dir, sales(10_000, 9, 1.0, 7));
+
+        int spilled = 0;
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            for (int q = 1; q <= 7; q++) {
+                PhiOperator phi = phi(resource("Esql/EsqlQuery" + q));
+                if (PartitionAnalyzer.findPartitionAttribute(phi) == null) continue;
+                spilled++;
+                List<String> expected = resultLines(new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes()), provider);
+                assertFalse(expected.isEmpty());
+                // one partition, and several so each is built, scanned and output on its own
+                for (int partitions : new int[] {1, 4}) {
+                    QueryGenerator generator = new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes());
+                    generator.setSpillPartitions(partitions);
+                    assertEquals(expected, resultLines(generator, provider), "EsqlQuery" + q + " with " + partitions + " partitions");
+                }
+            }
+        }
+        assertTrue(spilled >= 4);
+    }
+
+    @Test
+    public void testShardedQueriesMatchSingleProcess() throws Exception {
+        // three blocks, so row-hash shards each read a part of the snapshot
+        writeSnapshot(dir, sales(3 * ColumnarSnapshot.DEFAULT_BLOCK_ROWS - 1000, 9, 1.0, 7));
+        String snapshot = dir.toString();
+
+        // sharded on cust, and by row hash (y is not partitioned on cust)
+        PhiOperator byKey = phi(
+            "select cust, sum(x.quant), avg(y.quant) from sales group by cust ; x, y "
+            + "such that x.cust = cust and x.state = 'NY', y.cust = cust");
+        PhiOperator byRow = phi(
+            "select cust, sum(x.quant), count(y.prod) from sales group by cust ; x, y "
+            + "such that x.cust = cust, y.cust <> cust and y.quant > 50");
+        assertNotNull(PartitionAnalyzer.findPartitionAttribute(byKey));
+        assertNull(PartitionAnalyzer.findPartitionAttribute(byRow));
+
+        for (PhiOperator phi : List.of(byKey, byRow)) {
+            List<String> expected;
+            try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+                expected = resultLines(new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes()), provider);
+            }
+            for (int shards = 2; shards <= 3; shards++) {
+                QueryGenerator generator = new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes());
+                generator.setShards(shards);
+                QueryCompiler.CompiledQuery compiled = QueryCompiler.compile(generator.generate());
+                String[] workers = new String[shards];
+                java.util.Arrays.fill(workers, snapshot);
+                assertEquals(expected, runSharded(dir, compiled, workers));
+            }
+        }
+    }
+
+    @Test
+    public void testMetricsCountEveryPhase() throws Exception {
+        String query = """
+            select cust, count(x.quant)
+            from sales
+            group by cust ; x
+            such that x.cust = cust
+            """;
+        QueryCompiler.CompiledQuery compiled = runOnSnapshot(dir, query, sales(5_000, 9, 0, 11),
+            generator -> generator.setMetrics(true));
+        parseOutput(compiled);
+
+        QueryMetrics metrics = compiled.metrics();
+        List<QueryMetrics.Phase> phases = metrics.phases();
+        assertEquals(List.of("scan 0", "scan 1: x", "output"),
+            phases.stream().map(QueryMetrics.Phase::getName).toList());
+        QueryMetrics.Phase scan1 = phases.get(1);
+        assertEquals(5_000, scan1.getRowsRead());
+        assertEquals(5_000 * 9, scan1.getEntriesProbed());
+        // every row matches exactly its own customer's entry
+        assertEquals(5_000, scan1.getMatches());
+        assertEquals(5_000, scan1.getAggregateUpdates());
+        assertEquals(9, phases.get(2).getMatches());
+        assertEquals(9, metrics.getMfStructureEntries());
+
+        ObjectName name = new ObjectName("edu.stevens.cs562:type=QueryMetrics,query="
+            + ObjectName.quote(metrics.getName()) + ",phase=\"scan 1: x\"");
+        assertEquals(5_000L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "RowsRead"));
+        metrics.unregister();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+        // every execution has metrics of its own, unregistered when it ends
+        ObjectName all = new ObjectName("edu.stevens.cs562:type=QueryMetrics,*");
+        int before = ManagementFactory.getPlatformMBeanServer().queryNames(all, null).size();
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(3);
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            List<java.util.concurrent.Future<?>> runs = new java.util.ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                runs.add(pool.submit(() -> {
+                    compiled.execute(provider, ResultSink.text(java.io.OutputStream.nullOutputStream()));
+                    return null;
+                }));
+            }
+            for (java.util.concurrent.Future<?> run : runs) {
+                run.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(before, ManagementFactory.getPlatformMBeanServer().queryNames(all, null).size());
+        assertTrue(metrics.getName().startsWith(QueryFingerprint.of(phi(query)) + "-"));
+    }
+
+    @Test
+    public void testScanEventsAreRecorded() throws Exception {
+        writeSnapshot(dir, sales(5_000, 9, 0, 7));
+
+        PhiOperator phi = phi(
+            "select cust, sum(x.quant), count(y.prod) from sales group by cust ; x, y "
+            + "such that x.cust = cust and x.state = 'NY', y.cust = cust");
+        QueryGenerator generator = new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes());
+        assertFalse(generator.generate().contains("QueryEvents.beginScan"));
+        generator.setEvents(true);
+        QueryCompiler.CompiledQuery compiled = QueryCompiler.compile(generator.generate());
+
+        Path file = dir.resolve("events.jfr");
+        try (jdk.jfr.Recording recording = new jdk.jfr.Recording();
+             SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            recording.enable("edu.stevens.cs562.Scan");
+            recording.enable("edu.stevens.cs562.Output");
+            recording.start();
+            compiled.evaluate(provider);
+            compiled.output(ResultSink.text(java.io.OutputStream.nullOutputStream()));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        Map<Integer, jdk.jfr.consumer.RecordedEvent> scans = new TreeMap<>();
+        jdk.jfr.consumer.RecordedEvent output = null;
+        for (jdk.jfr.consumer.RecordedEvent event : jdk.jfr.consumer.RecordingFile.readAllEvents(file)) {
+            assertEquals(QueryFingerprint.of(phi), event.getString("fingerprint"));
+            if (event.getEventType().getName().endsWith("Scan")) {
+                scans.put(event.getInt("scan"), event);
+            } else {
+                output = event;
+            }
+        }
+        assertEquals(List.of(0, 1, 2), List.copyOf(scans.keySet()));
+        assertEquals(5_000, scans.get(0).getLong("rowsRead"));
+        assertEquals("x", scans.get(1).getString("groupingVariable"));
+        assertNotNull(output);
+        assertEquals(compiled.entries(), output.getLong("entries"));
+    }
+
+    @Test
+    public void testCostPlanMatchesDefaultPlan() throws Exception {
+        writeSnapshot(dir, sales(10_000, 9, 0, 13));
+
+        String query = """
+            select cust, prod, sum(x.quant), sum(y.quant), count(z.quant)
+            from sales
+            group by cust, prod ; x, y, z
+            such that x.cust = cust and x.prod = prod and x.state = 'NY',
+            y.cust = cust and y.state = 'NJ',
+            z.prod = prod and z.quant > avg(y.quant)
+            """;
+        PhiOperator phi = phi(query);
+        QueryGenerator plain = new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes());
+        QueryGenerator optimized = new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes());
+
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            TableStatistics stats = TableStatistics.get(provider, "sales");
+            assertEquals(10_000, stats.rowCount);
+            assertEquals(9, stats.column("cust").distinct);
+
+            CostPlanner.Plan plan = new CostPlanner(phi, optimized, stats, true, 1L << 30, 1).plan();
+            // x and y are independent and share a scan; z needs avg(y.quant)
+            assertEquals(List.of(List.of(0, 1), List.of(2)), plan.passes);
+            assertEquals(90, plan.groups);
+            assertEquals(112, plan.groupCapacity);
+            // 9 customers x 10 products are direct-addressed by their dictionary codes;
+            // x pins both and probes its slot, y and z only pin one and use an index
+            assertEquals(List.of("cust", "prod"), List.copyOf(plan.directDomains.keySet()));
+            assertEquals(java.util.Set.of(1, 2), plan.indexed);
+            plan.apply(optimized);
+
+            QueryCompiler.CompiledQuery expected = QueryCompiler.compile(plain.generate());
+            expected.evaluate(provider);
+            QueryCompiler.CompiledQuery actual = QueryCompiler.compile(optimized.generate());
+            actual.evaluate(provider);
+            assertEquals(captureOutput(expected), captureOutput(actual));
+        }
+    }
+
+    @Test
+    public void testSketchAggregates() throws Exception {
+        writeSnapshot(dir, sales(20_000, 9, 0, 19));
+
+        String query = """
+            select cust, count_distinct_approx(x.prod), median(x.quant)
+            from sales
+            group by cust ; x
+            such that x.cust = cust and x.state = 'NY'
+            """;
+        Map<String, java.util.Set<String>> products = new TreeMap<>();
+        Map<String, List<Integer>> quants = new TreeMap<>();
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            RowSource rs = provider.open("sales");
+            int cust = rs.columnIndex("cust"), prod = rs.columnIndex("prod");
+            int state = rs.columnIndex("state"), quant = rs.columnIndex("quant");
+            while (rs.next()) {
+                if (!rs.getString(state).equals("NY")) continue;
+                products.computeIfAbsent(rs.getString(cust), c -> new java.util.TreeSet<>()).add(rs.getString(prod));
+                quants.computeIfAbsent(rs.getString(cust), c -> new java.util.ArrayList<>()).add(rs.getInt(quant));
+            }
+        }
+
+        QueryCompiler.CompiledQuery compiled = runOnSnapshot(dir, query, generator -> { });
+        for (String line : captureOutput(compiled).split("\n")) {
+            String[] parts = line.split(" \\| ");
+            if (parts.length != 3 || !quants.containsKey(parts[0])) continue;
+            // a handful of distinct values is counted exactly
+            assertEquals(products.get(parts[0]).size(), Integer.parseInt(parts[1]));
+            // the median's rank is within the sketch's rank error of the middle
+            List<Integer> values = quants.get(parts[0]);
+            double median = Double.parseDouble(parts[2]);
+            long below = values.stream().filter(v -> v < median).count();
+            long atMost = values.stream().filter(v -> v <= median).count();
+            double half = values.size() / 2.0, tolerance = 0.03 * values.size();
+            assertTrue(below <= half + tolerance && atMost >= half - tolerance, parts[0] + " median " + median);
+        }
+    }
+
+    @Test
+    public void testSketchesInHaving() throws Exception {
+        try (Connection conn = java.sql.DriverManager.getConnection(
+                "jdbc:h2:mem:ids;DATABASE_TO_LOWER=TRUE", "sa", "");
+             JdbcRowSourceProvider jdbc = new JdbcRowSourceProvider(new StatementCache(conn))) {
+            try (java.sql.Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE ids (grp VARCHAR, id INT)");
+                // a: 150000 distinct ids, median 75000; b: 30000, 165000; c: 90000, 225000
+                stmt.execute("INSERT INTO ids SELECT CASE WHEN n <= 150000 THEN 'a' WHEN n <= 180000 THEN 'b' "
+                    + "ELSE 'c' END, n FROM SYSTEM_RANGE(1, 270000) AS r(n)");
+            }
+            // far beyond linear counting: only a passes both sketches
+            PhiOperator phi = phi(
+                "select grp, count_distinct_approx(x.id), median(x.id) from ids group by grp ; x "
+                + "such that x.grp = grp having count_distinct_approx(x.id) > 60000 and median(x.id) < 200000");
+            QueryGenerator generator = new QueryGenerator(phi,
+                new TableSchema("ids", List.of("grp", "id"), List.of("string", "int")).columnTypes());
+            List<String> lines = resultLines(generator, jdbc);
+            assertEquals(2, lines.size(), lines.toString());
+            String[] a = lines.get(0).split(" \\| ");
+            assertEquals("a", a[0]);
+            // three standard errors of a GROUP_PRECISION sketch; the median within its rank error
+            assertEquals(150_000, Long.parseLong(a[1]), 150_000 * 3 * 1.04 / Math.sqrt(1 << HyperLogLog.GROUP_PRECISION));
+            assertEquals(75_000, Double.parseDouble(a[2]), 0.025 * 150_000);
+        }
+    }
+
+    @Test
+    public void testModeCombinationsRejectedInAnyOrder() {
+        String query = "select cust, sum(x.quant) from sales group by cust ; x such that x.cust = cust";
+        List<java.util.function.Consumer<QueryGenerator>> modes = List.of(
+            g -> g.setSpillPartitions(2), g -> g.setShards(2), g -> g.setProgressive(true),
+            g -> g.setSampling(0.5, false, false));
+        // spill with shards, and progressive with any other mode, whichever setter comes first
+        java.util.Set<java.util.Set<Integer>> rejected = java.util.Set.of(
+            java.util.Set.of(0, 1), java.util.Set.of(0, 2), java.util.Set.of(1, 2), java.util.Set.of(2, 3));
+        for (int a = 0; a < modes.size(); a++) {
+            for (int b = 0; b < modes.size(); b++) {
+                QueryGenerator generator = generator(query);
+                modes.get(a).accept(generator);
+                modes.get(b).accept(generator);
+                if (a == b || !rejected.contains(java.util.Set.of(a, b))) {
+                    assertTrue(generator.generate().contains("class GeneratedQuery"));
+                } else {
+                    assertThrows(RuntimeException.class, generator::generate, a + " with " + b);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testProgressiveEstimatesAndEarlyStop() throws Exception {
+        writeSnapshot(dir, sales(50_000, 9, 0, 29));
+
+        String query = """
+            select cust, count(x.quant), avg(y.quant)
+            from sales
+            group by cust ; x, y
+            such that x.cust = cust and x.state = 'NY', y.cust = cust
+            """;
+        QueryGenerator generator = generator(query);
+        generator.setProgressive(true);
+        QueryCompiler.CompiledQuery compiled = QueryCompiler.compile(generator.generate());
+
+        // without onProgress nothing is published; the console view is only main()'s
+        OnlineAggregation console = new OnlineAggregation("cust");
+        console.start();
+        assertFalse(console.due());
+        console.configure(new String[] {"--progress-interval=0"});
+        console.start();
+        assertTrue(console.due());
+        console.configure(new String[] {"--progress-interval=0", "--no-progress"});
+        console.start();
+        assertFalse(console.due());
+
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            // every update until the end: the fraction grows and the last one is exact
+            List<OnlineAggregation.Progress> updates = new java.util.ArrayList<>();
+            compiled.onProgress(p -> updates.add(p), 0);
+            compiled.evaluate(provider);
+            String exact = captureOutput(compiled);
+            OnlineAggregation.Progress last = updates.get(updates.size() - 1);
+            assertTrue(updates.size() > 2 && last.done && last.fraction == 1);
+            assertTrue(updates.get(0).fraction < updates.get(1).fraction);
+            assertEquals(List.of("cust", "count(x.quant)", "avg(y.quant)"), last.columns);
+            assertEquals(9, last.groups.size());
+            assertFalse(exact.contains("+/-"));
+
+            // stopped after the first update: output() prints that update's estimates
+            compiled.reset();
+            compiled.onProgress(p -> false, 0);
+            compiled.evaluate(provider);
+            String stopped = captureOutput(compiled);
+            assertTrue(stopped.contains("+/-"));
+            assertNotEquals(exact, stopped);
+        }
+    }
+
+    @Test
+    public void testHavingPrunesEntriesBetweenScans() throws Exception {
+        writeSnapshot(dir, sales(20_000, 40, 1.0, 3));
+        String query = """
+            select cust, prod, sum(x.quant), sum(y.quant)
+            from sales
+            group by cust, prod ; x, y
+            such that x.cust = cust and x.prod = prod and x.state = 'NY',
+            y.cust = cust and y.prod = prod and y.state = 'NJ'
+            having sum(x.quant) > 20000 and sum(x.quant) > sum(y.quant)
+            """;
+        assertNotNull(generator(query).pruneCondition(0));
+        QueryCompiler.CompiledQuery all = runOnSnapshot(dir, query, exact -> exact.setPruning(false));
+        QueryCompiler.CompiledQuery some = runOnSnapshot(dir, query, pruned -> {
+            pruned.setNonNegative("quant");
+            pruned.setMetrics(true);
+        });
+        assertEquals(captureOutput(all), captureOutput(some));
+        // scan 2 only visits the groups whose NY sum can still qualify
+        QueryMetrics.Phase prune = some.metrics().phases().stream()
+            .filter(p -> p.getName().equals("prune after scan 1")).findFirst().orElseThrow();
+        assertEquals(all.entries(), prune.getRowsRead());
+        assertEquals(some.entries(), prune.getMatches());
+        assertTrue(some.entries() < all.entries());
+        some.metrics().unregister();
+    }
+
+    @Test
+    public void testResultSinksMatchTextOutput() throws Exception {
+        String query = """
+            select cust, sum(x.quant), avg(x.quant)
+            from sales
+            group by cust ; x
+            such that x.cust = cust and x.state = 'NY'
+            """;
+        QueryCompiler.CompiledQuery compiled = runOnSnapshot(dir, query, sales(20_000, 9, 1.0, 7), generator -> { });
+        List<String> text = List.of(captureOutput(compiled).strip().split("\n"));
+
+        ResultTable table = compiled.result();
+        assertEquals(List.of("string", "long", "double"), List.of(table.type(0), table.type(1), table.type(2)));
+        assertEquals(text.size(), table.rowCount());
+        for (int r = 0; r < table.rowCount(); r++) {
+            assertEquals(text.get(r), table.getString(r, 0) + " | " + table.getLong(r, 1) + " | " + table.getDouble(r, 2));
+        }
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        compiled.output(ResultSink.csv(csv));
+        List<String> lines = List.of(csv.toString().strip().split(System.lineSeparator()));
+        assertEquals("cust,sum(x.quant),avg(x.quant)", lines.get(0));
+        for (int r = 0; r < text.size(); r++) {
+            assertEquals(text.get(r).replace(" | ", ","), lines.get(r + 1));
+        }
+
+        // the columnar result reads back as a table
+        Path out = dir.resolve("result");
+        java.nio.file.Files.createDirectories(out);
+        compiled.output(new ColumnarResultSink(out.resolve("top")));
+        try (ColumnarSnapshot snapshot = ColumnarSnapshot.open(out.resolve("top" + ColumnarSnapshot.FILE_EXTENSION))) {
+            assertEquals(List.of("cust", "sum_x_quant", "avg_x_quant"), snapshot.schema().columns);
+            assertEquals(text.size(), snapshot.rowCount());
+            ColumnarSnapshot.Scan scan = snapshot.scan();
+            for (int r = 0; scan.next(); r++) {
+                assertEquals(table.getString(r, 0), scan.getString(0));
+                // longs are stored as doubles
+                assertEquals(table.getLong(r, 1), (long) scan.getDouble(1));
+                assertEquals(table.getDouble(r, 2), scan.getDouble(2));
+            }
+        }
+    }
+
+    @Test
+    public void testPreparedQueryRunsConcurrently() throws Exception {
+        writeSnapshot(dir, sales(20_000, 30, 1.0, 7));
+
+        PreparedQuery query = new QueryEngine(SalesGenerator.SCHEMA.columnTypes()).prepare("""
+            select cust, month, sum(x.quant), avg(y.quant)
+            from sales
+            group by cust, month ; x, y
+            such that x.cust = cust and x.month = month, y.cust = cust
+            having sum(x.quant) > avg(y.quant)
+            """);
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            List<String> expected = query.stream(provider).map(java.util.Arrays::toString).toList();
+            assertFalse(expected.isEmpty());
+            try (ResultCursor rows = query.execute(provider)) {
+                assertEquals(List.of("cust", "month", "sum(x.quant)", "avg(y.quant)"), rows.columns());
+                assertTrue(rows.next());
+                assertEquals(expected.get(0), "[" + rows.getString(0) + ", " + rows.getInt(1) + ", "
+                    + rows.getLong(2) + ", " + rows.getDouble(3) + "]");
+            }
+
+            // every execution has its own mf-structure
+            java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newFixedThreadPool(4);
+            try {
+                List<java.util.concurrent.Future<List<String>>> runs = new java.util.ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    runs.add(pool.submit(() -> query.stream(provider).map(java.util.Arrays::toString).toList()));
+                }
+                for (java.util.concurrent.Future<List<String>> run : runs) {
+                    assertEquals(expected, run.get());
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testIntegerDivisionMatchesSql() throws Exception {
+        SalesGenerator data = sales(3_000, 9, 0, 562);
+        Path csv = dir.resolve("sales.csv");
+        data.writeText(csv, true, 2);
+        writeSnapshot(dir, data);
+
+        // having count(y.prod) = count(x.prod) / 2 truncates like X.count_x / 2 in SqlQuery6.sql
+        PreparedQuery query = new QueryEngine(SalesGenerator.SCHEMA.columnTypes())
+            .prepare(resource("Esql/EsqlQuery6"));
+        List<String> emf;
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            emf = query.stream(provider).map(row -> row[0] + " | " + row[1]).sorted().toList();
+        }
+        try (Connection conn = java.sql.DriverManager.getConnection(
+                "jdbc:h2:mem:query6;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=DAY,MONTH,YEAR,DATE", "sa", "")) {
+            loadSales(conn, csv);
+            List<String> sql = runSql(conn, resource("SQL/SqlQuery6.sql"));
+            assertFalse(sql.isEmpty());
+            assertEquals(sql.stream().sorted().toList(), emf);
+        }
+    }
+
+    @Test
+    public void testAggregateTypesFollowTheirColumns() throws Exception {
+        TableSchema schema = new TableSchema("big", List.of("cust", "quant", "price"), List.of("string", "int", "double"));
+        try (Connection conn = java.sql.DriverManager.getConnection(
+                "jdbc:h2:mem:big;DATABASE_TO_LOWER=TRUE", "sa", "");
+             JdbcRowSourceProvider jdbc = new JdbcRowSourceProvider(new StatementCache(conn))) {
+            try (java.sql.Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE big (cust VARCHAR, quant INT, price DOUBLE)");
+                stmt.execute("INSERT INTO big VALUES ('a', 2000000000, 1.5), ('a', 2000000000, 2.0), "
+                    + "('a', 2000000000, 1.0), ('b', 5, 2.25), ('b', -7, 0.5)");
+            }
+            try (ColumnarSnapshotWriter writer = new ColumnarSnapshotWriter(
+                    dir.resolve("big" + ColumnarSnapshot.FILE_EXTENSION), schema);
+                 RowSource rows = jdbc.open("big")) {
+                writer.appendAll(rows);
+            }
+
+            // the int sum goes past Integer.MAX_VALUE; min and max keep the column's type
+            PhiOperator phi = phi(
+                "select cust, sum(x.quant), max(x.quant), min(x.price), sum(x.price) from big group by cust ; x "
+                + "such that x.cust = cust");
+            List<String> expected = List.of("a | 6000000000 | 2000000000 | 1.0 | 4.5", "b | -2 | 5 | 0.5 | 2.75",
+                "cust | sum(x.quant) | max(x.quant) | min(x.price) | sum(x.price)");
+            QueryGenerator generator = new QueryGenerator(phi, schema.columnTypes());
+            assertEquals(List.of("long", "int", "double", "double"), phi.fVect.stream().map(generator::getAggregateType).toList());
+            assertEquals(expected, resultLines(generator, jdbc));
+            try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+                assertEquals(expected, resultLines(generator, provider));
+                QueryGenerator spilled = new QueryGenerator(phi, schema.columnTypes());
+                spilled.setSpillPartitions(2);
+                assertEquals(expected, resultLines(spilled, provider));
+            }
+            QueryGenerator sharded = new QueryGenerator(phi, schema.columnTypes());
+            sharded.setShards(2);
+            assertEquals(expected, runSharded(dir, QueryCompiler.compile(sharded.generate()), dir.toString(), dir.toString()));
+        }
+    }
+
+    @Test
+    public void testCompileErrorIsReported() {
+        RuntimeException e = assertThrows(RuntimeException.class,
+            () -> QueryCompiler.compile("public class GeneratedQuery { int x = ; }"));
+        assertTrue(e.getMessage().contains("does not compile"));
+    }
+
+    private static Map<String, Integer> parseOutput(QueryCompiler.CompiledQuery compiled) throws Exception {
+        Map<String, Integer> result = new TreeMap<>();
+        for (String line : captureOutput(compiled).split("\n")) {
+            String[] parts = line.split(" \\| ");
+            if (parts.length == 2) {
+                result.put(parts[0], Integer.parseInt(parts[1].trim()));
+            }
+        }
+        return result;
+    }
+}
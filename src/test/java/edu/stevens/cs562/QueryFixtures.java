@@ -0,0 +1,146 @@
+package edu.stevens.cs562;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Shared fixture of the query tests: generated sales rows written as a snapshot,
+ * a query generated with some options, compiled in memory and evaluated over it,
+ * and its output captured.
+ */
+final class QueryFixtures {
+
+    private QueryFixtures() {
+    }
+
+    /** Sales rows over 2016-2020 with 10 products. */
+    static SalesGenerator sales(long rows, int customers, double skew, long seed) {
+        return new SalesGenerator(rows, customers, 10, skew,
+            LocalDate.of(2016, 1, 1), LocalDate.of(2020, 12, 31), false, seed);
+    }
+
+    /** Write rows as the sales snapshot of dir. */
+    static void writeSnapshot(Path dir, SalesGenerator rows) throws Exception {
+        rows.writeColumnar(dir.resolve("sales" + ColumnarSnapshot.FILE_EXTENSION), 2);
+    }
+
+    static PhiOperator phi(String query) {
+        return PhiConverter.convert(new EMFParser().parse(query));
+    }
+
+    /** A generator of query over the sales schema. */
+    static QueryGenerator generator(String query) {
+        return new QueryGenerator(phi(query), SalesGenerator.SCHEMA.columnTypes());
+    }
+
+    /**
+     * Write rows as the sales snapshot of dir, then generate query with options,
+     * compile it and evaluate it over the snapshot; output() prints the result.
+     */
+    static QueryCompiler.CompiledQuery runOnSnapshot(Path dir, String query, SalesGenerator rows,
+                                                     Consumer<QueryGenerator> options) throws Exception {
+        writeSnapshot(dir, rows);
+        return runOnSnapshot(dir, query, options);
+    }
+
+    /** Generate query with options, compile it and evaluate it over the snapshot in dir. */
+    static QueryCompiler.CompiledQuery runOnSnapshot(Path dir, String query, Consumer<QueryGenerator> options) throws Exception {
+        QueryGenerator generator = generator(query);
+        options.accept(generator);
+        QueryCompiler.CompiledQuery compiled = QueryCompiler.compile(generator.generate());
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            compiled.evaluate(provider);
+        }
+        return compiled;
+    }
+
+    /** What output() prints. */
+    static String captureOutput(QueryCompiler.CompiledQuery compiled) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(bytes));
+        try {
+            compiled.output();
+        } finally {
+            System.setOut(stdout);
+        }
+        return bytes.toString();
+    }
+
+    /** The result rows of a query, header included, sorted (a spilled query outputs partition by partition). */
+    static List<String> resultLines(QueryGenerator generator, RowSourceProvider provider) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        QueryCompiler.compile(generator.generate()).execute(provider, ResultSink.text(bytes));
+        return resultLines(bytes.toString());
+    }
+
+    static List<String> resultLines(String text) {
+        return text.lines().filter(line -> line.contains(" | ") && !line.startsWith("-")).sorted().toList();
+    }
+
+    /**
+     * A sharded query with its coordinator and one worker per snapshot as threads
+     * of this JVM; the result goes through a text file in dir.
+     */
+    static List<String> runSharded(Path dir, QueryCompiler.CompiledQuery compiled, String... snapshots) throws Exception {
+        int port;
+        try (java.net.ServerSocket free = new java.net.ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        Path out = dir.resolve("sharded.txt");
+        ExecutorService workers = Executors.newFixedThreadPool(snapshots.length);
+        try {
+            for (String snapshot : snapshots) {
+                // a failing worker reports to the coordinator itself
+                workers.submit(() -> {
+                    compiled.run("--worker=127.0.0.1:" + port, "--snapshot=" + snapshot);
+                    return null;
+                });
+            }
+            compiled.run("--shards=" + snapshots.length, "--local-workers=0", "--port=" + port, "--output=text:" + out);
+        } finally {
+            workers.shutdownNow();
+        }
+        return resultLines(Files.readString(out));
+    }
+
+    static String resource(String name) throws Exception {
+        try (java.io.InputStream in = QueryFixtures.class.getClassLoader().getResourceAsStream(name)) {
+            return new String(in.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8);
+        }
+    }
+
+    /** Load a CSV written by SalesGenerator.writeText into a new sales table. */
+    static void loadSales(Connection conn, Path csv) throws Exception {
+        try (java.sql.Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE sales (cust VARCHAR, prod VARCHAR, day INT, month INT, year INT,"
+                + " state VARCHAR, quant INT, date DATE) AS SELECT * FROM CSVREAD('" + csv + "')");
+        }
+    }
+
+    /** Every statement of the script runs, the first two columns of the last one's rows are returned. */
+    static List<String> runSql(Connection conn, String script) throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (java.sql.Statement stmt = conn.createStatement()) {
+            String[] statements = script.replaceAll("--[^\n]*", "").split(";");
+            for (int i = 0; i < statements.length - 1; i++) {
+                stmt.execute(statements[i]);
+            }
+            try (java.sql.ResultSet rs = stmt.executeQuery(statements[statements.length - 1])) {
+                while (rs.next()) {
+                    rows.add(rs.getString(1) + " | " + rs.getString(2));
+                }
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,87 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.stevens.cs562.QueryFixtures.*;
+
+import java.nio.file.Path;
+
+/**
+ * EXPLAIN output of fixture queries, compared line by line with the expected plan.
+ */
+public class QueryPlanTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testExplainPushedWhereAndIndexes() throws Exception {
+        writeSnapshot(dir, sales(5_000, 9, 1.0, 7));
+
+        PhiOperator phi = phi(resource("Esql/EsqlQuery4"));
+        QueryGenerator generator = new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes());
+        generator.setIndexed(0, true);
+        generator.setIndexed(2, true);
+        QueryPlan plan = new QueryPlan(phi, generator);
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            plan.estimateGroups(provider.snapshot("sales"));
+        }
+        assertEquals("""
+            EMF query 9db0b322e7e09b30 on sales, in memory
+            Scans: 4 passes over sales (scan 0 + one per grouping variable, not fused)
+              independent grouping variables (could share a pass): x, y
+            -> Scan 0: build groups on (prod, month)
+                 filter σ0: year = 2016
+                 pushed down (block skipping): year = 2016
+                 lookup: linear search of the mf-structure per row
+            -> Scan 1: grouping variable x computing avg(x.quant)
+                 filter σ0: year = 2016
+                 pushed down (block skipping): year = 2016
+                 σ1: x.prod = prod and x.month = month-1
+                 evaluation: hash index on (prod), only entries with the row's values are tested
+            -> Scan 2: grouping variable y computing avg(y.quant)
+                 filter σ0: year = 2016
+                 pushed down (block skipping): year = 2016
+                 σ2: y.prod = prod and y.month = month+1
+                 evaluation: nested loop, every row against every entry (equality-partitioned on prod)
+            -> Scan 3: grouping variable z computing count(z.*)
+                 filter σ0: year = 2016
+                 pushed down (block skipping): year = 2016
+                 σ3: z.prod = prod and z.month = month and z.quant > avg(x.quant) and z.quant < avg(y.quant)
+                 evaluation: hash index on (prod, month), only entries with the row's values are tested
+                 depends on: avg(x.quant), avg(y.quant)
+            -> Output: every group
+            Estimated groups: 120 (snapshot statistics: prod 10 x month 12, at most 5000 rows), mf-structure ~46.6 KB (64 bytes per entry)
+            """, plan.explain());
+    }
+
+    @Test
+    public void testExplainPushedSuchThatAndPruning() throws Exception {
+        PhiOperator phi = phi(resource("Esql/EsqlQuery1"));
+        QueryGenerator generator = new QueryGenerator(phi, SalesGenerator.SCHEMA.columnTypes());
+        generator.setIndexed(0, true);
+        assertEquals("""
+            EMF query 222d75887fd360f9 on sales, in memory
+            Scans: 4 passes over sales (scan 0 + one per grouping variable, not fused)
+              independent grouping variables (could share a pass): x, y, z
+            -> Scan 0: build groups on (cust)
+                 lookup: linear search of the mf-structure per row
+            -> Scan 1: grouping variable x computing avg(x.quant)
+                 pushed down (block skipping): x.state = 'NY'
+                 σ1: x.cust = cust and x.state = 'NY'
+                 evaluation: hash index on (cust), only entries with the row's values are tested
+            -> Scan 2: grouping variable y computing avg(y.quant)
+                 pushed down (block skipping): y.state = 'CT'
+                 σ2: y.cust = cust and y.state = 'CT'
+                 evaluation: nested loop, every row against every entry (equality-partitioned on cust)
+            -> Prune: drop the entries that can no longer pass HAVING, compact the mf-structure
+            -> Scan 3: grouping variable z computing avg(z.quant)
+                 pushed down (block skipping): z.state = 'NJ'
+                 σ3: z.cust = cust and z.state = 'NJ'
+                 evaluation: nested loop, every row against every entry (equality-partitioned on cust)
+            -> Output: HAVING avg(x.quant) > avg(y.quant) and avg(x.quant) > avg(z.quant)
+            Estimated groups: unknown (80 bytes per entry)
+            """, new QueryPlan(phi, generator).explain());
+    }
+}
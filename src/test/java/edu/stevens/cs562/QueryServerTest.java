@@ -0,0 +1,129 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.stevens.cs562.QueryFixtures.*;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs the query server over a generated snapshot and queries it over HTTP.
+ */
+public class QueryServerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testServerAnswersFromPlanCache() throws Exception {
+        writeSnapshot(dir, sales(20_000, 9, 1.0, 7));
+
+        String query = """
+            select cust, sum(x.quant), avg(y.quant)
+            from sales
+            group by cust ; x, y
+            such that x.cust = cust and x.state = 'NY', y.cust = cust
+            """;
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            new QueryEngine(SalesGenerator.SCHEMA.columnTypes()).prepare(query)
+                .execute(provider, ResultSink.csv(expected));
+        }
+
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (QueryServer server = new QueryServer(address, new SnapshotRowSourceProvider(dir), SchemaCatalog.forSnapshot(dir))) {
+            server.start();
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create("http://127.0.0.1:" + server.port() + "/query");
+
+            HttpResponse<String> first = client.send(post(uri, query), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, first.statusCode());
+            assertEquals(expected.toString(), first.body());
+
+            // the same query from several clients at once runs the cached plan
+            List<CompletableFuture<HttpResponse<String>>> runs = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                runs.add(client.sendAsync(post(uri, query), HttpResponse.BodyHandlers.ofString()));
+            }
+            for (CompletableFuture<HttpResponse<String>> run : runs) {
+                assertEquals(expected.toString(), run.get().body());
+            }
+            assertEquals(1, server.planCacheMisses());
+            assertEquals(6, server.planCacheHits());
+
+            HttpResponse<String> invalid = client.send(post(uri, "select cust from nowhere group by cust"),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(400, invalid.statusCode());
+        }
+    }
+
+    @Test
+    public void testEvaluationErrorAnswers500() throws Exception {
+        writeSnapshot(dir, sales(1_000, 9, 1.0, 7));
+
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (QueryServer server = new QueryServer(address, new SnapshotRowSourceProvider(dir), SchemaCatalog.forSnapshot(dir))) {
+            server.start();
+            URI uri = URI.create("http://127.0.0.1:" + server.port() + "/query");
+            // compiles, and divides by zero on the first row of scan 1
+            HttpResponse<String> failed = HttpClient.newHttpClient().send(post(uri, """
+                select cust, count(x.prod) from sales group by cust ; x
+                such that x.cust = cust and x.quant / 0 = 1
+                """), HttpResponse.BodyHandlers.ofString());
+            assertEquals(500, failed.statusCode());
+            assertTrue(failed.body().startsWith("Query failed: "), failed.body());
+        }
+    }
+
+    @Test
+    public void testDatabaseServerTakesSchemasFromTheCatalog() throws Exception {
+        String url = "jdbc:h2:mem:served;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE";
+        try (Connection conn = DriverManager.getConnection(url); Statement st = conn.createStatement()) {
+            st.execute("create table orders (cust varchar(10), quant int)");
+            st.execute("insert into orders values ('a', 1), ('a', 2), ('b', 5)");
+        }
+        Path file = dir.resolve("catalog.properties");
+        new SchemaCatalog(file, "h2", () -> new JdbcRowSourceProvider(DriverManager.getConnection(url)),
+            SchemaCatalog.DEFAULT_TTL_MILLIS).schema("orders");
+
+        // the schema is only in the catalog file: the server must not read it from the pool
+        SchemaCatalog.Source unreachable = () -> {
+            throw new java.io.IOException("metadata unavailable");
+        };
+        SchemaCatalog catalog = new SchemaCatalog(file, "h2", unreachable, SchemaCatalog.DEFAULT_TTL_MILLIS);
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (QueryServer server = new QueryServer(address, new ConnectionPool(() -> DriverManager.getConnection(url), 2), catalog)) {
+            server.start();
+            URI uri = URI.create("http://127.0.0.1:" + server.port() + "/query");
+            HttpClient client = HttpClient.newHttpClient();
+            HttpResponse<String> answer = client.send(post(uri,
+                "select cust, sum(x.quant) from orders group by cust ; x such that x.cust = cust"),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, answer.statusCode(), answer.body());
+            assertTrue(answer.body().contains("a,3"), answer.body());
+            assertTrue(answer.body().contains("b,5"), answer.body());
+
+            HttpResponse<String> unknown = client.send(post(uri, "select cust from other group by cust"),
+                HttpResponse.BodyHandlers.ofString());
+            assertEquals(400, unknown.statusCode());
+        }
+    }
+
+    private static HttpRequest post(URI uri, String query) {
+        return HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString(query)).build();
+    }
+}
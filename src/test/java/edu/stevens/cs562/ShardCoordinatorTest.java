@@ -0,0 +1,100 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.stevens.cs562.QueryFixtures.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The coordinator/worker protocol with in-process workers: shards handed out
+ * once each, partials merged, and a failing or vanishing worker failing the query.
+ */
+public class ShardCoordinatorTest {
+
+    @TempDir
+    Path dir;
+
+    // A worker's behaviour once it knows its shard
+    private interface WorkerBody {
+        void run(ShardCoordinator.Worker worker) throws Exception;
+    }
+
+    // Coordinate shards workers running body on threads of this JVM, merging with merger
+    private static void coordinate(int shards, WorkerBody body, ShardCoordinator.PartialMerger merger) throws Exception {
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        String[] args = {"--shards=" + shards, "--local-workers=0", "--port=" + port};
+        ExecutorService workers = Executors.newFixedThreadPool(shards);
+        try {
+            for (int i = 0; i < shards; i++) {
+                workers.submit(() -> {
+                    body.run(ShardCoordinator.worker(new String[] {"--worker=127.0.0.1:" + port}));
+                    return null;
+                });
+            }
+            ShardCoordinator.coordinate("unused", shards, args, merger);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEveryShardIsMergedOnce() throws Exception {
+        List<Integer> merged = new ArrayList<>();
+        coordinate(3, worker -> {
+            assertEquals(3, worker.shards());
+            worker.run(() -> { }, out -> out.writeInt(worker.shard()));
+        }, in -> merged.add(in.readInt()));
+        // merged in shard order, whatever order the workers connected in
+        assertEquals(List.of(0, 1, 2), merged);
+        assertNull(ShardCoordinator.worker(new String[] {"--snapshot=x"}));
+    }
+
+    @Test
+    public void testFailingWorkerFailsTheQuery() {
+        RuntimeException e = assertThrows(RuntimeException.class, () -> coordinate(2, worker -> worker.run(() -> {
+            if (worker.shard() == 1) throw new IOException("no data for shard 1");
+        }, out -> out.writeInt(0)), in -> in.readInt()));
+        assertTrue(e.getMessage().startsWith("Worker for shard 1 failed: "), e.getMessage());
+        assertTrue(e.getMessage().contains("no data for shard 1"), e.getMessage());
+    }
+
+    @Test
+    public void testDisconnectedWorkerFailsTheQuery() {
+        // shard 0 sends only part of its partial before the connection closes
+        RuntimeException e = assertThrows(RuntimeException.class, () -> coordinate(2, worker -> worker.run(() -> { },
+            out -> out.writeShort(worker.shard())), in -> in.readInt()));
+        assertTrue(e.getMessage().contains("disconnected before sending its result"), e.getMessage());
+    }
+
+    @Test
+    public void testInvalidShardCounts() {
+        assertThrows(IllegalArgumentException.class,
+            () -> ShardCoordinator.coordinate("unused", 2, new String[] {"--shards=2", "--local-workers=3"}, in -> { }));
+        assertThrows(IllegalArgumentException.class,
+            () -> ShardCoordinator.coordinate("unused", 2, new String[] {"--shards=0"}, in -> { }));
+    }
+
+    @Test
+    public void testWorkerWithoutItsSnapshotFailsTheGeneratedQuery() throws Exception {
+        writeSnapshot(dir, sales(5_000, 9, 1.0, 7));
+        QueryGenerator generator = generator(
+            "select cust, sum(x.quant), count(y.prod) from sales group by cust ; x, y "
+            + "such that x.cust = cust, y.cust <> cust and y.quant > 50");
+        generator.setShards(2);
+        QueryCompiler.CompiledQuery compiled = QueryCompiler.compile(generator.generate());
+        RuntimeException e = assertThrows(RuntimeException.class,
+            () -> runSharded(dir, compiled, dir.toString(), dir.resolve("missing").toString()));
+        assertTrue(e.getMessage().contains("Worker for shard"), e.getMessage());
+    }
+}
@@ -0,0 +1,107 @@
+package edu.stevens.cs562;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static edu.stevens.cs562.QueryFixtures.*;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Statistics sampled from a generated snapshot larger than the sample.
+ */
+public class TableStatisticsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testSampledStatisticsAndGroupEstimate() throws Exception {
+        writeSnapshot(dir, sales(60_000, 50, 0, 17));
+
+        try (SnapshotRowSourceProvider provider = new SnapshotRowSourceProvider(dir)) {
+            TableStatistics stats = TableStatistics.get(provider, "sales");
+            assertSame(stats, TableStatistics.get(provider, "sales"));
+            assertEquals(60_000, stats.rowCount);
+            assertEquals(TableStatistics.SAMPLE_ROWS, stats.sample.size());
+            assertEquals(50, stats.column("cust").distinct);
+            assertEquals(12, stats.column("month").distinct);
+
+            PhiOperator phi = phi(
+                "select cust, month, sum(x.quant) from sales where year = 2017 group by cust, month ; x "
+                + "such that x.cust = cust and x.month = month");
+            assertEquals(0.2, stats.selectivity(phi.predicates.get(0), null), 0.03);
+            // 50 x 12 combinations, all present in the 12000 rows of 2017
+            long groups = stats.estimateGroups(List.of("cust", "month"), phi.predicates.get(0));
+            assertTrue(groups > 500 && groups <= 600, "estimated " + groups);
+            // about 8800 of the 50 x 365 (cust, date) pairs occur; most are seen once in
+            // the sample and scaled up, GEE is within sqrt(N/n) of the true count
+            long days = stats.estimateGroups(List.of("cust", "date"), phi.predicates.get(0));
+            assertTrue(days > 8_800 / Math.sqrt(5) && days <= 12_000, "estimated " + days);
+
+            // AND binds tighter than OR: all of 2016 and January 2017
+            PhiOperator or = phi(
+                "select month, count(x.quant) from sales where year = 2016 or year = 2017 and month = 1 group by month ; x "
+                + "such that x.month = month");
+            assertEquals(0.2 + 0.2 / 12 - 0.2 * 0.2 / 12, stats.selectivity(or.predicates.get(0), null), 0.03);
+            assertEquals(12, stats.estimateGroups(List.of("month"), or.predicates.get(0)));
+        } finally {
+            TableStatistics.invalidate();
+        }
+    }
+
+    @Test
+    public void testCatalogServesSchemaAndStatisticsOffline() throws Exception {
+        writeSnapshot(dir, sales(20_000, 30, 0, 17));
+        Path file = dir.resolve("catalog.properties");
+
+        int[] opened = {0};
+        SchemaCatalog.Source snapshots = () -> {
+            opened[0]++;
+            return new SnapshotRowSourceProvider(dir);
+        };
+        SchemaCatalog catalog = new SchemaCatalog(file, "test", snapshots, SchemaCatalog.DEFAULT_TTL_MILLIS);
+        TableSchema schema = catalog.schema("sales");
+        TableStatistics stats = catalog.statistics("sales");
+        assertSame(schema, catalog.schema("sales"));
+        assertEquals(2, opened[0]);
+
+        // a new catalog on the same file needs no source until the entries expire
+        SchemaCatalog.Source unreachable = () -> {
+            throw new java.io.IOException("database unreachable");
+        };
+        SchemaCatalog offline = new SchemaCatalog(file, "test", unreachable, SchemaCatalog.DEFAULT_TTL_MILLIS);
+        assertEquals(schema.columnTypes(), offline.schema("sales").columnTypes());
+        assertEquals(schema.ordinal("quant"), offline.schema("sales").ordinal("quant"));
+        TableStatistics cached = offline.statistics("sales");
+        assertEquals(stats.rowCount, cached.rowCount);
+        // cataloged ranges may be stale: HAVING is only pruned on ranges read now
+        PhiOperator phi = phi(
+            "select cust, sum(x.quant) from sales group by cust ; x such that x.cust = cust having sum(x.quant) > 100");
+        QueryGenerator generator = new QueryGenerator(phi, schema.columnTypes());
+        assertTrue(stats.exactRanges);
+        assertTrue(new CostPlanner(phi, generator, stats, true, 1L << 30, 1).plan().nonNegative.contains("quant"));
+        assertFalse(cached.exactRanges);
+        assertTrue(new CostPlanner(phi, generator, cached, true, 1L << 30, 1).plan().nonNegative.isEmpty());
+        for (TableStatistics.Column col : stats.columns.values()) {
+            assertEquals(col.distinct, cached.column(col.name).distinct);
+            assertEquals(col.max, cached.column(col.name).max);
+            assertArrayEquals(col.mostCommon, cached.column(col.name).mostCommon);
+        }
+
+        // expired: the stale entries are used while the source is unreachable
+        SchemaCatalog expired = new SchemaCatalog(file, "test", unreachable, 0);
+        assertEquals(schema.columnTypes(), expired.schema("sales").columnTypes());
+        assertThrows(RuntimeException.class, () -> expired.refresh("sales"));
+        assertEquals(stats.rowCount, expired.statistics("sales").rowCount);
+        assertThrows(RuntimeException.class, () -> offline.schema("other"));
+
+        // an expired schema read again unchanged keeps the cataloged statistics
+        SchemaCatalog reread = new SchemaCatalog(file, "test", snapshots, 0);
+        reread.schema("sales");
+        assertEquals(3, opened[0]);
+        SchemaCatalog later = new SchemaCatalog(file, "test", unreachable, SchemaCatalog.DEFAULT_TTL_MILLIS);
+        assertEquals(stats.rowCount, later.statistics("sales").rowCount);
+    }
+}